@@ -35,7 +35,16 @@ test.describe('Folder totals', () => {
       }
 
       const jsonData = JSON.parse(fs.readFileSync(report.jsonPath, 'utf8'));
-      const files: Array<{ path: string; counts: Record<string, number> }> = jsonData.files || [];
+      let files: Array<{ path: string; counts: Record<string, number> }> = jsonData.files || [];
+      if (jsonData.sources && jsonData.counts) {
+        // Split layout: paths live in the content-addressed sources table next to the JSON.
+        const sourcesPath = path.join(path.dirname(report.jsonPath), jsonData.sources.json);
+        const sources = JSON.parse(fs.readFileSync(sourcesPath, 'utf8'));
+        files = sources.files.map((source: { id: number; path: string }) => ({
+          path: source.path,
+          counts: jsonData.counts[String(source.id)] || {}
+        }));
+      }
 
       // Fallback to parent folder if Micronaut folder layout changes.
       let targetFolder = report.folderPath;
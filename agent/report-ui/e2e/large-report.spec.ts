@@ -0,0 +1,75 @@
+import { test, expect } from '@playwright/test';
+import path from 'path';
+
+const projectRoot = path.resolve(process.cwd(), '../../');
+const reportPath = path.join(projectRoot, 'integration-tests-spring/target/execution-report.html');
+
+const FILE_COUNT = 50000;
+const BIG_FILE_LINES = 5000;
+// Generous for slow CI machines; rendering every row took several seconds before windowing.
+const LOAD_BUDGET_MS = 3000;
+const SELECT_BUDGET_MS = 1000;
+// Rows in view plus the overscan on either side.
+const MAX_RENDERED_ROWS = 200;
+
+test.describe('Large report', () => {
+  test('renders only the visible rows of a 50k-file report', async ({ page }) => {
+    await page.addInitScript(() => localStorage.clear());
+    await page.goto(`file://${reportPath}`);
+    await page.waitForSelector('#app');
+
+    // The payload is built in the page; sending 50k files over the protocol would dominate.
+    const loadMs = await page.evaluate(
+      async ({ fileCount, bigFileLines }) => {
+        const files = [];
+        const small = Array.from({ length: 30 }, (_, i) => `    int field${i} = ${i};`).join('\n');
+        const big = Array.from({ length: bigFileLines }, (_, i) =>
+          i % 50 === 0 ? `    /* block ${i}\n       continues */` : `    call(${i}); // line`
+        ).join('\n');
+        files.push({ path: 'aaa/Big.java', project: 'perf', content: big, counts: { '1': 7, [String(bigFileLines)]: 9 } });
+        for (let i = 1; i < fileCount; i++) {
+          files.push({
+            // Padded, so the last file in the data is also the last one in the tree.
+            path: `pkg${String(Math.floor(i / 100)).padStart(3, '0')}/sub/Class${String(i).padStart(5, '0')}.java`,
+            project: 'perf',
+            content: small,
+            counts: { '3': i }
+          });
+        }
+        const start = performance.now();
+        const generatedAt = Date.now() + 10000;
+        window.loadExecutionData?.({ generatedAt, files }, generatedAt);
+        await new Promise((resolve) => requestAnimationFrame(() => requestAnimationFrame(resolve)));
+        return performance.now() - start;
+      },
+      { fileCount: FILE_COUNT, bigFileLines: BIG_FILE_LINES }
+    );
+
+    expect(loadMs).toBeLessThan(LOAD_BUDGET_MS);
+    await expect(page.locator('.badge')).toHaveText(String(FILE_COUNT));
+    expect(await page.locator('.tree-item').count()).toBeLessThan(MAX_RENDERED_ROWS);
+
+    const selectStart = Date.now();
+    await page.getByTestId('tree-file').filter({ hasText: 'Big.java' }).click();
+    await expect(page.getByTestId('gutter-count').first()).toHaveText('7');
+    expect(Date.now() - selectStart).toBeLessThan(SELECT_BUDGET_MS);
+    expect(await page.locator('.line-row').count()).toBeLessThan(MAX_RENDERED_ROWS);
+    expect(await page.locator('.code-line').count()).toBeLessThan(MAX_RENDERED_ROWS);
+
+    // Scrolling to the end renders the last rows, highlighted as code rather than as a comment.
+    await page.locator('.code-scroller').evaluate((el) => {
+      el.style.scrollBehavior = 'auto';
+      el.scrollTop = el.scrollHeight;
+    });
+    const lastLine = page.locator('.line-row').filter({ hasText: String(BIG_FILE_LINES + BIG_FILE_LINES / 50) });
+    await expect(lastLine).toBeVisible();
+    await expect(page.locator('.code-line').last().locator('.token.comment')).toHaveText('// line');
+
+    await page.getByTestId('file-tree').evaluate((el) => {
+      el.scrollTop = el.scrollHeight;
+    });
+    await expect(
+      page.getByTestId('tree-file').filter({ hasText: `Class${FILE_COUNT - 1}.java` })
+    ).toBeVisible();
+  });
+});
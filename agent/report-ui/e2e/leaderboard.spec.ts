@@ -0,0 +1,60 @@
+import { test, expect, type Page } from '@playwright/test';
+import path from 'path';
+
+const projectRoot = path.resolve(process.cwd(), '../../');
+const reportPath = path.join(projectRoot, 'integration-tests-spring/target/execution-report.html');
+
+const SOURCE = [
+  'package demo;',
+  'public class Hot {',
+  '  public void warm() {',
+  '    step();',
+  '  }',
+  '  public int burn(int n) {',
+  '    return n * 2;',
+  '  }',
+  '}'
+].join('\n');
+
+const load = async (page: Page, counts: Record<string, number>, generatedAt: number) => {
+  await page.evaluate(
+    ({ content, counts, generatedAt }) => {
+      const files = [{ path: 'demo/Hot.java', project: 'leaders', content, counts }];
+      window.loadExecutionData?.({ generatedAt, files }, generatedAt);
+    },
+    { content: SOURCE, counts, generatedAt }
+  );
+};
+
+test.describe('Leaderboard', () => {
+  test('ranks hot lines and methods and jumps to the line', async ({ page }) => {
+    await page.addInitScript(() => localStorage.clear());
+    await page.goto(`file://${reportPath}`);
+    await page.waitForSelector('#app');
+
+    const start = Date.now() + 10000;
+    await load(page, { '4': 500000, '7': 10 }, start);
+    await page.getByTestId('leaderboard-toggle').click();
+    const rows = page.getByTestId('leaderboard').getByTestId('leaderboard-row');
+    await expect(rows.filter({ hasText: 'demo/Hot.java:4' })).toBeVisible();
+
+    // The next payload two seconds later: line 7 rises by 1000, 500 per second.
+    await load(page, { '4': 500000, '7': 1010 }, start + 2000);
+    const burning = rows.filter({ hasText: 'demo/Hot.java:7' });
+    await expect(burning).toContainText('+1010');
+    await expect(burning).toContainText('505');
+
+    await page.getByTestId('sort-delta').click();
+    await expect(rows.first()).toContainText('demo/Hot.java:7');
+
+    await page.getByTestId('leaderboard-methods').click();
+    await expect(rows.filter({ hasText: 'burn · demo/Hot.java:6' })).toBeVisible();
+    await expect(rows.filter({ hasText: 'warm · demo/Hot.java:3' })).toBeVisible();
+
+    await page.getByTestId('leaderboard-lines').click();
+    await rows.first().click();
+    await expect(page.getByTestId('leaderboard')).toHaveCount(0);
+    await expect(page.locator('.line-row.target .ln')).toHaveText('7');
+    await expect(page.locator('.code-line.target')).toContainText('return n * 2;');
+  });
+});
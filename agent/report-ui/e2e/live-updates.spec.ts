@@ -18,6 +18,7 @@ const openReport = async (page: Page, reportPath: string) => {
   await page.addInitScript(() => localStorage.clear());
   await page.goto(`file://${reportPath}`);
   await page.waitForSelector('#app');
+  await page.waitForFunction(() => (window.getReportFiles?.() || []).length > 0);
 };
 
 const expandAllFolders = async (page: Page) => {
@@ -30,11 +31,7 @@ const expandAllFolders = async (page: Page) => {
 
 const pickTarget = async (page: Page) => {
   const target = await page.evaluate(() => {
-    const payload = window.REPORT_DATA;
-    const normalized = Array.isArray(payload)
-      ? { generatedAt: 0, files: payload }
-      : payload;
-    const files = normalized?.files || [];
+    const files = window.getReportFiles?.() || [];
     for (const file of files) {
       const lineCount = String(file.content || '').split(/\r?\n/).length;
       const entries = Object.entries(file.counts || {}).filter(
@@ -58,11 +55,7 @@ const pickTarget = async (page: Page) => {
 const bumpCount = async (page: Page, target: { path: string; line: number }, increment = 5) => {
   await page.evaluate(
     ({ path, line, increment }) => {
-      const payload = window.REPORT_DATA;
-      const normalized = Array.isArray(payload)
-        ? { generatedAt: 0, files: payload }
-        : payload;
-      const files = normalized?.files || [];
+      const files = window.getReportFiles?.() || [];
       const updated = files.map((file) => {
         if (file.path !== path) return file;
         const counts = { ...file.counts };
@@ -114,11 +107,7 @@ for (const report of reports) {
       await openReport(page, report.path);
 
       await page.evaluate(() => {
-        const payload = window.REPORT_DATA;
-        const normalized = Array.isArray(payload)
-          ? { generatedAt: 0, files: payload }
-          : payload;
-        const files = normalized?.files || [];
+        const files = window.getReportFiles?.() || [];
         const generatedAt = Date.now() - 7000;
         window.loadExecutionData?.({ generatedAt, files }, generatedAt);
       });
@@ -128,11 +117,7 @@ for (const report of reports) {
       await expect(liveStatus).toHaveAttribute('title', 'Stale', { timeout: 4000 });
 
       await page.evaluate(() => {
-        const payload = window.REPORT_DATA;
-        const normalized = Array.isArray(payload)
-          ? { generatedAt: 0, files: payload }
-          : payload;
-        const files = normalized?.files || [];
+        const files = window.getReportFiles?.() || [];
         const generatedAt = Date.now();
         window.loadExecutionData?.({ generatedAt, files }, generatedAt);
       });
@@ -0,0 +1,255 @@
+// Project-wide ranking of the hottest lines and methods, kept up to date by the payload differ.
+// Every file keeps its own top lines and methods, recomputed only when its counts change. The
+// project-wide lists are merged from those with bounded heaps, so a patch costs the lines that
+// changed plus one pass over the files with counts, however many lines the project has.
+
+export const LEADERBOARD_SIZE = 100;
+
+export interface LeaderRow {
+  key: string;
+  path: string;
+  project?: string;
+  // For a method, the line declaring it.
+  line: number;
+  method?: string;
+  count: number;
+  // Increase since the previous payload, and that increase per second.
+  delta: number;
+  rate: number;
+}
+
+export interface Leaderboard {
+  generatedAt: number;
+  // The top lines by count and the top lines by delta, so any column sorts correctly.
+  lines: LeaderRow[];
+  methods: LeaderRow[];
+}
+
+export interface LeaderboardChange {
+  key: string;
+  path: string;
+  project?: string;
+  counts: Record<string, number>;
+  previous?: Record<string, number>;
+}
+
+interface Ranked {
+  line: number;
+  method?: string;
+  score: number;
+}
+
+interface FileRanking {
+  key: string;
+  path: string;
+  project?: string;
+  lines: Ranked[];
+  methods: Ranked[];
+}
+
+interface MethodStart {
+  line: number;
+  name: string;
+}
+
+// Keeps the `size` items with the highest scores seen.
+class TopK<T> {
+  private readonly heap: { score: number; item: T }[] = [];
+
+  constructor(private readonly size: number) {}
+
+  accepts(score: number) {
+    return this.heap.length < this.size || score > this.heap[0].score;
+  }
+
+  offer(score: number, item: T) {
+    if (!this.accepts(score)) return;
+    const heap = this.heap;
+    let i: number;
+    if (heap.length < this.size) {
+      heap.push({ score, item });
+      i = heap.length - 1;
+      while (i > 0) {
+        const parent = (i - 1) >> 1;
+        if (heap[parent].score <= heap[i].score) break;
+        [heap[parent], heap[i]] = [heap[i], heap[parent]];
+        i = parent;
+      }
+      return;
+    }
+    heap[0] = { score, item };
+    i = 0;
+    for (;;) {
+      const left = 2 * i + 1;
+      const right = left + 1;
+      let smallest = i;
+      if (left < heap.length && heap[left].score < heap[smallest].score) smallest = left;
+      if (right < heap.length && heap[right].score < heap[smallest].score) smallest = right;
+      if (smallest === i) break;
+      [heap[smallest], heap[i]] = [heap[i], heap[smallest]];
+      i = smallest;
+    }
+  }
+
+  sorted(): T[] {
+    return [...this.heap].sort((a, b) => b.score - a.score).map((entry) => entry.item);
+  }
+}
+
+// The report carries no method table, so methods are found in the source text: a Kotlin `fun`, or
+// a line with a type or modifiers before `name(` that does not end a statement. Lines before the
+// first declaration count towards the class body.
+const KOTLIN_FUNCTION = /\bfun\s+(?:<[^>]*>\s*)?(?:[\w$.]+\.)?([A-Za-z_$][\w$]*)\s*\(/;
+const DECLARATION = /^\s*((?:[\w$@.<>[\],?]+\s+)+)([A-Za-z_$][\w$]*)\s*\([^;]*$/;
+const NOT_DECLARATIONS = new Set([
+  'if', 'for', 'while', 'switch', 'catch', 'synchronized', 'return', 'new', 'throw', 'else',
+  'try', 'do', 'assert', 'case', 'yield', 'await'
+]);
+const CLASS_BODY = '(class body)';
+
+export const methodStarts = (content: string): MethodStart[] => {
+  const starts: MethodStart[] = [];
+  content.split(/\r?\n/).forEach((text, i) => {
+    const kotlin = KOTLIN_FUNCTION.exec(text);
+    if (kotlin) {
+      starts.push({ line: i + 1, name: kotlin[1] });
+      return;
+    }
+    const declaration = DECLARATION.exec(text);
+    if (!declaration || NOT_DECLARATIONS.has(declaration[2])) return;
+    if (declaration[1].split(/\s+/).some((word) => NOT_DECLARATIONS.has(word))) return;
+    starts.push({ line: i + 1, name: declaration[2] });
+  });
+  return starts;
+};
+
+const methodAt = (starts: MethodStart[], line: number): MethodStart | null => {
+  let low = 0;
+  let high = starts.length - 1;
+  let found: MethodStart | null = null;
+  while (low <= high) {
+    const mid = (low + high) >> 1;
+    if (starts[mid].line <= line) {
+      found = starts[mid];
+      low = mid + 1;
+    } else {
+      high = mid - 1;
+    }
+  }
+  return found;
+};
+
+export class LeaderboardState {
+  private readonly files = new Map<string, FileRanking>();
+  private readonly methods = new Map<string, { content: string; starts: MethodStart[] }>();
+  private lastGeneratedAt = 0;
+
+  constructor(private readonly content: (key: string) => string | undefined) {}
+
+  update(changes: LeaderboardChange[], removed: string[], generatedAt: number): Leaderboard {
+    // The first payload has nothing to compare with, so it shows no deltas.
+    const first = this.lastGeneratedAt === 0;
+    const seconds = first ? 0 : (generatedAt - this.lastGeneratedAt) / 1000;
+    if (generatedAt > 0) this.lastGeneratedAt = generatedAt;
+    removed.forEach((key) => this.files.delete(key));
+
+    const lineDeltas = new TopK<LeaderRow>(LEADERBOARD_SIZE);
+    const methodDeltas = new TopK<LeaderRow>(LEADERBOARD_SIZE);
+    const deltas = new Map<string, Map<string, number>>();
+    const rate = (delta: number) => (seconds > 0 ? delta / seconds : 0);
+
+    for (const change of changes) {
+      const starts = this.methodStarts(change.key);
+      const lines = new TopK<Ranked>(LEADERBOARD_SIZE);
+      const methodTotals = new Map<number, number>();
+      const methodChanges = new Map<number, number>();
+      const fileDeltas = new Map<string, number>();
+      for (const line in change.counts) {
+        const count = change.counts[line];
+        if (count <= 0) continue;
+        const number = Number(line);
+        lines.offer(count, { line: number, score: count });
+        const method = methodAt(starts, number);
+        const methodLine = method ? method.line : 0;
+        methodTotals.set(methodLine, (methodTotals.get(methodLine) || 0) + count);
+        const delta = first ? 0 : count - (change.previous?.[line] || 0);
+        if (delta > 0) {
+          fileDeltas.set(line, delta);
+          methodChanges.set(methodLine, (methodChanges.get(methodLine) || 0) + delta);
+          lineDeltas.offer(delta, this.row(change, number, undefined, count, delta, rate(delta)));
+        }
+      }
+      const methods = new TopK<Ranked>(LEADERBOARD_SIZE);
+      methodTotals.forEach((count, line) => {
+        const name = line === 0 ? CLASS_BODY : methodAt(starts, line)?.name;
+        methods.offer(count, { line: Math.max(line, 1), method: name, score: count });
+        const delta = methodChanges.get(line) || 0;
+        if (delta > 0) {
+          methodDeltas.offer(delta, this.row(change, Math.max(line, 1), name, count, delta, rate(delta)));
+        }
+        fileDeltas.set('m' + line, delta);
+      });
+      deltas.set(change.key, fileDeltas);
+
+      const ranked = lines.sorted();
+      if (ranked.length === 0) {
+        this.files.delete(change.key);
+      } else {
+        this.files.set(change.key, {
+          key: change.key,
+          path: change.path,
+          project: change.project,
+          lines: ranked,
+          methods: methods.sorted()
+        });
+      }
+    }
+
+    const deltaOf = (key: string, id: string) => deltas.get(key)?.get(id) || 0;
+    const topLines = new TopK<LeaderRow>(LEADERBOARD_SIZE);
+    const topMethods = new TopK<LeaderRow>(LEADERBOARD_SIZE);
+    this.files.forEach((file) => {
+      for (const entry of file.lines) {
+        if (!topLines.accepts(entry.score)) break;
+        const delta = deltaOf(file.key, String(entry.line));
+        topLines.offer(entry.score, this.row(file, entry.line, undefined, entry.score, delta, rate(delta)));
+      }
+      for (const entry of file.methods) {
+        if (!topMethods.accepts(entry.score)) break;
+        const delta = deltaOf(file.key, 'm' + (entry.method === CLASS_BODY ? 0 : entry.line));
+        topMethods.offer(entry.score, this.row(file, entry.line, entry.method, entry.score, delta, rate(delta)));
+      }
+    });
+
+    return {
+      generatedAt,
+      lines: merge(topLines.sorted(), lineDeltas.sorted()),
+      methods: merge(topMethods.sorted(), methodDeltas.sorted())
+    };
+  }
+
+  private methodStarts(key: string): MethodStart[] {
+    const content = this.content(key) || '';
+    const cached = this.methods.get(key);
+    if (cached && cached.content === content) return cached.starts;
+    const starts = methodStarts(content);
+    this.methods.set(key, { content, starts });
+    return starts;
+  }
+
+  private row(
+    file: { key: string; path: string; project?: string },
+    line: number,
+    method: string | undefined,
+    count: number,
+    delta: number,
+    rate: number
+  ): LeaderRow {
+    return { key: file.key, path: file.path, project: file.project, line, method, count, delta, rate };
+  }
+}
+
+const merge = (byCount: LeaderRow[], byDelta: LeaderRow[]) => {
+  const seen = new Set(byCount.map((row) => `${row.key}:${row.line}`));
+  return byCount.concat(byDelta.filter((row) => !seen.has(`${row.key}:${row.line}`)));
+};
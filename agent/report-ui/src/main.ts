@@ -1,20 +1,50 @@
-import { createApp, defineComponent, ref, computed, nextTick, onMounted, onUnmounted, reactive } from 'vue';
+import {
+  createApp,
+  defineComponent,
+  ref,
+  shallowRef,
+  computed,
+  nextTick,
+  onMounted,
+  onUnmounted,
+  reactive,
+  shallowReactive
+} from 'vue';
 import Prism from 'prismjs';
 import 'prismjs/components/prism-clike';
 import 'prismjs/components/prism-java';
+import 'prismjs/components/prism-kotlin';
+import 'prismjs/components/prism-groovy';
 import { driver } from "driver.js";
 import "driver.js/dist/driver.css";
-
-interface FileData {
+import { decodeSnapshot, isSnapshot } from './snapshot';
+import {
+  PayloadDiffer,
+  fileKey,
+  isCountsPayload,
+  projectOf,
+  type AnyPayload,
+  type CountsPayload,
+  type DifferRequest,
+  type DifferResponse,
+  type FileData,
+  type PayloadPatch,
+  type ReportPayload,
+  type SourcesRef
+} from './payload-diff';
+import { LEADERBOARD_SIZE, LeaderboardState, type Leaderboard, type LeaderRow } from './leaderboard';
+import PayloadWorker from './payload-worker?worker&inline';
+
+interface SourceEntry {
+  id: number;
   path: string;
-  counts: Record<string, number>;
-  content: string;
   project?: string;
+  content: string;
 }
 
-interface ReportPayload {
-  generatedAt: number;
-  files: FileData[];
+interface SourcesPayload {
+  id: string;
+  files: SourceEntry[];
 }
 
 interface TreeNode {
@@ -22,8 +52,9 @@ interface TreeNode {
   path: string;
   depth: number;
   children: TreeNode[] | null;
-  lines: string[];
+  content: string;
   counts: Record<string, number>;
+  samples?: Record<string, number>;
   totalCount: number;
   formattedTotal: string;
   flash: boolean;
@@ -33,32 +64,111 @@ interface TreeNode {
 
 declare global {
   interface Window {
-    REPORT_DATA?: ReportPayload | FileData[];
+    REPORT_DATA?: AnyPayload;
     REPORT_GENERATED_AT?: number;
     REPORT_JSON?: string;
     REPORT_JSONP?: string;
+    REPORT_EVENTS?: string;
+    REPORT_HISTORY?: string;
     loadExecutionData?: (data?: unknown, generatedAt?: number) => void;
+    loadExecutionSources?: (data?: unknown) => void;
+    getReportFiles?: () => FileData[];
   }
 }
 
-const normalizePayload = (payload: ReportPayload | FileData[] | undefined): ReportPayload => {
+let loadedSources: SourcesPayload | null = null;
+const sourcesRequests = new Map<string, Promise<boolean>>();
+
+const hasSourcesFor = (payload: CountsPayload) =>
+  !!loadedSources && !!payload.sources && loadedSources.id === payload.sources.id;
+
+const joinSources = (payload: CountsPayload, sources: SourcesPayload): FileData[] =>
+  sources.files.map((source) => ({
+    path: source.path,
+    project: source.project,
+    content: source.content,
+    counts: payload.counts[String(source.id)] || {}
+  }));
+
+const normalizePayload = (payload: AnyPayload | undefined): ReportPayload => {
   if (!payload) {
     return { generatedAt: 0, files: [] };
   }
   if (Array.isArray(payload)) {
     return { generatedAt: 0, files: payload };
   }
+  if (isCountsPayload(payload)) {
+    if (loadedSources && hasSourcesFor(payload)) {
+      return { generatedAt: payload.generatedAt || 0, files: joinSources(payload, loadedSources) };
+    }
+    // Sources not loaded yet; the caller requests them and retries.
+    return { generatedAt: 0, files: [] };
+  }
   if (Array.isArray(payload.files)) {
-    return { generatedAt: payload.generatedAt || 0, files: payload.files };
+    return {
+      generatedAt: payload.generatedAt || 0,
+      files: payload.files,
+      baseline: payload.baseline
+    };
   }
   return { generatedAt: 0, files: [] };
 };
 
+window.loadExecutionSources = (data?: unknown) => {
+  const sources = data as SourcesPayload | undefined;
+  if (sources && typeof sources.id === 'string' && Array.isArray(sources.files)) {
+    loadedSources = sources;
+  }
+};
+
+// The sources table is content-addressed, so its URL never needs a cache-buster.
+const loadSourcesScript = (ref: SourcesRef) =>
+  new Promise<boolean>((resolve) => {
+    const script = document.createElement('script');
+    let resolved = false;
+    const finish = (ok: boolean) => {
+      if (resolved) return;
+      resolved = true;
+      script.remove();
+      resolve(ok);
+    };
+    script.onload = () => finish(loadedSources?.id === ref.id);
+    script.onerror = () => finish(false);
+    setTimeout(() => finish(loadedSources?.id === ref.id), 10000);
+    script.src = ref.jsonp;
+    document.head.appendChild(script);
+  });
+
+const fetchSources = async (ref: SourcesRef) => {
+  try {
+    const res = await fetch(ref.json);
+    if (!res.ok) return false;
+    window.loadExecutionSources?.(await res.json());
+    return loadedSources?.id === ref.id;
+  } catch (error) {
+    return false;
+  }
+};
+
+const requestSources = (ref: SourcesRef): Promise<boolean> => {
+  if (loadedSources?.id === ref.id) return Promise.resolve(true);
+  const pending = sourcesRequests.get(ref.id);
+  if (pending) return pending;
+  const request = (
+    window.location.protocol === 'file:'
+      ? loadSourcesScript(ref)
+      : fetchSources(ref).then((ok) => ok || loadSourcesScript(ref))
+  ).finally(() => sourcesRequests.delete(ref.id));
+  sourcesRequests.set(ref.id, request);
+  return request;
+};
+
 const initialPayload = normalizePayload(window.REPORT_DATA);
 const jsonFile = window.REPORT_JSON || 'execution-report.json';
 const jsonpFile = window.REPORT_JSONP || 'execution-report.js';
 const POLL_INTERVAL = 2000;
 const OFFLINE_TIMEOUT = Math.max(6000, POLL_INTERVAL * 3);
+const HISTORY_POLL_INTERVAL = 5000;
 const FLASH_FADE_MS = Math.min(5000, Math.max(2000, POLL_INTERVAL - 500));
 const pageLoadedAt = Date.now();
 let lastUpdate =
@@ -74,6 +184,12 @@ const formatBigCount = (count: number) => new Intl.NumberFormat().format(count);
 
 const lastTotals = new Map<string, number>();
 
+const largestFileTotal = (files: FileData[]) =>
+  files.reduce(
+    (max, file) => Math.max(max, Object.values(file.counts).reduce((a, b) => a + b, 0)),
+    0
+  );
+
 // Shared State for Diff Mode
 const diffState = {
   active: ref(false),
@@ -87,44 +203,63 @@ const ICONS = {
   PROJECT: `<svg width="16" height="16" viewBox="0 0 16 16" fill="none" xmlns="http://www.w3.org/2000/svg"><rect x="2" y="2" width="12" height="12" rx="1" fill="#62B543"/><path d="M5 5H11V11H5V5Z" fill="white" fill-opacity="0.3"/><text x="5" y="11" fill="white" font-family="Arial" font-size="8" font-weight="bold">P</text></svg>`
 };
 
+const flashNode = (node: TreeNode) => {
+  node.flash = true;
+  setTimeout(() => (node.flash = false), FLASH_FADE_MS);
+};
+
+// Nodes of a built tree by path and by file key, for applying patches in place.
+interface TreeIndex {
+  nodesByPath: Map<string, TreeNode>;
+  filesByKey: Map<string, TreeNode>;
+}
+
+const treeIndexes = new WeakMap<TreeNode[], TreeIndex>();
+
 const buildTree = (files: FileData[]): TreeNode[] => {
   const root: TreeNode[] = [];
-  const sortedFiles = [...files].sort((a, b) => {
-    const projectA = (a.project || 'unknown').toLowerCase();
-    const projectB = (b.project || 'unknown').toLowerCase();
-    const projectCompare = projectA.localeCompare(projectB);
-    if (projectCompare !== 0) return projectCompare;
-    return a.path.toLowerCase().localeCompare(b.path.toLowerCase());
-  });
+  // Nodes by path, so finding a folder does not scan its siblings; paths are unique until flattened.
+  const nodesByPath = new Map<string, TreeNode>();
+  const filesByKey = new Map<string, TreeNode>();
+  const sortedFiles = files
+    .map((file) => ({
+      file,
+      project: (file.project || 'unknown').toLowerCase(),
+      path: file.path.toLowerCase()
+    }))
+    .sort((a, b) => a.project.localeCompare(b.project) || a.path.localeCompare(b.path))
+    .map((entry) => entry.file);
 
   sortedFiles.forEach((file) => {
-    const project = (file.project || 'unknown').trim() || 'unknown';
+    const project = projectOf(file);
     const parts = file.path.split('/');
     const segments = [project, ...parts];
     let currentLevel = root;
     let currentPath = '';
 
     const fileSum = Object.values(file.counts).reduce((a, b) => a + b, 0);
-    const key = `${project}::${file.path}`;
+    const key = fileKey(file);
     const oldFileTotal = lastTotals.get(key) || 0;
     const hasNewHits = fileSum > oldFileTotal;
 
     segments.forEach((segment, index) => {
       currentPath += (currentPath ? '/' : '') + segment;
-      let node = currentLevel.find((n) => n.name === segment && n.depth === index);
+      let node = nodesByPath.get(currentPath);
       if (!node) {
-        node = reactive({
+        // Shallow: patches replace `counts` and `samples` whole, so their contents need no proxies.
+        node = shallowReactive({
           name: segment,
           path: currentPath,
           depth: index,
           children: [],
-          lines: [],
+          content: '',
           counts: {},
           totalCount: 0,
           formattedTotal: '',
           flash: false
         }) as TreeNode;
         currentLevel.push(node);
+        nodesByPath.set(currentPath, node);
       }
 
       node.totalCount += fileSum;
@@ -134,12 +269,13 @@ const buildTree = (files: FileData[]): TreeNode[] => {
         node.children = null;
         node.filePath = file.path;
         node.project = file.project;
-        node.lines = file.content.split(/\r?\n/);
+        node.content = file.content;
         node.counts = file.counts;
+        node.samples = file.samples;
         lastTotals.set(key, fileSum);
+        filesByKey.set(key, node);
         if (hasNewHits && oldFileTotal > 0) {
-          node.flash = true;
-          setTimeout(() => (node.flash = false), FLASH_FADE_MS);
+          flashNode(node);
         }
       } else if (node.children) {
         node.project = project;
@@ -166,52 +302,48 @@ const buildTree = (files: FileData[]): TreeNode[] => {
   };
 
   flatten(root);
+
+  // Merged folders took the path of their deepest part; index the paths as they are now.
+  nodesByPath.clear();
+  const index = (nodes: TreeNode[]) =>
+    nodes.forEach((node) => {
+      nodesByPath.set(node.path, node);
+      if (node.children) index(node.children);
+    });
+  index(root);
+  treeIndexes.set(root, { nodesByPath, filesByKey });
   return root;
 };
 
-const updateTreeData = (nodes: TreeNode[], newFiles: FileData[]) => {
-  const fileMap = new Map(
-    newFiles.map((f) => {
-      const project = (f.project || 'unknown').trim() || 'unknown';
-      return [`${project}::${f.path}`, f];
-    })
-  );
-
-  const traverse = (nodeList: TreeNode[]): number => {
-    let total = 0;
-    for (const node of nodeList) {
-      const oldTotal = node.totalCount || 0;
-      if (node.children) {
-        // Folder: aggregate from children
-        const folderSum = traverse(node.children);
-        node.totalCount = folderSum;
-        node.formattedTotal = formatCount(folderSum);
-        total += folderSum;
-      } else {
-        // Leaf (File): update from incoming data
-        const project = node.project || 'unknown';
-        const lookupPath = node.filePath || node.path;
-        const key = lookupPath ? `${project}::${lookupPath}` : undefined;
-        const newData = key ? fileMap.get(key) : undefined;
-        
-        if (newData) {
-          const newSum = Object.values(newData.counts).reduce((a, b) => a + b, 0);
-          
-          node.counts = newData.counts;
-          node.totalCount = newSum;
-          node.formattedTotal = formatCount(newSum);
-          
-          if (newSum > oldTotal && oldTotal > 0) {
-            node.flash = true;
-            setTimeout(() => (node.flash = false), FLASH_FADE_MS);
-          }
-        }
-        total += node.totalCount;
-      }
+// Applies a patch to the nodes it touches, leaving the rest of the tree alone. Returns false,
+// without changing anything, when files appear, disappear, or cross between hidden and shown;
+// the tree then has to be rebuilt.
+const patchTree = (tree: TreeNode[], patch: PayloadPatch, showAll: boolean): boolean => {
+  const treeIndex = treeIndexes.get(tree);
+  if (!treeIndex || patch.removed.length > 0) return false;
+  for (const file of patch.files) {
+    const shown = showAll || file.total > 0;
+    if (shown !== treeIndex.filesByKey.has(file.key)) return false;
+  }
+  for (const file of patch.files) {
+    const node = treeIndex.filesByKey.get(file.key);
+    if (!node) continue;
+    const oldTotal = node.totalCount;
+    node.counts = file.counts;
+    node.samples = file.samples;
+    node.totalCount = file.total;
+    node.formattedTotal = formatCount(file.total);
+    lastTotals.set(file.key, file.total);
+    if (file.total > oldTotal && oldTotal > 0) flashNode(node);
+  }
+  for (const [path, total] of patch.folders) {
+    const node = treeIndex.nodesByPath.get(path);
+    if (node && node.children) {
+      node.totalCount = total;
+      node.formattedTotal = formatCount(total);
     }
-    return total;
-  };
-  traverse(nodes);
+  }
+  return true;
 };
 
 const calculateHeatmapColor = (count: number, max: number) => {
@@ -223,6 +355,122 @@ const calculateHeatmapColor = (count: number, max: number) => {
   return `hsla(${hue}, 85%, 45%, 0.85)`;
 };
 
+// Kotlin and Groovy sources reach the report through the SMAP the compiler writes.
+const languageOf = (path: string | undefined): string => {
+  if (path?.endsWith('.kt') || path?.endsWith('.kts')) return 'kotlin';
+  if (path?.endsWith('.groovy')) return 'groovy';
+  return 'java';
+};
+
+// The tree and the code view only create DOM nodes for the rows in view. Both use fixed row
+// heights, which must match `.tree-item` and `.line-row` in the template.
+const TREE_ROW_HEIGHT = 22;
+const CODE_LINE_HEIGHT = 20;
+// Rendered beyond each edge of the viewport, so fast scrolling does not show blank rows.
+const OVERSCAN_ROWS = 20;
+const HIGHLIGHT_CHUNK_LINES = 200;
+
+interface RowWindow {
+  start: number;
+  end: number;
+}
+
+const rowWindow = (scrollTop: number, height: number, rowHeight: number, count: number): RowWindow => {
+  const first = Math.floor(scrollTop / rowHeight);
+  const visible = Math.ceil(height / rowHeight) + 1;
+  return {
+    start: Math.max(0, Math.min(count, first) - OVERSCAN_ROWS),
+    end: Math.min(count, first + visible + OVERSCAN_ROWS)
+  };
+};
+
+type PrismStream = string | PrismToken | PrismStream[];
+
+interface PrismToken {
+  type: string;
+  content: PrismStream;
+  alias?: string | string[];
+}
+
+const escapeHtml = (text: string) =>
+  text.replace(/&/g, '&amp;').replace(/</g, '&lt;').replace(/>/g, '&gt;');
+
+// Prism's own HTML nests spans that may run across line breaks. Each rendered line has to stand
+// on its own, so the classes of nested tokens are flattened onto one span per fragment.
+const appendTokens = (stream: PrismStream, classes: string, lines: string[]) => {
+  if (typeof stream === 'string') {
+    stream.split('\n').forEach((part, i) => {
+      if (i > 0) lines.push('');
+      if (!part) return;
+      const html = escapeHtml(part);
+      lines[lines.length - 1] += classes ? `<span class="${classes}">${html}</span>` : html;
+    });
+  } else if (Array.isArray(stream)) {
+    stream.forEach((token) => appendTokens(token, classes, lines));
+  } else {
+    const alias = stream.alias ? ' ' + ([] as string[]).concat(stream.alias).join(' ') : '';
+    appendTokens(stream.content, `${classes ? classes + ' ' : ''}token ${stream.type}${alias}`, lines);
+  }
+};
+
+// Prism keeps no state between calls, so a chunk that starts inside a block comment or text
+// block would be highlighted as code. For each chunk this returns the line tokenizing has to
+// start from: the chunk's first line, or the line that opened the construct still open there.
+const chunkStartLines = (lines: string[]): number[] => {
+  const starts: number[] = [];
+  let openedAt = -1;
+  let closer = '';
+  for (let i = 0; i < lines.length; i++) {
+    if (i % HIGHLIGHT_CHUNK_LINES === 0) starts.push(openedAt < 0 ? i : openedAt);
+    const line = lines[i];
+    let j = 0;
+    while (j < line.length) {
+      if (openedAt >= 0) {
+        const end = line.indexOf(closer, j);
+        if (end < 0) break;
+        j = end + closer.length;
+        openedAt = -1;
+      } else if (line.startsWith('//', j)) {
+        break;
+      } else if (line.startsWith('/*', j) || line.startsWith('"""', j)) {
+        openedAt = i;
+        closer = line[j] === '/' ? '*/' : '"""';
+        j += closer.length;
+      } else if (line[j] === '"' || line[j] === "'") {
+        const quote = line[j++];
+        while (j < line.length && line[j] !== quote) j += line[j] === '\\' ? 2 : 1;
+        j++;
+      } else {
+        j++;
+      }
+    }
+  }
+  return starts;
+};
+
+// Returns the highlighted HTML of a line by index. Lines are tokenized a chunk at a time on first
+// use, so opening a large file only highlights what is on screen.
+const createHighlighter = (lines: string[], language: string) => {
+  const grammar = Prism.languages[language] || Prism.languages.java;
+  const chunks = new Map<number, string[]>();
+  let starts: number[] | null = null;
+  return (index: number): string => {
+    const chunk = Math.floor(index / HIGHLIGHT_CHUNK_LINES);
+    let html = chunks.get(chunk);
+    if (!html) {
+      starts = starts || chunkStartLines(lines);
+      const first = chunk * HIGHLIGHT_CHUNK_LINES;
+      const from = starts[chunk] ?? first;
+      const to = Math.min(lines.length, first + HIGHLIGHT_CHUNK_LINES);
+      const out = [''];
+      appendTokens(Prism.tokenize(lines.slice(from, to).join('\n'), grammar), '', out);
+      html = out.slice(first - from);
+      chunks.set(chunk, html);
+    }
+    return html[index % HIGHLIGHT_CHUNK_LINES] || '';
+  };
+};
+
 const setPrismTheme = (dark: boolean) => {
   const link = document.getElementById('prism-css') as HTMLLinkElement | null;
   if (!link) return;
@@ -270,10 +518,19 @@ const saveCollapsedFolders = () => {
   }
 };
 
+interface TreeRow {
+  node: TreeNode;
+  // Number of open folders above the node, which sets its indentation.
+  level: number;
+}
+
+// One row of the tree. Rows are rendered flat, in the order of `visibleTreeRows`, so only the rows
+// in view exist in the DOM however many files the report has.
 const TreeNode = defineComponent({
   name: 'TreeNode',
   props: {
     node: { type: Object as () => TreeNode, required: true },
+    level: { type: Number, required: true },
     selectedPath: { type: String, required: true },
     showAggregates: { type: Boolean, required: true }
   },
@@ -328,7 +585,10 @@ const TreeNode = defineComponent({
     return { isOpen, isFolder, toggle, handleChevronClick, icon, displayCount };
   },
   template: `
-    <div class="tree-node-wrapper" :class="{ 'is-folder': isFolder, 'is-open': isOpen }">
+    <div
+      class="tree-node-wrapper"
+      :class="{ 'is-folder': isFolder, 'is-open': isOpen }"
+      :style="{ paddingLeft: (level * 11) + 'px', backgroundSize: (level * 11) + 'px 100%' }">
       <div
         class="tree-item"
         :class="{ active: node.path === selectedPath, flash: node.flash }"
@@ -350,16 +610,6 @@ const TreeNode = defineComponent({
           {{ displayCount }}
         </span>
       </div>
-      <div v-if="isFolder && isOpen" class="tree-group">
-        <tree-node
-          v-for="child in node.children"
-          :key="child.path"
-          :node="child"
-          :selected-path="selectedPath"
-          :show-aggregates="showAggregates"
-          @select="$emit('select', $event)">
-        </tree-node>
-      </div>
     </div>
   `
 });
@@ -371,7 +621,26 @@ createApp({
   components: { TreeNode },
   template: appTemplate,
   setup() {
-    const rawData = ref(initialPayload.files);
+    // Shallow, like the tree nodes: patches swap in updated entries without the array noticing, and
+    // only files appearing or disappearing assign a new array and rebuild the tree.
+    const rawData = shallowRef<FileData[]>([]);
+    let fileIndex = new Map<string, number>();
+    const setFiles = (files: FileData[]) => {
+      fileIndex = new Map(files.map((file, i) => [fileKey(file), i]));
+      rawData.value = files;
+    };
+    setFiles(initialPayload.files);
+    const maxFileTotal = ref(largestFileTotal(initialPayload.files));
+    const leaderboard = shallowRef<Leaderboard | null>(null);
+    const showLeaderboard = ref(false);
+    const leaderboardKind = ref<'lines' | 'methods'>('lines');
+    const leaderboardSort = ref<'count' | 'delta' | 'rate'>('count');
+    // Line picked on the leaderboard, marked until another file is selected.
+    const targetLine = ref<number | null>(null);
+    // Records of the history timeline, and the one shown (null while live).
+    const historyTimes = ref<number[]>([]);
+    const historyIndex = ref<number | null>(null);
+    const historyFrom = ref<number | null>(null);
     const getShowAll = () => {
       try {
         return localStorage.getItem('showAllSources') === 'true';
@@ -410,6 +679,32 @@ createApp({
       diffState.active.value = true;
     };
 
+    // Starts diff mode against a baseline saved with the report rather than captured in the page.
+    const applyBaseline = (baseline: Record<string, Record<string, number>>) => {
+      const newBaseline = new Map<string, Record<string, number>>();
+      const traverse = (nodes: TreeNode[]): number => {
+        let sum = 0;
+        nodes.forEach((node) => {
+          let total: number;
+          if (node.children) {
+            total = traverse(node.children);
+            newBaseline.set(node.path, { _total: total });
+          } else {
+            const counts: Record<string, number> = { ...(baseline[node.path] || {}) };
+            total = Object.values(counts).reduce((a, b) => a + b, 0);
+            counts["_total"] = total;
+            newBaseline.set(node.path, counts);
+          }
+          sum += total;
+        });
+        return sum;
+      };
+
+      traverse(fileTree.value);
+      diffState.baseline.value = newBaseline;
+      diffState.active.value = true;
+    };
+
     const stopDiffMode = () => {
       diffState.active.value = false;
       diffState.baseline.value = new Map();
@@ -420,8 +715,10 @@ createApp({
       return rawData.value.filter((f) => Object.values(f.counts).some((c) => c > 0));
     });
     const fileTree = computed(() => buildTree(filteredFiles.value));
+    if (initialPayload.baseline) {
+      applyBaseline(initialPayload.baseline);
+    }
     const selectedFile = ref<TreeNode | null>(null);
-    const highlightedCode = ref('');
     const getStoredTheme = () => {
       try {
         return localStorage.getItem('theme') || 'dark';
@@ -524,6 +821,21 @@ createApp({
     const sidebarWidth = ref(getSidebarWidth());
     const isResizing = ref(false);
     const treeContainer = ref<HTMLElement | null>(null);
+    const codeScroller = ref<HTMLElement | null>(null);
+    const treeViewport = reactive({ top: 0, height: window.innerHeight });
+    const codeViewport = reactive({ top: 0, height: window.innerHeight });
+
+    const syncViewport = (viewport: { top: number; height: number }, el: HTMLElement | null) => {
+      if (!el) return;
+      viewport.top = el.scrollTop;
+      viewport.height = el.clientHeight || window.innerHeight;
+    };
+    const onTreeScroll = () => syncViewport(treeViewport, treeContainer.value);
+    const onCodeScroll = () => syncViewport(codeViewport, codeScroller.value);
+    const onWindowResize = () => {
+      onTreeScroll();
+      onCodeScroll();
+    };
 
     const startResizing = () => {
       isResizing.value = true;
@@ -548,6 +860,7 @@ createApp({
       document.body.style.userSelect = '';
     };
     const globalMax = computed(() => {
+      if (!diffState.active.value) return Math.max(1, maxFileTotal.value);
       let max = 1;
       const traverse = (nodes: TreeNode[]) => {
         nodes.forEach(node => {
@@ -610,21 +923,118 @@ createApp({
     const selectFile = (node: TreeNode) => {
       if (selectedFile.value === node) return;
       selectedFile.value = node;
+      targetLine.value = null;
       nextTick(() => {
-        highlightCode();
+        onCodeScroll();
         if (node && node.path) {
           window.history.replaceState(null, '', '#' + encodeURIComponent(node.path));
         }
       });
     };
 
-    const highlightCode = () => {
-      if (!selectedFile.value) return;
-      const raw = selectedFile.value.lines.join('\n');
-      highlightedCode.value = Prism.highlight(raw, Prism.languages.java, 'java');
+    // Folders and files in display order, skipping the contents of collapsed folders.
+    const visibleTreeRows = computed(() => {
+      const rows: TreeRow[] = [];
+      const walk = (nodes: TreeNode[], level: number) => {
+        for (const node of nodes) {
+          rows.push({ node, level });
+          if (node.children && node.children.length > 0 && !collapsedFolders.value.has(node.path)) {
+            walk(node.children, level + 1);
+          }
+        }
+      };
+      walk(fileTree.value, 0);
+      return rows;
+    });
+    const treeWindow = computed(() =>
+      rowWindow(treeViewport.top, treeViewport.height, TREE_ROW_HEIGHT, visibleTreeRows.value.length)
+    );
+    const renderedTreeRows = computed(() =>
+      visibleTreeRows.value.slice(treeWindow.value.start, treeWindow.value.end)
+    );
+    const treeWindowStyle = computed(() => ({
+      height: visibleTreeRows.value.length * TREE_ROW_HEIGHT + 'px',
+      paddingTop: treeWindow.value.start * TREE_ROW_HEIGHT + 'px'
+    }));
+
+    const selectedLines = computed(() =>
+      selectedFile.value ? selectedFile.value.content.split(/\r?\n/) : []
+    );
+    const selectedLanguage = computed(() => languageOf(selectedFile.value?.path));
+    // Live updates replace the selected node with one holding the same source; keep what has
+    // already been highlighted unless the source itself changed.
+    let highlighted: { content: string; language: string; line: (index: number) => string } | null =
+      null;
+    const highlightLine = computed(() => {
+      const content = selectedFile.value?.content || '';
+      const language = selectedLanguage.value;
+      if (!highlighted || highlighted.content !== content || highlighted.language !== language) {
+        highlighted = { content, language, line: createHighlighter(selectedLines.value, language) };
+      }
+      return highlighted.line;
+    });
+    const codeWindow = computed(() =>
+      rowWindow(
+        Math.max(0, codeViewport.top - 10),
+        codeViewport.height,
+        CODE_LINE_HEIGHT,
+        selectedLines.value.length
+      )
+    );
+    const renderedLines = computed(() => {
+      const line = highlightLine.value;
+      const rows: { number: number; html: string }[] = [];
+      for (let i = codeWindow.value.start; i < codeWindow.value.end; i++) {
+        rows.push({ number: i + 1, html: line(i) });
+      }
+      return rows;
+    });
+    // Both columns keep the height of the whole file, so the scrollbar matches it.
+    const codeWindowStyle = computed(() => ({
+      height: selectedLines.value.length * CODE_LINE_HEIGHT + 10 + 'px',
+      paddingTop: codeWindow.value.start * CODE_LINE_HEIGHT + 'px'
+    }));
+    // Only some lines are rendered, so the widest one has to set the code's width up front.
+    const codeWidth = computed(
+      () => selectedLines.value.reduce((max, line) => Math.max(max, line.length), 0) + 'ch'
+    );
+
+    // The worker sends the top rows by count and by delta; the rate ranks like the delta.
+    const leaderboardRows = computed(() => {
+      const board = leaderboard.value;
+      if (!board) return [];
+      const key = leaderboardSort.value;
+      return [...board[leaderboardKind.value]]
+        .sort((a, b) => b[key] - a[key] || b.count - a.count)
+        .slice(0, LEADERBOARD_SIZE);
+    });
+
+    const toggleLeaderboard = () => {
+      showLeaderboard.value = !showLeaderboard.value;
+    };
+
+    const jumpToLine = (row: LeaderRow) => {
+      const node = treeIndexes.get(fileTree.value)?.filesByKey.get(row.key);
+      if (!node) return;
+      showLeaderboard.value = false;
+      selectFile(node);
+      targetLine.value = row.line;
+      nextTick(() => {
+        const scroller = codeScroller.value;
+        if (!scroller) return;
+        scroller.style.scrollBehavior = 'auto';
+        scroller.scrollTop = Math.max(0, (row.line - 1) * CODE_LINE_HEIGHT - scroller.clientHeight / 2);
+        scroller.style.scrollBehavior = '';
+        onCodeScroll();
+      });
     };
 
     const updateLiveStatus = () => {
+      if (historyIndex.value !== null) {
+        isLive.value = false;
+        liveError.value = 'Showing history: ' + historyLabel.value;
+        return;
+      }
       if (!lastUpdate) {
         isLive.value = false;
         liveError.value = 'Offline';
@@ -640,36 +1050,185 @@ createApp({
       }
     };
 
-    const loadExecutionData = (newData?: unknown, generatedAt?: number) => {
-      if (!newData) return;
-      const payload = normalizePayload(newData as ReportPayload);
-      const incomingAt = generatedAt || payload.generatedAt || 0;
-      
-      // Allow update if it's the first real data, or if it's newer
-      const isInitial = lastUpdate === pageLoadedAt || lastUpdate === 0;
-      if (!isInitial && incomingAt > 0 && incomingAt <= lastUpdate) return;
-      
-      const scrollPos = treeContainer.value?.scrollTop || 0;
-      rawData.value = payload.files;
-      isLive.value = true;
-      liveError.value = null;
-      lastUpdate = incomingAt || Date.now();
+    // Payloads are parsed and diffed against the previous one by the worker; only the patch it
+    // sends back touches the page, so a live update costs as much as what changed in it.
+    let seq = 0;
+    let dropped = false;
+    let payloadDone: Promise<void> = Promise.resolve();
+    const settle = new Map<number, () => void>();
+    // Payload objects until their patch arrives, for the sources of files the patch adds.
+    const payloadData = new Map<number, unknown>();
+    let sentSourcesId: string | null = null;
+
+    const contentLookup = (data: unknown) => {
+      let byKey: Map<string, string> | null = null;
+      return (key: string) => {
+        if (!byKey) {
+          const found = new Map<string, string>();
+          loadedSources?.files.forEach((file) => found.set(fileKey(file), file.content));
+          if (data) {
+            normalizePayload(data as AnyPayload).files.forEach((file) => found.set(fileKey(file), file.content));
+          }
+          byKey = found;
+        }
+        return byKey.get(key) || '';
+      };
+    };
+
+    const applyPatch = (patch: PayloadPatch) => {
+      const data = payloadData.get(patch.seq);
+      payloadData.forEach((_, pending) => {
+        if (pending <= patch.seq) payloadData.delete(pending);
+      });
+      maxFileTotal.value = patch.maxFileTotal;
+      leaderboard.value = patch.leaderboard;
+      if (!patch.seed) {
+        isLive.value = true;
+        liveError.value = null;
+        lastUpdate = patch.generatedAt || Date.now();
+      }
+
+      const contentOf = contentLookup(data);
+      const files = rawData.value;
+      for (const file of patch.files) {
+        const index = fileIndex.get(file.key);
+        const previous = index === undefined ? undefined : files[index];
+        const updated: FileData = {
+          path: file.path,
+          project: file.project,
+          content: file.content ?? previous?.content ?? contentOf(file.key),
+          counts: file.counts,
+          samples: file.samples
+        };
+        if (index === undefined) {
+          fileIndex.set(file.key, files.length);
+          files.push(updated);
+        } else {
+          files[index] = updated;
+        }
+      }
+      if (patch.removed.length > 0) {
+        const removed = new Set(patch.removed);
+        setFiles(files.filter((file) => !removed.has(fileKey(file))));
+      } else if (!patchTree(fileTree.value, patch, showAll.value)) {
+        setFiles([...files]);
+      } else {
+        return;
+      }
 
+      const scrollPos = treeContainer.value?.scrollTop || 0;
       nextTick(() => {
         if (selectedFile.value?.path) {
           const refreshed = findNodeByPath(selectedFile.value.path, fileTree.value);
           if (refreshed && refreshed !== selectedFile.value) {
             selectedFile.value = refreshed;
-            highlightCode();
           }
+        } else {
+          selectFromHash();
         }
         if (treeContainer.value) {
           treeContainer.value.scrollTop = scrollPos;
+          onTreeScroll();
         }
       });
     };
 
+    const sendSources = () => {
+      if (!loadedSources || loadedSources.id === sentSourcesId) return;
+      sentSourcesId = loadedSources.id;
+      send({
+        type: 'sources',
+        id: loadedSources.id,
+        files: loadedSources.files.map(({ id, path, project, content }) => ({ id, path, project, content }))
+      });
+    };
+
+    const onDifferResponse = (response: DifferResponse) => {
+      const seqOf = response.type === 'patch' ? response.patch.seq : response.seq;
+      settle.get(seqOf)?.();
+      settle.delete(seqOf);
+      if (dropped) return;
+      if (response.type === 'patch') {
+        applyPatch(response.patch);
+      } else if (response.type === 'sources') {
+        // Counts for a source table the worker has not seen: fetch it once; the patch follows.
+        requestSources(response.sources).then((ok) => ok && sendSources());
+      } else if (response.type === 'error') {
+        liveError.value = 'Offline';
+      }
+    };
+
+    let worker: Worker | null = null;
+    let lastSources: DifferRequest | null = null;
+    let lastPayload: DifferRequest | null = null;
+    // Diffs on the main thread when no worker can run, e.g. under a CSP that blocks blob: workers.
+    const diffLocally = () => {
+      const differ = new PayloadDiffer();
+      return (request: DifferRequest) =>
+        Promise.resolve().then(() => differ.handle(request).forEach(onDifferResponse));
+    };
+    const fallBack = () => {
+      worker?.terminate();
+      worker = null;
+      toDiffer = diffLocally();
+      // A fresh differ has no state; replay the sources and the latest payload it may have missed.
+      if (lastSources) toDiffer(lastSources);
+      if (lastPayload) toDiffer(lastPayload);
+    };
+    let toDiffer: (request: DifferRequest) => void;
+    try {
+      worker = new PayloadWorker();
+      worker.onmessage = (event: MessageEvent<DifferResponse>) => onDifferResponse(event.data);
+      worker.onerror = fallBack;
+      const started = worker;
+      toDiffer = (request) => started.postMessage(request);
+    } catch (error) {
+      toDiffer = diffLocally();
+    }
+
+    const send = (request: DifferRequest) => {
+      if (request.type === 'sources') {
+        lastSources = request;
+      } else {
+        lastPayload = request;
+      }
+      try {
+        toDiffer(request);
+      } catch (error) {
+        // The payload could not be cloned for the worker; keep diffing here from now on.
+        fallBack();
+      }
+    };
+
+    const sendPayload = (
+      payload: { text?: string; data?: unknown; generatedAt?: number },
+      seed = false,
+      fromHistory = false
+    ) => {
+      // The timeline shows a recorded point; live data waits until the view returns to it.
+      if (historyIndex.value !== null && !fromHistory) return;
+      // Allow update if it's the first real data, or if it's newer
+      const isInitial = lastUpdate === pageLoadedAt || lastUpdate === 0;
+      seq++;
+      if (payload.data !== undefined) payloadData.set(seq, payload.data);
+      payloadDone = new Promise((resolve) => settle.set(seq, resolve));
+      send({ type: 'payload', seq, seed, after: seed || isInitial ? 0 : lastUpdate, ...payload });
+    };
+
+    const loadExecutionData = (newData?: unknown, generatedAt?: number) => {
+      if (!newData) return;
+      sendPayload({ data: newData, generatedAt });
+    };
+
     window.loadExecutionData = loadExecutionData;
+    window.getReportFiles = () => rawData.value;
+
+    // The differ starts from the embedded data; a snapshot with counts only is hydrated once the
+    // worker has asked for its sources table.
+    const initialData = window.REPORT_DATA;
+    if (initialPayload.files.length > 0 || isCountsPayload(initialData)) {
+      sendPayload({ data: initialData }, true);
+    }
 
     const tryJSONP = (cacheBust = true) =>
       new Promise<boolean>((resolve) => {
@@ -697,8 +1256,7 @@ createApp({
       try {
         const res = await fetch(jsonFile + '?t=' + Date.now());
         if (!res.ok) throw new Error('fetch failed');
-        const data = await res.json();
-        loadExecutionData(data);
+        sendPayload({ text: await res.text() });
         return true;
       } catch (error) {
         isLive.value = false;
@@ -707,13 +1265,108 @@ createApp({
       }
     };
 
+    // Served with a history file: the agent's recorded flushes, replayed one point or window at a
+    // time. Scrubbing pauses live updates; going back to live reloads the full counts.
+    const historyUrl = window.location.protocol === 'file:' ? '' : window.REPORT_HISTORY || '';
+    let historyRequest = 0;
+
+    const formatTime = (timestamp: number) => new Date(timestamp).toLocaleTimeString();
+    const historyLabel = computed(() => {
+      const times = historyTimes.value;
+      if (historyIndex.value === null || times.length === 0) return 'Live';
+      const at = formatTime(times[historyIndex.value]);
+      return historyFrom.value === null ? at : formatTime(times[historyFrom.value]) + ' → ' + at;
+    });
+
+    const loadHistoryTimes = async () => {
+      try {
+        const res = await fetch(historyUrl);
+        if (!res.ok) return;
+        historyTimes.value = ((await res.json()) as { timestamps: number[] }).timestamps;
+      } catch (error) {
+        // The timeline stays as it was; the next poll tries again.
+      }
+    };
+
+    const showHistory = async () => {
+      const times = historyTimes.value;
+      if (historyIndex.value === null || times.length === 0) return;
+      const request = ++historyRequest;
+      let url = historyUrl + '?at=' + times[historyIndex.value];
+      if (historyFrom.value !== null && historyFrom.value < historyIndex.value) {
+        url += '&from=' + times[historyFrom.value];
+      }
+      try {
+        const res = await fetch(url);
+        if (!res.ok) throw new Error('history request failed');
+        const text = await res.text();
+        // Scrubbing fires faster than requests return; only the latest one is shown.
+        if (request === historyRequest && historyIndex.value !== null) {
+          sendPayload({ text }, true, true);
+          updateLiveStatus();
+        }
+      } catch (error) {
+        liveError.value = 'Could not load history';
+      }
+    };
+
+    const scrubHistory = (index: number) => {
+      historyIndex.value = index;
+      if (historyFrom.value !== null && historyFrom.value >= index) historyFrom.value = null;
+      showHistory();
+    };
+
+    const markHistoryStart = () => {
+      const times = historyTimes.value;
+      if (times.length === 0) return;
+      historyFrom.value = historyIndex.value ?? times.length - 1;
+      if (historyIndex.value === null) historyIndex.value = times.length - 1;
+      showHistory();
+    };
+
+    const resumeLive = () => {
+      historyIndex.value = null;
+      historyFrom.value = null;
+      historyRequest++;
+      tryFetch();
+    };
+
     const isPolling = ref(false);
+    let pushConnected = false;
+
+    // Served by the agent's live server: counts are pushed over Server-Sent Events and polling
+    // only runs while the stream is down.
+    const connectEvents = () => {
+      const url = window.REPORT_EVENTS;
+      if (!url || window.location.protocol === 'file:' || typeof EventSource === 'undefined') {
+        return null;
+      }
+      const source = new EventSource(url);
+      source.addEventListener('counts', (e) => {
+        // The differ merges `delta` events into the counts it already holds.
+        pushConnected = true;
+        sendPayload({ text: (e as MessageEvent).data });
+      });
+      source.addEventListener('ping', (e) => {
+        const { generatedAt } = JSON.parse((e as MessageEvent).data) as { generatedAt: number };
+        pushConnected = true;
+        lastUpdate = Math.max(lastUpdate, generatedAt);
+        updateLiveStatus();
+      });
+      source.onerror = () => {
+        // EventSource reconnects on its own; the next 'counts' event is a full snapshot again.
+        pushConnected = false;
+      };
+      return source;
+    };
+    const eventSource = connectEvents();
 
     const pollData = async () => {
-      if (isPolling.value) return;
+      if (isPolling.value || pushConnected) return;
       isPolling.value = true;
       const beforeUpdate = lastUpdate;
       let success = await tryJSONP(true);
+      await payloadDone;
       if (success && lastUpdate > beforeUpdate) {
         // Updated via JSONP
       } else if (window.location.protocol === 'file:') {
@@ -730,12 +1383,64 @@ createApp({
     };
 
     const pollInterval = setInterval(pollData, POLL_INTERVAL);
+    const historyInterval = historyUrl ? setInterval(loadHistoryTimes, HISTORY_POLL_INTERVAL) : 0;
+    if (historyUrl) loadHistoryTimes();
     const statusInterval = setInterval(updateLiveStatus, 1000);
     updateLiveStatus();
 
+    // Dropping a saved snapshot (.hps) or full JSON payload onto the page shows that file instead
+    // of the live data.
+    const loadDroppedFile = async (file: File) => {
+      try {
+        const buffer = await file.arrayBuffer();
+        const payload: ReportPayload = isSnapshot(buffer)
+          ? await decodeSnapshot(buffer)
+          : normalizePayload(JSON.parse(new TextDecoder().decode(buffer)));
+        eventSource?.close();
+        pushConnected = false;
+        clearInterval(pollInterval);
+        clearInterval(statusInterval);
+        dropped = true;
+        setFiles(payload.files);
+        maxFileTotal.value = largestFileTotal(payload.files);
+        const contents = new Map(payload.files.map((f) => [fileKey(f), f.content]));
+        leaderboard.value = new LeaderboardState((key) => contents.get(key)).update(
+          payload.files.map((f) => ({ ...f, key: fileKey(f) })),
+          [],
+          0
+        );
+        selectedFile.value = null;
+        isLive.value = false;
+        liveError.value = 'Showing ' + file.name;
+        if (payload.baseline) {
+          applyBaseline(payload.baseline);
+        } else {
+          stopDiffMode();
+        }
+      } catch (error) {
+        liveError.value = 'Could not load ' + file.name + ': ' + (error as Error).message;
+      }
+    };
+    const handleDragOver = (e: DragEvent) => e.preventDefault();
+    const handleDrop = (e: DragEvent) => {
+      const file = e.dataTransfer?.files?.[0];
+      if (!file) return;
+      e.preventDefault();
+      loadDroppedFile(file);
+    };
+    window.addEventListener('dragover', handleDragOver);
+    window.addEventListener('drop', handleDrop);
+    window.addEventListener('resize', onWindowResize);
+
     onUnmounted(() => {
+      eventSource?.close();
+      worker?.terminate();
       clearInterval(pollInterval);
       clearInterval(statusInterval);
+      clearInterval(historyInterval);
+      window.removeEventListener('dragover', handleDragOver);
+      window.removeEventListener('drop', handleDrop);
+      window.removeEventListener('resize', onWindowResize);
     });
 
     const findNodeByPath = (path: string, nodes: TreeNode[]): TreeNode | null => {
@@ -749,13 +1454,18 @@ createApp({
       return null;
     };
 
-    onMounted(() => {
+    const selectFromHash = () => {
       const hash = window.location.hash.substring(1);
-      if (hash) {
+      if (hash && !selectedFile.value) {
         const path = decodeURIComponent(hash);
         const target = findNodeByPath(path, fileTree.value);
         if (target) selectFile(target);
       }
+    };
+
+    onMounted(() => {
+      onTreeScroll();
+      selectFromHash();
     });
 
     const getExecutionCount = (lineNum: number) => {
@@ -767,6 +1477,27 @@ createApp({
       return Math.max(0, current - baseline);
     };
 
+    const hasSamples = computed(
+      () => !!selectedFile.value?.samples && Object.keys(selectedFile.value.samples).length > 0
+    );
+
+    const getSampleCount = (lineNum: number) =>
+      Number(selectedFile.value?.samples?.[lineNum.toString()] || 0);
+
+    // Samples per execution estimate the relative cost of one run of the line.
+    const getLineTitle = (lineNum: number) => {
+      const executions = getExecutionCount(lineNum);
+      const samples = getSampleCount(lineNum);
+      let title = executions + ' executions';
+      if (samples > 0) {
+        title += ', ' + samples + ' CPU samples';
+        if (executions > 0) {
+          title += ' (' + ((samples * 1000000) / executions).toPrecision(3) + ' per million executions)';
+        }
+      }
+      return title;
+    };
+
     const getHeatmapColor = (count: number) => {
       return calculateHeatmapColor(count, globalMax.value);
     };
@@ -782,19 +1513,43 @@ createApp({
       isResizing,
       startResizing,
       treeContainer,
-      highlightedCode,
+      codeScroller,
+      onTreeScroll,
+      onCodeScroll,
+      renderedTreeRows,
+      treeWindowStyle,
+      renderedLines,
+      codeWindowStyle,
+      codeWidth,
+      selectedLanguage,
       totalFiles,
       totalExecutions,
       globalMax,
       selectFile,
       getExecutionCount,
+      hasSamples,
+      getSampleCount,
+      getLineTitle,
       getHeatmapColor,
+      showLeaderboard,
+      toggleLeaderboard,
+      leaderboardKind,
+      leaderboardSort,
+      leaderboardRows,
+      jumpToLine,
+      targetLine,
       formatCount,
       formatBigCount,
       toggleTheme,
       isDarkMode,
       isLive,
       liveError,
+      historyTimes,
+      historyIndex,
+      historyLabel,
+      scrubHistory,
+      markHistoryStart,
+      resumeLive,
       toggleDiffMode,
       stopDiffMode,
       isDiffModeActive: diffState.active,
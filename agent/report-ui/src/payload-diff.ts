@@ -0,0 +1,302 @@
+// Turns each payload the report receives into a patch of what changed since the previous one.
+// It runs in a Web Worker (payload-worker.ts), so parsing and aggregating a large payload does not
+// block scrolling; where no worker can be started it runs on the main thread instead.
+import { LeaderboardState, type Leaderboard, type LeaderboardChange } from './leaderboard';
+
+export interface FileData {
+  path: string;
+  counts: Record<string, number>;
+  content: string;
+  project?: string;
+  // CPU samples per line, from a JFR recording passed with `--jfr`.
+  samples?: Record<string, number>;
+}
+
+export interface ReportPayload {
+  generatedAt: number;
+  files: FileData[];
+  // Written by `--diff --format=html`: base counts per `project/path`, already scaled to the head.
+  baseline?: Record<string, Record<string, number>>;
+}
+
+export interface SourcesRef {
+  id: string;
+  json: string;
+  jsonp: string;
+}
+
+// Live payload: counts keyed by file ID, plus a reference to the content-addressed sources table.
+// Pushed events with `delta` only carry the files that changed since the previous event.
+export interface CountsPayload {
+  generatedAt: number;
+  sources: SourcesRef;
+  counts: Record<string, Record<string, number>>;
+  delta?: boolean;
+}
+
+export type AnyPayload = ReportPayload | CountsPayload | FileData[];
+
+export const isCountsPayload = (payload: unknown): payload is CountsPayload =>
+  !!payload &&
+  typeof payload === 'object' &&
+  !Array.isArray(payload) &&
+  'sources' in payload &&
+  'counts' in payload;
+
+export const projectOf = (file: { project?: string }) => (file.project || 'unknown').trim() || 'unknown';
+
+export const fileKey = (file: { path: string; project?: string }) => `${projectOf(file)}::${file.path}`;
+
+export interface FilePatch {
+  key: string;
+  path: string;
+  project?: string;
+  counts: Record<string, number>;
+  samples?: Record<string, number>;
+  total: number;
+  // Only for files not seen before, and only when the payload reached the differ as text;
+  // otherwise the main thread already holds the source.
+  content?: string;
+}
+
+export interface PayloadPatch {
+  seq: number;
+  seed: boolean;
+  generatedAt: number;
+  // New files and files whose counts changed.
+  files: FilePatch[];
+  // Keys of files no longer in the payload.
+  removed: string[];
+  // Folder totals that changed, by tree path (`project/dir/...`).
+  folders: [string, number][];
+  maxFileTotal: number;
+  leaderboard: Leaderboard;
+}
+
+export type DifferRequest =
+  | {
+      type: 'sources';
+      id: string;
+      files: { id: number; path: string; project?: string; content?: string }[];
+    }
+  | {
+      type: 'payload';
+      seq: number;
+      // The data embedded in the report: applied, but not counted as a live update.
+      seed?: boolean;
+      text?: string;
+      data?: unknown;
+      generatedAt?: number;
+      // Payloads generated at or before this are stale; 0 accepts any payload.
+      after: number;
+    };
+
+export type DifferResponse =
+  | { type: 'patch'; patch: PayloadPatch }
+  // The payload needs this sources table; its patch follows once the table is sent.
+  | { type: 'sources'; seq: number; sources: SourcesRef }
+  // Not newer than the last payload applied.
+  | { type: 'skipped'; seq: number }
+  | { type: 'error'; seq: number; message: string };
+
+interface PayloadRequest {
+  seq: number;
+  payload: AnyPayload;
+  generatedAt: number;
+  withContent: boolean;
+  seed: boolean;
+}
+
+interface FileState {
+  path: string;
+  project?: string;
+  counts: Record<string, number>;
+  samples?: Record<string, number>;
+  total: number;
+}
+
+interface Entry {
+  key: string;
+  path: string;
+  project?: string;
+  counts: Record<string, number>;
+  samples?: Record<string, number>;
+  content?: string;
+}
+
+const sumCounts = (counts: Record<string, number>) => {
+  let total = 0;
+  for (const line in counts) total += counts[line];
+  return total;
+};
+
+const sameCounts = (a?: Record<string, number>, b?: Record<string, number>) => {
+  if (a === b) return true;
+  if (!a || !b) return false;
+  let size = 0;
+  for (const line in a) {
+    if (a[line] !== b[line]) return false;
+    size++;
+  }
+  return Object.keys(b).length === size;
+};
+
+// The folders a file is shown under, as the tree names them; merged folders take the path of their
+// deepest part, which is one of these.
+const folderPaths = (entry: { path: string; project?: string }) => {
+  const segments = [projectOf(entry), ...entry.path.split('/')];
+  const paths: string[] = [];
+  let current = '';
+  for (let i = 0; i < segments.length - 1; i++) {
+    current += (current ? '/' : '') + segments[i];
+    paths.push(current);
+  }
+  return paths;
+};
+
+export class PayloadDiffer {
+  private readonly files = new Map<string, FileState>();
+  private readonly folders = new Map<string, number>();
+  private readonly sourceKeys = new Map<string, { key: string; path: string; project?: string }>();
+  // Source text by file key, for finding the methods on the leaderboard.
+  private readonly content = new Map<string, string>();
+  private readonly leaderboard = new LeaderboardState((key) => this.content.get(key));
+  private sourcesId: string | null = null;
+  private lastAccepted = 0;
+  // A counts payload waiting for its sources table; only the latest is kept.
+  private pending: (PayloadRequest & { payload: CountsPayload }) | null = null;
+
+  handle(request: DifferRequest): DifferResponse[] {
+    if (request.type === 'sources') {
+      this.sourcesId = request.id;
+      this.sourceKeys.clear();
+      for (const file of request.files) {
+        const key = fileKey(file);
+        this.sourceKeys.set(String(file.id), { key, path: file.path, project: file.project });
+        if (file.content !== undefined) this.content.set(key, file.content);
+      }
+      const pending = this.pending;
+      if (!pending || pending.payload.sources.id !== request.id) return [];
+      this.pending = null;
+      return [this.apply(pending)];
+    }
+
+    let data: unknown;
+    try {
+      data = request.text !== undefined ? JSON.parse(request.text) : request.data;
+    } catch (error) {
+      return [{ type: 'error', seq: request.seq, message: (error as Error).message }];
+    }
+    if (!data || typeof data !== 'object') {
+      return [{ type: 'error', seq: request.seq, message: 'Not a report payload' }];
+    }
+    const generatedAt = request.generatedAt || (data as { generatedAt?: number }).generatedAt || 0;
+    const floor = request.after > 0 ? Math.max(request.after, this.lastAccepted) : 0;
+    if (floor > 0 && generatedAt > 0 && generatedAt <= floor) {
+      return [{ type: 'skipped', seq: request.seq }];
+    }
+
+    const withContent = request.text !== undefined;
+    const seed = !!request.seed;
+    if (isCountsPayload(data) && data.sources?.id !== this.sourcesId) {
+      this.pending = { seq: request.seq, payload: data, generatedAt, withContent, seed };
+      return [{ type: 'sources', seq: request.seq, sources: data.sources }];
+    }
+    return [this.apply({ seq: request.seq, payload: data as AnyPayload, generatedAt, withContent, seed })];
+  }
+
+  private apply(request: PayloadRequest): DifferResponse {
+    const { seq, payload, generatedAt, withContent, seed } = request;
+    let entries: Entry[];
+    let complete = true;
+    if (Array.isArray(payload)) {
+      entries = payload.map((file) => ({ key: fileKey(file), ...file }));
+    } else if (isCountsPayload(payload)) {
+      // A delta only lists changed files; the rest keep their counts.
+      complete = !payload.delta;
+      const ids = complete ? Array.from(this.sourceKeys.keys()) : Object.keys(payload.counts);
+      entries = [];
+      for (const id of ids) {
+        const source = this.sourceKeys.get(id);
+        if (source) entries.push({ ...source, counts: payload.counts[id] || {} });
+      }
+    } else {
+      entries = (payload.files || []).map((file) => ({ key: fileKey(file), ...file }));
+    }
+
+    const changed: FilePatch[] = [];
+    const ranked: LeaderboardChange[] = [];
+    const folderDeltas = new Map<string, number>();
+    const addToFolders = (entry: { path: string; project?: string }, delta: number) => {
+      if (delta === 0) return;
+      for (const path of folderPaths(entry)) {
+        folderDeltas.set(path, (folderDeltas.get(path) || 0) + delta);
+      }
+    };
+
+    const seen = new Set<string>();
+    for (const entry of entries) {
+      seen.add(entry.key);
+      const previous = this.files.get(entry.key);
+      const total = sumCounts(entry.counts);
+      if (previous && previous.total === total && sameCounts(previous.counts, entry.counts)
+          && sameCounts(previous.samples, entry.samples)) {
+        continue;
+      }
+      addToFolders(entry, total - (previous ? previous.total : 0));
+      if (entry.content !== undefined) this.content.set(entry.key, entry.content);
+      if (!previous || !sameCounts(previous.counts, entry.counts)) {
+        ranked.push({ ...entry, previous: previous?.counts });
+      }
+      this.files.set(entry.key, {
+        path: entry.path,
+        project: entry.project,
+        counts: entry.counts,
+        samples: entry.samples,
+        total
+      });
+      changed.push({
+        key: entry.key,
+        path: entry.path,
+        project: entry.project,
+        counts: entry.counts,
+        samples: entry.samples,
+        total,
+        content: !previous && withContent ? entry.content : undefined
+      });
+    }
+
+    const removed: string[] = [];
+    if (complete && seen.size < this.files.size) {
+      this.files.forEach((state, key) => {
+        if (seen.has(key)) return;
+        removed.push(key);
+        addToFolders(state, -state.total);
+      });
+      removed.forEach((key) => {
+        this.files.delete(key);
+        this.content.delete(key);
+      });
+    }
+
+    const folders: [string, number][] = [];
+    folderDeltas.forEach((delta, path) => {
+      if (delta === 0) return;
+      const total = (this.folders.get(path) || 0) + delta;
+      this.folders.set(path, total);
+      folders.push([path, total]);
+    });
+
+    let maxFileTotal = 0;
+    this.files.forEach((state) => {
+      if (state.total > maxFileTotal) maxFileTotal = state.total;
+    });
+
+    if (generatedAt > this.lastAccepted) this.lastAccepted = generatedAt;
+    const leaderboard = this.leaderboard.update(ranked, removed, generatedAt);
+    return {
+      type: 'patch',
+      patch: { seq, seed, generatedAt, files: changed, removed, folders, maxFileTotal, leaderboard }
+    };
+  }
+}
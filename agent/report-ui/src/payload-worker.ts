@@ -0,0 +1,14 @@
+// Web Worker entry: diffs payloads off the main thread. Bundled inline, so it also starts from a
+// report opened as a local file.
+import { PayloadDiffer, type DifferRequest, type DifferResponse } from './payload-diff';
+
+const scope = self as unknown as {
+  onmessage: ((event: MessageEvent<DifferRequest>) => void) | null;
+  postMessage: (message: DifferResponse) => void;
+};
+
+const differ = new PayloadDiffer();
+
+scope.onmessage = (event) => {
+  differ.handle(event.data).forEach((response) => scope.postMessage(response));
+};
@@ -0,0 +1,97 @@
+// Decoder for the agent's binary snapshot format (.hps); see SnapshotFormat.java for the layout.
+
+export interface SnapshotFile {
+  path: string;
+  counts: Record<string, number>;
+  content: string;
+  project?: string;
+}
+
+export interface Snapshot {
+  generatedAt: number;
+  files: SnapshotFile[];
+}
+
+const MAGIC = [0x4a, 0x48, 0x50, 0x53]; // "JHPS"
+const VERSION = 1;
+const FLAG_DEFLATE = 1;
+const FLAG_CONTENT = 2;
+
+export const isSnapshot = (buffer: ArrayBuffer) => {
+  const head = new Uint8Array(buffer, 0, Math.min(MAGIC.length, buffer.byteLength));
+  return head.length === MAGIC.length && MAGIC.every((b, i) => head[i] === b);
+};
+
+const inflate = async (body: Uint8Array) => {
+  if (typeof DecompressionStream === 'undefined') {
+    throw new Error('This browser cannot inflate compressed snapshots');
+  }
+  const stream = new Blob([body]).stream().pipeThrough(new DecompressionStream('deflate'));
+  return new Uint8Array(await new Response(stream).arrayBuffer());
+};
+
+class Reader {
+  private pos = 0;
+  private readonly decoder = new TextDecoder();
+
+  constructor(private readonly bytes: Uint8Array) {}
+
+  // Unsigned LEB128; counts may exceed 2^31, so accumulate in floating point.
+  varint(): number {
+    let result = 0;
+    let scale = 1;
+    for (;;) {
+      if (this.pos >= this.bytes.length) throw new Error('Truncated snapshot');
+      const b = this.bytes[this.pos++];
+      result += (b & 0x7f) * scale;
+      if ((b & 0x80) === 0) return result;
+      scale *= 128;
+    }
+  }
+
+  string(length: number): string {
+    if (this.pos + length > this.bytes.length) throw new Error('Truncated snapshot');
+    const value = this.decoder.decode(this.bytes.subarray(this.pos, this.pos + length));
+    this.pos += length;
+    return value;
+  }
+}
+
+export const decodeSnapshot = async (buffer: ArrayBuffer): Promise<Snapshot> => {
+  if (!isSnapshot(buffer)) throw new Error('Not a hotpath snapshot');
+  const header = new Uint8Array(buffer, 0, 6);
+  if (header[4] !== VERSION) throw new Error(`Unsupported snapshot version ${header[4]}`);
+  const flags = header[5];
+  const raw = new Uint8Array(buffer, 6);
+  const body = flags & FLAG_DEFLATE ? await inflate(raw) : raw;
+  const withContent = (flags & FLAG_CONTENT) !== 0;
+
+  const reader = new Reader(body);
+  const generatedAt = reader.varint();
+  const strings: string[] = new Array(reader.varint());
+  for (let i = 0; i < strings.length; i++) {
+    strings[i] = reader.string(reader.varint());
+  }
+
+  const fileCount = reader.varint();
+  const files: SnapshotFile[] = new Array(fileCount);
+  for (let i = 0; i < fileCount; i++) {
+    const project = strings[reader.varint()];
+    const dir = strings[reader.varint()];
+    const name = strings[reader.varint()];
+    let content = '';
+    if (withContent) {
+      const length = reader.varint();
+      if (length > 0) content = reader.string(length - 1);
+    }
+    const counts: Record<string, number> = {};
+    const lineCount = reader.varint();
+    let line = 0;
+    for (let j = 0; j < lineCount; j++) {
+      line += reader.varint();
+      counts[line] = reader.varint();
+    }
+    files[i] = { path: dir ? `${dir}/${name}` : name, counts, content, project };
+  }
+  return { generatedAt, files };
+};
@@ -0,0 +1,322 @@
+package io.github.sfkamath.jvmhotpath;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Checks a saved report against execution-count budgets, so a build can fail when a hot path gets
+ * hotter. Used by the Maven plugin's {@code check} goal.
+ *
+ * <p>Each {@link Rule} applies to a package or class ({@code scope}, all files when empty) and
+ * optionally one method in that class. Method lines are read from the compiled class's line number
+ * table, including the bodies of lambdas declared in the method.
+ */
+public final class BudgetCheck {
+
+  /** Violating lines listed per rule before the rest are summarized. */
+  static final int MAX_LINES_REPORTED = 20;
+
+  /**
+   * One budget. Fields are set by name from the Maven plugin configuration; tests use the fluent
+   * setters.
+   */
+  public static final class Rule {
+    private String scope;
+    private String method;
+    private Long maxLineCount;
+    private Long maxTotal;
+    private File baseline;
+    private Double maxGrowthPercent;
+
+    public Rule scope(String scope) {
+      this.scope = scope;
+      return this;
+    }
+
+    public Rule method(String method) {
+      this.method = method;
+      return this;
+    }
+
+    /** No single line may run more often than this. */
+    public Rule maxLineCount(long maxLineCount) {
+      this.maxLineCount = maxLineCount;
+      return this;
+    }
+
+    /** The summed executions of every line in scope may not exceed this. */
+    public Rule maxTotal(long maxTotal) {
+      this.maxTotal = maxTotal;
+      return this;
+    }
+
+    /** Saved report to compare the total against; needs {@link #maxGrowthPercent}. */
+    public Rule baseline(File baseline) {
+      this.baseline = baseline;
+      return this;
+    }
+
+    /** How much the total may grow over the baseline, in percent. */
+    public Rule maxGrowthPercent(double maxGrowthPercent) {
+      this.maxGrowthPercent = maxGrowthPercent;
+      return this;
+    }
+
+    String describe() {
+      String target = scope == null || scope.isBlank() ? "all classes" : scope.trim();
+      return method == null || method.isBlank() ? target : target + "#" + method.trim();
+    }
+  }
+
+  private BudgetCheck() {}
+
+  /**
+   * Evaluates {@code rules} against the report at {@code report} and returns one message per
+   * violation; an empty list means every budget holds. {@code classDirs} are searched for the
+   * classes of method rules.
+   */
+  public static List<String> check(Path report, List<Rule> rules, List<Path> classDirs)
+      throws IOException {
+    Map<String, Map<Integer, Long>> counts = readCounts(report);
+    List<String> violations = new ArrayList<>();
+    for (Rule rule : rules) {
+      if (rule.maxGrowthPercent != null && rule.baseline == null) {
+        throw new IOException(
+            "Rule for " + rule.describe() + " sets maxGrowthPercent but no baseline");
+      }
+      Selection selection = select(rule, classDirs);
+      Map<String, Map<Integer, Long>> current = selection.apply(counts);
+
+      if (rule.maxLineCount != null) {
+        checkLines(rule, current, violations);
+      }
+      long total = total(current);
+      if (rule.maxTotal != null && total > rule.maxTotal) {
+        violations.add(
+            String.format(
+                Locale.ROOT,
+                "%s: %d executions (limit %d)",
+                rule.describe(),
+                total,
+                rule.maxTotal));
+      }
+      if (rule.baseline != null && rule.maxGrowthPercent != null) {
+        long before = total(selection.apply(readCounts(rule.baseline.toPath())));
+        double growth =
+            before == 0
+                ? (total == 0 ? 0.0 : Double.POSITIVE_INFINITY)
+                : (total - before) * 100.0 / before;
+        if (growth > rule.maxGrowthPercent) {
+          violations.add(
+              String.format(
+                  Locale.ROOT,
+                  "%s: %d executions, %s vs %d in %s (limit +%.1f%%)",
+                  rule.describe(),
+                  total,
+                  Double.isInfinite(growth) ? "new" : String.format(Locale.ROOT, "%+.1f%%", growth),
+                  before,
+                  rule.baseline.getName(),
+                  rule.maxGrowthPercent));
+        }
+      }
+    }
+    return violations;
+  }
+
+  private static void checkLines(
+      Rule rule, Map<String, Map<Integer, Long>> current, List<String> violations) {
+    List<ReportModel.LineCount> over = new ArrayList<>();
+    for (Map.Entry<String, Map<Integer, Long>> file : current.entrySet()) {
+      for (Map.Entry<Integer, Long> line : file.getValue().entrySet()) {
+        if (line.getValue() > rule.maxLineCount) {
+          over.add(new ReportModel.LineCount(file.getKey(), null, line.getKey(), line.getValue()));
+        }
+      }
+    }
+    over.sort(
+        Comparator.comparingLong((ReportModel.LineCount l) -> l.count)
+            .reversed()
+            .thenComparing(l -> l.path)
+            .thenComparingInt(l -> l.line));
+    for (int i = 0; i < over.size() && i < MAX_LINES_REPORTED; i++) {
+      ReportModel.LineCount line = over.get(i);
+      violations.add(
+          String.format(
+              Locale.ROOT,
+              "%s: line %s:%d ran %d times (limit %d)",
+              rule.describe(),
+              line.path,
+              line.line,
+              line.count,
+              rule.maxLineCount));
+    }
+    if (over.size() > MAX_LINES_REPORTED) {
+      violations.add(
+          rule.describe()
+              + ": "
+              + (over.size() - MAX_LINES_REPORTED)
+              + " more lines over the limit");
+    }
+  }
+
+  /**
+   * Per-path line counts of a saved report; files with the same path in several projects add up.
+   */
+  private static Map<String, Map<Integer, Long>> readCounts(Path report) throws IOException {
+    if (!Files.exists(report)) {
+      throw new IOException("Report not found: " + report);
+    }
+    Map<String, Map<Integer, Long>> counts = new HashMap<>();
+    SnapshotReader.read(
+        report,
+        file -> {
+          if (file.getPath() == null) {
+            return;
+          }
+          Map<Integer, Long> lines = counts.computeIfAbsent(file.getPath(), k -> new HashMap<>());
+          file.getCounts().forEach((line, count) -> lines.merge(line, count, Long::sum));
+        });
+    return counts;
+  }
+
+  private static long total(Map<String, Map<Integer, Long>> counts) {
+    long total = 0L;
+    for (Map<Integer, Long> lines : counts.values()) {
+      for (long count : lines.values()) {
+        total += count;
+      }
+    }
+    return total;
+  }
+
+  private static Selection select(Rule rule, List<Path> classDirs) throws IOException {
+    String scope = rule.scope == null ? "" : rule.scope.trim();
+    if (rule.method == null || rule.method.isBlank()) {
+      return new Selection(scope, null, null);
+    }
+    if (scope.isEmpty()) {
+      throw new IOException("Rule for method " + rule.method + " needs the class as its scope");
+    }
+    String internalName = scope.replace('.', '/');
+    for (Path dir : classDirs) {
+      Path classFile = dir.resolve(internalName + ".class");
+      if (Files.isRegularFile(classFile)) {
+        try (InputStream in = Files.newInputStream(classFile)) {
+          MethodLines lines = new MethodLines(rule.method.trim());
+          new ClassReader(in).accept(lines, ClassReader.SKIP_FRAMES);
+          if (lines.lines.isEmpty()) {
+            throw new IOException(
+                "No method " + rule.method + " with line numbers in " + classFile);
+          }
+          String pkg =
+              internalName.contains("/")
+                  ? internalName.substring(0, internalName.lastIndexOf('/') + 1)
+                  : "";
+          String sourceFile =
+              lines.sourceFile != null
+                  ? lines.sourceFile
+                  : internalName.substring(pkg.length()).replaceAll("\\$.*", "") + ".java";
+          return new Selection(null, pkg + sourceFile, lines.lines);
+        }
+      }
+    }
+    throw new IOException("Class " + scope + " not found in " + classDirs);
+  }
+
+  /** The files, and optionally the lines of one file, that a rule applies to. */
+  private static final class Selection {
+    private final String scope;
+    private final String path;
+    private final Set<Integer> lines;
+
+    private Selection(String scope, String path, Set<Integer> lines) {
+      this.scope = scope;
+      this.path = path;
+      this.lines = lines;
+    }
+
+    Map<String, Map<Integer, Long>> apply(Map<String, Map<Integer, Long>> counts) {
+      Map<String, Map<Integer, Long>> selected = new HashMap<>();
+      for (Map.Entry<String, Map<Integer, Long>> file : counts.entrySet()) {
+        if (path != null) {
+          if (path.equals(file.getKey())) {
+            Map<Integer, Long> methodLines = new HashMap<>();
+            file.getValue()
+                .forEach(
+                    (line, count) -> {
+                      if (lines.contains(line)) {
+                        methodLines.put(line, count);
+                      }
+                    });
+            selected.put(file.getKey(), methodLines);
+          }
+        } else if (inScope(file.getKey())) {
+          selected.put(file.getKey(), file.getValue());
+        }
+      }
+      return selected;
+    }
+
+    /**
+     * Matches {@code com/example/Foo.java} against {@code com.example} or {@code com.example.Foo}.
+     */
+    private boolean inScope(String filePath) {
+      if (scope.isEmpty()) {
+        return true;
+      }
+      int dot = filePath.lastIndexOf('.');
+      String name = (dot > filePath.lastIndexOf('/') ? filePath.substring(0, dot) : filePath);
+      name = name.replace('/', '.');
+      return name.equals(scope) || name.startsWith(scope + ".");
+    }
+  }
+
+  /** Collects the source lines of a method and of the lambdas declared in it. */
+  private static final class MethodLines extends ClassVisitor {
+    private final String method;
+    private final String lambdaPrefix;
+    private final Set<Integer> lines = new HashSet<>();
+    private String sourceFile;
+
+    private MethodLines(String method) {
+      super(Opcodes.ASM9);
+      this.method = method;
+      this.lambdaPrefix = "lambda$" + method + "$";
+    }
+
+    @Override
+    public void visitSource(String source, String debug) {
+      this.sourceFile = source;
+    }
+
+    @Override
+    public MethodVisitor visitMethod(
+        int access, String name, String descriptor, String signature, String[] exceptions) {
+      if (!name.equals(method) && !name.startsWith(lambdaPrefix)) {
+        return null;
+      }
+      return new MethodVisitor(Opcodes.ASM9) {
+        @Override
+        public void visitLineNumber(int line, Label start) {
+          lines.add(line);
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,313 @@
+package io.github.sfkamath.jvmhotpath;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Receives count batches from the agents of many JVMs over loopback TCP and adds them up, so one
+ * process can serve a single live report for all of them.
+ *
+ * <p>Protocol, all integers as unsigned LEB128 varints:
+ *
+ * <pre>
+ * handshake  agent:     magic "JHPC" (4 bytes), version 1 byte (currently 1), agent id (string)
+ *            collector: sequence of the last batch applied for that agent id, 0 for none
+ * batch      agent:     byte length, then
+ *                       sequence
+ *                       class count, then per class:
+ *                         class id; the next unused id on this connection is followed by the
+ *                         class name and its source file (strings)
+ *                         line count, then per line: line delta from the previous line, increase
+ *            collector: the batch's sequence, once applied
+ * string     byte length, UTF-8 bytes
+ * </pre>
+ *
+ * <p>An agent only sends its next batch after the previous one is acknowledged. Batches carry
+ * increases, so one the collector already applied, i.e. with a sequence no higher than the last one
+ * applied for the agent, is acknowledged without being applied again. That is what makes resending
+ * after a lost acknowledgement safe.
+ */
+final class Collector implements Closeable {
+
+  static final int VERSION = 1;
+  static final byte[] MAGIC = {'J', 'H', 'P', 'C'};
+  static final int MAX_BATCH_BYTES = 64 << 20;
+
+  private static final Logger logger = Logger.getLogger(Collector.class.getName());
+
+  private final ServerSocket server;
+  private final ExecutionCountStore.CountVisitor sink;
+  private final ExecutorService connections;
+  private final Thread acceptor;
+  private final Map<String, Agent> agents = new ConcurrentHashMap<>();
+  private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+  private volatile boolean running = true;
+
+  private Collector(int port, ExecutionCountStore.CountVisitor sink) throws IOException {
+    this.server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    this.sink = sink;
+    this.connections =
+        Executors.newCachedThreadPool(
+            r -> {
+              Thread t = new Thread(r, "JvmHotpath-Collector-Connection");
+              t.setDaemon(true);
+              return t;
+            });
+    this.acceptor = new Thread(this::acceptLoop, "JvmHotpath-Collector-Accept");
+    acceptor.setDaemon(true);
+  }
+
+  /**
+   * Starts listening on {@code 127.0.0.1:port}, adding what agents ship to this JVM's {@link
+   * ExecutionCountStore}; port 0 picks a free port.
+   */
+  static Collector start(int port) throws IOException {
+    return start(port, ExecutionCountStore::add);
+  }
+
+  /** Starts listening on {@code 127.0.0.1:port}, handing every line's increase to {@code sink}. */
+  static Collector start(int port, ExecutionCountStore.CountVisitor sink) throws IOException {
+    Collector collector = new Collector(port, sink);
+    collector.acceptor.start();
+    return collector;
+  }
+
+  int port() {
+    return server.getLocalPort();
+  }
+
+  /** Number of distinct agents that have connected so far. */
+  int agents() {
+    return agents.size();
+  }
+
+  /** Blocks until the collector is closed. */
+  void await() throws InterruptedException {
+    acceptor.join();
+  }
+
+  @Override
+  public void close() {
+    running = false;
+    try {
+      server.close();
+    } catch (IOException e) {
+      logger.log(Level.FINE, "Could not close the collector socket", e);
+    }
+    for (Socket socket : sockets) {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        logger.log(Level.FINE, "Could not close an agent connection", e);
+      }
+    }
+    connections.shutdownNow();
+  }
+
+  private void acceptLoop() {
+    while (running) {
+      try {
+        Socket socket = server.accept();
+        sockets.add(socket);
+        connections.execute(() -> serve(socket));
+      } catch (IOException e) {
+        if (!running || server.isClosed()) {
+          return;
+        }
+        logger.log(Level.FINE, "Could not accept an agent connection", e);
+      }
+    }
+  }
+
+  private void serve(Socket socket) {
+    String id = null;
+    try {
+      socket.setTcpNoDelay(true);
+      BufferedInputStream in = new BufferedInputStream(socket.getInputStream());
+      OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+      if (!Arrays.equals(MAGIC, in.readNBytes(MAGIC.length)) || in.read() != VERSION) {
+        throw new IOException("Not a jvm-hotpath agent, or an incompatible version");
+      }
+      id = readString(in);
+      Agent agent = agents.computeIfAbsent(id, k -> new Agent());
+      logger.info("Agent connected: " + id);
+      SnapshotFormat.writeVarLong(out, agent.sequence());
+      out.flush();
+
+      // Class names are only sent the first time a connection uses them.
+      List<String> classes = new ArrayList<>();
+      while (true) {
+        in.mark(1);
+        if (in.read() < 0) {
+          break;
+        }
+        in.reset();
+        long length = SnapshotFormat.readVarLong(in);
+        if (length > MAX_BATCH_BYTES) {
+          throw new IOException("Batch of " + length + " bytes is over the limit");
+        }
+        byte[] body = in.readNBytes((int) length);
+        if (body.length != length) {
+          throw new EOFException("Truncated batch");
+        }
+        long sequence = agent.apply(new ByteArrayInputStream(body), classes, sink);
+        SnapshotFormat.writeVarLong(out, sequence);
+        out.flush();
+      }
+      logger.info("Agent disconnected: " + id);
+    } catch (IOException e) {
+      if (running) {
+        logger.log(Level.FINE, "Agent connection lost: " + id, e);
+      }
+    } finally {
+      sockets.remove(socket);
+      try {
+        socket.close();
+      } catch (IOException e) {
+        logger.log(Level.FINE, "Could not close an agent connection", e);
+      }
+    }
+  }
+
+  /**
+   * Writes one batch of {@code increases}, keyed by class and then line, to {@code out}. {@code
+   * classIds} holds the ids already sent on this connection and gains the new ones.
+   */
+  static void writeBatch(
+      OutputStream out,
+      long sequence,
+      Map<String, ? extends Map<Integer, Long>> increases,
+      Map<String, Integer> classIds)
+      throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    SnapshotFormat.writeVarLong(body, sequence);
+    SnapshotFormat.writeVarLong(body, increases.size());
+    for (Map.Entry<String, ? extends Map<Integer, Long>> classEntry : increases.entrySet()) {
+      String className = classEntry.getKey();
+      Integer id = classIds.get(className);
+      if (id == null) {
+        id = classIds.size();
+        classIds.put(className, id);
+        SnapshotFormat.writeVarLong(body, id);
+        writeString(body, className);
+        writeString(body, ProbeRegistry.sourcePath(className));
+      } else {
+        SnapshotFormat.writeVarLong(body, id);
+      }
+      int[] lines = new int[classEntry.getValue().size()];
+      int i = 0;
+      for (int line : classEntry.getValue().keySet()) {
+        lines[i++] = line;
+      }
+      Arrays.sort(lines);
+      SnapshotFormat.writeVarLong(body, lines.length);
+      int previous = 0;
+      for (int line : lines) {
+        SnapshotFormat.writeVarLong(body, line - previous);
+        SnapshotFormat.writeVarLong(body, classEntry.getValue().get(line));
+        previous = line;
+      }
+    }
+    SnapshotFormat.writeVarLong(out, body.size());
+    body.writeTo(out);
+  }
+
+  static void writeString(OutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    SnapshotFormat.writeVarLong(out, bytes.length);
+    out.write(bytes);
+  }
+
+  static String readString(InputStream in) throws IOException {
+    long length = SnapshotFormat.readVarLong(in);
+    if (length > MAX_BATCH_BYTES) {
+      throw new IOException("String of " + length + " bytes is over the limit");
+    }
+    byte[] bytes = in.readNBytes((int) length);
+    if (bytes.length != length) {
+      throw new EOFException("Truncated string");
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static int readInt(InputStream in) throws IOException {
+    long value = SnapshotFormat.readVarLong(in);
+    if (value > Integer.MAX_VALUE) {
+      throw new IOException("Malformed batch: value out of range " + value);
+    }
+    return (int) value;
+  }
+
+  /** The last batch applied for one agent id, across its connections. */
+  private static final class Agent {
+    private long sequence;
+
+    private synchronized long sequence() {
+      return sequence;
+    }
+
+    /**
+     * Decodes a batch and, unless it was applied before, hands its increases to {@code sink}. The
+     * whole body is decoded first, so a malformed batch applies nothing.
+     */
+    private synchronized long apply(
+        InputStream body, List<String> classes, ExecutionCountStore.CountVisitor sink)
+        throws IOException {
+      long batch = SnapshotFormat.readVarLong(body);
+      int classCount = readInt(body);
+      String[] names = new String[classCount];
+      int[][] lines = new int[classCount][];
+      long[][] increases = new long[classCount][];
+      for (int c = 0; c < classCount; c++) {
+        int id = readInt(body);
+        if (id == classes.size()) {
+          String className = readString(body);
+          ProbeRegistry.registerResolvedSource(className, readString(body));
+          classes.add(className);
+        } else if (id > classes.size()) {
+          throw new IOException("Malformed batch: unknown class id " + id);
+        }
+        names[c] = classes.get(id);
+        int lineCount = readInt(body);
+        lines[c] = new int[lineCount];
+        increases[c] = new long[lineCount];
+        int line = 0;
+        for (int l = 0; l < lineCount; l++) {
+          line += readInt(body);
+          lines[c][l] = line;
+          increases[c][l] = SnapshotFormat.readVarLong(body);
+        }
+      }
+      if (batch > sequence) {
+        for (int c = 0; c < classCount; c++) {
+          for (int l = 0; l < lines[c].length; l++) {
+            sink.accept(names[c], lines[c][l], increases[c][l]);
+          }
+        }
+        sequence = batch;
+      }
+      return batch;
+    }
+  }
+}
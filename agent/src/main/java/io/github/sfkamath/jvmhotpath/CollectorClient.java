@@ -0,0 +1,235 @@
+package io.github.sfkamath.jvmhotpath;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Ships this JVM's counts to a {@link Collector} on the loopback interface.
+ *
+ * <p>A daemon thread wakes every interval and sends, as one batch, what each line gained since the
+ * last batch the collector acknowledged. The next batch is only built once the previous one is
+ * acknowledged, so a slow collector receives fewer, larger batches instead of a growing queue.
+ * Application threads only ever bump their counters and never wait on the collector. While it is
+ * unreachable the increases keep adding up in the counters and go out with the first batch after it
+ * is back; reconnect attempts back off up to {@link #MAX_BACKOFF_MS}.
+ */
+final class CollectorClient {
+
+  static final int DEFAULT_INTERVAL_MS = 1000;
+  static final long MAX_BACKOFF_MS = 30_000;
+  private static final int CONNECT_TIMEOUT_MS = 1000;
+  private static final int ACK_TIMEOUT_MS = 10_000;
+
+  private static final Logger logger = Logger.getLogger(CollectorClient.class.getName());
+
+  private final InetSocketAddress address;
+  private final long intervalMillis;
+  private final String agentId;
+  private final Consumer<ExecutionCountStore.CountVisitor> counts;
+  private final Thread thread;
+  private final AtomicLong acknowledgedBatches = new AtomicLong();
+  private volatile boolean running = true;
+
+  // Only touched by the shipping thread.
+  private final Map<String, Map<Integer, Long>> acknowledged = new HashMap<>();
+  private Map<String, Map<Integer, Long>> pending;
+  private long pendingSequence;
+  private long sequence;
+  private Socket socket;
+  private InputStream in;
+  private OutputStream out;
+  private Map<String, Integer> classIds;
+  private long backoffMillis;
+  private long nextAttempt;
+  private boolean unreachable;
+
+  CollectorClient(
+      InetSocketAddress address,
+      long intervalMillis,
+      String agentId,
+      Consumer<ExecutionCountStore.CountVisitor> counts) {
+    this.address = address;
+    this.intervalMillis = intervalMillis;
+    this.agentId = agentId;
+    this.counts = counts;
+    this.thread = new Thread(this::run, "JvmHotpath-Collector-Client");
+    thread.setDaemon(true);
+  }
+
+  /**
+   * Starts shipping the counts of {@link ExecutionCountStore} to the collector on {@code
+   * 127.0.0.1:port} every {@code intervalMillis}.
+   */
+  static CollectorClient start(int port, long intervalMillis, String agentId) {
+    CollectorClient client =
+        new CollectorClient(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+            intervalMillis,
+            agentId,
+            ExecutionCountStore::forEachCount);
+    client.start();
+    return client;
+  }
+
+  void start() {
+    thread.start();
+  }
+
+  /**
+   * Stops the shipping thread after one last batch, waiting at most {@code timeoutMillis}. Returns
+   * {@code false} if it did not finish in time.
+   */
+  boolean finish(long timeoutMillis) {
+    running = false;
+    thread.interrupt();
+    try {
+      thread.join(timeoutMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return !thread.isAlive();
+  }
+
+  /** Number of batches the collector has acknowledged. */
+  long acknowledgedBatches() {
+    return acknowledgedBatches.get();
+  }
+
+  private void run() {
+    boolean last = false;
+    while (!last) {
+      try {
+        Thread.sleep(intervalMillis);
+      } catch (InterruptedException e) {
+        last = true;
+      }
+      last |= !running;
+      // The last batch is attempted even while backing off.
+      if (last || System.currentTimeMillis() >= nextAttempt) {
+        ship();
+      }
+    }
+    disconnect();
+  }
+
+  /** Sends the pending batch, or a new one when the previous was acknowledged. */
+  private void ship() {
+    try {
+      if (socket == null) {
+        connect();
+      }
+      if (pending == null) {
+        Map<String, Map<Integer, Long>> increases = increases();
+        if (increases.isEmpty()) {
+          return;
+        }
+        pending = increases;
+        pendingSequence = ++sequence;
+      }
+      Collector.writeBatch(out, pendingSequence, pending, classIds);
+      out.flush();
+      long ack = SnapshotFormat.readVarLong(in);
+      if (ack != pendingSequence) {
+        throw new IOException("Collector acknowledged batch " + ack + ", not " + pendingSequence);
+      }
+      acknowledge();
+      backoffMillis = 0;
+    } catch (IOException e) {
+      disconnect();
+      backoffMillis =
+          backoffMillis == 0 ? intervalMillis : Math.min(MAX_BACKOFF_MS, backoffMillis * 2);
+      nextAttempt = System.currentTimeMillis() + backoffMillis;
+      if (!unreachable) {
+        unreachable = true;
+        logger.info(
+            "Collector at "
+                + address
+                + " is unreachable ("
+                + e.getMessage()
+                + "); counts are kept and sent once it is back");
+      } else {
+        logger.log(Level.FINE, "Collector still unreachable", e);
+      }
+    }
+  }
+
+  private void connect() throws IOException {
+    Socket s = new Socket();
+    try {
+      s.connect(address, CONNECT_TIMEOUT_MS);
+      s.setSoTimeout(ACK_TIMEOUT_MS);
+      s.setTcpNoDelay(true);
+      in = new BufferedInputStream(s.getInputStream());
+      out = new BufferedOutputStream(s.getOutputStream());
+      out.write(Collector.MAGIC);
+      out.write(Collector.VERSION);
+      Collector.writeString(out, agentId);
+      out.flush();
+      long applied = SnapshotFormat.readVarLong(in);
+      if (pending != null && pendingSequence <= applied) {
+        // Applied before the previous connection dropped; only the acknowledgement was lost.
+        acknowledge();
+      }
+    } catch (IOException e) {
+      s.close();
+      throw e;
+    }
+    socket = s;
+    classIds = new HashMap<>();
+    if (unreachable) {
+      unreachable = false;
+      logger.info("Reconnected to collector at " + address);
+    }
+  }
+
+  private void disconnect() {
+    if (socket != null) {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        logger.log(Level.FINE, "Could not close the collector connection", e);
+      }
+      socket = null;
+    }
+  }
+
+  /** What every line gained since the acknowledged batches, keyed by class and then line. */
+  private Map<String, Map<Integer, Long>> increases() {
+    Map<String, Map<Integer, Long>> increases = new HashMap<>();
+    counts.accept(
+        (className, line, count) -> {
+          Map<Integer, Long> sent = acknowledged.get(className);
+          Long previous = sent == null ? null : sent.get(line);
+          long increase = count - (previous == null ? 0L : previous);
+          if (increase > 0) {
+            increases.computeIfAbsent(className, k -> new TreeMap<>()).put(line, increase);
+          }
+        });
+    return increases;
+  }
+
+  private void acknowledge() {
+    for (Map.Entry<String, Map<Integer, Long>> classEntry : pending.entrySet()) {
+      Map<Integer, Long> sent =
+          acknowledged.computeIfAbsent(classEntry.getKey(), k -> new HashMap<>());
+      for (Map.Entry<Integer, Long> line : classEntry.getValue().entrySet()) {
+        sent.merge(line.getKey(), line.getValue(), Long::sum);
+      }
+    }
+    pending = null;
+    acknowledgedBatches.incrementAndGet();
+  }
+}
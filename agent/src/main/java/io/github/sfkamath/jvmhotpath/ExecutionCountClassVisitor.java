@@ -1,22 +1,42 @@
 package io.github.sfkamath.jvmhotpath;
 
+import java.util.HashMap;
+import java.util.Map;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
-/** ASM ClassVisitor that instruments methods to record line executions. */
+/**
+ * ASM ClassVisitor that instruments methods to record line executions. Every probe counts into the
+ * class's own {@link ExecutionCountStore} slab, bound to the loader defining it.
+ */
 public class ExecutionCountClassVisitor extends ClassVisitor {
 
   private String className;
+  private final ExecutionCountStore.SlabBuilder slab;
+  private final Map<Integer, String> lineMethods = new HashMap<>();
+  private Smap smap;
+  private String sourcePath;
 
   public ExecutionCountClassVisitor(ClassVisitor cv) {
     super(Opcodes.ASM9, cv);
+    this.slab = ExecutionCountStore.newSlab(null);
   }
 
   public ExecutionCountClassVisitor(ClassVisitor cv, String className) {
+    this(cv, className, null);
+  }
+
+  public ExecutionCountClassVisitor(ClassVisitor cv, String className, ClassLoader loader) {
     super(Opcodes.ASM9, cv);
     this.className = className.replace('/', '.');
+    this.slab = ExecutionCountStore.newSlab(loader);
+  }
+
+  /** Gives the class's slab back when the instrumented class is not used after all. */
+  void discard() {
+    slab.discard();
   }
 
   @Override
@@ -33,6 +53,17 @@ public class ExecutionCountClassVisitor extends ClassVisitor {
     super.visit(version, access, name, signature, superName, interfaces);
   }
 
+  @Override
+  public void visitSource(String source, String debug) {
+    ProbeRegistry.registerSource(className, source);
+    int lastDot = className.lastIndexOf('.');
+    smap =
+        Smap.parse(
+            debug, lastDot < 0 ? "" : className.substring(0, lastDot).replace('.', '/') + "/");
+    sourcePath = ProbeRegistry.sourcePath(className);
+    super.visitSource(source, debug);
+  }
+
   @Override
   public MethodVisitor visitMethod(
       int access, String name, String descriptor, String signature, String[] exceptions) {
@@ -40,34 +71,59 @@ public class ExecutionCountClassVisitor extends ClassVisitor {
     if (mv == null) {
       return null;
     }
-    return new ExecutionCountMethodVisitor(mv, className);
+    return new ExecutionCountMethodVisitor(mv, className, ProbeRegistry.declaringMethod(name));
+  }
+
+  @Override
+  public void visitEnd() {
+    ProbeRegistry.registerClass(className, lineMethods);
+    // Published before the class is defined, and so before any probe can run.
+    slab.seal();
+    super.visitEnd();
   }
 
   /** MethodVisitor that injects execution counting code at each line. */
-  private static class ExecutionCountMethodVisitor extends MethodVisitor {
+  private class ExecutionCountMethodVisitor extends MethodVisitor {
 
     private final String className;
+    private final String methodName;
 
-    public ExecutionCountMethodVisitor(MethodVisitor mv, String className) {
+    public ExecutionCountMethodVisitor(MethodVisitor mv, String className, String methodName) {
       super(Opcodes.ASM9, mv);
       this.className = className;
+      this.methodName = methodName;
     }
 
     @Override
     public void visitLineNumber(int line, Label start) {
-      // Inject call to ExecutionCountStore.recordExecution(className, lineNumber)
-      // Push className
-      mv.visitLdcInsn(className);
+      // Lines an SMAP maps into another file (e.g. Kotlin inline functions) are counted there.
+      String probeClass = className;
+      int probeLine = line;
+      Smap.Location location = smap == null ? null : smap.map(line);
+      if (location != null) {
+        probeLine = location.line;
+        if (!location.path.equals(sourcePath)) {
+          probeClass = ProbeRegistry.mappedSourceKey(location.path);
+          ProbeRegistry.registerMappedSource(probeClass, location.path);
+        }
+      }
+      if (probeClass.equals(className)) {
+        lineMethods.putIfAbsent(probeLine, methodName);
+      }
+
+      // Inject call to ExecutionCountStore.recordExecution(slab, probe)
+      // Push the slab id
+      mv.visitLdcInsn(slab.id());
 
-      // Push lineNumber
-      mv.visitLdcInsn(line);
+      // Push the probe index of this line
+      mv.visitLdcInsn(slab.probe(probeClass, probeLine));
 
-      // Call ExecutionCountStore.recordExecution(String, int)
+      // Call ExecutionCountStore.recordExecution(int, int)
       mv.visitMethodInsn(
           Opcodes.INVOKESTATIC,
           "io/github/sfkamath/jvmhotpath/ExecutionCountStore",
           "recordExecution",
-          "(Ljava/lang/String;I)V",
+          "(II)V",
           false);
 
       // Original line number instruction
@@ -1,15 +1,60 @@
 package io.github.sfkamath.jvmhotpath;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
-/** Thread-safe storage for execution counts. Each line in each class gets its own counter. */
+/**
+ * Thread-safe storage for execution counts.
+ *
+ * <p>Instrumented classes count into slabs: one flat array of counters per class and defining class
+ * loader, laid out at transform time, so a probe is two array lookups instead of two map lookups.
+ * The same class defined by two loaders (plugins, app servers, devtools restarts) therefore keeps
+ * two sets of counters. A slab only holds its loader weakly; once the loader is collected, the slab
+ * is dropped and its id reused, so redeploys do not leak counters. Reads add up the slabs of a
+ * class unless {@link #setGroupByLoader grouping by loader} is on.
+ *
+ * <p>Counts recorded by class name, e.g. those shipped in by other JVMs, are kept in a map keyed by
+ * class and line as before.
+ */
 public final class ExecutionCountStore {
 
+  /** Separates the class name from its loader in the keys of a grouped counter snapshot. */
+  static final char LOADER_SEPARATOR = ';';
+
   // Map: ClassName -> (LineNumber -> ExecutionCount)
   private static final Map<String, Map<Integer, AtomicLong>> counters = new ConcurrentHashMap<>();
 
+  private static final Object lock = new Object();
+  private static final ReferenceQueue<ClassLoader> collected = new ReferenceQueue<>();
+  // Map: counter key -> number of slabs counting lines of it
+  private static final Map<String, Integer> slabsPerKey = new ConcurrentHashMap<>();
+  private static final ArrayDeque<Integer> freeIds = new ArrayDeque<>();
+  private static volatile Slab[] slabs = new Slab[64];
+  // Per slab id, the slab's own counters; only changes under lock.
+  private static AtomicLongArray[] storeCounting = new AtomicLongArray[64];
+  // Per slab id, the counters probes increment: storeCounting, or the running test's table, whose
+  // entries are only filled in once the test reaches the slab.
+  private static volatile AtomicLongArray[] counting = storeCounting;
+  private static int nextId;
+  private static volatile boolean groupByLoader;
+  // Both only change under lock; see setActiveTest.
+  private static TestCounts activeTest;
+  private static TestCounts retiredTest;
+  // Executions whose counters were cleared or dropped since; see generation()
+  private static final AtomicLong dropped = new AtomicLong();
+
   /** Increment the execution count for a specific line in a class. */
   public static void recordExecution(String className, int lineNumber) {
     counters
@@ -18,32 +63,535 @@ public final class ExecutionCountStore {
         .incrementAndGet();
   }
 
+  /** Increment probe {@code probe} of slab {@code slab}; called by instrumented code. */
+  public static void recordExecution(int slab, int probe) {
+    AtomicLongArray counts = counting[slab];
+    if (counts != null) {
+      counts.incrementAndGet(probe);
+    } else {
+      recordFirst(slab, probe);
+    }
+  }
+
+  /** Counts a probe of a slab the running test has not reached yet, setting up its mirror. */
+  private static void recordFirst(int slab, int probe) {
+    synchronized (lock) {
+      Slab[] table = slabs;
+      if (slab >= table.length || table[slab] == null) {
+        // Released since; its counts are gone with it.
+        return;
+      }
+      AtomicLongArray[] active = counting;
+      AtomicLongArray counts = active[slab];
+      if (counts == null) {
+        counts = activeTest == null ? table[slab].counts : activeTest.slab(table[slab]).counts;
+        active[slab] = counts;
+        counting = active;
+      }
+      counts.incrementAndGet(probe);
+    }
+  }
+
+  /** Adds {@code delta} executions to a line, e.g. counts shipped in by another JVM. */
+  public static void add(String className, int lineNumber, long delta) {
+    counters
+        .computeIfAbsent(className, k -> new ConcurrentHashMap<>())
+        .computeIfAbsent(lineNumber, k -> new AtomicLong(0))
+        .addAndGet(delta);
+  }
+
   /** Get the execution count for a specific line. */
   public static long getCount(String className, int lineNumber) {
-    Map<Integer, AtomicLong> classCounters = counters.get(className);
-    if (classCounters == null) {
-      return 0;
+    long count = 0;
+    for (Slab slab : liveSlabs()) {
+      AtomicLongArray test = testCounts(slab);
+      for (int i = 0; i < slab.keys.length; i++) {
+        if (slab.lines[i] == lineNumber && slab.keys[i].equals(className)) {
+          count += count(slab, test, i);
+        }
+      }
     }
-    AtomicLong counter = classCounters.get(lineNumber);
-    return counter == null ? 0 : counter.get();
+    Map<Integer, AtomicLong> classCounters = counters.get(className);
+    AtomicLong counter = classCounters == null ? null : classCounters.get(lineNumber);
+    return counter == null ? count : count + counter.get();
   }
 
-  /** Get all execution counts. */
+  /**
+   * Get all execution counts. With {@link #setGroupByLoader grouping by loader}, the counts of
+   * classes defined by a loader other than the application's are keyed {@code className;loaderName}
+   * (see {@link #LOADER_SEPARATOR}).
+   */
   public static Map<String, Map<Integer, Long>> getAllCountersSnapshot() {
     Map<String, Map<Integer, Long>> snapshot = new ConcurrentHashMap<>();
+    boolean grouped = groupByLoader;
+    for (Slab slab : liveSlabs()) {
+      AtomicLongArray test = testCounts(slab);
+      for (int i = 0; i < slab.keys.length; i++) {
+        long count = count(slab, test, i);
+        if (count > 0) {
+          String key =
+              grouped && slab.loaderName != null
+                  ? slab.keys[i] + LOADER_SEPARATOR + slab.loaderName
+                  : slab.keys[i];
+          snapshot
+              .computeIfAbsent(key, k -> new ConcurrentHashMap<>())
+              .merge(slab.lines[i], count, Long::sum);
+        }
+      }
+    }
     for (Map.Entry<String, Map<Integer, AtomicLong>> classEntry : counters.entrySet()) {
-      Map<Integer, Long> lineCounts = new ConcurrentHashMap<>();
+      Map<Integer, Long> lineCounts =
+          snapshot.computeIfAbsent(classEntry.getKey(), k -> new ConcurrentHashMap<>());
       for (Map.Entry<Integer, AtomicLong> lineEntry : classEntry.getValue().entrySet()) {
-        lineCounts.put(lineEntry.getKey(), lineEntry.getValue().get());
+        lineCounts.merge(lineEntry.getKey(), lineEntry.getValue().get(), Long::sum);
       }
-      snapshot.put(classEntry.getKey(), lineCounts);
     }
     return snapshot;
   }
 
-  /** Clear all counters. */
+  /** Receives one counter at a time from {@link #forEachCount}. */
+  @FunctionalInterface
+  public interface CountVisitor {
+    void accept(String className, int lineNumber, long count);
+  }
+
+  /**
+   * Visits every counter in place, without copying the counter maps like {@link
+   * #getAllCountersSnapshot()} does. Counts are read one at a time while the application keeps
+   * running, so they are not a consistent snapshot across lines. The lines of a class are visited
+   * together; only classes counted in more than one place (several loaders, or lines mapped in from
+   * other classes) are added up first.
+   */
+  public static void forEachCount(CountVisitor visitor) {
+    Map<String, Map<Integer, Long>> shared = new HashMap<>();
+    for (Slab slab : liveSlabs()) {
+      AtomicLongArray test = testCounts(slab);
+      String key = null;
+      boolean own = false;
+      for (int i : slab.order) {
+        if (!slab.keys[i].equals(key)) {
+          key = slab.keys[i];
+          own = slabsPerKey.getOrDefault(key, 0) <= 1 && !counters.containsKey(key);
+        }
+        long count = count(slab, test, i);
+        if (count <= 0) {
+          continue;
+        }
+        if (own) {
+          visitor.accept(key, slab.lines[i], count);
+        } else {
+          shared.computeIfAbsent(key, k -> new HashMap<>()).merge(slab.lines[i], count, Long::sum);
+        }
+      }
+    }
+    for (Map.Entry<String, Map<Integer, AtomicLong>> classEntry : counters.entrySet()) {
+      String className = classEntry.getKey();
+      Map<Integer, Long> merged = shared.get(className);
+      for (Map.Entry<Integer, AtomicLong> lineEntry : classEntry.getValue().entrySet()) {
+        if (merged == null) {
+          visitor.accept(className, lineEntry.getKey(), lineEntry.getValue().get());
+        } else {
+          merged.merge(lineEntry.getKey(), lineEntry.getValue().get(), Long::sum);
+        }
+      }
+    }
+    for (Map.Entry<String, Map<Integer, Long>> classEntry : shared.entrySet()) {
+      for (Map.Entry<Integer, Long> lineEntry : classEntry.getValue().entrySet()) {
+        visitor.accept(classEntry.getKey(), lineEntry.getKey(), lineEntry.getValue());
+      }
+    }
+  }
+
+  /**
+   * A number that changes whenever any count does, so pollers can skip snapshots while nothing
+   * runs. Counters only grow between resets, so it is their total plus the executions that resets
+   * and collected loaders took away. Reads every counter in place, without copying anything.
+   */
+  static long generation() {
+    long total = dropped.get();
+    for (Slab slab : liveSlabs()) {
+      AtomicLongArray test = testCounts(slab);
+      for (int i = 0; i < slab.keys.length; i++) {
+        total += count(slab, test, i);
+      }
+    }
+    for (Map<Integer, AtomicLong> lines : counters.values()) {
+      for (AtomicLong count : lines.values()) {
+        total += count.get();
+      }
+    }
+    return total;
+  }
+
+  /**
+   * Whether {@link #getAllCountersSnapshot()} keeps the counts of classes from other loaders than
+   * the application's apart, so the report shows them separately.
+   */
+  static void setGroupByLoader(boolean enabled) {
+    groupByLoader = enabled;
+  }
+
+  /**
+   * Makes probes count into slabs of {@code test}'s own from now on, instead of the store's; {@code
+   * null} switches back to the store's. Set by {@link TestAttribution} around each test. Swapping
+   * the whole counting table keeps a probe at one table read and one increment, whether or not a
+   * test runs. The test's table starts out empty: the first probe of each slab the test reaches
+   * sets up its mirror, so a test only pays for the classes it runs.
+   *
+   * <p>The counts of the test switched away from are moved into the store and into that test's
+   * totals. A probe that picked up the old table just before the swap may still count into it; that
+   * count is moved over with the next swap.
+   */
+  static void setActiveTest(TestCounts test) {
+    synchronized (lock) {
+      expunge();
+      if (test == activeTest) {
+        return;
+      }
+      if (test == null) {
+        counting = storeCounting;
+      } else {
+        AtomicLongArray[] next = new AtomicLongArray[slabs.length];
+        test.install(next);
+        counting = next;
+      }
+      if (retiredTest != null) {
+        retiredTest.drain();
+      }
+      retiredTest = activeTest;
+      activeTest = test;
+      if (retiredTest != null) {
+        retiredTest.drain();
+      }
+    }
+  }
+
+  /** The running test's counters for {@code slab}, or {@code null} while no test runs. */
+  private static AtomicLongArray testCounts(Slab slab) {
+    AtomicLongArray[] table = counting;
+    AtomicLongArray counts = slab.id < table.length ? table[slab.id] : null;
+    return counts == null || counts == slab.counts ? null : counts;
+  }
+
+  /** Probe {@code i} of {@code slab}, including what the running test counted for it. */
+  private static long count(Slab slab, AtomicLongArray test, int i) {
+    return test == null ? slab.counts.get(i) : slab.counts.get(i) + test.get(i);
+  }
+
+  /** Clear all counters. Slabs stay bound to their classes and start again from zero. */
   public static void reset() {
+    long cleared = 0L;
+    for (Map<Integer, AtomicLong> lines : counters.values()) {
+      for (AtomicLong count : lines.values()) {
+        cleared += count.get();
+      }
+    }
     counters.clear();
+    for (Slab slab : liveSlabs()) {
+      AtomicLongArray test = testCounts(slab);
+      for (int i = 0; i < slab.keys.length; i++) {
+        cleared += slab.counts.getAndSet(i, 0);
+        if (test != null) {
+          cleared += test.getAndSet(i, 0);
+        }
+      }
+    }
+    dropped.addAndGet(cleared);
+  }
+
+  /**
+   * Starts laying out the slab of a class defined by {@code loader}, {@code null} for the boot
+   * loader.
+   */
+  static SlabBuilder newSlab(ClassLoader loader) {
+    synchronized (lock) {
+      expunge();
+      Integer free = freeIds.poll();
+      return new SlabBuilder(free != null ? free : nextId++, loader);
+    }
+  }
+
+  /**
+   * The name the report groups the classes of {@code loader} under, or {@code null} for the
+   * application's own loaders. The identity hash tells apart the loaders of successive redeploys.
+   */
+  static String loaderName(ClassLoader loader) {
+    if (loader == null
+        || loader == ClassLoader.getSystemClassLoader()
+        || loader == ClassLoader.getPlatformClassLoader()) {
+      return null;
+    }
+    String name = loader.getName() != null ? loader.getName() : loader.getClass().getSimpleName();
+    return name + "@" + Integer.toHexString(System.identityHashCode(loader));
+  }
+
+  /** Sealed slabs whose loader is still alive; drops those of collected loaders first. */
+  private static List<Slab> liveSlabs() {
+    synchronized (lock) {
+      expunge();
+    }
+    List<Slab> live = new ArrayList<>();
+    for (Slab slab : slabs) {
+      if (slab != null) {
+        live.add(slab);
+      }
+    }
+    return live;
+  }
+
+  /** Releases every slab whose loader was collected; holds {@link #lock}. */
+  private static void expunge() {
+    Reference<? extends ClassLoader> ref;
+    while ((ref = collected.poll()) != null) {
+      release((Slab) ref);
+    }
+  }
+
+  /** Removes a slab from the table and frees its id; holds {@link #lock}. */
+  private static void release(Slab slab) {
+    Slab[] table = slabs;
+    if (slab.id >= table.length || table[slab.id] != slab) {
+      return;
+    }
+    AtomicLongArray test = testCounts(slab);
+    table[slab.id] = null;
+    slabs = table;
+    storeCounting[slab.id] = null;
+    AtomicLongArray[] counts = counting;
+    if (slab.id < counts.length) {
+      counts[slab.id] = null;
+    }
+    counting = counts;
+    long cleared = 0L;
+    for (int i = 0; i < slab.keys.length; i++) {
+      cleared += count(slab, test, i);
+    }
+    dropped.addAndGet(cleared);
+    if (activeTest != null) {
+      activeTest.forget(slab);
+    }
+    if (retiredTest != null) {
+      retiredTest.forget(slab);
+    }
+    for (String key : new HashSet<>(Arrays.asList(slab.keys))) {
+      slabsPerKey.computeIfPresent(key, (k, n) -> n > 1 ? n - 1 : null);
+    }
+    freeIds.push(slab.id);
+  }
+
+  /**
+   * Collects the probes of one class while it is instrumented. Every distinct line gets the next
+   * probe index; {@link #seal()} then publishes the slab before the class can run.
+   */
+  static final class SlabBuilder {
+    private final int id;
+    private final ClassLoader loader;
+    private final Map<String, Integer> probes = new HashMap<>();
+    private final List<String> keys = new ArrayList<>();
+    private final List<Integer> lines = new ArrayList<>();
+    private Slab sealed;
+    private boolean discarded;
+
+    private SlabBuilder(int id, ClassLoader loader) {
+      this.id = id;
+      this.loader = loader;
+    }
+
+    int id() {
+      return id;
+    }
+
+    /** Returns the probe index counting {@code line} of {@code key}. */
+    int probe(String key, int line) {
+      return probes.computeIfAbsent(
+          key + LOADER_SEPARATOR + line,
+          k -> {
+            keys.add(key);
+            lines.add(line);
+            return keys.size() - 1;
+          });
+    }
+
+    /** Publishes the slab, sized for the probes handed out. */
+    void seal() {
+      if (keys.isEmpty()) {
+        // Nothing to count, e.g. an interface; no need to keep an id for it.
+        discard();
+        return;
+      }
+      synchronized (lock) {
+        if (discarded || sealed != null) {
+          return;
+        }
+        sealed = new Slab(this);
+        Slab[] table = slabs;
+        AtomicLongArray[] store = storeCounting;
+        AtomicLongArray[] active = counting;
+        if (id >= table.length) {
+          table = Arrays.copyOf(table, Math.max(id + 1, table.length * 2));
+        }
+        if (id >= store.length) {
+          store = Arrays.copyOf(store, table.length);
+        }
+        table[id] = sealed;
+        store[id] = sealed.counts;
+        if (active == storeCounting) {
+          active = store;
+        } else if (id >= active.length) {
+          // A running test's table; the slab's entry stays empty until the test reaches it.
+          active = Arrays.copyOf(active, table.length);
+        }
+        storeCounting = store;
+        // Publish the counters before the slab id reaches instrumented code.
+        counting = active;
+        slabs = table;
+        for (String key : new HashSet<>(keys)) {
+          slabsPerKey.merge(key, 1, Integer::sum);
+        }
+      }
+    }
+
+    /** Gives the id back when the class is not instrumented after all. */
+    void discard() {
+      synchronized (lock) {
+        if (discarded) {
+          return;
+        }
+        discarded = true;
+        if (sealed != null) {
+          release(sealed);
+        } else {
+          freeIds.push(id);
+        }
+      }
+    }
+  }
+
+  /** The counters of one class as defined by one loader, indexed by probe. */
+  private static final class Slab extends WeakReference<ClassLoader> {
+    private final int id;
+    private final String loaderName;
+    private final String[] keys;
+    private final int[] lines;
+    // Probe indexes sorted by key, then line, so reads visit each class's lines together.
+    private final int[] order;
+    private final AtomicLongArray counts;
+
+    private Slab(SlabBuilder builder) {
+      super(builder.loader, builder.loader == null ? null : collected);
+      this.id = builder.id;
+      this.loaderName = loaderName(builder.loader);
+      this.keys = builder.keys.toArray(new String[0]);
+      this.lines = new int[keys.length];
+      for (int i = 0; i < lines.length; i++) {
+        lines[i] = builder.lines.get(i);
+      }
+      Integer[] sorted = new Integer[keys.length];
+      for (int i = 0; i < sorted.length; i++) {
+        sorted[i] = i;
+      }
+      Arrays.sort(
+          sorted, Comparator.comparing((Integer i) -> keys[i]).thenComparingInt(i -> lines[i]));
+      this.order = new int[sorted.length];
+      for (int i = 0; i < sorted.length; i++) {
+        order[i] = sorted[i];
+      }
+      this.counts = new AtomicLongArray(keys.length);
+    }
+  }
+
+  /**
+   * The counts of one test: while it runs, probes count into slabs of its own, mirroring the
+   * store's; whenever it stops, they are moved into the store and added to the test's totals. A
+   * slab reused for another class after its loader was collected gets a fresh mirror.
+   */
+  static final class TestCounts {
+    private final String test;
+    private final Map<Slab, TestSlab> slabs = new HashMap<>();
+
+    TestCounts(String test) {
+      this.test = test;
+    }
+
+    String test() {
+      return test;
+    }
+
+    /** This test's mirror of {@code slab}; holds {@link #lock}. */
+    private TestSlab slab(Slab slab) {
+      return slabs.computeIfAbsent(slab, TestSlab::new);
+    }
+
+    /** Puts this test's mirrors of live slabs into a fresh counting table; holds {@link #lock}. */
+    private void install(AtomicLongArray[] table) {
+      for (TestSlab mirror : slabs.values()) {
+        table[mirror.slab.id] = mirror.counts;
+      }
+    }
+
+    /** Number of slabs this test has a mirror of, i.e. the ones it reached. */
+    int mirrors() {
+      synchronized (lock) {
+        return slabs.size();
+      }
+    }
+
+    /** Drops the mirror of a released slab; holds {@link #lock}. */
+    private void forget(Slab slab) {
+      slabs.remove(slab);
+    }
+
+    /**
+     * Moves what probes counted since the last drain into the store and the totals; holds lock.
+     * Only the slabs the test reached have a mirror to walk.
+     */
+    private void drain() {
+      for (TestSlab mirror : slabs.values()) {
+        for (int i = 0; i < mirror.slab.keys.length; i++) {
+          long count = mirror.counts.getAndSet(i, 0);
+          if (count != 0) {
+            mirror.slab.counts.addAndGet(i, count);
+            if (mirror.totals == null) {
+              mirror.totals = new long[mirror.slab.keys.length];
+            }
+            mirror.totals[i] += count;
+          }
+        }
+      }
+    }
+
+    /**
+     * Visits the lines this test ran while it was active. A line counted by several slabs, e.g.
+     * nested classes mapped into one file, is visited once per slab.
+     */
+    void forEachCount(CountVisitor visitor) {
+      synchronized (lock) {
+        for (TestSlab mirror : slabs.values()) {
+          if (mirror.totals == null) {
+            continue;
+          }
+          for (int i : mirror.slab.order) {
+            long count = mirror.totals[i];
+            if (count > 0) {
+              visitor.accept(mirror.slab.keys[i], mirror.slab.lines[i], count);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /** One test's counters for the probes of one slab, and what it counted in total. */
+  private static final class TestSlab {
+    private final Slab slab;
+    private final AtomicLongArray counts;
+    // Allocated once the test counted anything here; most tests only run a few classes.
+    private long[] totals;
+
+    private TestSlab(Slab slab) {
+      this.slab = slab;
+      this.counts = new AtomicLongArray(slab.keys.length);
+    }
   }
 
   private ExecutionCountStore() {}
@@ -1,14 +1,23 @@
 package io.github.sfkamath.jvmhotpath;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.Instrumentation;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.ProtectionDomain;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.objectweb.asm.ClassReader;
@@ -18,6 +27,19 @@ import org.objectweb.asm.ClassWriter;
 public final class ExecutionCounterAgent {
 
   private static final Logger logger = Logger.getLogger(ExecutionCounterAgent.class.getName());
+  private static final String AGENT_PACKAGE = "io/github/sfkamath/jvmhotpath/";
+
+  /**
+   * Where CLI modes print results meant for piping, i.e. {@code --diff} without {@code --output}
+   * and {@code --list}. Progress and errors go to the logger.
+   */
+  static PrintStream out = System.out;
+
+  private static final String TEST_LISTENER_SERVICE =
+      "org.junit.platform.launcher.TestExecutionListener";
+
+  /** Seconds the final report may take before the raw counters are dumped instead. */
+  static final int DEFAULT_SHUTDOWN_TIMEOUT = 10;
 
   private String[] includePackages = new String[0];
   private String[] excludePackages = new String[0];
@@ -26,23 +48,150 @@ public final class ExecutionCounterAgent {
   private int flushInterval;
   private boolean verbose;
   private boolean keepAlive = true;
+  private boolean snapshot;
+  private int port = -1;
+  private boolean snapshotCompressed = true;
+  private int summaryTop = HotpathSummary.DEFAULT_TOP;
+  private boolean pprof;
+  private int shutdownTimeout = DEFAULT_SHUTDOWN_TIMEOUT;
+  private FlushScheduler flushScheduler;
+  private String metricsFile;
+  private int metricsTopLines = PrometheusExporter.DEFAULT_TOP_LINES;
+  private int metricsTopClasses = PrometheusExporter.DEFAULT_TOP_CLASSES;
+  private PrometheusExporter metrics;
+  private boolean history;
+  private int historyKeyframe = HistoryStore.DEFAULT_KEYFRAME_EVERY;
+  private int historyRetention;
+  private int historyMaxSize = HistoryStore.DEFAULT_MAX_MB;
+  private HistoryStore historyStore;
+  private LiveServer liveServer;
+  private boolean outputSet;
+  private int collector = -1;
+  private int collectorInterval = CollectorClient.DEFAULT_INTERVAL_MS;
+  private CollectorClient collectorClient;
+  private boolean groupByLoader;
+  private boolean testAttribution;
+  // Set once shutdown starts, so the final flush writes what periodic flushes leave out.
+  private volatile boolean finalFlush;
+  private int testsPerLine = TestAttribution.DEFAULT_TESTS_PER_LINE;
 
   public static void main(String[] args) {
     if (args.length == 0) {
       logger.info(
-          "Usage: java -jar jvm-hotpath-agent.jar --data=<data.json> --output=<report.html>");
+          "Usage: java -jar jvm-hotpath-agent.jar --data=<data.json|data.hps>"
+              + " [--jfr=<recording.jfr>] --output=<report.html>\n"
+              + "       java -jar jvm-hotpath-agent.jar --data=<report.counters.json>"
+              + " --sourcepath=<dirs> --output=<report.html>\n"
+              + "       java -jar jvm-hotpath-agent.jar --data=<data.json|data.hps>"
+              + " --pprof=<profile.pb.gz>\n"
+              + "       java -jar jvm-hotpath-agent.jar --merge [--parallelism=<n>]"
+              + " [--sourcepath=<dirs>] --output=<report.html> <snapshot or directory>...\n"
+              + "       java -jar jvm-hotpath-agent.jar --diff [--normalize=total|none|marker:<path>:<line>]"
+              + " [--ratio=<x>] [--min-count=<n>] [--min-delta=<n>] [--include-new]"
+              + " [--format=json|markdown|html]"
+              + " [--output=<file>] [--fail-on-regression] <base> <head>\n"
+              + "       java -jar jvm-hotpath-agent.jar --history=<report.history.hph>"
+              + " [--list] [--at=<time>] [--from=<time>] [--sourcepath=<dirs>]"
+              + " [--output=<report.html>]\n"
+              + "       java -jar jvm-hotpath-agent.jar --collect=<port> [--port=<live port>]"
+              + " [--flush-interval=<seconds>] [--sourcepath=<dirs>] [--output=<report.html>]");
       return;
     }
 
     String dataPath = null;
-    String outputPath = "execution-report.html";
+    String outputPath = null;
+    String pprofPath = null;
+    String jfrPath = null;
+    String sourcePath = null;
+    String historyPath = null;
+    String at = null;
+    String from = null;
+    boolean list = false;
+    int collectPort = -1;
+    int livePort = 0;
+    int collectFlushInterval = 0;
+    boolean merge = false;
+    boolean diff = false;
+    boolean failOnRegression = false;
+    SnapshotDiff.Options diffOptions = new SnapshotDiff.Options();
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    List<String> inputs = new ArrayList<>();
 
     for (String arg : args) {
       if (arg.startsWith("--data=")) {
         dataPath = arg.substring(7);
       } else if (arg.startsWith("--output=")) {
         outputPath = arg.substring(9);
+      } else if (arg.startsWith("--pprof=")) {
+        pprofPath = arg.substring(8);
+      } else if (arg.startsWith("--sourcepath=")) {
+        sourcePath = arg.substring(13);
+      } else if (arg.startsWith("--jfr=")) {
+        jfrPath = arg.substring(6);
+      } else if (arg.startsWith("--history=")) {
+        historyPath = arg.substring(10);
+      } else if (arg.startsWith("--at=")) {
+        at = arg.substring(5);
+      } else if (arg.startsWith("--from=")) {
+        from = arg.substring(7);
+      } else if (arg.equals("--list")) {
+        list = true;
+      } else if (arg.startsWith("--collect=")) {
+        collectPort = Integer.parseInt(arg.substring(10));
+      } else if (arg.startsWith("--port=")) {
+        livePort = Integer.parseInt(arg.substring(7));
+      } else if (arg.startsWith("--flush-interval=")) {
+        collectFlushInterval = Integer.parseInt(arg.substring(17));
+      } else if (arg.equals("--merge")) {
+        merge = true;
+      } else if (arg.startsWith("--parallelism=")) {
+        parallelism = Integer.parseInt(arg.substring(14));
+      } else if (arg.equals("--diff")) {
+        diff = true;
+      } else if (arg.startsWith("--normalize=")) {
+        diffOptions.normalize = arg.substring(12);
+      } else if (arg.startsWith("--ratio=")) {
+        diffOptions.ratio = Double.parseDouble(arg.substring(8));
+      } else if (arg.startsWith("--min-count=")) {
+        diffOptions.minCount = Long.parseLong(arg.substring(12));
+      } else if (arg.startsWith("--min-delta=")) {
+        diffOptions.minDelta = Long.parseLong(arg.substring(12));
+      } else if (arg.equals("--include-new")) {
+        diffOptions.includeNew = true;
+      } else if (arg.startsWith("--format=")) {
+        diffOptions.format = arg.substring(9);
+      } else if (arg.equals("--fail-on-regression")) {
+        failOnRegression = true;
+      } else if (!arg.startsWith("--")) {
+        inputs.add(arg);
+      }
+    }
+
+    if (diff) {
+      int regressions = diffSnapshots(inputs, outputPath, diffOptions);
+      if (failOnRegression && regressions != 0) {
+        System.exit(regressions < 0 ? 2 : 1);
       }
+      return;
+    }
+
+    if (outputPath == null) {
+      outputPath = "execution-report.html";
+    }
+
+    if (merge) {
+      mergeSnapshots(inputs, sourcePath, outputPath, parallelism);
+      return;
+    }
+
+    if (collectPort >= 0) {
+      collect(collectPort, livePort, collectFlushInterval, sourcePath, outputPath);
+      return;
+    }
+
+    if (historyPath != null) {
+      replayHistory(Path.of(historyPath), list, at, from, sourcePath, outputPath);
+      return;
     }
 
     if (dataPath == null) {
@@ -50,14 +199,157 @@ public final class ExecutionCounterAgent {
       return;
     }
 
+    if (pprofPath != null) {
+      try {
+        ReportGenerator.convertToPprof(Path.of(dataPath), Path.of(pprofPath));
+        logger.info("Profile written to: " + pprofPath);
+      } catch (Exception e) {
+        logger.log(Level.SEVERE, "Error writing profile: " + e.getMessage(), e);
+      }
+      return;
+    }
+
     try {
       logger.info("Regenerating report...");
-      ReportGenerator.regenerateReport(dataPath, outputPath);
+      ReportGenerator.regenerateReport(dataPath, outputPath, sourcePath, jfrPath);
     } catch (Exception e) {
       logger.log(Level.SEVERE, "Error regenerating report: " + e.getMessage(), e);
     }
   }
 
+  private static void mergeSnapshots(
+      List<String> inputs, String sourcePath, String outputPath, int parallelism) {
+    if (inputs.isEmpty()) {
+      logger.severe("Error: --merge needs at least one snapshot file or directory.");
+      return;
+    }
+    try {
+      List<Path> files = SnapshotMerger.expandInputs(inputs);
+      logger.info("Merging " + files.size() + " snapshots...");
+      ReportGenerator.writeAggregateReport(files, sourcePath, outputPath, parallelism);
+    } catch (Exception e) {
+      logger.log(Level.SEVERE, "Error merging snapshots: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Lists the records of a history file, or renders the counts it recorded at {@code at} (the
+   * executions since {@code from} when given) as a report.
+   */
+  private static void replayHistory(
+      Path history, boolean list, String at, String from, String sourcePath, String outputPath) {
+    try {
+      if (list) {
+        HistoryStore.Reader reader = HistoryStore.Reader.open(history);
+        for (int i = 0; i < reader.size(); i++) {
+          out.println(
+              Instant.ofEpochMilli(reader.timestamp(i))
+                  + (reader.isKeyframe(i) ? "  keyframe" : "  delta"));
+        }
+        return;
+      }
+      ReportGenerator.regenerateFromHistory(history, at, from, sourcePath, outputPath);
+    } catch (Exception e) {
+      logger.log(Level.SEVERE, "Error replaying history: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Runs a collector that adds up the counts shipped by agents started with {@code
+   * collector=<port>} and serves them as one live report, until the process is stopped. The merged
+   * report is also written to {@code outputPath} every {@code flushInterval} seconds and on exit.
+   */
+  private static void collect(
+      int collectPort, int livePort, int flushInterval, String sourcePath, String outputPath) {
+    String sources = sourcePath == null ? "" : sourcePath;
+    try {
+      Collector collector = Collector.start(collectPort);
+      ReportModel.watchSources();
+      LiveServer server = LiveServer.start(livePort, sources);
+      AtomicBoolean finalFlush = new AtomicBoolean();
+      FlushScheduler scheduler =
+          new FlushScheduler(
+              () ->
+                  ReportGenerator.generateHtmlReport(
+                      outputPath,
+                      sources,
+                      false,
+                      finalFlush.get() ? HotpathSummary.DEFAULT_TOP : 0),
+              flushInterval * 1000L,
+              false);
+      scheduler.start();
+      Runtime.getRuntime()
+          .addShutdownHook(
+              new Thread(
+                  () -> {
+                    collector.close();
+                    finalFlush.set(true);
+                    scheduler.finish(DEFAULT_SHUTDOWN_TIMEOUT * 1000L);
+                    server.close();
+                  },
+                  "JvmHotpath-Shutdown"));
+      logger.info(
+          "Collecting on 127.0.0.1:"
+              + collector.port()
+              + "; start agents with collector="
+              + collector.port());
+      logger.info("Live report: http://127.0.0.1:" + server.port() + "/");
+      collector.await();
+    } catch (IOException e) {
+      logger.log(Level.SEVERE, "Error starting the collector: " + e.getMessage(), e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Writes the regressions of {@code inputs[1]} against {@code inputs[0]} and returns how many
+   * lines regressed, or -1 when the diff could not be made. JSON and Markdown go to stdout unless
+   * an output file is given.
+   */
+  static int diffSnapshots(List<String> inputs, String outputPath, SnapshotDiff.Options options) {
+    if (inputs.size() != 2) {
+      logger.severe("Error: --diff needs exactly two snapshots: <base> <head>.");
+      return -1;
+    }
+    boolean html = "html".equals(options.format);
+    if (!html && !"json".equals(options.format) && !"markdown".equals(options.format)) {
+      logger.severe("Error: unknown --format: " + options.format);
+      return -1;
+    }
+    try {
+      SnapshotDiff.Result result =
+          SnapshotDiff.diff(Path.of(inputs.get(0)), Path.of(inputs.get(1)), options, html);
+      if (html) {
+        // A summary would list the head's hottest lines rather than the regressions; leave it out.
+        ReportGenerator.writeReport(
+            result.report, outputPath == null ? "execution-diff.html" : outputPath, false, 0);
+      } else if (outputPath == null) {
+        write(result, options.format, out);
+        out.flush();
+      } else {
+        try (OutputStream file =
+            new BufferedOutputStream(Files.newOutputStream(Path.of(outputPath)))) {
+          write(result, options.format, file);
+        }
+        logger.info("Diff written to: " + outputPath);
+      }
+      return result.regressions.size();
+    } catch (Exception e) {
+      logger.log(Level.SEVERE, "Error diffing snapshots: " + e.getMessage(), e);
+      return -1;
+    }
+  }
+
+  private static void write(SnapshotDiff.Result result, String format, OutputStream out)
+      throws IOException {
+    if ("markdown".equals(format)) {
+      SnapshotDiff.writeMarkdown(result, out);
+    } else {
+      SnapshotDiff.writeJson(result, out);
+    }
+  }
+
   public static void premain(String agentArgs, Instrumentation inst) {
     new ExecutionCounterAgent().init(agentArgs, inst);
   }
@@ -82,48 +374,161 @@ public final class ExecutionCounterAgent {
     }
 
     parseArguments(agentArgs);
+    ExecutionCountStore.setGroupByLoader(groupByLoader);
+    ReportModel.watchSources();
+    if (testAttribution && registerTestListener(inst)) {
+      TestAttribution.enable(testsPerLine);
+    }
+    metrics = new PrometheusExporter(metricsTopLines, metricsTopClasses);
+
+    if (history) {
+      historyStore =
+          new HistoryStore(
+              ReportGenerator.historyPath(outputFile),
+              historyKeyframe,
+              historyRetention * 60_000L,
+              historyMaxSize * 1024L * 1024L);
+    }
 
-    if (flushInterval > 0) {
-      Thread flushThread =
-          new Thread(
-              () -> {
-                while (true) {
-                  try {
-                    Thread.sleep(flushInterval * 1000L);
-                    if (verbose) {
-                      logger.info("[FLUSH] Generating report...");
-                    }
-                    ReportGenerator.generateHtmlReport(outputFile, sourcePath, verbose);
-                  } catch (InterruptedException e) {
-                    break;
-                  } catch (Throwable t) {
-                    if (verbose) {
-                      logger.log(Level.WARNING, "Error in flush thread", t);
-                    }
-                  }
-                }
-              },
-              "JvmHotpath-Flush-Thread");
-      flushThread.setDaemon(true);
-      flushThread.start();
+    if (collector >= 0) {
+      collectorClient =
+          CollectorClient.start(
+              collector,
+              collectorInterval,
+              ProcessHandle.current().pid() + "@" + System.currentTimeMillis());
+      logger.info("Shipping counts to the collector on 127.0.0.1:" + collector);
+    }
+
+    // Agents shipping to a collector leave the report to it unless given an output of their own.
+    FlushScheduler.Flush flush =
+        collectorClient == null || outputSet ? this::writeReport : () -> {};
+    flushScheduler = new FlushScheduler(flush, flushInterval * 1000L, verbose);
+    flushScheduler.start();
+
+    if (port >= 0) {
+      try {
+        liveServer =
+            LiveServer.start(
+                port, sourcePath, metrics, historyStore == null ? null : historyStore.file());
+        logger.info("Live report: http://127.0.0.1:" + liveServer.port() + "/");
+      } catch (IOException e) {
+        logger.log(Level.SEVERE, "Could not start live report server: " + e.getMessage(), e);
+      }
     }
 
     inst.addTransformer(new ExecutionCountTransformer());
 
-    Runtime.getRuntime()
-        .addShutdownHook(
-            new Thread(
-                () -> {
-                  try {
-                    ReportGenerator.generateHtmlReport(outputFile, sourcePath, verbose);
-                  } catch (Exception e) {
-                    logger.log(Level.SEVERE, "Error generating report during shutdown", e);
-                  }
-                }));
+    Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "JvmHotpath-Shutdown"));
 
     logger.info("=== JVM Hotpath Agent Ready ===\n");
   }
 
+  /**
+   * Puts a jar holding nothing but the service registration of {@link HotpathTestListener} on the
+   * system class path, so the JUnit Platform launcher picks the listener up. The agent jar itself
+   * carries no registration: a launcher loading it through a class loader that cannot see the
+   * agent's copy of the launcher API would fail to start. So the listener is only registered with
+   * {@code testAttribution=true}, and only when the launcher API is on the class path the agent
+   * lives on. Returns whether it was registered.
+   */
+  private static boolean registerTestListener(Instrumentation inst) {
+    ClassLoader loader = ExecutionCounterAgent.class.getClassLoader();
+    try {
+      Class.forName(TEST_LISTENER_SERVICE, false, loader);
+    } catch (ClassNotFoundException | LinkageError e) {
+      logger.warning(
+          "Test attribution is off: the JUnit Platform launcher is not on the class path");
+      return false;
+    }
+    try {
+      Path jar = Files.createTempFile("jvm-hotpath-listener-", ".jar");
+      jar.toFile().deleteOnExit();
+      try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+        out.putNextEntry(new JarEntry("META-INF/services/" + TEST_LISTENER_SERVICE));
+        out.write(
+            (ExecutionCounterAgent.class.getPackageName() + ".HotpathTestListener\n")
+                .getBytes(StandardCharsets.UTF_8));
+        out.closeEntry();
+      }
+      inst.appendToSystemClassLoaderSearch(new JarFile(jar.toFile()));
+      return true;
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Could not register the test listener: " + e.getMessage(), e);
+      return false;
+    }
+  }
+
+  /**
+   * Writes the final report within {@code shutdownTimeout} seconds. If that does not finish in
+   * time, the raw counters are dumped so the report can still be rendered later with the CLI.
+   */
+  void shutdown() {
+    finalFlush = true;
+    try {
+      finish();
+    } finally {
+      if (liveServer != null) {
+        liveServer.close();
+      }
+    }
+  }
+
+  private void finish() {
+    if (collectorClient != null && !collectorClient.finish(Math.max(1, shutdownTimeout) * 1000L)) {
+      logger.warning("The last counts could not be sent to the collector");
+    }
+    if (shutdownTimeout > 0 && flushScheduler.finish(shutdownTimeout * 1000L)) {
+      closeHistory();
+      return;
+    }
+    try {
+      Path dump = ReportGenerator.writeCounterDump(outputFile);
+      logger.warning(
+          "Wrote raw counters to "
+              + dump
+              + "; render them with: java -jar jvm-hotpath-agent.jar --data="
+              + dump
+              + " --sourcepath="
+              + sourcePath
+              + " --output="
+              + outputFile);
+    } catch (Exception e) {
+      logger.log(Level.SEVERE, "Error dumping counters during shutdown", e);
+    }
+  }
+
+  private void closeHistory() {
+    if (historyStore != null) {
+      try {
+        historyStore.close();
+      } catch (IOException e) {
+        logger.log(Level.FINE, "Could not close the history file", e);
+      }
+    }
+  }
+
+  private void writeReport() throws IOException {
+    // The summary digests the finished run; periodic flushes would only rewrite it.
+    ReportGenerator.generateHtmlReport(
+        outputFile, sourcePath, verbose, finalFlush ? summaryTop : 0);
+    if (historyStore != null) {
+      // The report just brought the model up to date; record the counts it holds.
+      historyStore.append(System.currentTimeMillis(), ReportModel.forSourcePath(sourcePath));
+    }
+    if (snapshot) {
+      ReportGenerator.writeSnapshot(outputFile, sourcePath, snapshotCompressed, finalFlush);
+    }
+    if (pprof) {
+      ReportGenerator.writePprof(outputFile, sourcePath);
+    }
+    if (metricsFile != null) {
+      metrics.writeTextfile(Path.of(metricsFile));
+    }
+    if (TestAttribution.hasData()) {
+      ReportGenerator.writeTestAttribution(outputFile);
+    }
+  }
+
   void parseArguments(String agentArgs) {
     if (agentArgs == null || agentArgs.trim().isEmpty()) {
       return;
@@ -178,6 +583,7 @@ public final class ExecutionCounterAgent {
           break;
         case "output":
           outputFile = value;
+          outputSet = true;
           break;
         case "sourcepath":
           sourcePath = value;
@@ -188,12 +594,77 @@ public final class ExecutionCounterAgent {
         case "verbose":
           verbose = Boolean.parseBoolean(value);
           break;
+        case "shutdownTimeout":
+          shutdownTimeout = Integer.parseInt(value);
+          break;
         case "keepAlive":
           keepAlive = Boolean.parseBoolean(value);
           break;
+        case "port":
+          port = Integer.parseInt(value);
+          break;
+        case "groupByLoader":
+          // Report classes of plugin, app server or restart loaders apart from the application's
+          groupByLoader = Boolean.parseBoolean(value);
+          break;
+        case "testAttribution":
+          // Attribute line counts to the JUnit Platform tests that ran them
+          testAttribution = Boolean.parseBoolean(value);
+          break;
+        case "testsPerLine":
+          // Tests kept for each line in the test attribution index
+          testsPerLine = Integer.parseInt(value);
+          break;
+        case "snapshot":
+          // true or deflate: compressed snapshot, raw: uncompressed
+          snapshot = "raw".equals(value) || "deflate".equals(value) || Boolean.parseBoolean(value);
+          snapshotCompressed = !"raw".equals(value);
+          break;
+        case "history":
+          history = Boolean.parseBoolean(value);
+          break;
+        case "historyKeyframe":
+          // Records between full keyframes; reads replay at most this many deltas
+          historyKeyframe = Integer.parseInt(value);
+          break;
+        case "historyRetention":
+          // Minutes of history to keep; 0 keeps everything that fits historyMaxSize
+          historyRetention = Integer.parseInt(value);
+          break;
+        case "historyMaxSize":
+          // Megabytes before older records are thinned out
+          historyMaxSize = Integer.parseInt(value);
+          break;
+        case "collector":
+          // Port of a collector started with --collect on this machine
+          collector = Integer.parseInt(value);
+          break;
+        case "collectorInterval":
+          // Milliseconds between batches sent to the collector
+          collectorInterval = Integer.parseInt(value);
+          break;
+        case "pprof":
+          pprof = Boolean.parseBoolean(value);
+          break;
+        case "metricsFile":
+          metricsFile = value;
+          break;
+        case "metricsTopLines":
+          metricsTopLines = Integer.parseInt(value);
+          break;
+        case "metricsTopClasses":
+          metricsTopClasses = Integer.parseInt(value);
+          break;
+        case "summary":
+          // Number of lines, methods and files in the summary; 0 or false turns it off
+          summaryTop =
+              "false".equals(value)
+                  ? 0
+                  : "true".equals(value) ? HotpathSummary.DEFAULT_TOP : Integer.parseInt(value);
+          break;
         default:
           if (verbose) {
-            logger.log(Level.FINE, "Unknown agent argument: {0}={1}", new Object[]{key, value});
+            logger.log(Level.FINE, "Unknown agent argument: {0}={1}", new Object[] {key, value});
           }
           break;
       }
@@ -212,6 +683,70 @@ public final class ExecutionCounterAgent {
     return Arrays.asList(excludePackages);
   }
 
+  boolean isHistory() {
+    return history;
+  }
+
+  int getHistoryKeyframe() {
+    return historyKeyframe;
+  }
+
+  int getHistoryRetention() {
+    return historyRetention;
+  }
+
+  int getHistoryMaxSize() {
+    return historyMaxSize;
+  }
+
+  boolean isGroupByLoader() {
+    return groupByLoader;
+  }
+
+  boolean isTestAttribution() {
+    return testAttribution;
+  }
+
+  int getTestsPerLine() {
+    return testsPerLine;
+  }
+
+  int getCollector() {
+    return collector;
+  }
+
+  int getCollectorInterval() {
+    return collectorInterval;
+  }
+
+  boolean isPprof() {
+    return pprof;
+  }
+
+  String getMetricsFile() {
+    return metricsFile;
+  }
+
+  int getMetricsTopLines() {
+    return metricsTopLines;
+  }
+
+  int getMetricsTopClasses() {
+    return metricsTopClasses;
+  }
+
+  int getSummaryTop() {
+    return summaryTop;
+  }
+
+  int getShutdownTimeout() {
+    return shutdownTimeout;
+  }
+
+  FlushScheduler getFlushScheduler() {
+    return flushScheduler;
+  }
+
   int getFlushInterval() {
     return flushInterval;
   }
@@ -224,10 +759,28 @@ public final class ExecutionCounterAgent {
     return sourcePath;
   }
 
+  int getPort() {
+    return port;
+  }
+
+  boolean isSnapshot() {
+    return snapshot;
+  }
+
+  boolean isSnapshotCompressed() {
+    return snapshotCompressed;
+  }
+
   boolean isVerbose() {
     return verbose;
   }
 
+  /** Classes of the agent itself live directly in this package; sub-packages are user code. */
+  private static boolean isAgentClass(String className) {
+    return className.startsWith(AGENT_PACKAGE)
+        && className.indexOf('/', AGENT_PACKAGE.length()) < 0;
+  }
+
   private class ExecutionCountTransformer implements ClassFileTransformer {
     @Override
     public byte[] transform(
@@ -240,8 +793,7 @@ public final class ExecutionCounterAgent {
         return null;
       }
       // Don't instrument our own core classes
-      if (className.startsWith("io/github/sfkamath/jvmhotpath/Execution")
-          || className.startsWith("io/github/sfkamath/jvmhotpath/Report")) {
+      if (isAgentClass(className)) {
         return null;
       }
       if (className.startsWith("java/")
@@ -285,19 +837,25 @@ public final class ExecutionCounterAgent {
         }
       }
 
+      ExecutionCountClassVisitor visitor = null;
       try {
         if (verbose) {
           logger.log(Level.INFO, "[INSTRUMENT] Attempting: {0}", className);
         }
         ClassReader cr = new ClassReader(classfileBuffer);
         ClassWriter cw = new ClassWriter(cr, ClassWriter.COMPUTE_FRAMES);
-        cr.accept(new ExecutionCountClassVisitor(cw, className), ClassReader.EXPAND_FRAMES);
+        visitor = new ExecutionCountClassVisitor(cw, className, loader);
+        cr.accept(visitor, ClassReader.EXPAND_FRAMES);
         byte[] result = cw.toByteArray();
         if (verbose) {
           logger.log(Level.INFO, "[INSTRUMENT] Success: {0}", className);
         }
         return result;
       } catch (Throwable t) {
+        if (visitor != null) {
+          // The class is defined from its original bytes, which never count into the slab.
+          visitor.discard();
+        }
         if (verbose) {
           logger.log(Level.SEVERE, "[INSTRUMENT] Failed: " + className, t);
         }
@@ -0,0 +1,166 @@
+package io.github.sfkamath.jvmhotpath;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the periodic report flush off the application's threads.
+ *
+ * <p>A clock thread ticks at a fixed rate and hands each flush to a single worker. A tick that
+ * finds the previous flush still running is skipped rather than queued, so a slow flush never piles
+ * up work or runs twice at once. The final flush at shutdown runs on the same worker under a
+ * deadline, so the caller can fall back to something cheaper when rendering takes too long.
+ */
+final class FlushScheduler {
+
+  /** The work done on every flush. */
+  @FunctionalInterface
+  interface Flush {
+    void run() throws Exception;
+  }
+
+  private static final Logger logger = Logger.getLogger(FlushScheduler.class.getName());
+
+  private final Flush flush;
+  private final long intervalMillis;
+  private final boolean verbose;
+  private final ScheduledExecutorService clock;
+  private final ExecutorService worker;
+  private final AtomicBoolean busy = new AtomicBoolean();
+  private final AtomicLong flushes = new AtomicLong();
+  private final AtomicLong skipped = new AtomicLong();
+  private final AtomicLong lastDurationMillis = new AtomicLong();
+  private final AtomicLong maxDurationMillis = new AtomicLong();
+
+  /** Creates a scheduler that flushes every {@code intervalMillis}; 0 only flushes at shutdown. */
+  FlushScheduler(Flush flush, long intervalMillis, boolean verbose) {
+    this.flush = flush;
+    this.intervalMillis = intervalMillis;
+    this.verbose = verbose;
+    this.clock = Executors.newSingleThreadScheduledExecutor(daemon("JvmHotpath-Flush-Clock"));
+    this.worker = Executors.newSingleThreadExecutor(daemon("JvmHotpath-Flush-Thread"));
+  }
+
+  /** Starts the clock, unless the interval is 0. */
+  void start() {
+    if (intervalMillis > 0) {
+      clock.scheduleAtFixedRate(this::tick, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Stops the clock and runs a last flush, waiting at most {@code timeoutMillis} for it and for any
+   * flush still in progress. Returns {@code false} if the flush failed or did not finish in time;
+   * it is then abandoned, which is safe because every report file is published atomically.
+   */
+  boolean finish(long timeoutMillis) {
+    clock.shutdownNow();
+    try {
+      // The worker is single-threaded, so this waits behind a flush that is still running.
+      Future<?> last =
+          worker.submit(
+              () -> {
+                timed();
+                return null;
+              });
+      last.get(timeoutMillis, TimeUnit.MILLISECONDS);
+      return true;
+    } catch (TimeoutException e) {
+      logger.warning("Final report did not finish within " + timeoutMillis + " ms");
+      return false;
+    } catch (ExecutionException e) {
+      logger.log(Level.SEVERE, "Error generating final report", e.getCause());
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } finally {
+      worker.shutdownNow();
+    }
+  }
+
+  long flushes() {
+    return flushes.get();
+  }
+
+  long skipped() {
+    return skipped.get();
+  }
+
+  long lastDurationMillis() {
+    return lastDurationMillis.get();
+  }
+
+  long maxDurationMillis() {
+    return maxDurationMillis.get();
+  }
+
+  private void tick() {
+    if (!busy.compareAndSet(false, true)) {
+      skipped.incrementAndGet();
+      if (verbose) {
+        logger.info("[FLUSH] Previous flush still running, skipping this one");
+      }
+      return;
+    }
+    try {
+      worker.execute(
+          () -> {
+            try {
+              if (verbose) {
+                logger.info("[FLUSH] Generating report...");
+              }
+              timed();
+            } catch (Throwable t) {
+              if (verbose) {
+                logger.log(Level.WARNING, "Error in flush thread", t);
+              }
+            } finally {
+              busy.set(false);
+            }
+          });
+    } catch (RuntimeException e) {
+      // Rejected after finish() shut the worker down.
+      busy.set(false);
+    }
+  }
+
+  private void timed() throws Exception {
+    long start = System.nanoTime();
+    try {
+      flush.run();
+    } finally {
+      long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      flushes.incrementAndGet();
+      lastDurationMillis.set(millis);
+      long previousMax = maxDurationMillis.getAndAccumulate(millis, Math::max);
+      // Warn once, the first time a flush outlasts the interval.
+      if (intervalMillis > 0 && millis > intervalMillis && previousMax <= intervalMillis) {
+        logger.warning(
+            "Report flush took "
+                + millis
+                + " ms, longer than the "
+                + intervalMillis
+                + " ms interval; flushes that would overlap are skipped");
+      }
+    }
+  }
+
+  private static ThreadFactory daemon(String name) {
+    return r -> {
+      Thread t = new Thread(r, name);
+      t.setDaemon(true);
+      return t;
+    };
+  }
+}
@@ -0,0 +1,584 @@
+package io.github.sfkamath.jvmhotpath;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only history of the report's counts ({@code <report>.history.hph}), one record per flush.
+ *
+ * <p>Layout:
+ *
+ * <pre>
+ * magic    "JHPH" (4 bytes)
+ * version  1 byte (currently 1)
+ * records  kind       1 byte: 'K' keyframe or 'D' delta
+ *          timestamp  8 bytes, big-endian
+ *          length     4 bytes, big-endian
+ *          body       a deflated {@link SnapshotFormat} snapshot without source text
+ * </pre>
+ *
+ * <p>A keyframe holds the counts of every counted file; a delta only the lines whose counts went up
+ * since the previous record, with their new totals. The counts at any time are the latest keyframe
+ * at or before it with the deltas after it applied in order, and a keyframe every {@code
+ * keyframeEvery} records bounds how many deltas that replays. Counts that go down, e.g. after a
+ * reset, start a new keyframe. A record cut short by a crash is ignored when reading.
+ *
+ * <p>The file is compacted once it outgrows {@code maxBytes} or holds records well past the
+ * retention: expired records are dropped and the older half of the rest is thinned to every second
+ * record, so old history keeps a coarser resolution while recent history stays complete.
+ */
+final class HistoryStore implements Closeable {
+
+  static final String EXTENSION = ".history.hph";
+  static final int DEFAULT_KEYFRAME_EVERY = 30;
+  static final int DEFAULT_MAX_MB = 64;
+
+  private static final byte[] MAGIC = {'J', 'H', 'P', 'H'};
+  private static final int VERSION = 1;
+  private static final byte KEYFRAME = 'K';
+  private static final byte DELTA = 'D';
+  private static final int HEADER_BYTES = 13;
+
+  private final Path file;
+  private final int keyframeEvery;
+  private final long retentionMillis;
+  private final long maxBytes;
+  private Map<String, ReportGenerator.FileData> last = new HashMap<>();
+  private FileChannel channel;
+  private int sinceKeyframe;
+  private long firstTimestamp;
+
+  /**
+   * Creates a store that starts {@code file} afresh on the first append. A {@code retentionMillis}
+   * of 0 keeps every record until the file outgrows {@code maxBytes}.
+   */
+  HistoryStore(Path file, int keyframeEvery, long retentionMillis, long maxBytes) {
+    this.file = file;
+    this.keyframeEvery = Math.max(1, keyframeEvery);
+    this.retentionMillis = Math.max(0L, retentionMillis);
+    this.maxBytes = maxBytes;
+  }
+
+  Path file() {
+    return file;
+  }
+
+  /** Appends the counted files of {@code model}, as of its latest update. */
+  void append(long timestamp, ReportModel model) throws IOException {
+    List<ReportGenerator.FileData> files = new ArrayList<>();
+    model.forEachCounted(files::add);
+    append(timestamp, files);
+  }
+
+  /**
+   * Appends a record for {@code files}: a delta of the lines that went up since the previous
+   * record, or a keyframe when one is due or a count went down. Nothing is written when no count
+   * changed.
+   */
+  synchronized void append(long timestamp, List<ReportGenerator.FileData> files)
+      throws IOException {
+    Map<String, ReportGenerator.FileData> current = new HashMap<>();
+    for (ReportGenerator.FileData f : files) {
+      if (!f.getCounts().isEmpty()) {
+        current.put(key(f.getPath(), f.getProject()), f);
+      }
+    }
+
+    boolean keyframe = channel == null || sinceKeyframe >= keyframeEvery;
+    List<ReportGenerator.FileData> changed = new ArrayList<>();
+    if (!keyframe) {
+      for (String gone : last.keySet()) {
+        if (!current.containsKey(gone)) {
+          keyframe = true;
+          break;
+        }
+      }
+    }
+    if (!keyframe) {
+      for (Map.Entry<String, ReportGenerator.FileData> entry : current.entrySet()) {
+        ReportGenerator.FileData previous = last.get(entry.getKey());
+        Map<Integer, Long> rose =
+            rose(previous == null ? Map.of() : previous.getCounts(), entry.getValue().getCounts());
+        if (rose == null) {
+          keyframe = true;
+          break;
+        }
+        if (!rose.isEmpty()) {
+          changed.add(
+              new ReportGenerator.FileData(
+                  entry.getValue().getPath(), rose, null, entry.getValue().getProject()));
+        }
+      }
+      if (!keyframe && changed.isEmpty()) {
+        return;
+      }
+    }
+
+    if (channel == null) {
+      channel =
+          FileChannel.open(
+              file,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE,
+              StandardOpenOption.TRUNCATE_EXISTING);
+      writeMagic(channel);
+      firstTimestamp = timestamp;
+    }
+    if (keyframe) {
+      writeRecord(channel, KEYFRAME, timestamp, new ArrayList<>(current.values()));
+      sinceKeyframe = 0;
+    } else {
+      writeRecord(channel, DELTA, timestamp, changed);
+      sinceKeyframe++;
+    }
+    last = current;
+
+    boolean expired =
+        retentionMillis > 0 && timestamp - firstTimestamp > retentionMillis + retentionMillis / 4;
+    if (expired || channel.size() > maxBytes) {
+      compact(timestamp);
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (channel != null) {
+      channel.close();
+      channel = null;
+    }
+  }
+
+  /**
+   * Rewrites the file without the records past the retention and, when it is too large, with the
+   * older half of the rest thinned out. The kept records are re-encoded against each other.
+   */
+  private void compact(long now) throws IOException {
+    channel.close();
+    channel = null;
+    Reader reader = new Reader(ByteBuffer.wrap(Files.readAllBytes(file)));
+    int count = reader.size();
+
+    int first = 0;
+    if (retentionMillis > 0) {
+      while (first < count - 1 && reader.timestamp(first) < now - retentionMillis) {
+        first++;
+      }
+    }
+    List<Integer> keep = new ArrayList<>();
+    int older = Files.size(file) > maxBytes ? (count - first) / 2 : 0;
+    for (int i = first; i < count; i++) {
+      if (i - first >= older || (i - first) % 2 == 1) {
+        keep.add(i);
+      }
+    }
+
+    Path temp =
+        Files.createTempFile(
+            file.toAbsolutePath().getParent(), "." + file.getFileName() + "-", ".tmp");
+    try {
+      try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+        writeMagic(out);
+        Map<String, FileCounts> state = new HashMap<>();
+        Map<String, FileCounts> rose = new HashMap<>();
+        boolean fell = false;
+        int applied = 0;
+        int since = keyframeEvery;
+        for (int i : keep) {
+          while (applied <= i) {
+            fell |= reader.apply(applied++, state, rose);
+          }
+          if (fell || since >= keyframeEvery) {
+            writeRecord(out, KEYFRAME, reader.timestamp(i), toFiles(state));
+            since = 0;
+          } else if (!rose.isEmpty()) {
+            writeRecord(out, DELTA, reader.timestamp(i), toFiles(rose));
+            since++;
+          }
+          rose.clear();
+          fell = false;
+        }
+        sinceKeyframe = since;
+      }
+      ReportWriter.move(temp, file);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+    firstTimestamp = keep.isEmpty() ? now : reader.timestamp(keep.get(0));
+    channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+  }
+
+  /** Lines of {@code current} above {@code previous}, or {@code null} when any line went down. */
+  private static Map<Integer, Long> rose(Map<Integer, Long> previous, Map<Integer, Long> current) {
+    for (Map.Entry<Integer, Long> line : previous.entrySet()) {
+      Long now = current.get(line.getKey());
+      if (now == null || now < line.getValue()) {
+        return null;
+      }
+    }
+    Map<Integer, Long> rose = new HashMap<>();
+    for (Map.Entry<Integer, Long> line : current.entrySet()) {
+      Long before = previous.get(line.getKey());
+      if (before == null || line.getValue() > before) {
+        rose.put(line.getKey(), line.getValue());
+      }
+    }
+    return rose;
+  }
+
+  private static void writeMagic(FileChannel channel) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 1);
+    header.put(MAGIC).put((byte) VERSION).flip();
+    writeFully(channel, header);
+  }
+
+  private static void writeRecord(
+      FileChannel channel, byte kind, long timestamp, List<ReportGenerator.FileData> files)
+      throws IOException {
+    files.sort(Comparator.comparing(ReportGenerator.FileData::getPath));
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    SnapshotFormat.write(
+        body, new ReportGenerator.ReportPayload(timestamp, files), SnapshotFormat.FLAG_DEFLATE);
+    ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + body.size());
+    record.put(kind).putLong(timestamp).putInt(body.size()).put(body.toByteArray()).flip();
+    // One write per record, so a crash leaves at most a truncated last record.
+    writeFully(channel, record);
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  private static String key(String path, String project) {
+    return project + "::" + path;
+  }
+
+  private static List<ReportGenerator.FileData> toFiles(Map<String, FileCounts> files) {
+    List<ReportGenerator.FileData> result = new ArrayList<>(files.size());
+    for (FileCounts f : files.values()) {
+      result.add(new ReportGenerator.FileData(f.path, f.counts, null, f.project));
+    }
+    return result;
+  }
+
+  /** Counts of one file while records are replayed. */
+  private static final class FileCounts {
+    private final String path;
+    private final String project;
+    private final Map<Integer, Long> counts = new HashMap<>();
+
+    private FileCounts(String path, String project) {
+      this.path = path;
+      this.project = project;
+    }
+  }
+
+  /**
+   * Index over a history file: the kind, time and position of every complete record. {@link #open}
+   * only reads the record headers, and later queries read the records they replay with positional
+   * reads. The file is neither mapped nor kept open in between, so the store can replace it while a
+   * reader is in use.
+   */
+  static final class Reader {
+    private final Source source;
+    private long[] timestamps = new long[16];
+    private int[] offsets = new int[16];
+    private int[] lengths = new int[16];
+    private boolean[] keyframes = new boolean[16];
+    private int size;
+
+    static Reader open(Path file) throws IOException {
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        if (channel.size() > Integer.MAX_VALUE) {
+          throw new IOException("History file too large to read: " + file);
+        }
+        return new Reader(
+            positional(channel),
+            (offset, count) -> {
+              try (FileChannel records = FileChannel.open(file, StandardOpenOption.READ)) {
+                return positional(records).read(offset, count);
+              }
+            },
+            (int) channel.size());
+      }
+    }
+
+    Reader(ByteBuffer buffer) throws IOException {
+      this(
+          (offset, count) -> {
+            ByteBuffer body = buffer.duplicate();
+            body.limit(offset + count).position(offset);
+            return body.slice();
+          },
+          null,
+          buffer.limit());
+    }
+
+    /**
+     * Reads the record headers from {@code headers}; the records are read from {@code records}
+     * later, or from {@code headers} when {@code null}.
+     */
+    private Reader(Source headers, Source records, int limit) throws IOException {
+      this.source = records == null ? headers : records;
+      if (limit < MAGIC.length + 1) {
+        throw new IOException("Not a hotpath history file");
+      }
+      ByteBuffer start = headers.read(0, MAGIC.length + 1);
+      byte[] magic = new byte[MAGIC.length];
+      start.get(magic);
+      if (!Arrays.equals(MAGIC, magic)) {
+        throw new IOException("Not a hotpath history file");
+      }
+      int version = start.get();
+      if (version != VERSION) {
+        throw new IOException("Unsupported history version: " + version);
+      }
+      int position = MAGIC.length + 1;
+      while (position + HEADER_BYTES <= limit) {
+        ByteBuffer header = headers.read(position, HEADER_BYTES);
+        if (header.remaining() < HEADER_BYTES) {
+          break;
+        }
+        byte kind = header.get(0);
+        long timestamp = header.getLong(1);
+        int length = header.getInt(9);
+        int body = position + HEADER_BYTES;
+        if ((kind != KEYFRAME && kind != DELTA) || length < 0 || body > limit - length) {
+          break;
+        }
+        add(kind == KEYFRAME, timestamp, body, length);
+        position = body + length;
+      }
+    }
+
+    int size() {
+      return size;
+    }
+
+    long timestamp(int record) {
+      return timestamps[record];
+    }
+
+    boolean isKeyframe(int record) {
+      return keyframes[record];
+    }
+
+    /** Times of all records, oldest first. */
+    long[] timestamps() {
+      return Arrays.copyOf(timestamps, size);
+    }
+
+    /**
+     * Counts of every file as of {@code timestamp}: the latest record at or before it. Before the
+     * first record there are none.
+     */
+    ReportGenerator.ReportPayload at(long timestamp) throws IOException {
+      int record = recordAt(timestamp);
+      if (record < 0) {
+        return new ReportGenerator.ReportPayload(timestamp, new ArrayList<>());
+      }
+      int keyframe = record;
+      while (keyframe > 0 && !keyframes[keyframe]) {
+        keyframe--;
+      }
+      Map<String, FileCounts> state = new HashMap<>();
+      for (int i = keyframe; i <= record; i++) {
+        apply(i, state, null);
+      }
+      return new ReportGenerator.ReportPayload(timestamps[record], toFiles(state));
+    }
+
+    /** Executions between {@code from} and {@code to}: the counts at one minus the other. */
+    ReportGenerator.ReportPayload between(long from, long to) throws IOException {
+      ReportGenerator.ReportPayload end = at(to);
+      Map<String, Map<Integer, Long>> start = new HashMap<>();
+      for (ReportGenerator.FileData f : at(from).files) {
+        start.put(key(f.getPath(), f.getProject()), f.getCounts());
+      }
+      List<ReportGenerator.FileData> files = new ArrayList<>();
+      for (ReportGenerator.FileData f : end.files) {
+        Map<Integer, Long> before = start.getOrDefault(key(f.getPath(), f.getProject()), Map.of());
+        Map<Integer, Long> counts = new HashMap<>();
+        for (Map.Entry<Integer, Long> line : f.getCounts().entrySet()) {
+          long executed = line.getValue() - before.getOrDefault(line.getKey(), 0L);
+          if (executed > 0) {
+            counts.put(line.getKey(), executed);
+          }
+        }
+        if (!counts.isEmpty()) {
+          files.add(new ReportGenerator.FileData(f.getPath(), counts, null, f.getProject()));
+        }
+      }
+      return new ReportGenerator.ReportPayload(end.generatedAt, files);
+    }
+
+    /**
+     * Resolves a time given on the command line: epoch milliseconds, an ISO-8601 instant, or a
+     * duration such as {@code +90s}, {@code +30m} or {@code -1h}, counted from the first record
+     * when positive and back from the last when negative.
+     */
+    long resolveTime(String value) {
+      String trimmed = value.trim();
+      if (trimmed.startsWith("+") || trimmed.startsWith("-")) {
+        long millis = parseDuration(trimmed.substring(1));
+        if (size == 0) {
+          return 0L;
+        }
+        return trimmed.startsWith("+") ? timestamps[0] + millis : timestamps[size - 1] - millis;
+      }
+      try {
+        return Long.parseLong(trimmed);
+      } catch (NumberFormatException e) {
+        try {
+          return Instant.parse(trimmed).toEpochMilli();
+        } catch (DateTimeParseException notInstant) {
+          throw new IllegalArgumentException("Unrecognized time: " + value);
+        }
+      }
+    }
+
+    private static long parseDuration(String value) {
+      try {
+        return Duration.parse("PT" + value.toUpperCase()).toMillis();
+      } catch (DateTimeParseException e) {
+        throw new IllegalArgumentException("Unrecognized duration: " + value);
+      }
+    }
+
+    /** The last record at or before {@code timestamp}, or -1. */
+    private int recordAt(long timestamp) {
+      int low = 0;
+      int high = size - 1;
+      int found = -1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        if (timestamps[mid] <= timestamp) {
+          found = mid;
+          low = mid + 1;
+        } else {
+          high = mid - 1;
+        }
+      }
+      return found;
+    }
+
+    /**
+     * Applies a record to {@code state} and, when given, collects the lines it raised in {@code
+     * rose}. Returns whether a keyframe lowered or dropped any count.
+     */
+    private boolean apply(int record, Map<String, FileCounts> state, Map<String, FileCounts> rose)
+        throws IOException {
+      boolean keyframe = keyframes[record];
+      Map<String, FileCounts> previous = keyframe ? new HashMap<>(state) : null;
+      if (keyframe) {
+        state.clear();
+      }
+      boolean[] fell = new boolean[1];
+      SnapshotFormat.read(
+          new BufferInput(source.read(offsets[record], lengths[record])),
+          f -> {
+            String key = key(f.getPath(), f.getProject());
+            FileCounts target =
+                state.computeIfAbsent(key, k -> new FileCounts(f.getPath(), f.getProject()));
+            Map<Integer, Long> before =
+                previous == null
+                    ? target.counts
+                    : previous.containsKey(key) ? previous.get(key).counts : Map.of();
+            for (Map.Entry<Integer, Long> line : f.getCounts().entrySet()) {
+              long was = before.getOrDefault(line.getKey(), 0L);
+              if (line.getValue() < was) {
+                fell[0] = true;
+              } else if (rose != null && line.getValue() > was) {
+                rose.computeIfAbsent(key, k -> new FileCounts(f.getPath(), f.getProject()))
+                    .counts
+                    .put(line.getKey(), line.getValue());
+              }
+              target.counts.put(line.getKey(), line.getValue());
+            }
+            if (previous != null && previous.containsKey(key)) {
+              for (Integer line : previous.get(key).counts.keySet()) {
+                fell[0] |= !f.getCounts().containsKey(line);
+              }
+            }
+          });
+      if (previous != null) {
+        for (String key : previous.keySet()) {
+          fell[0] |= !state.containsKey(key);
+        }
+      }
+      return fell[0];
+    }
+
+    private void add(boolean keyframe, long timestamp, int offset, int length) {
+      if (size == timestamps.length) {
+        timestamps = Arrays.copyOf(timestamps, size * 2);
+        offsets = Arrays.copyOf(offsets, size * 2);
+        lengths = Arrays.copyOf(lengths, size * 2);
+        keyframes = Arrays.copyOf(keyframes, size * 2);
+      }
+      keyframes[size] = keyframe;
+      timestamps[size] = timestamp;
+      offsets[size] = offset;
+      lengths[size] = length;
+      size++;
+    }
+  }
+
+  /** Where a {@link Reader} reads its records from: the file, or bytes already in memory. */
+  @FunctionalInterface
+  private interface Source {
+    /** Reads {@code count} bytes at {@code offset}; fewer when the data ends first. */
+    ByteBuffer read(int offset, int count) throws IOException;
+  }
+
+  private static Source positional(FileChannel channel) {
+    return (offset, count) -> {
+      ByteBuffer read = ByteBuffer.allocate(count);
+      while (read.hasRemaining() && channel.read(read, offset + read.position()) >= 0) {
+        // Positional reads may return fewer bytes than asked for.
+      }
+      return read.flip();
+    };
+  }
+
+  /** Reads a record body out of the buffer it was read into. */
+  private static final class BufferInput extends InputStream {
+    private final ByteBuffer buffer;
+
+    private BufferInput(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int n = Math.min(len, buffer.remaining());
+      buffer.get(b, off, n);
+      return n;
+    }
+  }
+}
@@ -0,0 +1,275 @@
+package io.github.sfkamath.jvmhotpath;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+/**
+ * Compact digest of a report, small enough to read in a terminal or paste into an LLM prompt: the
+ * hottest lines with a few lines of source around each, plus totals per method and per file and
+ * their share of all executions.
+ *
+ * <p>Files are fed in one streaming pass. Lines go through a bounded {@link ReportModel.TopLines}
+ * heap, so only per-file and per-method totals grow with the size of the report.
+ */
+final class HotpathSummary {
+
+  /** Lines, methods and files listed by default. */
+  static final int DEFAULT_TOP = 50;
+
+  /** Source lines shown above and below each hot line. */
+  static final int CONTEXT_LINES = 2;
+
+  private static final Comparator<Total> TOTAL_ORDER =
+      Comparator.comparingLong((Total t) -> t.count).reversed().thenComparing(t -> t.name);
+
+  private final int top;
+  private final ReportModel.TopLines lines;
+  private final Map<String, Total> files = new HashMap<>();
+  private final Map<String, Total> methods = new HashMap<>();
+  // Map: project::path -> source lines, shared by writeJson and writeMarkdown
+  private final Map<String, String[]> sourceLines = new HashMap<>();
+  private long total;
+  private long countedLines;
+
+  HotpathSummary(int top) {
+    this.top = top;
+    this.lines = new ReportModel.TopLines(top);
+  }
+
+  /** Adds one file's line counts. */
+  void addFile(ReportGenerator.FileData file) {
+    long fileTotal = 0L;
+    for (Map.Entry<Integer, Long> line : file.getCounts().entrySet()) {
+      long count = line.getValue();
+      if (count <= 0) {
+        continue;
+      }
+      lines.offer(file.getPath(), file.getProject(), line.getKey(), count);
+      fileTotal += count;
+      countedLines++;
+    }
+    if (fileTotal > 0) {
+      total += fileTotal;
+      files.computeIfAbsent(
+                  file.getProject() + "::" + file.getPath(),
+                  k -> new Total(file.getPath(), file.getProject()))
+              .count +=
+          fileTotal;
+    }
+  }
+
+  /**
+   * Adds per-method totals from raw counters keyed by class name. Lines the {@link ProbeRegistry}
+   * cannot place in a method (e.g. counts loaded from a saved report) are left out.
+   */
+  void addMethods(Map<String, Map<Integer, Long>> classCounts) {
+    for (Map.Entry<String, Map<Integer, Long>> cls : classCounts.entrySet()) {
+      for (Map.Entry<Integer, Long> line : cls.getValue().entrySet()) {
+        String method = ProbeRegistry.methodAt(cls.getKey(), line.getKey());
+        if (method != null) {
+          String name = cls.getKey() + "." + method;
+          methods.computeIfAbsent(name, k -> new Total(name, null)).count += line.getValue();
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes the summary as JSON. {@code sources} returns the source text of a path and project, or
+   * {@code null}; it is only called once per file holding one of the top lines, however many
+   * formats the summary is written in.
+   */
+  void writeJson(OutputStream out, long generatedAt, BiFunction<String, String, String> sources)
+      throws IOException {
+    JsonGenerator gen = ReportWriter.generator(out);
+    gen.useDefaultPrettyPrinter();
+    gen.writeStartObject();
+    gen.writeNumberField("generatedAt", generatedAt);
+    gen.writeNumberField("totalExecutions", total);
+    gen.writeNumberField("countedLines", countedLines);
+    gen.writeNumberField("countedFiles", files.size());
+
+    gen.writeArrayFieldStart("topLines");
+    for (ReportModel.LineCount line : lines.result()) {
+      gen.writeStartObject();
+      gen.writeStringField("path", line.path);
+      gen.writeStringField("project", line.project);
+      gen.writeNumberField("line", line.line);
+      gen.writeNumberField("count", line.count);
+      gen.writeNumberField("share", share(line.count));
+      String[] source = sourceLines(sources, line.path, line.project);
+      if (source != null) {
+        gen.writeArrayFieldStart("context");
+        for (int i = firstContext(line); i <= lastContext(line, source); i++) {
+          gen.writeStartObject();
+          gen.writeNumberField("line", i);
+          gen.writeStringField("text", source[i - 1]);
+          gen.writeEndObject();
+        }
+        gen.writeEndArray();
+      }
+      gen.writeEndObject();
+    }
+    gen.writeEndArray();
+
+    gen.writeArrayFieldStart("methods");
+    for (Total method : sorted(methods)) {
+      gen.writeStartObject();
+      gen.writeStringField("method", method.name);
+      gen.writeNumberField("count", method.count);
+      gen.writeNumberField("share", share(method.count));
+      gen.writeEndObject();
+    }
+    gen.writeEndArray();
+
+    gen.writeArrayFieldStart("files");
+    for (Total file : sorted(files)) {
+      gen.writeStartObject();
+      gen.writeStringField("path", file.name);
+      gen.writeStringField("project", file.project);
+      gen.writeNumberField("count", file.count);
+      gen.writeNumberField("share", share(file.count));
+      gen.writeEndObject();
+    }
+    gen.writeEndArray();
+    gen.writeEndObject();
+    gen.writeRaw('\n');
+    gen.flush();
+  }
+
+  /** Writes the summary as Markdown; see {@link #writeJson} for {@code sources}. */
+  void writeMarkdown(
+      OutputStream out, long generatedAt, BiFunction<String, String, String> sources) {
+    PrintWriter md = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), false);
+    md.println("# Hot path summary");
+    md.println();
+    md.printf(
+        Locale.ROOT,
+        "%,d executions on %,d lines in %,d files (generated %s).%n",
+        total,
+        countedLines,
+        files.size(),
+        Instant.ofEpochMilli(generatedAt));
+    md.println();
+
+    List<ReportModel.LineCount> hot = lines.result();
+    md.println("## Top " + hot.size() + " lines");
+    int rank = 0;
+    for (ReportModel.LineCount line : hot) {
+      md.println();
+      md.printf(
+          Locale.ROOT,
+          "### %d. `%s:%d` - %,d executions (%s)%n",
+          ++rank,
+          line.path,
+          line.line,
+          line.count,
+          percent(line.count));
+      String[] source = sourceLines(sources, line.path, line.project);
+      if (source == null || line.line > source.length) {
+        continue;
+      }
+      int last = lastContext(line, source);
+      int width = Integer.toString(last).length();
+      md.println();
+      md.println("```" + language(line.path));
+      for (int i = firstContext(line); i <= last; i++) {
+        md.printf(
+            Locale.ROOT, "%s %" + width + "d | %s%n", i == line.line ? ">" : " ", i, source[i - 1]);
+      }
+      md.println("```");
+    }
+
+    if (!methods.isEmpty()) {
+      md.println();
+      md.println("## Hottest methods");
+      md.println();
+      md.println("| Method | Executions | Share |");
+      md.println("| :--- | ---: | ---: |");
+      for (Total method : sorted(methods)) {
+        md.printf(
+            Locale.ROOT, "| `%s` | %,d | %s |%n", method.name, method.count, percent(method.count));
+      }
+    }
+
+    md.println();
+    md.println("## Hottest files");
+    md.println();
+    md.println("| File | Executions | Share |");
+    md.println("| :--- | ---: | ---: |");
+    for (Total file : sorted(files)) {
+      md.printf(Locale.ROOT, "| `%s` | %,d | %s |%n", file.name, file.count, percent(file.count));
+    }
+    md.flush();
+  }
+
+  /**
+   * Source lines of the file, split once however many of the top lines it holds, or {@code null}
+   * when the source is missing or not real.
+   */
+  private String[] sourceLines(
+      BiFunction<String, String, String> sources, String path, String project) {
+    String key = project + "::" + path;
+    if (sourceLines.containsKey(key)) {
+      return sourceLines.get(key);
+    }
+    String content = sources.apply(path, project);
+    String[] split =
+        content == null || content.startsWith(ReportModel.MISSING_SOURCE)
+            ? null
+            : content.split("\r?\n", -1);
+    sourceLines.put(key, split);
+    return split;
+  }
+
+  private List<Total> sorted(Map<String, Total> totals) {
+    List<Total> result = new ArrayList<>(totals.values());
+    result.sort(TOTAL_ORDER);
+    return result.size() > top ? result.subList(0, top) : result;
+  }
+
+  private double share(long count) {
+    return total == 0 ? 0.0 : Math.round(count * 10000.0 / total) / 10000.0;
+  }
+
+  private String percent(long count) {
+    return String.format(Locale.ROOT, "%.1f%%", total == 0 ? 0.0 : count * 100.0 / total);
+  }
+
+  private static int firstContext(ReportModel.LineCount line) {
+    return Math.max(1, line.line - CONTEXT_LINES);
+  }
+
+  private static int lastContext(ReportModel.LineCount line, String[] source) {
+    return Math.min(source.length, line.line + CONTEXT_LINES);
+  }
+
+  private static String language(String path) {
+    int dot = path.lastIndexOf('.');
+    return dot < 0 ? "" : path.substring(dot + 1);
+  }
+
+  /** Executions of one file or method. */
+  private static final class Total {
+    private final String name;
+    private final String project;
+    private long count;
+
+    private Total(String name, String project) {
+      this.name = name;
+      this.project = project;
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package io.github.sfkamath.jvmhotpath;
+
+import org.junit.platform.engine.TestExecutionResult;
+import org.junit.platform.engine.TestSource;
+import org.junit.platform.engine.support.descriptor.MethodSource;
+import org.junit.platform.launcher.TestExecutionListener;
+import org.junit.platform.launcher.TestIdentifier;
+
+/**
+ * Reports every test the JUnit Platform runs to {@link TestAttribution}. The agent only registers
+ * it with the launcher when started with {@code testAttribution=true}, e.g. via the {@code argLine}
+ * the Maven plugin sets.
+ */
+public final class HotpathTestListener implements TestExecutionListener {
+
+  @Override
+  public void executionStarted(TestIdentifier testIdentifier) {
+    if (testIdentifier.isTest() && TestAttribution.isEnabled()) {
+      TestAttribution.testStarted(testIdentifier.getUniqueId(), testName(testIdentifier));
+    }
+  }
+
+  @Override
+  public void executionFinished(
+      TestIdentifier testIdentifier, TestExecutionResult testExecutionResult) {
+    if (testIdentifier.isTest() && TestAttribution.isEnabled()) {
+      TestAttribution.testFinished(testIdentifier.getUniqueId());
+    }
+  }
+
+  /**
+   * The label of a test in the index: {@code com.app.FooTest#parses}, followed by the display name
+   * when that is not just the method's, e.g. {@code com.app.FooTest#parses [2] input=b} for an
+   * invocation of a parameterized test. Tests not backed by a method get their display name.
+   */
+  static String testName(TestIdentifier testIdentifier) {
+    TestSource source = testIdentifier.getSource().orElse(null);
+    String displayName = testIdentifier.getDisplayName();
+    if (source instanceof MethodSource) {
+      MethodSource method = (MethodSource) source;
+      String name = method.getClassName() + "#" + method.getMethodName();
+      return displayName.startsWith(method.getMethodName() + "(") ? name : name + " " + displayName;
+    }
+    return displayName;
+  }
+}
@@ -0,0 +1,85 @@
+package io.github.sfkamath.jvmhotpath;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Overlays CPU samples from a JFR recording onto a report, so each line shows how often it ran next
+ * to how often it was on the CPU.
+ *
+ * <p>Each {@code jdk.ExecutionSample} is attributed to the innermost frame that falls in a file of
+ * the report; time spent in JDK or library code is charged to the reported line that called it.
+ * Events are read one at a time with {@link RecordingFile}, so memory grows with the number of
+ * sampled lines, not with the size of the recording.
+ */
+final class JfrSamples {
+
+  static final String EXECUTION_SAMPLE = "jdk.ExecutionSample";
+
+  private JfrSamples() {}
+
+  /**
+   * Reads {@code recording} and sets the {@link ReportGenerator.FileData#getSamples() samples} of
+   * {@code files}. Returns the number of samples attributed to a reported line.
+   */
+  static long overlay(Path recording, List<ReportGenerator.FileData> files) throws IOException {
+    Map<String, Map<Integer, Long>> byPath = new HashMap<>();
+    for (ReportGenerator.FileData file : files) {
+      if (file.getPath() != null) {
+        byPath.putIfAbsent(file.getPath(), new HashMap<>());
+      }
+    }
+    // Frames repeat the same few classes; resolve each class name to its file once.
+    Map<String, Map<Integer, Long>> byClass = new HashMap<>();
+    long attributed = 0L;
+
+    try (RecordingFile events = new RecordingFile(recording)) {
+      while (events.hasMoreEvents()) {
+        RecordedEvent event = events.readEvent();
+        if (!EXECUTION_SAMPLE.equals(event.getEventType().getName())) {
+          continue;
+        }
+        RecordedStackTrace stackTrace = event.getStackTrace();
+        if (stackTrace == null) {
+          continue;
+        }
+        for (RecordedFrame frame : stackTrace.getFrames()) {
+          int line = frame.getLineNumber();
+          if (!frame.isJavaFrame() || line <= 0 || frame.getMethod() == null) {
+            continue;
+          }
+          Map<Integer, Long> samples =
+              byClass.computeIfAbsent(
+                  frame.getMethod().getType().getName(), name -> byPath.get(sourcePath(name)));
+          if (samples != null) {
+            samples.merge(line, 1L, Long::sum);
+            attributed++;
+            break;
+          }
+        }
+      }
+    }
+
+    for (ReportGenerator.FileData file : files) {
+      Map<Integer, Long> samples = file.getPath() == null ? null : byPath.get(file.getPath());
+      if (samples != null && !samples.isEmpty()) {
+        file.setSamples(samples);
+      }
+    }
+    return attributed;
+  }
+
+  /** {@code com.app.Hot$Inner} becomes {@code com/app/Hot.java}. */
+  static String sourcePath(String className) {
+    int nested = className.indexOf('$');
+    String outer = nested < 0 ? className : className.substring(0, nested);
+    return outer.replace('.', '/') + ".java";
+  }
+}
@@ -0,0 +1,574 @@
+package io.github.sfkamath.jvmhotpath;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Optional HTTP endpoint on the loopback interface that serves the report straight from memory.
+ *
+ * <p>The page, its data files and the sources table are rendered from the {@link ReportModel} on
+ * request. Open pages subscribe to {@code /events}, a Server-Sent Events stream that pushes the
+ * counts of the files that changed since the client's previous event, so updates arrive within
+ * {@link #PUSH_INTERVAL_MS} without writing anything to disk. The model is only brought up to date
+ * when the {@link ExecutionCountStore#generation() store's generation} moved, and every client is
+ * written to by its own thread, so a client that stops reading is dropped once its events pile up
+ * instead of holding up the others. {@code /api/top?n=} and {@code /api/file?path=} answer queries
+ * against the same model, and {@code /metrics} exposes the hottest counters to Prometheus through a
+ * {@link PrometheusExporter}. When the agent keeps a {@link HistoryStore}, {@code /api/history}
+ * lists its records and {@code /api/history?at=} replays one. The file-based JSON/JSONP reports
+ * keep working alongside and remain the fallback when the server is not enabled.
+ */
+final class LiveServer implements Closeable {
+
+  static final long PUSH_INTERVAL_MS = 250;
+  private static final long KEEPALIVE_MS = 2000;
+  // Events queued for a client before it counts as stalled and is dropped.
+  private static final int MAX_PENDING_EVENTS = 8;
+  private static final int DEFAULT_TOP = 20;
+
+  private static final Logger logger = Logger.getLogger(LiveServer.class.getName());
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final String sourcePath;
+  private final PrometheusExporter metrics;
+  private final Path history;
+  private HistoryStore.Reader historyReader;
+  private long historySize;
+  private FileTime historyModified;
+  private final List<Client> clients = new CopyOnWriteArrayList<>();
+  private final Thread pusher;
+  private volatile boolean running = true;
+  // Store generation the model was last brought up to date with; guarded by the model.
+  private long modelGeneration = -1;
+
+  private LiveServer(int port, String sourcePath, PrometheusExporter metrics, Path history)
+      throws IOException {
+    this.sourcePath = sourcePath;
+    this.metrics = metrics;
+    this.history = history;
+    this.server =
+        HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    this.executor =
+        Executors.newCachedThreadPool(
+            r -> {
+              Thread t = new Thread(r, "JvmHotpath-Live-Server");
+              t.setDaemon(true);
+              return t;
+            });
+    server.setExecutor(executor);
+    server.createContext("/", this::handleStatic);
+    server.createContext("/events", this::handleEvents);
+    server.createContext("/api/top", this::handleTop);
+    server.createContext("/api/file", this::handleFile);
+    server.createContext("/api/history", this::handleHistory);
+    server.createContext("/metrics", this::handleMetrics);
+    pusher = new Thread(this::pushLoop, "JvmHotpath-Live-Push");
+    pusher.setDaemon(true);
+  }
+
+  /** Starts the server on {@code 127.0.0.1:port}; port 0 picks a free port. */
+  static LiveServer start(int port, String sourcePath) throws IOException {
+    return start(
+        port,
+        sourcePath,
+        new PrometheusExporter(
+            PrometheusExporter.DEFAULT_TOP_LINES, PrometheusExporter.DEFAULT_TOP_CLASSES));
+  }
+
+  /** Starts the server with {@code metrics} answering {@code /metrics}. */
+  static LiveServer start(int port, String sourcePath, PrometheusExporter metrics)
+      throws IOException {
+    return start(port, sourcePath, metrics, null);
+  }
+
+  /** Starts the server with a timeline over the {@code history} file; {@code null} for none. */
+  static LiveServer start(int port, String sourcePath, PrometheusExporter metrics, Path history)
+      throws IOException {
+    LiveServer live = new LiveServer(port, sourcePath, metrics, history);
+    // The HTTP dispatcher thread takes its daemon status from the thread that starts the server;
+    // started from the application's main thread, it would keep the JVM from exiting.
+    Thread starter = new Thread(live.server::start, "JvmHotpath-Live-Start");
+    starter.setDaemon(true);
+    starter.start();
+    try {
+      starter.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      live.close();
+      throw new InterruptedIOException("Interrupted while starting the live report server");
+    }
+    live.pusher.start();
+    return live;
+  }
+
+  int port() {
+    return server.getAddress().getPort();
+  }
+
+  @Override
+  public void close() {
+    running = false;
+    pusher.interrupt();
+    for (Client client : clients) {
+      client.writer.shutdownNow();
+      client.exchange.close();
+    }
+    clients.clear();
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  /**
+   * The model shared by the push thread and the request handlers, brought up to date only when the
+   * store's generation moved or the sources changed since.
+   */
+  private ReportModel model() {
+    ReportModel model = ReportModel.forSourcePath(sourcePath);
+    synchronized (model) {
+      long generation = ExecutionCountStore.generation();
+      if (generation != modelGeneration || model.sourcesChanged()) {
+        model.update(ExecutionCountStore.getAllCountersSnapshot());
+        modelGeneration = generation;
+      }
+    }
+    return model;
+  }
+
+  /**
+   * The live server versions its sources table instead of hashing it; the id only has to change.
+   */
+  private static ReportGenerator.SourcesRef sourcesRef(long version) {
+    return new ReportGenerator.SourcesRef(
+        "live-" + version, "sources.json?v=" + version, "sources.js?v=" + version);
+  }
+
+  private void handleStatic(HttpExchange exchange) throws IOException {
+    try {
+      String path = exchange.getRequestURI().getPath();
+      switch (path) {
+        case "/":
+        case "/index.html":
+          {
+            ReportModel model = model();
+            synchronized (model) {
+              ReportGenerator.SourcesRef ref = sourcesRef(model.sourcesVersion());
+              OutputStream out = begin(exchange, "text/html; charset=utf-8");
+              ReportGenerator.writeLivePage(out, model, ref, history != null);
+            }
+            break;
+          }
+        case "/data.json":
+        case "/data.js":
+          {
+            boolean jsonp = path.endsWith(".js");
+            ReportModel model = model();
+            synchronized (model) {
+              OutputStream out =
+                  begin(exchange, jsonp ? "text/javascript; charset=utf-8" : "application/json");
+              if (jsonp) {
+                out.write(
+                    "window.loadExecutionData && window.loadExecutionData("
+                        .getBytes(StandardCharsets.UTF_8));
+              }
+              JsonGenerator gen = ReportWriter.generator(out);
+              ReportGenerator.writeCountsPayload(
+                  gen, model, sourcesRef(model.sourcesVersion()), System.currentTimeMillis(), 0L);
+              gen.flush();
+              if (jsonp) {
+                out.write(");".getBytes(StandardCharsets.UTF_8));
+              }
+            }
+            break;
+          }
+        case "/sources.json":
+        case "/sources.js":
+          {
+            boolean jsonp = path.endsWith(".js");
+            ReportModel model = ReportModel.forSourcePath(sourcePath);
+            synchronized (model) {
+              OutputStream out =
+                  begin(exchange, jsonp ? "text/javascript; charset=utf-8" : "application/json");
+              if (jsonp) {
+                out.write(
+                    "window.loadExecutionSources && window.loadExecutionSources("
+                        .getBytes(StandardCharsets.UTF_8));
+              }
+              JsonGenerator gen = ReportWriter.generator(out);
+              gen.writeStartObject();
+              gen.writeStringField("id", sourcesRef(model.sourcesVersion()).id);
+              gen.writeFieldName("files");
+              model.writeSources(gen);
+              gen.writeEndObject();
+              gen.flush();
+              if (jsonp) {
+                out.write(");".getBytes(StandardCharsets.UTF_8));
+              }
+            }
+            break;
+          }
+        case "/report-app.js":
+          sendResource(exchange, "report-app.js", "text/javascript; charset=utf-8");
+          break;
+        case "/favicon.png":
+          sendResource(exchange, "favicon.png", "image/png");
+          break;
+        default:
+          sendError(exchange, 404, "Not found: " + path);
+          break;
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void handleEvents(HttpExchange exchange) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+    exchange.getResponseHeaders().set("Cache-Control", "no-store");
+    exchange.sendResponseHeaders(200, 0);
+    Client client = new Client(exchange);
+    try {
+      // First event is always the full counts; later events only carry changes.
+      client.write(countsEvent(client, model()));
+      client.lastSent = System.currentTimeMillis();
+      clients.add(client);
+    } catch (IOException e) {
+      client.writer.shutdownNow();
+      exchange.close();
+    }
+    // The exchange stays open; the client's writer sends it events until it disconnects.
+  }
+
+  private void handleTop(HttpExchange exchange) throws IOException {
+    try {
+      int n = DEFAULT_TOP;
+      String value = query(exchange).get("n");
+      if (value != null) {
+        try {
+          n = Math.max(0, Math.min(10_000, Integer.parseInt(value)));
+        } catch (NumberFormatException e) {
+          sendError(exchange, 400, "Invalid n: " + value);
+          return;
+        }
+      }
+      List<ReportModel.LineCount> top = model().topLines(n);
+      JsonGenerator gen = ReportWriter.generator(begin(exchange, "application/json"));
+      gen.writeStartArray();
+      for (ReportModel.LineCount line : top) {
+        gen.writeStartObject();
+        gen.writeStringField("path", line.path);
+        gen.writeStringField("project", line.project);
+        gen.writeNumberField("line", line.line);
+        gen.writeNumberField("count", line.count);
+        gen.writeEndObject();
+      }
+      gen.writeEndArray();
+      gen.flush();
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void handleFile(HttpExchange exchange) throws IOException {
+    try {
+      Map<String, String> query = query(exchange);
+      String path = query.get("path");
+      if (path == null || path.isEmpty()) {
+        sendError(exchange, 400, "Missing path parameter");
+        return;
+      }
+      ReportGenerator.FileData file = model().file(path, query.get("project"));
+      if (file == null) {
+        sendError(exchange, 404, "Unknown file: " + path);
+        return;
+      }
+      JsonGenerator gen = ReportWriter.generator(begin(exchange, "application/json"));
+      gen.writeStartObject();
+      gen.writeStringField("path", file.getPath());
+      gen.writeStringField("project", file.getProject());
+      gen.writeObjectFieldStart("counts");
+      for (Map.Entry<Integer, Long> line : file.getCounts().entrySet()) {
+        gen.writeNumberField(Integer.toString(line.getKey()), line.getValue());
+      }
+      gen.writeEndObject();
+      gen.writeEndObject();
+      gen.flush();
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * Without parameters, the time of every record as {@code {"timestamps": [...]}}. With {@code at}
+   * (and optionally {@code from}), epoch milliseconds, a counts payload for the page holding the
+   * counts recorded then, or the executions in between.
+   */
+  private void handleHistory(HttpExchange exchange) throws IOException {
+    try {
+      if (history == null || !Files.exists(history)) {
+        sendError(exchange, 404, "No history is being recorded");
+        return;
+      }
+      Map<String, String> query = query(exchange);
+      HistoryStore.Reader reader = historyReader();
+      String at = query.get("at");
+      if (at == null) {
+        JsonGenerator gen = ReportWriter.generator(begin(exchange, "application/json"));
+        gen.writeStartObject();
+        gen.writeArrayFieldStart("timestamps");
+        for (long timestamp : reader.timestamps()) {
+          gen.writeNumber(timestamp);
+        }
+        gen.writeEndArray();
+        gen.writeEndObject();
+        gen.flush();
+        return;
+      }
+      ReportGenerator.ReportPayload payload;
+      try {
+        String from = query.get("from");
+        payload =
+            from == null
+                ? reader.at(Long.parseLong(at))
+                : reader.between(Long.parseLong(from), Long.parseLong(at));
+      } catch (NumberFormatException e) {
+        sendError(exchange, 400, "Invalid time: " + e.getMessage());
+        return;
+      }
+      ReportModel model = ReportModel.forSourcePath(sourcePath);
+      synchronized (model) {
+        ReportGenerator.SourcesRef ref = sourcesRef(model.sourcesVersion());
+        JsonGenerator gen = ReportWriter.generator(begin(exchange, "application/json"));
+        gen.writeStartObject();
+        gen.writeNumberField("generatedAt", payload.generatedAt);
+        gen.writeObjectFieldStart("sources");
+        gen.writeStringField("id", ref.id);
+        gen.writeStringField("json", ref.json);
+        gen.writeStringField("jsonp", ref.jsonp);
+        gen.writeEndObject();
+        gen.writeFieldName("counts");
+        model.writeCounts(gen, payload.files);
+        gen.writeEndObject();
+        gen.flush();
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * The reader over the history file, opened again only once the store appended to or rewrote the
+   * file since.
+   */
+  private synchronized HistoryStore.Reader historyReader() throws IOException {
+    long size = Files.size(history);
+    FileTime modified = Files.getLastModifiedTime(history);
+    if (historyReader == null || size != historySize || !modified.equals(historyModified)) {
+      historyReader = HistoryStore.Reader.open(history);
+      historySize = size;
+      historyModified = modified;
+    }
+    return historyReader;
+  }
+
+  private void handleMetrics(HttpExchange exchange) throws IOException {
+    try {
+      byte[] body = metrics.render();
+      exchange.getResponseHeaders().set("Content-Type", PrometheusExporter.CONTENT_TYPE);
+      exchange.sendResponseHeaders(200, body.length);
+      exchange.getResponseBody().write(body);
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void pushLoop() {
+    while (running) {
+      try {
+        Thread.sleep(PUSH_INTERVAL_MS);
+        if (clients.isEmpty()) {
+          continue;
+        }
+        ReportModel model = model();
+        long now = System.currentTimeMillis();
+        for (Client client : clients) {
+          String event;
+          if (client.sourcesVersion != model.sourcesVersion() || model.changedSince(client.stamp)) {
+            event = countsEvent(client, model);
+          } else if (now - client.lastSent >= KEEPALIVE_MS) {
+            // Lets the page tell an idle application from a dead connection.
+            event = "event: ping\ndata: {\"generatedAt\":" + now + "}\n\n";
+          } else {
+            continue;
+          }
+          client.lastSent = now;
+          if (!client.enqueue(event, () -> drop(client))) {
+            logger.fine("Dropping a live report client that stopped reading events");
+            drop(client);
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (IOException | RuntimeException e) {
+        logger.log(Level.FINE, "Live update failed", e);
+      }
+    }
+  }
+
+  /** Forgets a client whose connection failed or stopped taking events. */
+  private void drop(Client client) {
+    if (clients.remove(client)) {
+      client.writer.shutdownNow();
+      // Closing flushes the stream, which blocks on a stalled connection; keep it off this thread.
+      try {
+        executor.execute(client.exchange::close);
+      } catch (RejectedExecutionException e) {
+        // The server is closing and closes every connection itself.
+      }
+    }
+  }
+
+  /**
+   * Renders the counts changed since the client's last event, or everything after a source change,
+   * and marks them as sent to the client.
+   */
+  private static String countsEvent(Client client, ReportModel model) throws IOException {
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+    long version;
+    long stamp;
+    synchronized (model) {
+      version = model.sourcesVersion();
+      stamp = model.stamp();
+      long since = version == client.sourcesVersion ? client.stamp : 0L;
+      JsonGenerator gen = ReportWriter.generator(json);
+      ReportGenerator.writeCountsPayload(
+          gen, model, sourcesRef(version), System.currentTimeMillis(), since);
+      gen.flush();
+    }
+    client.sourcesVersion = version;
+    client.stamp = stamp;
+    return "event: counts\ndata: " + json.toString(StandardCharsets.UTF_8) + "\n\n";
+  }
+
+  private static OutputStream begin(HttpExchange exchange, String contentType) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", contentType);
+    exchange.getResponseHeaders().set("Cache-Control", "no-store");
+    exchange.sendResponseHeaders(200, 0);
+    return exchange.getResponseBody();
+  }
+
+  private static void sendResource(HttpExchange exchange, String name, String contentType)
+      throws IOException {
+    try (InputStream is = LiveServer.class.getResourceAsStream(name)) {
+      if (is == null) {
+        sendError(exchange, 404, "Missing resource: " + name);
+        return;
+      }
+      is.transferTo(begin(exchange, contentType));
+    }
+  }
+
+  private static void sendError(HttpExchange exchange, int status, String message)
+      throws IOException {
+    byte[] body = message.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    exchange.sendResponseHeaders(status, body.length);
+    exchange.getResponseBody().write(body);
+  }
+
+  private static Map<String, String> query(HttpExchange exchange) {
+    Map<String, String> params = new HashMap<>();
+    String raw = exchange.getRequestURI().getRawQuery();
+    if (raw == null) {
+      return params;
+    }
+    for (String pair : raw.split("&")) {
+      int eq = pair.indexOf('=');
+      String key = eq < 0 ? pair : pair.substring(0, eq);
+      String value = eq < 0 ? "" : pair.substring(eq + 1);
+      params.put(
+          URLDecoder.decode(key, StandardCharsets.UTF_8),
+          URLDecoder.decode(value, StandardCharsets.UTF_8));
+    }
+    return params;
+  }
+
+  /** An open event stream and the last state it was sent. */
+  private static final class Client {
+    private final HttpExchange exchange;
+    // One writer per client, so a stalled connection only holds up its own events.
+    private final ThreadPoolExecutor writer;
+    private long sourcesVersion = -1;
+    private long stamp;
+    private long lastSent;
+
+    private Client(HttpExchange exchange) {
+      this.exchange = exchange;
+      this.writer =
+          new ThreadPoolExecutor(
+              1,
+              1,
+              0L,
+              TimeUnit.MILLISECONDS,
+              new ArrayBlockingQueue<>(MAX_PENDING_EVENTS),
+              r -> {
+                Thread t = new Thread(r, "JvmHotpath-Live-Client");
+                t.setDaemon(true);
+                return t;
+              });
+    }
+
+    /**
+     * Queues {@code event} for the writer, which runs {@code onFailure} if the connection fails.
+     * Returns {@code false} when the queue is full.
+     */
+    private boolean enqueue(String event, Runnable onFailure) {
+      try {
+        writer.execute(
+            () -> {
+              try {
+                write(event);
+              } catch (IOException e) {
+                onFailure.run();
+              }
+            });
+        return true;
+      } catch (RejectedExecutionException e) {
+        return false;
+      }
+    }
+
+    private void write(String event) throws IOException {
+      OutputStream out = exchange.getResponseBody();
+      out.write(event.getBytes(StandardCharsets.UTF_8));
+      out.flush();
+    }
+  }
+}
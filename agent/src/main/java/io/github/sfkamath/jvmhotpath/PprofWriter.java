@@ -0,0 +1,187 @@
+package io.github.sfkamath.jvmhotpath;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams execution counts as a gzipped pprof {@code profile.proto}, so they load into {@code go
+ * tool pprof}, speedscope and other flame graph tools.
+ *
+ * <p>Each counted line becomes one sample of type {@code executions/count} whose single location
+ * carries the function and line. Repeated protobuf fields may be interleaved, so strings,
+ * functions, locations and samples are written as they are first needed and nothing but the string,
+ * function and location IDs is kept in memory. The encoding is hand-written; see
+ * https://github.com/google/pprof/blob/main/proto/profile.proto for the field numbers.
+ */
+final class PprofWriter implements Closeable {
+
+  /** File name suffix pprof tools expect. */
+  static final String EXTENSION = ".pb.gz";
+
+  // Profile
+  private static final int PROFILE_SAMPLE_TYPE = 1;
+  private static final int PROFILE_SAMPLE = 2;
+  private static final int PROFILE_LOCATION = 4;
+  private static final int PROFILE_FUNCTION = 5;
+  private static final int PROFILE_STRING_TABLE = 6;
+  private static final int PROFILE_TIME_NANOS = 9;
+  private static final int PROFILE_PERIOD_TYPE = 11;
+  private static final int PROFILE_PERIOD = 12;
+  // ValueType
+  private static final int VALUE_TYPE_TYPE = 1;
+  private static final int VALUE_TYPE_UNIT = 2;
+  // Sample
+  private static final int SAMPLE_LOCATION_ID = 1;
+  private static final int SAMPLE_VALUE = 2;
+  // Location
+  private static final int LOCATION_ID = 1;
+  private static final int LOCATION_LINE = 4;
+  // Line
+  private static final int LINE_FUNCTION_ID = 1;
+  private static final int LINE_LINE = 2;
+  // Function
+  private static final int FUNCTION_ID = 1;
+  private static final int FUNCTION_NAME = 2;
+  private static final int FUNCTION_SYSTEM_NAME = 3;
+  private static final int FUNCTION_FILENAME = 4;
+
+  private static final int WIRE_VARINT = 0;
+  private static final int WIRE_BYTES = 2;
+
+  private final GZIPOutputStream gzip;
+  private final BufferedOutputStream out;
+  private final Map<String, Long> strings = new HashMap<>();
+  private final Map<String, Long> functions = new HashMap<>();
+  // Map: function id and line, packed into one long -> location id
+  private final Map<Long, Long> locations = new HashMap<>();
+  // Reused for every nested message: {@code message} for the current one, {@code inner} for its
+  // children.
+  private final ByteArrayOutputStream message = new ByteArrayOutputStream(64);
+  private final ByteArrayOutputStream inner = new ByteArrayOutputStream(16);
+
+  /** Starts a profile on {@code target}, which is left open by {@link #close()}. */
+  PprofWriter(OutputStream target) throws IOException {
+    this.gzip = new GZIPOutputStream(target, 64 * 1024);
+    this.out = new BufferedOutputStream(gzip, 64 * 1024);
+    // Index 0 of the string table must be the empty string.
+    string("");
+    long type = string("executions");
+    long unit = string("count");
+    valueType(PROFILE_SAMPLE_TYPE, type, unit);
+    valueType(PROFILE_PERIOD_TYPE, type, unit);
+    field(out, PROFILE_PERIOD, 1L);
+  }
+
+  /** Records when the counts were collected. */
+  void time(long timeMillis) throws IOException {
+    field(out, PROFILE_TIME_NANOS, timeMillis * 1_000_000L);
+  }
+
+  /**
+   * Adds one sample: {@code count} executions of {@code line} in {@code function}, declared in
+   * {@code file}. A line added again reuses its location, so pprof adds its samples up.
+   */
+  void add(String function, String file, int line, long count) throws IOException {
+    if (count <= 0) {
+      return;
+    }
+    long locationId = location(function(function, file), line);
+
+    // Packed repeated fields: one location and one value.
+    message.reset();
+    inner.reset();
+    SnapshotFormat.writeVarLong(inner, locationId);
+    bytes(message, SAMPLE_LOCATION_ID, inner);
+    inner.reset();
+    SnapshotFormat.writeVarLong(inner, count);
+    bytes(message, SAMPLE_VALUE, inner);
+    bytes(out, PROFILE_SAMPLE, message);
+  }
+
+  @Override
+  public void close() throws IOException {
+    out.flush();
+    gzip.finish();
+  }
+
+  private long function(String name, String file) throws IOException {
+    String key = name + '\0' + file;
+    Long id = functions.get(key);
+    if (id != null) {
+      return id;
+    }
+    long nameIndex = string(name);
+    long fileIndex = string(file);
+    long functionId = functions.size() + 1L;
+    functions.put(key, functionId);
+    message.reset();
+    field(message, FUNCTION_ID, functionId);
+    field(message, FUNCTION_NAME, nameIndex);
+    field(message, FUNCTION_SYSTEM_NAME, nameIndex);
+    field(message, FUNCTION_FILENAME, fileIndex);
+    bytes(out, PROFILE_FUNCTION, message);
+    return functionId;
+  }
+
+  private long location(long functionId, int line) throws IOException {
+    Long key = (functionId << 32) | (line & 0xFFFFFFFFL);
+    Long id = locations.get(key);
+    if (id != null) {
+      return id;
+    }
+    long locationId = locations.size() + 1L;
+    locations.put(key, locationId);
+    inner.reset();
+    field(inner, LINE_FUNCTION_ID, functionId);
+    field(inner, LINE_LINE, line);
+    message.reset();
+    field(message, LOCATION_ID, locationId);
+    bytes(message, LOCATION_LINE, inner);
+    bytes(out, PROFILE_LOCATION, message);
+    return locationId;
+  }
+
+  private long string(String value) throws IOException {
+    Long index = strings.get(value);
+    if (index != null) {
+      return index;
+    }
+    long next = strings.size();
+    strings.put(value, next);
+    byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+    tag(out, PROFILE_STRING_TABLE, WIRE_BYTES);
+    SnapshotFormat.writeVarLong(out, utf8.length);
+    out.write(utf8);
+    return next;
+  }
+
+  private void valueType(int field, long type, long unit) throws IOException {
+    message.reset();
+    field(message, VALUE_TYPE_TYPE, type);
+    field(message, VALUE_TYPE_UNIT, unit);
+    bytes(out, field, message);
+  }
+
+  private static void field(OutputStream target, int field, long value) throws IOException {
+    tag(target, field, WIRE_VARINT);
+    SnapshotFormat.writeVarLong(target, value);
+  }
+
+  private static void bytes(OutputStream target, int field, ByteArrayOutputStream value)
+      throws IOException {
+    tag(target, field, WIRE_BYTES);
+    SnapshotFormat.writeVarLong(target, value.size());
+    value.writeTo(target);
+  }
+
+  private static void tag(OutputStream target, int field, int wireType) throws IOException {
+    SnapshotFormat.writeVarLong(target, ((long) field << 3) | wireType);
+  }
+}
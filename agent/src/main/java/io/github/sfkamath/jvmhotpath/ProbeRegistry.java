@@ -0,0 +1,107 @@
+package io.github.sfkamath.jvmhotpath;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * What the transformer learned about each instrumented class: the source file it was compiled from
+ * and which method every probed line belongs to. Filled once per class at transform time, so
+ * nothing is added to the probes themselves.
+ */
+final class ProbeRegistry {
+
+  // Map: ClassName -> (LineNumber -> MethodName)
+  private static final Map<String, Map<Integer, String>> methods = new ConcurrentHashMap<>();
+  // Map: ClassName -> source file relative to a source root
+  private static final Map<String, String> sources = new ConcurrentHashMap<>();
+
+  private ProbeRegistry() {}
+
+  /**
+   * Records the methods of an instrumented class, keyed by line. Lambda bodies ({@code
+   * lambda$name$0}) are attributed to the method that declares them.
+   */
+  static void registerClass(String className, Map<Integer, String> lineMethods) {
+    methods.put(className, Map.copyOf(lineMethods));
+  }
+
+  /**
+   * Records the {@code SourceFile} attribute of a class. The file lives in the directory of the
+   * class's package, which is where the report looks for it.
+   */
+  static void registerSource(String className, String sourceFile) {
+    if (sourceFile == null || sourceFile.isEmpty()) {
+      return;
+    }
+    String name = sourceFile.substring(sourceFile.lastIndexOf('/') + 1);
+    int lastDot = className.lastIndexOf('.');
+    String dir = lastDot < 0 ? "" : className.substring(0, lastDot).replace('.', '/') + "/";
+    sources.put(className, dir + name);
+  }
+
+  /**
+   * Records the source file of lines that an {@link Smap} maps out of the class they were compiled
+   * into. {@code key} names the file in the counters; a class compiled from that file keeps its own
+   * record.
+   */
+  static void registerMappedSource(String key, String relativePath) {
+    sources.putIfAbsent(key, relativePath);
+  }
+
+  /**
+   * Records the source file another JVM resolved for {@code className}, e.g. an agent shipping its
+   * counts to a {@link Collector}.
+   */
+  static void registerResolvedSource(String className, String relativePath) {
+    sources.put(className, relativePath);
+  }
+
+  /**
+   * The counter key of lines mapped into {@code relativePath}: the path as a class name, e.g.
+   * {@code com.app.Util} for {@code com/app/Util.kt}.
+   */
+  static String mappedSourceKey(String relativePath) {
+    int dot = relativePath.lastIndexOf('.');
+    String name =
+        dot > relativePath.lastIndexOf('/') ? relativePath.substring(0, dot) : relativePath;
+    return name.replace('/', '.');
+  }
+
+  /**
+   * Returns the source file of {@code className} relative to a source root: the recorded {@code
+   * SourceFile}, else that of its top-level class, else the file named after the top-level class
+   * (e.g. for counts loaded from a dump).
+   */
+  static String sourcePath(String className) {
+    String recorded = sources.get(className);
+    if (recorded != null) {
+      return recorded;
+    }
+    int nested = className.indexOf('$');
+    String topLevel = nested < 0 ? className : className.substring(0, nested);
+    recorded = sources.get(topLevel);
+    return recorded != null ? recorded : topLevel.replace('.', '/') + ".java";
+  }
+
+  /** Returns the method containing {@code line} of {@code className}, or {@code null}. */
+  static String methodAt(String className, int line) {
+    Map<Integer, String> lines = methods.get(className);
+    return lines == null ? null : lines.get(line);
+  }
+
+  /** Strips the synthetic wrapper from lambda bodies: {@code lambda$run$2} becomes {@code run}. */
+  static String declaringMethod(String methodName) {
+    if (methodName.startsWith("lambda$")) {
+      int end = methodName.lastIndexOf('$');
+      if (end > "lambda$".length()) {
+        return methodName.substring("lambda$".length(), end);
+      }
+    }
+    return methodName;
+  }
+
+  static void reset() {
+    methods.clear();
+    sources.clear();
+  }
+}
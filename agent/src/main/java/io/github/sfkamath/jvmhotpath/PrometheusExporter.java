@@ -0,0 +1,251 @@
+package io.github.sfkamath.jvmhotpath;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Renders the hottest counters in the Prometheus text exposition format, for the live server's
+ * {@code /metrics} endpoint or a node_exporter textfile collector.
+ *
+ * <p>Label cardinality is bounded: only the {@code topLines} hottest lines get a {@code
+ * jvm_hotpath_line_executions_total{class,line}} series, and only the {@code topClasses} hottest
+ * top-level classes get a {@code jvm_hotpath_class_executions_total{class}} series, with the rest
+ * summed under {@code class="_other"}. A scrape walks {@link ExecutionCountStore} in place through
+ * a primitive min-heap and per-class accumulators that are reused between scrapes, so it does not
+ * build the report model or copy the counter maps.
+ */
+final class PrometheusExporter {
+
+  static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+  static final int DEFAULT_TOP_LINES = 100;
+  static final int DEFAULT_TOP_CLASSES = 50;
+  static final String OTHER_CLASSES = "_other";
+
+  private final int topLines;
+  private final int topClasses;
+
+  // Min-heap of the hottest lines as parallel arrays; the coldest retained line is at index 0.
+  private final long[] heapCounts;
+  private final int[] heapLines;
+  private final String[] heapClasses;
+  private int heapSize;
+
+  private final Map<String, long[]> classTotals = new HashMap<>();
+  private final List<Map.Entry<String, long[]>> classOrder = new ArrayList<>();
+  private final StringBuilder text = new StringBuilder(8192);
+  private long total;
+  private long lines;
+
+  PrometheusExporter(int topLines, int topClasses) {
+    this.topLines = Math.max(0, topLines);
+    this.topClasses = Math.max(0, topClasses);
+    this.heapCounts = new long[this.topLines];
+    this.heapLines = new int[this.topLines];
+    this.heapClasses = new String[this.topLines];
+  }
+
+  /** Renders the current counters. */
+  synchronized byte[] render() {
+    collect();
+    format();
+    return text.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Writes the current counters to {@code file} for a textfile collector. The file is replaced
+   * atomically, so the collector never reads a partial scrape.
+   */
+  void writeTextfile(Path file) throws IOException {
+    byte[] body = render();
+    Path target = file.toAbsolutePath();
+    Files.createDirectories(target.getParent());
+    Path temp = Files.createTempFile(target.getParent(), "." + target.getFileName() + "-", ".tmp");
+    try {
+      try (OutputStream out = Files.newOutputStream(temp)) {
+        out.write(body);
+      }
+      ReportWriter.move(temp, target);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  private void collect() {
+    heapSize = 0;
+    total = 0L;
+    lines = 0L;
+    for (long[] classTotal : classTotals.values()) {
+      classTotal[0] = 0L;
+    }
+    ExecutionCountStore.forEachCount(this::record);
+    // Classes that are no longer counted (e.g. after a reset) drop out of the exposition.
+    classTotals.values().removeIf(classTotal -> classTotal[0] == 0L);
+    sortHeap();
+  }
+
+  private void record(String className, int line, long count) {
+    if (count <= 0) {
+      return;
+    }
+    total += count;
+    lines++;
+    int nested = className.indexOf('$');
+    String topLevel = nested < 0 ? className : className.substring(0, nested);
+    classTotals.computeIfAbsent(topLevel, k -> new long[1])[0] += count;
+
+    if (topLines == 0) {
+      return;
+    }
+    if (heapSize < topLines) {
+      heapCounts[heapSize] = count;
+      heapLines[heapSize] = line;
+      heapClasses[heapSize] = className;
+      siftUp(heapSize++);
+    } else if (count > heapCounts[0]) {
+      heapCounts[0] = count;
+      heapLines[0] = line;
+      heapClasses[0] = className;
+      siftDown(0, heapSize);
+    }
+  }
+
+  private void format() {
+    text.setLength(0);
+    text.append("# HELP jvm_hotpath_line_executions_total Executions of the ")
+        .append(topLines)
+        .append(" hottest instrumented lines.\n")
+        .append("# TYPE jvm_hotpath_line_executions_total counter\n");
+    // sortHeap() left the lines in descending order.
+    for (int i = 0; i < heapSize; i++) {
+      text.append("jvm_hotpath_line_executions_total{class=\"");
+      appendLabel(heapClasses[i]);
+      text.append("\",line=\"")
+          .append(heapLines[i])
+          .append("\"} ")
+          .append(heapCounts[i])
+          .append('\n');
+    }
+
+    text.append("# HELP jvm_hotpath_class_executions_total Executions per top-level class; classes")
+        .append(" beyond the ")
+        .append(topClasses)
+        .append(" hottest are summed as \"")
+        .append(OTHER_CLASSES)
+        .append("\".\n")
+        .append("# TYPE jvm_hotpath_class_executions_total counter\n");
+    classOrder.clear();
+    classOrder.addAll(classTotals.entrySet());
+    classOrder.sort(
+        (a, b) -> {
+          int byCount = Long.compare(b.getValue()[0], a.getValue()[0]);
+          return byCount != 0 ? byCount : a.getKey().compareTo(b.getKey());
+        });
+    long other = 0L;
+    Iterator<Map.Entry<String, long[]>> it = classOrder.iterator();
+    for (int i = 0; it.hasNext(); i++) {
+      Map.Entry<String, long[]> entry = it.next();
+      if (i >= topClasses) {
+        other += entry.getValue()[0];
+        continue;
+      }
+      text.append("jvm_hotpath_class_executions_total{class=\"");
+      appendLabel(entry.getKey());
+      text.append("\"} ").append(entry.getValue()[0]).append('\n');
+    }
+    if (classOrder.size() > topClasses) {
+      text.append("jvm_hotpath_class_executions_total{class=\"")
+          .append(OTHER_CLASSES)
+          .append("\"} ")
+          .append(other)
+          .append('\n');
+    }
+
+    text.append("# HELP jvm_hotpath_executions_total Executions of all instrumented lines.\n")
+        .append("# TYPE jvm_hotpath_executions_total counter\n")
+        .append("jvm_hotpath_executions_total ")
+        .append(total)
+        .append('\n')
+        .append("# HELP jvm_hotpath_lines Instrumented lines executed at least once.\n")
+        .append("# TYPE jvm_hotpath_lines gauge\n")
+        .append("jvm_hotpath_lines ")
+        .append(lines)
+        .append('\n');
+  }
+
+  /** Escapes a label value as the exposition format requires. */
+  private void appendLabel(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '\\' || c == '"') {
+        text.append('\\').append(c);
+      } else if (c == '\n') {
+        text.append("\\n");
+      } else {
+        text.append(c);
+      }
+    }
+  }
+
+  /** Heap sort in place: repeatedly moves the coldest line to the end, leaving hottest first. */
+  private void sortHeap() {
+    for (int end = heapSize - 1; end > 0; end--) {
+      swap(0, end);
+      siftDown(0, end);
+    }
+  }
+
+  /** Whether slot {@code a} is colder than slot {@code b}; ties order by class, then line. */
+  private boolean colder(int a, int b) {
+    if (heapCounts[a] != heapCounts[b]) {
+      return heapCounts[a] < heapCounts[b];
+    }
+    int byClass = heapClasses[a].compareTo(heapClasses[b]);
+    return byClass != 0 ? byClass > 0 : heapLines[a] > heapLines[b];
+  }
+
+  private void siftUp(int i) {
+    while (i > 0) {
+      int parent = (i - 1) / 2;
+      if (!colder(i, parent)) {
+        return;
+      }
+      swap(i, parent);
+      i = parent;
+    }
+  }
+
+  private void siftDown(int i, int size) {
+    while (true) {
+      int left = 2 * i + 1;
+      if (left >= size) {
+        return;
+      }
+      int child = left + 1 < size && colder(left + 1, left) ? left + 1 : left;
+      if (!colder(child, i)) {
+        return;
+      }
+      swap(i, child);
+      i = child;
+    }
+  }
+
+  private void swap(int a, int b) {
+    long count = heapCounts[a];
+    heapCounts[a] = heapCounts[b];
+    heapCounts[b] = count;
+    int line = heapLines[a];
+    heapLines[a] = heapLines[b];
+    heapLines[b] = line;
+    String className = heapClasses[a];
+    heapClasses[a] = heapClasses[b];
+    heapClasses[b] = className;
+  }
+}
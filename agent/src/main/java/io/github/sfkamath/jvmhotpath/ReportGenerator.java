@@ -1,244 +1,556 @@
 package io.github.sfkamath.jvmhotpath;
 
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import java.io.File;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Stream;
 
 /** Generates HTML report showing execution counts per line using a Vue.js template. */
 public final class ReportGenerator {
 
+  /** File name suffix of raw counter dumps; see {@link #writeCounterDump}. */
+  static final String COUNTERS_EXTENSION = ".counters.json";
+
   private static final Logger logger = Logger.getLogger(ReportGenerator.class.getName());
   private static final ObjectMapper mapper = new ObjectMapper();
-
-  /** Generates the report from current memory state. */
+  private static final Set<Path> assetDirs = ConcurrentHashMap.newKeySet();
+  private static final Map<Path, PublishedSources> publishedSources = new ConcurrentHashMap<>();
+  private static final String DATA_MARKER = "/*DATA_MARKER*/ []";
+  private static final String DATA_JSONP_PREFIX =
+      "window.loadExecutionData && window.loadExecutionData(";
+  private static final String SOURCES_JSONP_PREFIX =
+      "window.loadExecutionSources && window.loadExecutionSources(";
+  private static final String JSONP_SUFFIX = ");";
+  private static String template;
+
+  /**
+   * Generates the report from current memory state, with a summary of the {@link
+   * HotpathSummary#DEFAULT_TOP} hottest lines, methods and files; see {@link
+   * #generateHtmlReport(String, String, boolean, int)}.
+   *
+   * <p>Source text goes into a content-addressed {@code <report>.sources-<hash>.json/.js} pair that
+   * is only written when the set of files changes. The JSON, JSONP and HTML written on every flush
+   * only carry counts keyed by file ID plus a reference to that sources pair. All of them are
+   * streamed to disk by a {@link ReportWriter} and published atomically.
+   */
   public static void generateHtmlReport(String outputPath, String sourcePath, boolean verbose)
       throws IOException {
-    List<FileData> data = collectData(sourcePath, verbose);
-    ReportPayload payload = new ReportPayload(System.currentTimeMillis(), data);
-    String jsonData = mapper.writeValueAsString(payload);
+    generateHtmlReport(outputPath, sourcePath, verbose, HotpathSummary.DEFAULT_TOP);
+  }
 
-    ReportPaths paths = resolveReportPaths(outputPath);
+  /**
+   * Generates the report as {@link #generateHtmlReport(String, String, boolean)} does, plus a
+   * {@code <report>.summary.md/.json} digest of the {@code summaryTop} hottest lines, methods and
+   * files. No summary is written when {@code summaryTop} is 0.
+   */
+  public static void generateHtmlReport(
+      String outputPath, String sourcePath, boolean verbose, int summaryTop) throws IOException {
+    ReportModel model = ReportModel.forSourcePath(sourcePath);
+    Map<String, Map<Integer, Long>> counters = ExecutionCountStore.getAllCountersSnapshot();
+    model.update(counters);
+    long generatedAt = System.currentTimeMillis();
 
-    // 1. Save pure JSON
+    ReportPaths paths = resolveReportPaths(outputPath);
     Files.createDirectories(paths.outputDir);
-    Files.writeString(paths.jsonPath, jsonData);
 
-    // 2. Save JSONP (for serverless live updates)
-    String jsonpContent = "window.loadExecutionData && window.loadExecutionData(" + jsonData + ");";
-    Files.writeString(paths.jsonpPath, jsonpContent);
+    // 1. Save the static sources once per content hash
+    SourcesRef sourcesRef = writeSources(model, paths);
 
-    // 3. Render HTML (embedded data for initial load)
-    renderReport(payload, paths, verbose);
+    // 2. Stream the counts payload into the JSON, the JSONP wrapper and the HTML in one pass
+    try (ReportWriter writer = new ReportWriter(reportTargets(paths, generatedAt, true))) {
+      writeCountsPayload(writer.generator(), model, sourcesRef, generatedAt, 0L);
+      writer.commit();
+    }
+
+    // 3. Digest the hottest lines for humans and LLMs
+    if (summaryTop > 0) {
+      HotpathSummary summary = new HotpathSummary(summaryTop);
+      model.forEachCounted(summary::addFile);
+      summary.addMethods(counters);
+      writeSummary(paths, summary, generatedAt, model::content);
+    }
+    finishReport(paths, verbose);
   }
 
-  /** Regenerates the report from a saved JSON data file. */
+  /** Regenerates the report from a saved JSON data file or binary snapshot. */
   public static void regenerateReport(String jsonPath, String outputPath) throws IOException {
-    ReportPayload payload = readPayload(jsonPath);
-    renderReport(payload, resolveReportPaths(outputPath), true);
-  }
-
-  static List<FileData> collectData(String sourcePath, boolean verbose) throws IOException {
-    Map<String, Map<Integer, Long>> allCounters = ExecutionCountStore.getAllCountersSnapshot();
-    List<SourceRoot> roots = parseSourceRoots(sourcePath);
-    Map<String, FileData> fileDataMap = new HashMap<>();
-
-    // 1. Initialize with all source files from disk (0 counts)
-    for (SourceRoot root : roots) {
-      try (Stream<Path> walker = Files.walk(root.path())) {
-        walker
-            .filter(Files::isRegularFile)
-            .filter(p -> p.toString().endsWith(".java"))
-            .forEach(
-                p -> {
-                  String relativePath = root.path().relativize(p).toString().replace('\\', '/');
-                  String content = "";
-                  try {
-                    content = Files.readString(p);
-                  } catch (IOException ignored) {
-                  }
-                  fileDataMap.put(
-                      root.project() + "::" + relativePath,
-                      new FileData(relativePath, new HashMap<>(), content, root.project()));
-                });
-      }
-    }
+    regenerateReport(jsonPath, outputPath, null, null);
+  }
 
-    // 2. Merge execution counts
-    if (!allCounters.isEmpty()) {
-      Map<String, Map<Integer, Long>> groupedCounters = new HashMap<>();
-      for (Map.Entry<String, Map<Integer, Long>> classEntry : allCounters.entrySet()) {
-        String className = classEntry.getKey();
-        String topLevelClass =
-            className.contains("$") ? className.substring(0, className.indexOf('$')) : className;
+  /**
+   * Regenerates the report from a saved JSON data file, binary snapshot or raw counter dump (see
+   * {@link #writeCounterDump}). A counter dump only holds class names, so its sources are resolved
+   * against {@code sourcePath}. With a JFR {@code recording}, its CPU samples are shown next to the
+   * counts.
+   */
+  public static void regenerateReport(
+      String dataPath, String outputPath, String sourcePath, String recording) throws IOException {
+    Path data = Path.of(dataPath);
+    ReportPayload payload =
+        data.getFileName().toString().endsWith(COUNTERS_EXTENSION)
+            ? readCounterDump(data, sourcePath)
+            : SnapshotReader.readPayload(data);
+    if (recording != null) {
+      long samples = JfrSamples.overlay(Path.of(recording), payload.files);
+      logger.info("Attributed " + samples + " CPU samples from " + recording);
+    }
+    writeReport(payload, outputPath, false, HotpathSummary.DEFAULT_TOP);
+  }
 
-        Map<Integer, Long> targetMap =
-            groupedCounters.computeIfAbsent(topLevelClass, k -> new HashMap<>());
-        for (Map.Entry<Integer, Long> lineEntry : classEntry.getValue().entrySet()) {
-          targetMap.merge(lineEntry.getKey(), lineEntry.getValue(), Long::sum);
+  /**
+   * Writes a self-contained report for {@code payload}: the HTML and, with {@code withData}, the
+   * payload itself as JSON and JSONP next to it. A summary of the {@code summaryTop} hottest lines
+   * and files goes next to it unless {@code summaryTop} is 0.
+   */
+  static void writeReport(
+      ReportPayload payload, String outputPath, boolean withData, int summaryTop)
+      throws IOException {
+    ReportPaths paths = resolveReportPaths(outputPath);
+    try (ReportWriter writer =
+        new ReportWriter(reportTargets(paths, payload.generatedAt, withData))) {
+      mapper.writeValue(writer.generator(), payload);
+      writer.commit();
+    }
+
+    if (summaryTop > 0) {
+      HotpathSummary summary = new HotpathSummary(summaryTop);
+      Map<String, String> contents = new HashMap<>();
+      for (FileData file : payload.files) {
+        summary.addFile(file);
+        if (file.getContent() != null) {
+          contents.put(file.getProject() + "::" + file.getPath(), file.getContent());
         }
       }
-
-      for (Map.Entry<String, Map<Integer, Long>> entry : groupedCounters.entrySet()) {
-        String className = entry.getKey();
-        Map<Integer, Long> counts = entry.getValue();
-        String relativePath = className.replace('.', '/') + ".java";
-
-        // Try to find existing FileData or create new if not found in disk scan
-        SourceFile sourceFile = findSourceContent(roots, className, relativePath);
-        String project = sourceFile.project();
-        String key = project + "::" + relativePath;
-
-        FileData data =
-            fileDataMap.computeIfAbsent(
-                key,
-                k -> new FileData(relativePath, new HashMap<>(), sourceFile.content(), project));
-
-        // Merge with any existing counts
-        Map<Integer, Long> currentCounts = new HashMap<>(data.getCounts());
-        counts.forEach((line, val) -> currentCounts.merge(line, val, Long::sum));
-        data.setCounts(currentCounts);
-      }
+      writeSummary(
+          paths,
+          summary,
+          payload.generatedAt,
+          (path, project) -> contents.get(project + "::" + path));
     }
+    finishReport(paths, true);
+  }
 
-    List<FileData> fileDataList = new ArrayList<>(fileDataMap.values());
-    fileDataList.sort(Comparator.comparing(ReportGenerator.FileData::getPath));
-    return fileDataList;
+  /**
+   * Dumps the raw counters, keyed by class name, to {@code <report>.counters.json}, with the source
+   * file recorded for each class. Nothing is read from the sources, so this is fast enough to run
+   * when the JVM is shutting down and rendering the report would take too long; {@link
+   * #regenerateReport(String, String, String, String)} renders the dump later. Returns the file
+   * written.
+   */
+  public static Path writeCounterDump(String outputPath) throws IOException {
+    ReportPaths paths = resolveReportPaths(outputPath);
+    Files.createDirectories(paths.outputDir);
+    Path target = paths.outputDir.resolve(paths.baseName + COUNTERS_EXTENSION);
+    publish(
+        target,
+        out -> {
+          JsonGenerator gen = ReportWriter.generator(out);
+          gen.writeStartObject();
+          gen.writeNumberField("generatedAt", System.currentTimeMillis());
+          gen.writeObjectFieldStart("counters");
+          // forEachCount visits one class at a time; open an object whenever the class changes.
+          String[] current = new String[1];
+          List<String> classes = new ArrayList<>();
+          try {
+            ExecutionCountStore.forEachCount(
+                (className, line, count) -> {
+                  try {
+                    if (!className.equals(current[0])) {
+                      if (current[0] != null) {
+                        gen.writeEndObject();
+                      }
+                      gen.writeObjectFieldStart(className);
+                      current[0] = className;
+                      classes.add(className);
+                    }
+                    gen.writeNumberField(Integer.toString(line), count);
+                  } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                  }
+                });
+          } catch (UncheckedIOException e) {
+            throw e.getCause();
+          }
+          if (current[0] != null) {
+            gen.writeEndObject();
+          }
+          gen.writeEndObject();
+          // The JVM rendering the dump never loaded these classes, so it cannot tell their files.
+          gen.writeObjectFieldStart("sources");
+          for (String className : classes) {
+            gen.writeStringField(className, ProbeRegistry.sourcePath(className));
+          }
+          gen.writeEndObject();
+          gen.writeEndObject();
+          gen.flush();
+        });
+    return target;
   }
 
-  private static void renderReport(ReportPayload payload, ReportPaths paths, boolean verbose)
-      throws IOException {
-    String template = loadTemplate();
-    if (template == null) {
-      logger.severe("Could not load report template.");
-      return;
-    }
+  /**
+   * Reads a raw counter dump and resolves its classes against {@code sourcePath}, in the source
+   * files the dumping JVM recorded for them.
+   */
+  static ReportPayload readCounterDump(Path file, String sourcePath) throws IOException {
+    CounterDump dump = mapper.readValue(file.toFile(), CounterDump.class);
+    if (dump.sources != null) {
+      dump.sources.forEach(ProbeRegistry::registerResolvedSource);
+    }
+    ReportModel model = ReportModel.forSourcePath(sourcePath);
+    model.update(dump.counters == null ? Map.of() : dump.counters);
+    return new ReportPayload(
+        dump.generatedAt > 0L ? dump.generatedAt : System.currentTimeMillis(), model.files());
+  }
 
-    String jsonData = mapper.writeValueAsString(payload);
+  /** Path of the history file kept next to the report; see {@link HistoryStore}. */
+  static Path historyPath(String outputPath) {
+    ReportPaths paths = resolveReportPaths(outputPath);
+    return paths.outputDir.resolve(paths.baseName + HistoryStore.EXTENSION);
+  }
 
-    // Inject data and report file names
-    String finalHtml =
-        template
-            .replace("/*DATA_MARKER*/ []", jsonData)
-            .replace("/*GENERATED_AT*/ 0", Long.toString(payload.generatedAt))
-            .replace("/*JSON_FILE*/", paths.jsonFileName)
-            .replace("/*JSONP_FILE*/", paths.jsonpFileName);
+  /**
+   * Merges the saved reports of several modules of a build into one report at {@code outputPath},
+   * using at most {@code parallelism} threads. Files a module had no source text for are resolved
+   * against {@code sourcePath}, the source roots of all modules; see {@link SnapshotMerger}.
+   * Returns the number of files in the merged report.
+   */
+  public static int writeAggregateReport(
+      List<Path> reports, String sourcePath, String outputPath, int parallelism)
+      throws IOException {
+    ReportPayload merged = SnapshotMerger.merge(reports, sourcePath, parallelism);
+    writeReport(merged, outputPath, true, HotpathSummary.DEFAULT_TOP);
+    return merged.files.size();
+  }
 
-    Files.writeString(paths.htmlPath, finalHtml);
-    if (verbose) {
-      logger.info(
-          "Report written to: file:///"
-              + paths.htmlPath.toAbsolutePath().toString().replace("\\", "/"));
-    }
+  /** Writes the tests that ran each hot line ({@code <report>.tests.json}) next to the report. */
+  static void writeTestAttribution(String outputPath) throws IOException {
+    ReportPaths paths = resolveReportPaths(outputPath);
+    Files.createDirectories(paths.outputDir);
+    publish(
+        paths.outputDir.resolve(paths.baseName + TestAttribution.EXTENSION),
+        out -> TestAttribution.writeJson(out, System.currentTimeMillis()));
+  }
 
-    copyResource(paths.outputDir, "/io/github/sfkamath/jvmhotpath/report-app.js", "report-app.js");
-    copyResource(paths.outputDir, "/io/github/sfkamath/jvmhotpath/favicon.png", "favicon.png");
+  /**
+   * Renders the counts a history file recorded at {@code at}, or the executions between {@code
+   * from} and {@code at} when {@code from} is given. Times are resolved by {@link
+   * HistoryStore.Reader#resolveTime}; without {@code at} the latest record is used. The history
+   * holds no source text, so sources are resolved against {@code sourcePath}.
+   */
+  static void regenerateFromHistory(
+      Path history, String at, String from, String sourcePath, String outputPath)
+      throws IOException {
+    HistoryStore.Reader reader = HistoryStore.Reader.open(history);
+    long to = at == null ? Long.MAX_VALUE : reader.resolveTime(at);
+    ReportPayload payload =
+        from == null ? reader.at(to) : reader.between(reader.resolveTime(from), to);
+    ReportModel model = ReportModel.forSourcePath(sourcePath);
+    for (FileData file : payload.files) {
+      String content = model.content(file.getPath(), file.getProject());
+      file.setContent(content == null ? ReportModel.MISSING_SOURCE + file.getPath() : content);
+    }
+    writeReport(payload, outputPath, false, HotpathSummary.DEFAULT_TOP);
   }
 
-  private static SourceFile findSourceContent(
-      List<SourceRoot> roots, String className, String relativePath) {
-    if (roots.isEmpty()) {
-      return SourceFile.missing(relativePath, fallbackProject(roots, relativePath));
-    }
+  /**
+   * Writes the counts and sources of the latest report as a self-contained binary snapshot ({@code
+   * <report>.hps}) next to it; see {@link #writeSnapshot(String, String, boolean, boolean)}.
+   */
+  public static void writeSnapshot(String outputPath, String sourcePath, boolean compress)
+      throws IOException {
+    writeSnapshot(outputPath, sourcePath, compress, true);
+  }
 
-    String filename = simpleClassName(className) + ".java";
-    for (SourceRoot root : roots) {
-      try {
-        Path candidate = root.path().resolve(relativePath);
-        if (Files.exists(candidate)) {
-          return new SourceFile(Files.readString(candidate), root.project());
-        }
+  /**
+   * Writes the counts of the latest report ({@link #generateHtmlReport}) as a binary snapshot
+   * ({@code <report>.hps}) next to it, without taking the counters again. With {@code withSources},
+   * every file of the model is written with its source text, so the snapshot stands on its own; the
+   * agent does that once, at the final flush. Without, only counted files and their counts are
+   * written, which keeps periodic flushes as cheap as the counts payload. See {@link
+   * SnapshotFormat} for the layout.
+   */
+  public static void writeSnapshot(
+      String outputPath, String sourcePath, boolean compress, boolean withSources)
+      throws IOException {
+    ReportModel model = ReportModel.forSourcePath(sourcePath);
+    List<FileData> files;
+    if (withSources) {
+      files = model.files();
+    } else {
+      files = new ArrayList<>();
+      model.forEachCounted(files::add);
+    }
+    ReportPayload payload = new ReportPayload(System.currentTimeMillis(), files);
+    int flags =
+        (withSources ? SnapshotFormat.FLAG_CONTENT : 0)
+            | (compress ? SnapshotFormat.FLAG_DEFLATE : 0);
+
+    ReportPaths paths = resolveReportPaths(outputPath);
+    Files.createDirectories(paths.outputDir);
+    publish(
+        paths.outputDir.resolve(paths.baseName + SnapshotFormat.EXTENSION),
+        out -> SnapshotFormat.write(out, payload, flags));
+  }
+
+  /**
+   * Writes the counts of the latest {@link #generateHtmlReport} as a gzipped pprof profile ({@code
+   * <report>.pb.gz}) next to the report. Functions are methods when the transformer recorded them,
+   * otherwise classes.
+   */
+  public static void writePprof(String outputPath, String sourcePath) throws IOException {
+    ReportModel model = ReportModel.forSourcePath(sourcePath);
+    Map<String, Map<Integer, Long>> counters = model.counters();
+    long now = System.currentTimeMillis();
 
-        try (Stream<Path> walker = Files.walk(root.path())) {
-          Optional<Path> found =
-              walker.filter(p -> p.getFileName().toString().equals(filename)).findFirst();
-          if (found.isPresent()) {
-            Path located = found.orElseThrow();
-            return new SourceFile(Files.readString(located), root.project());
+    ReportPaths paths = resolveReportPaths(outputPath);
+    Files.createDirectories(paths.outputDir);
+    publish(
+        paths.outputDir.resolve(paths.baseName + PprofWriter.EXTENSION),
+        out -> {
+          try (PprofWriter pprof = new PprofWriter(out)) {
+            pprof.time(now);
+            for (Map.Entry<String, Map<Integer, Long>> cls : counters.entrySet()) {
+              String className = cls.getKey();
+              String file = model.pathOf(className);
+              for (Map.Entry<Integer, Long> line : cls.getValue().entrySet()) {
+                String method = ProbeRegistry.methodAt(className, line.getKey());
+                pprof.add(
+                    method == null ? className : className + "." + method,
+                    file,
+                    line.getKey(),
+                    line.getValue());
+              }
+            }
           }
-        }
-      } catch (IOException ignored) {
-        // Skip broken roots and continue checking the remaining ones.
-      }
-    }
+        });
+  }
 
-    return SourceFile.missing(relativePath, fallbackProject(roots, relativePath));
+  /**
+   * Converts a saved report or snapshot into a gzipped pprof profile, one file entry at a time.
+   * Saved reports carry no method information, so each source file becomes one function.
+   */
+  static void convertToPprof(Path data, Path target) throws IOException {
+    Path parent = target.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    publish(
+        target.toAbsolutePath(),
+        out -> {
+          try (PprofWriter pprof = new PprofWriter(out)) {
+            IOException[] failure = new IOException[1];
+            long generatedAt =
+                SnapshotReader.read(
+                    data,
+                    file -> {
+                      if (failure[0] != null || file.getPath() == null) {
+                        return;
+                      }
+                      String function = functionName(file.getPath());
+                      try {
+                        for (Map.Entry<Integer, Long> line : file.getCounts().entrySet()) {
+                          pprof.add(function, file.getPath(), line.getKey(), line.getValue());
+                        }
+                      } catch (IOException e) {
+                        failure[0] = e;
+                      }
+                    });
+            if (failure[0] != null) {
+              throw failure[0];
+            }
+            pprof.time(generatedAt > 0L ? generatedAt : System.currentTimeMillis());
+          }
+        });
   }
 
-  private static List<SourceRoot> parseSourceRoots(String sourcePath) {
-    if (sourcePath == null || sourcePath.trim().isEmpty()) {
-      return List.of();
-    }
+  /** {@code com/app/Hot.java} becomes {@code com.app.Hot}. */
+  private static String functionName(String path) {
+    int dot = path.lastIndexOf('.');
+    String name = dot > path.lastIndexOf('/') ? path.substring(0, dot) : path;
+    return name.replace('/', '.');
+  }
 
-    Map<Path, SourceRoot> deduplicated = new LinkedHashMap<>();
-    for (String s : sourcePath.split(File.pathSeparator)) {
-      String trimmed = s.trim();
-      if (trimmed.isEmpty()) {
-        continue;
-      }
+  private static void writeSummary(
+      ReportPaths paths,
+      HotpathSummary summary,
+      long generatedAt,
+      BiFunction<String, String, String> sources)
+      throws IOException {
+    publish(
+        paths.outputDir.resolve(paths.baseName + ".summary.md"),
+        out -> summary.writeMarkdown(out, generatedAt, sources));
+    publish(
+        paths.outputDir.resolve(paths.baseName + ".summary.json"),
+        out -> summary.writeJson(out, generatedAt, sources));
+  }
 
-      Path path = Path.of(trimmed).toAbsolutePath().normalize();
-      if (Files.exists(path) && Files.isDirectory(path)) {
-        deduplicated.putIfAbsent(path, new SourceRoot(path, deriveProjectName(path)));
+  /** Writes {@code target} through a hidden temp file next to it and moves it into place. */
+  private static void publish(Path target, StreamWriter content) throws IOException {
+    Path temp = Files.createTempFile(target.getParent(), "." + target.getFileName() + "-", ".tmp");
+    try {
+      try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+        content.write(out);
       }
+      ReportWriter.move(temp, target);
+    } finally {
+      Files.deleteIfExists(temp);
     }
-    return new ArrayList<>(deduplicated.values());
   }
 
-  private static String deriveProjectName(Path root) {
-    if (root == null) {
-      return "unknown";
+  /** Body of a file written by {@link #publish}. */
+  private interface StreamWriter {
+    void write(OutputStream out) throws IOException;
+  }
+
+  /**
+   * Writes a counts payload: {@code generatedAt}, the sources reference and the counts of files
+   * changed after {@code since} (all files when {@code since} is 0, otherwise flagged as a delta).
+   */
+  static void writeCountsPayload(
+      JsonGenerator gen, ReportModel model, SourcesRef sourcesRef, long generatedAt, long since)
+      throws IOException {
+    gen.writeStartObject();
+    gen.writeNumberField("generatedAt", generatedAt);
+    gen.writeObjectFieldStart("sources");
+    gen.writeStringField("id", sourcesRef.id);
+    gen.writeStringField("json", sourcesRef.json);
+    gen.writeStringField("jsonp", sourcesRef.jsonp);
+    gen.writeEndObject();
+    if (since > 0L) {
+      gen.writeBooleanField("delta", true);
+    }
+    gen.writeFieldName("counts");
+    model.writeCounts(gen, since);
+    gen.writeEndObject();
+  }
+
+  /**
+   * Streams the report page for the live server: the template around the full counts payload, with
+   * the data files and the event stream resolved relative to the page. With {@code withHistory} the
+   * page also offers a timeline over {@code api/history}.
+   */
+  static void writeLivePage(
+      OutputStream out, ReportModel model, SourcesRef sourcesRef, boolean withHistory)
+      throws IOException {
+    String template = loadTemplate();
+    if (template == null) {
+      throw new IOException("Could not load report template.");
+    }
+    long generatedAt = System.currentTimeMillis();
+    String[] parts =
+        splitTemplate(
+            template,
+            generatedAt,
+            "data.json",
+            "data.js",
+            "events",
+            withHistory ? "api/history" : "");
+    out.write(parts[0].getBytes(StandardCharsets.UTF_8));
+    JsonGenerator gen = ReportWriter.generator(out);
+    writeCountsPayload(gen, model, sourcesRef, generatedAt, 0L);
+    gen.flush();
+    out.write(parts[1].getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Files receiving the payload: the HTML (split around the data marker) and, for live reports, the
+   * plain JSON and its JSONP wrapper.
+   */
+  private static List<ReportWriter.Target> reportTargets(
+      ReportPaths paths, long generatedAt, boolean withData) throws IOException {
+    List<ReportWriter.Target> targets = new ArrayList<>();
+    if (withData) {
+      targets.add(new ReportWriter.Target(paths.jsonPath, "", ""));
+      targets.add(new ReportWriter.Target(paths.jsonpPath, DATA_JSONP_PREFIX, JSONP_SUFFIX));
     }
-    String normalized = root.toString().replace('\\', '/');
-    String[] segments = normalized.split("/");
-    for (int i = 0; i < segments.length; i++) {
-      if ("src".equals(segments[i]) && i > 0) {
-        return segments[i - 1];
-      }
+    String template = loadTemplate();
+    if (template == null) {
+      logger.severe("Could not load report template.");
+      return targets;
     }
-    for (int i = 0; i < segments.length; i++) {
-      if ("target".equals(segments[i]) && i > 0) {
-        return segments[i - 1];
-      }
+    String[] parts =
+        splitTemplate(template, generatedAt, paths.jsonFileName, paths.jsonpFileName, "", "");
+    targets.add(new ReportWriter.Target(paths.htmlPath, parts[0], parts[1]));
+    return targets;
+  }
+
+  /** Splits the template around the data marker and fills in the remaining placeholders. */
+  private static String[] splitTemplate(
+      String template,
+      long generatedAt,
+      String jsonFile,
+      String jsonpFile,
+      String eventsUrl,
+      String historyUrl) {
+    int marker = template.indexOf(DATA_MARKER);
+    String[] parts = {
+      template.substring(0, marker), template.substring(marker + DATA_MARKER.length())
+    };
+    for (int i = 0; i < parts.length; i++) {
+      parts[i] =
+          parts[i]
+              .replace("/*GENERATED_AT*/ 0", Long.toString(generatedAt))
+              .replace("/*JSON_FILE*/", jsonFile)
+              .replace("/*JSONP_FILE*/", jsonpFile)
+              .replace("/*EVENTS_URL*/", eventsUrl)
+              .replace("/*HISTORY_URL*/", historyUrl);
+    }
+    return parts;
+  }
+
+  private static void finishReport(ReportPaths paths, boolean verbose) throws IOException {
+    if (!Files.exists(paths.htmlPath)) {
+      return;
     }
-    for (int i = segments.length - 1; i >= 0; i--) {
-      if (!segments[i].isBlank()) {
-        return segments[i];
-      }
+    if (verbose) {
+      logger.info(
+          "Report written to: file:///"
+              + paths.htmlPath.toAbsolutePath().toString().replace("\\", "/"));
     }
-    return "unknown";
+
+    copyAssets(paths.outputDir);
   }
 
-  private static String fallbackProject(List<SourceRoot> roots, String relativePath) {
-    if (!roots.isEmpty()) {
-      return roots.get(0).project();
+  private static synchronized String loadTemplate() throws IOException {
+    if (template == null) {
+      try (InputStream is = ReportGenerator.class.getResourceAsStream("report-template.html")) {
+        if (is == null) {
+          return null;
+        }
+        template = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+      }
     }
-    return "unknown";
+    return template;
   }
 
-  private static String loadTemplate() throws IOException {
-    try (InputStream is = ReportGenerator.class.getResourceAsStream("report-template.html")) {
-      if (is == null) {
-        return null;
-      }
-      return new String(is.readAllBytes(), StandardCharsets.UTF_8);
+  /** Copies the static UI assets next to the report, once per output directory. */
+  private static void copyAssets(Path outputDir) throws IOException {
+    Path key = outputDir.toAbsolutePath().normalize();
+    if (assetDirs.contains(key)
+        && Files.exists(outputDir.resolve("report-app.js"))
+        && Files.exists(outputDir.resolve("favicon.png"))) {
+      return;
     }
+    copyResource(outputDir, "/io/github/sfkamath/jvmhotpath/report-app.js", "report-app.js");
+    copyResource(outputDir, "/io/github/sfkamath/jvmhotpath/favicon.png", "favicon.png");
+    assetDirs.add(key);
   }
 
   private static void copyResource(Path targetDir, String resourceName, String fileName)
@@ -254,23 +566,60 @@ public final class ReportGenerator {
     }
   }
 
-  private static ReportPayload readPayload(String jsonPath) throws IOException {
-    String raw = Files.readString(Path.of(jsonPath));
-    var node = mapper.readTree(raw);
-    if (node.isArray()) {
-      List<FileData> files = mapper.convertValue(node, new TypeReference<List<FileData>>() {});
-      return new ReportPayload(System.currentTimeMillis(), files);
-    }
-    var filesNode = node.get("files");
-    List<FileData> files =
-        filesNode != null && filesNode.isArray()
-            ? mapper.convertValue(filesNode, new TypeReference<List<FileData>>() {})
-            : List.of();
-    long generatedAt = node.has("generatedAt") ? node.get("generatedAt").asLong() : 0L;
-    if (generatedAt <= 0L) {
-      generatedAt = System.currentTimeMillis();
+  /**
+   * Streams the model's sources table into a temp JSON/JSONP pair while hashing it, then publishes
+   * the pair under its content hash. Skipped while the model's file set is unchanged and the
+   * previously published pair is still on disk.
+   */
+  private static SourcesRef writeSources(ReportModel model, ReportPaths paths) throws IOException {
+    Path key = paths.htmlPath.toAbsolutePath().normalize();
+    long version = model.sourcesVersion();
+    PublishedSources published = publishedSources.get(key);
+    if (published != null
+        && published.model == model
+        && published.version == version
+        && Files.exists(paths.outputDir.resolve(published.ref.json))
+        && Files.exists(paths.outputDir.resolve(published.ref.jsonp))) {
+      return published.ref;
+    }
+
+    String prefix = paths.baseName + ".sources-";
+    SourcesRef ref;
+    Path json;
+    Path jsonp;
+    try (ReportWriter writer =
+        new ReportWriter(
+            List.of(
+                new ReportWriter.Target(paths.outputDir.resolve(prefix + "json.tmp"), "", ""),
+                new ReportWriter.Target(
+                    paths.outputDir.resolve(prefix + "js.tmp"),
+                    SOURCES_JSONP_PREFIX,
+                    JSONP_SUFFIX)))) {
+      JsonGenerator gen = writer.generator();
+      gen.writeStartObject();
+      gen.writeFieldName("files");
+      model.writeSources(gen);
+      // The hash covers the file table; the id field itself is appended afterwards.
+      String hash = writer.contentHash();
+      gen.writeStringField("id", hash);
+      gen.writeEndObject();
+      ref = new SourcesRef(hash, prefix + hash + ".json", prefix + hash + ".js");
+      json = paths.outputDir.resolve(ref.json);
+      jsonp = paths.outputDir.resolve(ref.jsonp);
+      writer.commit(List.of(json, jsonp));
+    }
+    publishedSources.put(key, new PublishedSources(model, version, ref));
+
+    // Drop the tables of earlier source sets; the current counts no longer reference them.
+    try (DirectoryStream<Path> stale =
+        Files.newDirectoryStream(paths.outputDir, prefix + "*.{json,js}")) {
+      for (Path old : stale) {
+        if (!old.equals(json) && !old.equals(jsonp)) {
+          Files.deleteIfExists(old);
+        }
+      }
     }
-    return new ReportPayload(generatedAt, files);
+    return ref;
   }
 
   private static ReportPaths resolveReportPaths(String outputPath) {
@@ -287,58 +636,8 @@ public final class ReportGenerator {
     Path outputDir = dir == null ? Path.of(".") : dir;
     Path jsonPath = outputDir.resolve(jsonFileName);
     Path jsonpPath = outputDir.resolve(jsonpFileName);
-    return new ReportPaths(htmlPath, outputDir, jsonPath, jsonpPath, jsonFileName, jsonpFileName);
-  }
-
-  private static String simpleClassName(String className) {
-    if (className == null || className.isEmpty()) {
-      return "Unknown";
-    }
-    int lastDot = className.lastIndexOf('.');
-    if (lastDot >= 0 && lastDot + 1 < className.length()) {
-      return className.substring(lastDot + 1);
-    }
-    return className;
-  }
-
-  private static final class SourceRoot {
-    private final Path path;
-    private final String project;
-
-    private SourceRoot(Path path, String project) {
-      this.path = path;
-      this.project = project;
-    }
-
-    private Path path() {
-      return path;
-    }
-
-    private String project() {
-      return project;
-    }
-  }
-
-  private static final class SourceFile {
-    private final String content;
-    private final String project;
-
-    private SourceFile(String content, String project) {
-      this.content = content;
-      this.project = project;
-    }
-
-    private static SourceFile missing(String relativePath, String project) {
-      return new SourceFile("// Source file not found: " + relativePath, project);
-    }
-
-    private String content() {
-      return content;
-    }
-
-    private String project() {
-      return project;
-    }
+    return new ReportPaths(
+        htmlPath, outputDir, jsonPath, jsonpPath, baseName, jsonFileName, jsonpFileName);
   }
 
   private static final class ReportPaths {
@@ -346,6 +645,7 @@ public final class ReportGenerator {
     private final Path outputDir;
     private final Path jsonPath;
     private final Path jsonpPath;
+    private final String baseName;
     private final String jsonFileName;
     private final String jsonpFileName;
 
@@ -354,22 +654,38 @@ public final class ReportGenerator {
         Path outputDir,
         Path jsonPath,
         Path jsonpPath,
+        String baseName,
         String jsonFileName,
         String jsonpFileName) {
       this.htmlPath = htmlPath;
       this.outputDir = outputDir;
       this.jsonPath = jsonPath;
       this.jsonpPath = jsonpPath;
+      this.baseName = baseName;
       this.jsonFileName = jsonFileName;
       this.jsonpFileName = jsonpFileName;
     }
   }
 
+  /** Sources pair last published for a report, and the model state it was written from. */
+  private static final class PublishedSources {
+    private final ReportModel model;
+    private final long version;
+    private final SourcesRef ref;
+
+    private PublishedSources(ReportModel model, long version, SourcesRef ref) {
+      this.model = model;
+      this.version = version;
+      this.ref = ref;
+    }
+  }
+
   public static class FileData {
     private String path;
     private Map<Integer, Long> counts;
     private String content;
     private String project;
+    private Map<Integer, Long> samples;
 
     public FileData() {}
 
@@ -411,15 +727,77 @@ public final class ReportGenerator {
     public void setProject(String project) {
       this.project = project == null || project.isBlank() ? "unknown" : project;
     }
+
+    /** CPU samples per line from a JFR recording (see {@code --jfr}); empty without one. */
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    public Map<Integer, Long> getSamples() {
+      return samples == null ? Map.of() : Collections.unmodifiableMap(samples);
+    }
+
+    public void setSamples(Map<Integer, Long> samples) {
+      this.samples = samples == null ? null : new HashMap<>(samples);
+    }
+  }
+
+  /** One entry of the sources table: a file's identity and source text. */
+  public static final class SourceData {
+    public int id;
+    public String path;
+    public String project;
+    public String content;
+
+    public SourceData() {}
+
+    public SourceData(int id, String path, String project, String content) {
+      this.id = id;
+      this.path = path;
+      this.project = project;
+      this.content = content;
+    }
+  }
+
+  /** Reference from a counts payload to the sources table it was written against. */
+  public static final class SourcesRef {
+    public String id;
+    public String json;
+    public String jsonp;
+
+    public SourcesRef() {}
+
+    public SourcesRef(String id, String json, String jsonp) {
+      this.id = id;
+      this.json = json;
+      this.jsonp = jsonp;
+    }
+  }
+
+  /** Raw counters keyed by class name, as written by {@link #writeCounterDump}. */
+  static final class CounterDump {
+    public long generatedAt;
+    public Map<String, Map<Integer, Long>> counters;
+    public Map<String, String> sources;
   }
 
   public static final class ReportPayload {
     public final long generatedAt;
     public final List<FileData> files;
 
+    /**
+     * Optional per-line counts keyed by {@code project/path}; when present the UI opens in diff
+     * mode against them (see {@code --diff}).
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public final Map<String, Map<Integer, Long>> baseline;
+
     public ReportPayload(long generatedAt, List<FileData> files) {
+      this(generatedAt, files, null);
+    }
+
+    public ReportPayload(
+        long generatedAt, List<FileData> files, Map<String, Map<Integer, Long>> baseline) {
       this.generatedAt = generatedAt;
       this.files = files;
+      this.baseline = baseline;
     }
   }
 
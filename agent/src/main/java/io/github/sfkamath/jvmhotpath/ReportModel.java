@@ -0,0 +1,451 @@
+package io.github.sfkamath.jvmhotpath;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Persistent in-memory view of the report that survives between flushes.
+ *
+ * <p>Source roots are indexed once by {@link SourceIndex} when the model is created. The model is
+ * serialized in two halves: a sources table that only changes when files are added or removed, and
+ * a compact counts object keyed by file ID. Each flush compares the latest counter snapshot with
+ * the counts already held by the model and only re-serializes files whose counts moved, so flush
+ * cost scales with what changed rather than with the size of the source tree.
+ */
+final class ReportModel {
+
+  /** Content written for counted classes whose source file could not be found. */
+  static final String MISSING_SOURCE = "// Source file not found: ";
+
+  private static final ObjectMapper mapper = new ObjectMapper();
+  private static final Comparator<Entry> ENTRY_ORDER =
+      Comparator.comparing((Entry e) -> e.path).thenComparing(e -> e.project);
+
+  private static final Comparator<LineCount> LINE_ORDER =
+      Comparator.comparingLong((LineCount l) -> l.count)
+          .thenComparing(l -> l.path, Comparator.reverseOrder())
+          .thenComparing(l -> l.line, Comparator.reverseOrder());
+
+  private static ReportModel current;
+  private static boolean watchSources;
+
+  private final String sourcePath;
+  private final SourceIndex index;
+  private long indexGeneration;
+  private final Map<String, Entry> entries = new HashMap<>();
+  private final Map<String, Entry> classEntries = new HashMap<>();
+  private List<Entry> ordered;
+  private long sourcesVersion;
+  private long stamp;
+  private Map<String, Map<Integer, Long>> counters = Map.of();
+
+  private ReportModel(String sourcePath) {
+    this.sourcePath = sourcePath;
+    this.index = SourceIndex.build(sourcePath);
+    this.indexGeneration = index.generation();
+    for (SourceIndex.Hit hit : index.files()) {
+      addDiskEntry(hit);
+    }
+  }
+
+  /** Returns the model for the given source path, reusing the previous one when unchanged. */
+  static synchronized ReportModel forSourcePath(String sourcePath) {
+    String normalized = sourcePath == null ? "" : sourcePath;
+    if (current == null || !current.sourcePath.equals(normalized)) {
+      if (current != null) {
+        current.index.close();
+      }
+      current = new ReportModel(normalized);
+      if (watchSources) {
+        current.index.watch();
+      }
+    }
+    return current;
+  }
+
+  /**
+   * Keeps the source index of the current and every later model in sync with the disk. Only a
+   * running agent or live report needs that; one-shot CLI runs read the sources once and exit.
+   */
+  static synchronized void watchSources() {
+    watchSources = true;
+    if (current != null) {
+      current.index.watch();
+    }
+  }
+
+  /**
+   * Applies a counter snapshot to the model. Only files whose merged counts differ from the
+   * previous snapshot are marked dirty. Classes keyed with the loader that defined them (see {@link
+   * ExecutionCountStore#getAllCountersSnapshot()}) count into a file of their own, whose project
+   * names the loader.
+   */
+  synchronized void update(Map<String, Map<Integer, Long>> allCounters) {
+    syncWithIndex();
+    long updateStamp = ++stamp;
+    counters = allCounters;
+
+    Map<Entry, Map<Integer, Long>> grouped = new HashMap<>();
+    for (Map.Entry<String, Map<Integer, Long>> classEntry : allCounters.entrySet()) {
+      String key = classEntry.getKey();
+      int separator = key.indexOf(ExecutionCountStore.LOADER_SEPARATOR);
+      String loader = separator < 0 ? null : key.substring(separator + 1);
+      // Nested, anonymous and synthetic classes share the source file of their outer class.
+      String relativePath =
+          ProbeRegistry.sourcePath(separator < 0 ? key : key.substring(0, separator));
+      Entry entry =
+          classEntries.computeIfAbsent(
+              loader == null ? relativePath : relativePath + key.substring(separator),
+              k -> resolveSource(relativePath, loader));
+
+      Map<Integer, Long> target = grouped.computeIfAbsent(entry, k -> new HashMap<>());
+      for (Map.Entry<Integer, Long> lineEntry : classEntry.getValue().entrySet()) {
+        target.merge(lineEntry.getKey(), lineEntry.getValue(), Long::sum);
+      }
+    }
+
+    Iterator<Entry> it = entries.values().iterator();
+    while (it.hasNext()) {
+      Entry entry = it.next();
+      Map<Integer, Long> counts = grouped.get(entry);
+      if (counts == null) {
+        if (!entry.onDisk) {
+          // Counted class without a source file that is no longer counted (e.g. after a reset).
+          it.remove();
+          classEntries.values().removeIf(e -> e == entry);
+          ordered = null;
+        } else if (!entry.counts.isEmpty()) {
+          entry.setCounts(Map.of(), updateStamp);
+        }
+      } else if (!counts.equals(entry.counts)) {
+        entry.setCounts(counts, updateStamp);
+      }
+    }
+  }
+
+  /** Returns a detached copy of every file in the model, sorted by path. */
+  synchronized List<ReportGenerator.FileData> files() {
+    List<ReportGenerator.FileData> result = new ArrayList<>();
+    for (Entry entry : orderedEntries()) {
+      result.add(entry.toFileData());
+    }
+    return result;
+  }
+
+  /**
+   * Bumped whenever files are added to or removed from the model, i.e. whenever the table written
+   * by {@link #writeSources} would change.
+   */
+  synchronized long sourcesVersion() {
+    orderedEntries();
+    return sourcesVersion;
+  }
+
+  /**
+   * Streams the static half of the payload: the path, project and source text of every file,
+   * addressed by file ID. Files are read one at a time, so only one source text is held in memory.
+   */
+  synchronized void writeSources(JsonGenerator gen) throws IOException {
+    gen.writeStartArray();
+    for (Entry entry : orderedEntries()) {
+      gen.writeStartObject();
+      gen.writeNumberField("id", entry.id);
+      gen.writeStringField("path", entry.path);
+      gen.writeStringField("project", entry.project);
+      gen.writeStringField("content", entry.readContent());
+      gen.writeEndObject();
+    }
+    gen.writeEndArray();
+  }
+
+  /**
+   * Streams the dynamic half of the payload: non-zero counts keyed by file ID. Only files whose
+   * counts changed since the previous call are re-serialized.
+   */
+  synchronized void writeCounts(JsonGenerator gen) throws IOException {
+    writeCounts(gen, 0L);
+  }
+
+  /**
+   * Streams the counts of files that changed after {@code since}, a value previously returned by
+   * {@link #stamp()}. Files whose counts dropped to zero are written as an empty object so a client
+   * applying the delta can clear them. With {@code since == 0} this is the full counts object.
+   */
+  synchronized void writeCounts(JsonGenerator gen, long since) throws IOException {
+    gen.writeStartObject();
+    for (Entry entry : orderedEntries()) {
+      if (since == 0L ? entry.counts.isEmpty() : entry.stamp <= since) {
+        continue;
+      }
+      gen.writeFieldName(Integer.toString(entry.id));
+      gen.writeRawValue(entry.countsJson());
+    }
+    gen.writeEndObject();
+  }
+
+  /**
+   * Streams {@code files}, e.g. counts read back from a {@link HistoryStore}, as a counts object
+   * keyed by this model's file IDs. Files the model does not hold are left out.
+   */
+  synchronized void writeCounts(JsonGenerator gen, List<ReportGenerator.FileData> files)
+      throws IOException {
+    Map<String, Map<Integer, Long>> byKey = new HashMap<>();
+    for (ReportGenerator.FileData file : files) {
+      byKey.put(file.getProject() + "::" + file.getPath(), file.getCounts());
+    }
+    gen.writeStartObject();
+    for (Entry entry : orderedEntries()) {
+      Map<Integer, Long> counts = byKey.get(entry.project + "::" + entry.path);
+      if (counts != null && !counts.isEmpty()) {
+        gen.writeFieldName(Integer.toString(entry.id));
+        gen.writeRawValue(mapper.writeValueAsString(counts));
+      }
+    }
+    gen.writeEndObject();
+  }
+
+  /** The per-class counter snapshot the latest {@link #update} applied. */
+  synchronized Map<String, Map<Integer, Long>> counters() {
+    return counters;
+  }
+
+  /** Increases with every {@link #update}; marks the counts a client has already seen. */
+  synchronized long stamp() {
+    return stamp;
+  }
+
+  /** Whether any file's counts changed after {@code since}. */
+  synchronized boolean changedSince(long since) {
+    for (Entry entry : entries.values()) {
+      if (entry.stamp > since) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the {@code n} most executed lines across all files, highest first. Keeps a bounded
+   * min-heap of size {@code n} instead of sorting every line.
+   */
+  synchronized List<LineCount> topLines(int n) {
+    TopLines top = new TopLines(n);
+    for (Entry entry : entries.values()) {
+      for (Map.Entry<Integer, Long> line : entry.counts.entrySet()) {
+        top.offer(entry.path, entry.project, line.getKey(), line.getValue());
+      }
+    }
+    return top.result();
+  }
+
+  /** Streams the path, project and counts of every counted file to {@code visitor}. */
+  synchronized void forEachCounted(Consumer<ReportGenerator.FileData> visitor) {
+    for (Entry entry : orderedEntries()) {
+      if (!entry.counts.isEmpty()) {
+        visitor.accept(new ReportGenerator.FileData(entry.path, entry.counts, null, entry.project));
+      }
+    }
+  }
+
+  /**
+   * Returns the source path the model assigned to {@code className} in the latest {@link #update},
+   * or the path the {@link ProbeRegistry} gives for it when it was not counted.
+   */
+  synchronized String pathOf(String className) {
+    String relativePath = ProbeRegistry.sourcePath(className);
+    Entry entry = classEntries.get(relativePath);
+    return entry == null ? relativePath : entry.path;
+  }
+
+  /** Returns the source text of a file in the model, or {@code null} when there is none. */
+  synchronized String content(String path, String project) {
+    Entry entry = entries.get(project + "::" + path);
+    return entry == null ? null : entry.readContent();
+  }
+
+  /**
+   * Returns the file with the given path (and project, when not {@code null}), without its source
+   * text, or {@code null} when the model has no such file.
+   */
+  synchronized ReportGenerator.FileData file(String path, String project) {
+    for (Entry entry : orderedEntries()) {
+      if (entry.path.equals(path) && (project == null || entry.project.equals(project))) {
+        return new ReportGenerator.FileData(entry.path, entry.counts, null, entry.project);
+      }
+    }
+    return null;
+  }
+
+  private List<Entry> orderedEntries() {
+    if (ordered == null) {
+      ordered = new ArrayList<>(entries.values());
+      ordered.sort(ENTRY_ORDER);
+      for (int i = 0; i < ordered.size(); i++) {
+        ordered.get(i).setId(i);
+      }
+      sourcesVersion++;
+    }
+    return ordered;
+  }
+
+  /** Whether the index's watcher added or removed files the next {@link #update} picks up. */
+  synchronized boolean sourcesChanged() {
+    return index.generation() != indexGeneration;
+  }
+
+  /** Picks up files the index's watcher added or removed since the previous flush. */
+  private void syncWithIndex() {
+    long generation = index.generation();
+    if (generation == indexGeneration) {
+      return;
+    }
+    indexGeneration = generation;
+    Map<String, SourceIndex.Hit> onDisk = new HashMap<>();
+    for (SourceIndex.Hit hit : index.files()) {
+      onDisk.put(hit.project + "::" + hit.relativePath, hit);
+    }
+    for (SourceIndex.Hit hit : onDisk.values()) {
+      Entry existing = entries.get(hit.project + "::" + hit.relativePath);
+      if (existing == null || !existing.onDisk) {
+        addDiskEntry(hit);
+      }
+    }
+    entries.entrySet().removeIf(e -> e.getValue().onDisk && !onDisk.containsKey(e.getKey()));
+    // Class resolutions may point at replaced or removed entries; resolve them again lazily.
+    classEntries.clear();
+    ordered = null;
+  }
+
+  private void addDiskEntry(SourceIndex.Hit hit) {
+    entries.put(
+        hit.project + "::" + hit.relativePath,
+        new Entry(hit.relativePath, hit.project, hit.file, true));
+    ordered = null;
+  }
+
+  private Entry resolveSource(String relativePath, String loader) {
+    SourceIndex.Hit hit = index.findFile(relativePath);
+    String project = hit == null ? index.fallbackProject() : hit.project;
+    if (loader != null) {
+      project = project + " [" + loader + "]";
+    }
+    Entry located = new Entry(relativePath, project, hit == null ? null : hit.file, false);
+    String key = located.project + "::" + relativePath;
+    Entry existing = entries.get(key);
+    if (existing != null) {
+      return existing;
+    }
+    entries.put(key, located);
+    ordered = null;
+    return located;
+  }
+
+  /** One line and its execution count. */
+  static final class LineCount {
+    final String path;
+    final String project;
+    final int line;
+    final long count;
+
+    LineCount(String path, String project, int line, long count) {
+      this.path = path;
+      this.project = project;
+      this.line = line;
+      this.count = count;
+    }
+  }
+
+  /**
+   * Keeps the {@code n} most executed lines offered to it in a bounded min-heap, so the full line
+   * set is never sorted.
+   */
+  static final class TopLines {
+    private final int n;
+    private final PriorityQueue<LineCount> heap;
+
+    TopLines(int n) {
+      this.n = Math.max(0, n);
+      this.heap = new PriorityQueue<>(this.n + 1, LINE_ORDER);
+    }
+
+    void offer(String path, String project, int line, long count) {
+      if (n == 0 || (heap.size() == n && count <= heap.peek().count)) {
+        return;
+      }
+      heap.add(new LineCount(path, project, line, count));
+      if (heap.size() > n) {
+        heap.poll();
+      }
+    }
+
+    /** The retained lines, highest count first. */
+    List<LineCount> result() {
+      List<LineCount> result = new ArrayList<>(heap);
+      result.sort(LINE_ORDER.reversed());
+      return result;
+    }
+  }
+
+  /** One source file in the report, with its latest counts and cached serialized counts. */
+  private static final class Entry {
+    private final String path;
+    private final String project;
+    private final Path file;
+    private final boolean onDisk;
+    private int id = -1;
+    private Map<Integer, Long> counts = Map.of();
+    private long stamp;
+    private String countsJson;
+
+    private Entry(String path, String project, Path file, boolean onDisk) {
+      this.path = path;
+      this.project = project;
+      this.file = file;
+      this.onDisk = onDisk;
+    }
+
+    private void setId(int id) {
+      this.id = id;
+    }
+
+    private void setCounts(Map<Integer, Long> counts, long stamp) {
+      this.counts = counts;
+      this.stamp = stamp;
+      this.countsJson = null;
+    }
+
+    private String readContent() {
+      if (file == null) {
+        return MISSING_SOURCE + path;
+      }
+      try {
+        return Files.readString(file);
+      } catch (IOException e) {
+        return onDisk ? "" : MISSING_SOURCE + path;
+      }
+    }
+
+    private ReportGenerator.FileData toFileData() {
+      return new ReportGenerator.FileData(path, counts, readContent(), project);
+    }
+
+    private String countsJson() throws JsonProcessingException {
+      if (countsJson == null) {
+        countsJson = mapper.writeValueAsString(counts);
+      }
+      return countsJson;
+    }
+  }
+}
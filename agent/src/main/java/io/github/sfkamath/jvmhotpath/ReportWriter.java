@@ -0,0 +1,230 @@
+package io.github.sfkamath.jvmhotpath;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.CharacterEscapes;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streams one JSON document into several files in a single pass and publishes them atomically.
+ *
+ * <p>Each {@link Target} gets its own text around the JSON body (nothing for the plain JSON, the
+ * JSONP call for the {@code .js} wrapper, the template halves for the HTML). Everything is written
+ * through buffered {@link FileChannel}s into temp files next to the targets, which are moved into
+ * place with {@link StandardCopyOption#ATOMIC_MOVE} on {@link #commit()}, so a browser polling the
+ * JSONP file never sees a half-written script.
+ */
+final class ReportWriter implements Closeable {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final JsonFactory factory = new JsonFactory();
+
+  private final List<Target> targets;
+  private final List<Path> temps = new ArrayList<>();
+  private final List<OutputStream> streams = new ArrayList<>();
+  private final MessageDigest digest;
+  private final JsonGenerator generator;
+  private boolean committed;
+
+  ReportWriter(List<Target> targets) throws IOException {
+    this.targets = targets;
+    try {
+      this.digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 not available", e);
+    }
+    try {
+      for (Target target : targets) {
+        Path dir = target.path.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path temp = Files.createTempFile(dir, "." + target.path.getFileName() + "-", ".tmp");
+        temps.add(temp);
+        OutputStream out =
+            new BufferedOutputStream(
+                Channels.newOutputStream(
+                    FileChannel.open(
+                        temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)),
+                BUFFER_SIZE);
+        streams.add(out);
+        out.write(target.prefix.getBytes(StandardCharsets.UTF_8));
+      }
+      generator = generator(new DigestOutputStream(new FanOutStream(streams), digest));
+    } catch (IOException | RuntimeException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /**
+   * Creates a generator with the same settings as the report files (HTML-safe escaping, target left
+   * open) for callers that stream the payload somewhere other than disk.
+   */
+  static JsonGenerator generator(OutputStream out) throws IOException {
+    JsonGenerator generator = factory.createGenerator(out, JsonEncoding.UTF8);
+    generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    generator.setCharacterEscapes(new HtmlSafeEscapes());
+    return generator;
+  }
+
+  /** Generator writing the JSON body into every target at once. */
+  JsonGenerator generator() {
+    return generator;
+  }
+
+  /** Hex prefix of the SHA-256 of the JSON body written so far. */
+  String contentHash() throws IOException {
+    generator.flush();
+    byte[] hash;
+    try {
+      hash = ((MessageDigest) digest.clone()).digest();
+    } catch (CloneNotSupportedException e) {
+      throw new IllegalStateException(e);
+    }
+    StringBuilder hex = new StringBuilder();
+    for (int i = 0; i < 8; i++) {
+      hex.append(String.format("%02x", hash[i]));
+    }
+    return hex.toString();
+  }
+
+  /** Finishes every target and moves it into place. */
+  void commit() throws IOException {
+    List<Path> paths = new ArrayList<>();
+    for (Target target : targets) {
+      paths.add(target.path);
+    }
+    commit(paths);
+  }
+
+  /**
+   * Finishes every target and moves it to the matching entry of {@code finalPaths}, for outputs
+   * whose name depends on the content (see {@link #contentHash()}).
+   */
+  void commit(List<Path> finalPaths) throws IOException {
+    generator.flush();
+    for (int i = 0; i < targets.size(); i++) {
+      OutputStream out = streams.get(i);
+      out.write(targets.get(i).suffix.getBytes(StandardCharsets.UTF_8));
+      out.close();
+    }
+    for (int i = 0; i < targets.size(); i++) {
+      move(temps.get(i), finalPaths.get(i));
+    }
+    committed = true;
+  }
+
+  @Override
+  public void close() {
+    if (committed) {
+      return;
+    }
+    for (OutputStream out : streams) {
+      try {
+        out.close();
+      } catch (IOException ignored) {
+        // The temp file is deleted below either way.
+      }
+    }
+    for (Path temp : temps) {
+      try {
+        Files.deleteIfExists(temp);
+      } catch (IOException ignored) {
+        // Best effort: a leftover dot-file does not affect the report.
+      }
+    }
+  }
+
+  /** Moves a finished temp file over {@code target}, atomically where the file system allows. */
+  static void move(Path source, Path target) throws IOException {
+    try {
+      Files.move(
+          source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /** A file receiving the JSON body, wrapped in {@code prefix} and {@code suffix}. */
+  static final class Target {
+    final Path path;
+    final String prefix;
+    final String suffix;
+
+    Target(Path path, String prefix, String suffix) {
+      this.path = path;
+      this.prefix = prefix;
+      this.suffix = suffix;
+    }
+  }
+
+  /** Copies every write to all underlying streams. */
+  private static final class FanOutStream extends OutputStream {
+    private final List<OutputStream> outputs;
+
+    private FanOutStream(List<OutputStream> outputs) {
+      this.outputs = outputs;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      for (OutputStream out : outputs) {
+        out.write(b);
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      for (OutputStream out : outputs) {
+        out.write(b, off, len);
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      for (OutputStream out : outputs) {
+        out.flush();
+      }
+    }
+  }
+
+  /** Escapes {@code <}, {@code >} and {@code &} so the JSON can be embedded in a script tag. */
+  private static final class HtmlSafeEscapes extends CharacterEscapes {
+    private static final long serialVersionUID = 1L;
+    private final int[] escapes;
+
+    private HtmlSafeEscapes() {
+      escapes = standardAsciiEscapesForJSON();
+      escapes['<'] = CharacterEscapes.ESCAPE_STANDARD;
+      escapes['>'] = CharacterEscapes.ESCAPE_STANDARD;
+      escapes['&'] = CharacterEscapes.ESCAPE_STANDARD;
+    }
+
+    @Override
+    public int[] getEscapeCodesForAscii() {
+      return escapes;
+    }
+
+    @Override
+    public SerializableString getEscapeSequence(int ch) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,171 @@
+package io.github.sfkamath.jvmhotpath;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * JSR-45 source map ({@code SMAP}) read from a class's {@code SourceDebugExtension}.
+ *
+ * <p>Kotlin writes one for inlined functions, and template engines for code generated from
+ * templates. Only the default stratum is read. Its line section maps each bytecode line (the output
+ * line) to a line of one of the listed source files:
+ *
+ * <pre>
+ * InputStartLine[#LineFileID][,RepeatCount]:OutputStartLine[,OutputLineIncrement]
+ * </pre>
+ *
+ * The transformer resolves every probe through the map once, so probes record the original file and
+ * line at no extra runtime cost.
+ */
+final class Smap {
+
+  private final Map<Integer, String> paths = new HashMap<>();
+  // Output start line -> range; a floor lookup finds the range a line may fall in.
+  private final TreeMap<Integer, Range> ranges = new TreeMap<>();
+
+  private Smap() {}
+
+  /**
+   * Parses {@code debug}, or returns {@code null} when it is not an SMAP with a line section. Files
+   * listed without a path are placed in {@code packageDir}, e.g. {@code com/app/}.
+   */
+  static Smap parse(String debug, String packageDir) {
+    if (debug == null || !debug.startsWith("SMAP")) {
+      return null;
+    }
+    String[] lines = debug.split("\r?\n");
+    if (lines.length < 3) {
+      return null;
+    }
+    String stratum = lines[2].trim();
+    Smap smap = new Smap();
+    boolean inStratum = false;
+    char section = 0;
+    int fileId = 0;
+    for (int i = 3; i < lines.length; i++) {
+      String line = lines[i].trim();
+      if (line.isEmpty()) {
+        continue;
+      }
+      if (line.startsWith("*")) {
+        if (line.startsWith("*S ")) {
+          if (inStratum) {
+            break;
+          }
+          inStratum = line.substring(3).trim().equals(stratum);
+        } else if (line.equals("*E")) {
+          break;
+        }
+        section = line.length() > 1 ? line.charAt(1) : 0;
+        continue;
+      }
+      if (!inStratum) {
+        continue;
+      }
+      try {
+        if (section == 'F') {
+          boolean withPath = line.startsWith("+");
+          String[] idAndName = (withPath ? line.substring(1).trim() : line).split("\\s+", 2);
+          String name = idAndName.length > 1 ? idAndName[1] : idAndName[0];
+          String dir = packageDir;
+          if (withPath && i + 1 < lines.length) {
+            // Kotlin writes the class's internal name here and others the file's path; either
+            // way the file lives in that directory.
+            String path = lines[++i].trim();
+            if (path.startsWith("/")) {
+              path = path.substring(1);
+            }
+            int slash = path.lastIndexOf('/');
+            dir = slash < 0 ? "" : path.substring(0, slash + 1);
+          }
+          smap.paths.put(Integer.parseInt(idAndName[0]), dir + name);
+        } else if (section == 'L') {
+          fileId = smap.addRange(line, fileId);
+        }
+      } catch (RuntimeException e) {
+        // Skip a malformed entry; the rest of the map is still usable.
+      }
+    }
+    return smap.ranges.isEmpty() ? null : smap;
+  }
+
+  /** Returns the source file and line of bytecode line {@code outputLine}, or {@code null}. */
+  Location map(int outputLine) {
+    Map.Entry<Integer, Range> floor = ranges.floorEntry(outputLine);
+    if (floor == null) {
+      return null;
+    }
+    Range range = floor.getValue();
+    if (outputLine > range.outputEnd) {
+      return null;
+    }
+    String path = paths.get(range.fileId);
+    if (path == null) {
+      return null;
+    }
+    int offset = range.increment == 0 ? 0 : (outputLine - range.outputStart) / range.increment;
+    return new Location(path, range.inputStart + offset);
+  }
+
+  /** Parses one line-section entry and returns its file ID, which later entries inherit. */
+  private int addRange(String entry, int previousFileId) {
+    int colon = entry.indexOf(':');
+    String input = entry.substring(0, colon);
+    String output = entry.substring(colon + 1);
+
+    int fileId = previousFileId;
+    int repeat = 1;
+    int comma = input.indexOf(',');
+    if (comma >= 0) {
+      repeat = Integer.parseInt(input.substring(comma + 1));
+      input = input.substring(0, comma);
+    }
+    int hash = input.indexOf('#');
+    if (hash >= 0) {
+      fileId = Integer.parseInt(input.substring(hash + 1));
+      input = input.substring(0, hash);
+    }
+    int inputStart = Integer.parseInt(input);
+
+    int increment = 1;
+    comma = output.indexOf(',');
+    if (comma >= 0) {
+      increment = Integer.parseInt(output.substring(comma + 1));
+      output = output.substring(0, comma);
+    }
+    int outputStart = Integer.parseInt(output);
+    int outputEnd = outputStart + Math.max(1, repeat * increment) - 1;
+
+    ranges.putIfAbsent(
+        outputStart, new Range(inputStart, fileId, outputStart, outputEnd, increment));
+    return fileId;
+  }
+
+  /** An original source line: file relative to a source root, and line number. */
+  static final class Location {
+    final String path;
+    final int line;
+
+    Location(String path, int line) {
+      this.path = path;
+      this.line = line;
+    }
+  }
+
+  private static final class Range {
+    private final int inputStart;
+    private final int fileId;
+    private final int outputStart;
+    private final int outputEnd;
+    private final int increment;
+
+    private Range(int inputStart, int fileId, int outputStart, int outputEnd, int increment) {
+      this.inputStart = inputStart;
+      this.fileId = fileId;
+      this.outputStart = outputStart;
+      this.outputEnd = outputEnd;
+      this.increment = increment;
+    }
+  }
+}
@@ -0,0 +1,304 @@
+package io.github.sfkamath.jvmhotpath;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compares two saved reports and ranks the lines whose execution count grew.
+ *
+ * <p>Files are matched by path. Before comparing, the head counts are scaled onto the base
+ * workload: by the ratio of total executions ({@code total}), by the ratio of one marker line that
+ * runs once per unit of work ({@code marker:<path>:<line>}), or not at all ({@code none}). A line
+ * is reported when its normalized count grew by at least {@link Options#ratio} times and reached
+ * {@link Options#minCount}, or grew by at least {@link Options#minDelta} executions, which is how
+ * an accidental O(N) to O(N²) change shows up in a load test. The count floor keeps rarely run
+ * lines going from one execution to two out of the list. Lines the base never ran are only reported
+ * with {@link Options#includeNew}.
+ */
+final class SnapshotDiff {
+
+  private static final Comparator<Regression> REGRESSION_ORDER =
+      Comparator.comparingDouble((Regression r) -> r.delta)
+          .reversed()
+          .thenComparing(r -> r.path)
+          .thenComparingInt(r -> r.line);
+
+  /** Diff settings, as parsed from the command line. */
+  static final class Options {
+    String normalize = "total";
+    double ratio = 2.0;
+    long minCount = 100;
+    long minDelta = Long.MAX_VALUE;
+    boolean includeNew;
+    String format = "json";
+  }
+
+  /** One line whose normalized count grew past a threshold. */
+  static final class Regression {
+    final String path;
+    final String project;
+    final int line;
+    final long base;
+    final long head;
+    final double normalizedHead;
+    final double delta;
+    final double ratio;
+
+    private Regression(String path, String project, int line, long base, long head, double scale) {
+      this.path = path;
+      this.project = project;
+      this.line = line;
+      this.base = base;
+      this.head = head;
+      this.normalizedHead = head * scale;
+      this.delta = normalizedHead - base;
+      this.ratio = base == 0 ? Double.POSITIVE_INFINITY : normalizedHead / base;
+    }
+  }
+
+  /** Outcome of a diff: the normalization applied and the regressions, largest growth first. */
+  static final class Result {
+    final String normalize;
+    final double scale;
+    final long baseTotal;
+    final long headTotal;
+    final Options options;
+    final List<Regression> regressions;
+    final ReportGenerator.ReportPayload report;
+
+    private Result(
+        String normalize,
+        double scale,
+        long baseTotal,
+        long headTotal,
+        Options options,
+        List<Regression> regressions,
+        ReportGenerator.ReportPayload report) {
+      this.normalize = normalize;
+      this.scale = scale;
+      this.baseTotal = baseTotal;
+      this.headTotal = headTotal;
+      this.options = options;
+      this.regressions = regressions;
+      this.report = report;
+    }
+  }
+
+  private SnapshotDiff() {}
+
+  /**
+   * Diffs {@code head} against {@code base}. With {@code withReport} the result also carries the
+   * head report with the scaled base counts as its diff baseline; otherwise no source text is kept.
+   */
+  static Result diff(Path base, Path head, Options options, boolean withReport) throws IOException {
+    Map<String, Map<Integer, Long>> baseCounts = new HashMap<>();
+    long[] baseTotal = {0L};
+    SnapshotReader.read(
+        base,
+        file -> {
+          Map<Integer, Long> counts =
+              baseCounts.computeIfAbsent(file.getPath(), k -> new HashMap<>());
+          for (Map.Entry<Integer, Long> line : file.getCounts().entrySet()) {
+            counts.merge(line.getKey(), line.getValue(), Long::sum);
+            baseTotal[0] += line.getValue();
+          }
+        });
+
+    List<ReportGenerator.FileData> headFiles = new ArrayList<>();
+    long headGeneratedAt =
+        SnapshotReader.read(
+            head,
+            file ->
+                headFiles.add(
+                    withReport
+                        ? file
+                        : new ReportGenerator.FileData(
+                            file.getPath(), file.getCounts(), null, file.getProject())));
+    long headTotal = 0L;
+    for (ReportGenerator.FileData file : headFiles) {
+      for (long count : file.getCounts().values()) {
+        headTotal += count;
+      }
+    }
+
+    double scale = scale(options.normalize, baseCounts, baseTotal[0], headFiles, headTotal);
+
+    List<Regression> regressions = new ArrayList<>();
+    for (ReportGenerator.FileData file : headFiles) {
+      Map<Integer, Long> before = baseCounts.getOrDefault(file.getPath(), Map.of());
+      for (Map.Entry<Integer, Long> line : file.getCounts().entrySet()) {
+        Regression candidate =
+            new Regression(
+                file.getPath(),
+                file.getProject(),
+                line.getKey(),
+                before.getOrDefault(line.getKey(), 0L),
+                line.getValue(),
+                scale);
+        if (candidate.delta <= 0 || (candidate.base == 0 && !options.includeNew)) {
+          continue;
+        }
+        if ((candidate.ratio >= options.ratio && candidate.normalizedHead >= options.minCount)
+            || candidate.delta >= options.minDelta) {
+          regressions.add(candidate);
+        }
+      }
+    }
+    regressions.sort(REGRESSION_ORDER);
+
+    ReportGenerator.ReportPayload report = null;
+    if (withReport) {
+      // The UI subtracts the baseline from the head counts, so express it in head units.
+      Map<String, Map<Integer, Long>> baseline = new HashMap<>();
+      for (ReportGenerator.FileData file : headFiles) {
+        Map<Integer, Long> before = baseCounts.get(file.getPath());
+        if (before == null) {
+          continue;
+        }
+        Map<Integer, Long> scaled = new HashMap<>();
+        for (Map.Entry<Integer, Long> line : before.entrySet()) {
+          scaled.put(line.getKey(), Math.round(line.getValue() / scale));
+        }
+        baseline.put(file.getProject() + "/" + file.getPath(), scaled);
+      }
+      report = new ReportGenerator.ReportPayload(headGeneratedAt, headFiles, baseline);
+    }
+    return new Result(
+        options.normalize, scale, baseTotal[0], headTotal, options, regressions, report);
+  }
+
+  /** Factor that maps head counts onto the base workload. */
+  private static double scale(
+      String normalize,
+      Map<String, Map<Integer, Long>> baseCounts,
+      long baseTotal,
+      List<ReportGenerator.FileData> headFiles,
+      long headTotal)
+      throws IOException {
+    if ("none".equals(normalize)) {
+      return 1.0;
+    }
+    if ("total".equals(normalize)) {
+      return headTotal == 0 ? 1.0 : (double) baseTotal / headTotal;
+    }
+    if (normalize.startsWith("marker:")) {
+      int colon = normalize.lastIndexOf(':');
+      String path = normalize.substring("marker:".length(), colon);
+      int line;
+      try {
+        line = Integer.parseInt(normalize.substring(colon + 1));
+      } catch (NumberFormatException e) {
+        throw new IOException("Marker must be marker:<path>:<line>, got: " + normalize);
+      }
+      long baseMarker = baseCounts.getOrDefault(path, Map.of()).getOrDefault(line, 0L);
+      long headMarker = 0L;
+      for (ReportGenerator.FileData file : headFiles) {
+        if (path.equals(file.getPath())) {
+          headMarker += file.getCounts().getOrDefault(line, 0L);
+        }
+      }
+      if (baseMarker == 0 || headMarker == 0) {
+        throw new IOException(
+            "Marker line "
+                + path
+                + ":"
+                + line
+                + " was not executed in both snapshots (base "
+                + baseMarker
+                + ", head "
+                + headMarker
+                + ")");
+      }
+      return (double) baseMarker / headMarker;
+    }
+    throw new IOException("Unknown normalization: " + normalize);
+  }
+
+  static void writeJson(Result result, OutputStream out) throws IOException {
+    JsonGenerator gen = ReportWriter.generator(out);
+    gen.useDefaultPrettyPrinter();
+    gen.writeStartObject();
+    gen.writeObjectFieldStart("normalization");
+    gen.writeStringField("mode", result.normalize);
+    gen.writeNumberField("scale", result.scale);
+    gen.writeNumberField("baseTotal", result.baseTotal);
+    gen.writeNumberField("headTotal", result.headTotal);
+    gen.writeEndObject();
+    gen.writeObjectFieldStart("thresholds");
+    gen.writeNumberField("ratio", result.options.ratio);
+    gen.writeNumberField("minCount", result.options.minCount);
+    if (result.options.minDelta != Long.MAX_VALUE) {
+      gen.writeNumberField("minDelta", result.options.minDelta);
+    }
+    gen.writeBooleanField("includeNew", result.options.includeNew);
+    gen.writeEndObject();
+    gen.writeArrayFieldStart("regressions");
+    for (Regression r : result.regressions) {
+      gen.writeStartObject();
+      gen.writeStringField("path", r.path);
+      gen.writeStringField("project", r.project);
+      gen.writeNumberField("line", r.line);
+      gen.writeNumberField("base", r.base);
+      gen.writeNumberField("head", r.head);
+      gen.writeNumberField("normalizedHead", round(r.normalizedHead));
+      gen.writeNumberField("delta", round(r.delta));
+      if (Double.isInfinite(r.ratio)) {
+        gen.writeNullField("ratio");
+      } else {
+        gen.writeNumberField("ratio", round(r.ratio));
+      }
+      gen.writeEndObject();
+    }
+    gen.writeEndArray();
+    gen.writeEndObject();
+    gen.writeRaw('\n');
+    gen.flush();
+  }
+
+  static void writeMarkdown(Result result, OutputStream out) {
+    PrintWriter md = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), false);
+    md.println("## Execution count regressions");
+    md.println();
+    md.printf(
+        Locale.ROOT,
+        "Normalized by `%s` (scale %.4f; base %d, head %d executions).%n",
+        result.normalize,
+        result.scale,
+        result.baseTotal,
+        result.headTotal);
+    md.println();
+    if (result.regressions.isEmpty()) {
+      md.println("No line grew past the thresholds.");
+    } else {
+      md.println("| File | Line | Base | Head (normalized) | Delta | Ratio |");
+      md.println("| :--- | ---: | ---: | ---: | ---: | ---: |");
+      for (Regression r : result.regressions) {
+        md.printf(
+            Locale.ROOT,
+            "| `%s` | %d | %d | %.0f | +%.0f | %s |%n",
+            r.path,
+            r.line,
+            r.base,
+            r.normalizedHead,
+            r.delta,
+            Double.isInfinite(r.ratio) ? "new" : String.format(Locale.ROOT, "%.2fx", r.ratio));
+      }
+    }
+    md.flush();
+  }
+
+  private static double round(double value) {
+    return Math.round(value * 1000.0) / 1000.0;
+  }
+}
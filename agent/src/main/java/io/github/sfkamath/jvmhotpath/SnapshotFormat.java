@@ -0,0 +1,288 @@
+package io.github.sfkamath.jvmhotpath;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compact binary snapshot of the report ({@code .hps}).
+ *
+ * <p>Layout, all integers as unsigned LEB128 varints unless noted:
+ *
+ * <pre>
+ * magic    "JHPS" (4 bytes)
+ * version  1 byte (currently 1)
+ * flags    1 byte: bit 0 body is zlib-deflated, bit 1 body carries source text
+ * body     generatedAt
+ *          string count, then per string: byte length, UTF-8 bytes
+ *          file count, then per file:
+ *            project (string index), directory (string index), file name (string index)
+ *            [source text: byte length + 1 (0 = none), UTF-8 bytes]   if bit 1
+ *            line count, then per line: line delta from the previous line, count
+ * </pre>
+ *
+ * <p>Projects, directories and file names share one string table, so a package that holds thousands
+ * of classes stores its directory once. Lines are written in ascending order as deltas, which keeps
+ * nearly all of them to a single byte.
+ */
+final class SnapshotFormat {
+
+  static final String EXTENSION = ".hps";
+  static final int VERSION = 1;
+  static final int FLAG_DEFLATE = 1;
+  static final int FLAG_CONTENT = 2;
+
+  private static final byte[] MAGIC = {'J', 'H', 'P', 'S'};
+
+  private SnapshotFormat() {}
+
+  /** Whether the file starts with the snapshot magic. */
+  static boolean isSnapshot(Path file) {
+    try (InputStream in = Files.newInputStream(file)) {
+      return Arrays.equals(MAGIC, in.readNBytes(MAGIC.length));
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  static void write(Path file, ReportGenerator.ReportPayload payload, int flags)
+      throws IOException {
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+      write(out, payload, flags);
+    }
+  }
+
+  static void write(OutputStream out, ReportGenerator.ReportPayload payload, int flags)
+      throws IOException {
+    out.write(MAGIC);
+    out.write(VERSION);
+    out.write(flags);
+
+    Deflater deflater = null;
+    OutputStream body = out;
+    if ((flags & FLAG_DEFLATE) != 0) {
+      deflater = new Deflater(Deflater.BEST_SPEED);
+      body = new DeflaterOutputStream(out, deflater, 64 * 1024);
+    }
+    try {
+      writeBody(body, payload, (flags & FLAG_CONTENT) != 0);
+      if (deflater != null) {
+        ((DeflaterOutputStream) body).finish();
+      }
+      out.flush();
+    } finally {
+      if (deflater != null) {
+        deflater.end();
+      }
+    }
+  }
+
+  static ReportGenerator.ReportPayload read(Path file) throws IOException {
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+      return read(in);
+    }
+  }
+
+  static ReportGenerator.ReportPayload read(InputStream in) throws IOException {
+    List<ReportGenerator.FileData> files = new ArrayList<>();
+    long generatedAt = read(in, files::add);
+    return new ReportGenerator.ReportPayload(generatedAt, files);
+  }
+
+  /**
+   * Streams the files of a snapshot to {@code visitor} one at a time and returns its {@code
+   * generatedAt}. Only the string table is held in memory.
+   */
+  static long read(InputStream in, Consumer<ReportGenerator.FileData> visitor) throws IOException {
+    byte[] magic = in.readNBytes(MAGIC.length);
+    if (!Arrays.equals(MAGIC, magic)) {
+      throw new IOException("Not a hotpath snapshot");
+    }
+    int version = in.read();
+    if (version != VERSION) {
+      throw new IOException("Unsupported snapshot version: " + version);
+    }
+    int flags = in.read();
+    if (flags < 0) {
+      throw new EOFException();
+    }
+    Inflater inflater = null;
+    InputStream body = in;
+    if ((flags & FLAG_DEFLATE) != 0) {
+      inflater = new Inflater();
+      body = new InflaterInputStream(in, inflater, 64 * 1024);
+    }
+    try {
+      return readBody(
+          new DataInputStream(new BufferedInputStream(body)), (flags & FLAG_CONTENT) != 0, visitor);
+    } finally {
+      if (inflater != null) {
+        inflater.end();
+      }
+    }
+  }
+
+  private static void writeBody(
+      OutputStream out, ReportGenerator.ReportPayload payload, boolean withContent)
+      throws IOException {
+    Map<String, Integer> strings = new LinkedHashMap<>();
+    List<int[]> keys = new ArrayList<>(payload.files.size());
+    for (ReportGenerator.FileData file : payload.files) {
+      String path = file.getPath() == null ? "" : file.getPath();
+      int slash = path.lastIndexOf('/');
+      keys.add(
+          new int[] {
+            intern(strings, file.getProject()),
+            intern(strings, slash < 0 ? "" : path.substring(0, slash)),
+            intern(strings, path.substring(slash + 1))
+          });
+    }
+
+    writeVarLong(out, payload.generatedAt);
+    writeVarLong(out, strings.size());
+    for (String s : strings.keySet()) {
+      writeBytes(out, s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    writeVarLong(out, payload.files.size());
+    for (int i = 0; i < payload.files.size(); i++) {
+      ReportGenerator.FileData file = payload.files.get(i);
+      int[] key = keys.get(i);
+      writeVarLong(out, key[0]);
+      writeVarLong(out, key[1]);
+      writeVarLong(out, key[2]);
+      if (withContent) {
+        String content = file.getContent();
+        if (content == null) {
+          writeVarLong(out, 0);
+        } else {
+          byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+          writeVarLong(out, bytes.length + 1L);
+          out.write(bytes);
+        }
+      }
+
+      Map<Integer, Long> counts = file.getCounts();
+      int[] lines = new int[counts.size()];
+      int n = 0;
+      for (Integer line : counts.keySet()) {
+        lines[n++] = line;
+      }
+      Arrays.sort(lines);
+      writeVarLong(out, lines.length);
+      int previous = 0;
+      for (int line : lines) {
+        writeVarLong(out, line - previous);
+        writeVarLong(out, counts.get(line));
+        previous = line;
+      }
+    }
+  }
+
+  private static long readBody(
+      DataInputStream in, boolean withContent, Consumer<ReportGenerator.FileData> visitor)
+      throws IOException {
+    long generatedAt = readVarLong(in);
+    String[] strings = new String[readCount(in)];
+    for (int i = 0; i < strings.length; i++) {
+      strings[i] = new String(readBytes(in, readCount(in)), StandardCharsets.UTF_8);
+    }
+
+    int fileCount = readCount(in);
+    for (int i = 0; i < fileCount; i++) {
+      String project = string(strings, readCount(in));
+      String dir = string(strings, readCount(in));
+      String name = string(strings, readCount(in));
+      String content = null;
+      if (withContent) {
+        int length = readCount(in);
+        if (length > 0) {
+          content = new String(readBytes(in, length - 1), StandardCharsets.UTF_8);
+        }
+      }
+
+      int lineCount = readCount(in);
+      Map<Integer, Long> counts = new HashMap<>(Math.max(4, lineCount * 2));
+      int line = 0;
+      for (int j = 0; j < lineCount; j++) {
+        line += readCount(in);
+        counts.put(line, readVarLong(in));
+      }
+      visitor.accept(
+          new ReportGenerator.FileData(
+              dir.isEmpty() ? name : dir + "/" + name, counts, content, project));
+    }
+    return generatedAt;
+  }
+
+  private static String string(String[] strings, int index) throws IOException {
+    if (index >= strings.length) {
+      throw new IOException("Malformed snapshot: string index out of range " + index);
+    }
+    return strings[index];
+  }
+
+  private static int intern(Map<String, Integer> strings, String value) {
+    return strings.computeIfAbsent(value == null ? "" : value, k -> strings.size());
+  }
+
+  private static void writeBytes(OutputStream out, byte[] bytes) throws IOException {
+    writeVarLong(out, bytes.length);
+    out.write(bytes);
+  }
+
+  private static byte[] readBytes(DataInputStream in, int length) throws IOException {
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  static void writeVarLong(OutputStream out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  static long readVarLong(InputStream in) throws IOException {
+    long result = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.read();
+      if (b < 0) {
+        throw new EOFException("Truncated snapshot");
+      }
+      result |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return result;
+      }
+    }
+    throw new IOException("Malformed varint in snapshot");
+  }
+
+  private static int readCount(InputStream in) throws IOException {
+    long value = readVarLong(in);
+    if (value < 0 || value > Integer.MAX_VALUE) {
+      throw new IOException("Malformed snapshot: length out of range " + value);
+    }
+    return (int) value;
+  }
+}
@@ -0,0 +1,234 @@
+package io.github.sfkamath.jvmhotpath;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Combines saved reports from many JVMs (e.g. every replica of a service) into one.
+ *
+ * <p>Inputs are streamed in parallel on a {@link ForkJoinPool}, one file entry at a time, and
+ * folded into a single table keyed by project and path where counts are summed per line. Identical
+ * source text is shared rather than copied, so memory is bounded by the distinct files and sources
+ * across the fleet and the pool's parallelism, not by the number of snapshots merged.
+ *
+ * <p>Given a source path, e.g. the source roots of every module of a build, files an input has no
+ * source text for are looked up in one index shared by all inputs. A file found there is filed
+ * under the project owning it, so counts a module's tests gave another module's classes end up on
+ * that module's files.
+ */
+final class SnapshotMerger {
+
+  private static final Comparator<ReportGenerator.FileData> FILE_ORDER =
+      Comparator.comparing(ReportGenerator.FileData::getPath)
+          .thenComparing(ReportGenerator.FileData::getProject);
+
+  private final Map<String, MergedFile> files = new ConcurrentHashMap<>();
+  private final Map<String, String> contents = new ConcurrentHashMap<>();
+  private final AtomicLong generatedAt = new AtomicLong();
+  private final SourceIndex sources;
+
+  private SnapshotMerger(SourceIndex sources) {
+    this.sources = sources;
+  }
+
+  /**
+   * Expands files and directories into the saved reports to merge: {@code .json} and {@code .hps}
+   * files, searched recursively, skipping the sources tables that split payloads reference and the
+   * summaries and test attribution indexes written next to reports.
+   */
+  static List<Path> expandInputs(List<String> args) throws IOException {
+    TreeSet<Path> inputs = new TreeSet<>();
+    for (String arg : args) {
+      Path path = Path.of(arg).toAbsolutePath().normalize();
+      if (Files.isDirectory(path)) {
+        try (Stream<Path> walker = Files.walk(path)) {
+          inputs.addAll(
+              walker
+                  .filter(Files::isRegularFile)
+                  .filter(SnapshotMerger::isReportData)
+                  .collect(Collectors.toList()));
+        }
+      } else if (Files.isRegularFile(path)) {
+        inputs.add(path);
+      } else {
+        throw new IOException("No such snapshot file or directory: " + arg);
+      }
+    }
+    return new ArrayList<>(inputs);
+  }
+
+  private static boolean isReportData(Path file) {
+    String name = file.getFileName().toString();
+    return (name.endsWith(".json") || name.endsWith(SnapshotFormat.EXTENSION))
+        && !name.contains(".sources-")
+        && !name.endsWith(".summary.json")
+        && !name.endsWith(TestAttribution.EXTENSION)
+        && !name.endsWith(ReportGenerator.COUNTERS_EXTENSION);
+  }
+
+  /** Merges {@code inputs} using at most {@code parallelism} threads. */
+  static ReportGenerator.ReportPayload merge(List<Path> inputs, int parallelism)
+      throws IOException {
+    return merge(inputs, null, parallelism);
+  }
+
+  /**
+   * Merges {@code inputs} using at most {@code parallelism} threads, resolving the files they miss
+   * the source of against {@code sourcePath} when it is not empty.
+   */
+  static ReportGenerator.ReportPayload merge(List<Path> inputs, String sourcePath, int parallelism)
+      throws IOException {
+    SourceIndex index =
+        sourcePath == null || sourcePath.trim().isEmpty() ? null : SourceIndex.build(sourcePath);
+    try {
+      return merge(new SnapshotMerger(index), inputs, parallelism);
+    } finally {
+      if (index != null) {
+        index.close();
+      }
+    }
+  }
+
+  private static ReportGenerator.ReportPayload merge(
+      SnapshotMerger merger, List<Path> inputs, int parallelism) throws IOException {
+    List<Callable<Void>> tasks = new ArrayList<>(inputs.size());
+    for (int i = 0; i < inputs.size(); i++) {
+      int index = i;
+      Path input = inputs.get(i);
+      tasks.add(
+          () -> {
+            merger.add(index, input);
+            return null;
+          });
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+    try {
+      for (Future<Void> result : pool.invokeAll(tasks)) {
+        result.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Merge interrupted", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException("Merge failed: " + cause.getMessage(), cause);
+    } finally {
+      pool.shutdown();
+    }
+    return merger.result();
+  }
+
+  private void add(int index, Path input) throws IOException {
+    long at;
+    try {
+      at = SnapshotReader.read(input, file -> addFile(index, file));
+    } catch (IOException e) {
+      throw new IOException("Could not read " + input + ": " + e.getMessage(), e);
+    }
+    generatedAt.accumulateAndGet(at, Math::max);
+  }
+
+  private void addFile(int index, ReportGenerator.FileData file) {
+    String path = file.getPath() == null ? "" : file.getPath();
+    String content = file.getContent();
+    SourceIndex.Hit hit = null;
+    if (sources != null && (content == null || content.startsWith(ReportModel.MISSING_SOURCE))) {
+      hit = sources.findFile(path);
+    }
+    String project = hit == null ? file.getProject() : hit.project;
+    MergedFile merged =
+        files.computeIfAbsent(project + "::" + path, k -> new MergedFile(project, path));
+    if (hit != null) {
+      merged.add(index, file.getCounts(), null);
+      merged.locate(hit.file);
+      return;
+    }
+    merged.add(
+        index,
+        file.getCounts(),
+        content == null ? null : contents.computeIfAbsent(content, c -> c));
+  }
+
+  private ReportGenerator.ReportPayload result() {
+    List<ReportGenerator.FileData> result =
+        files.values().parallelStream()
+            .map(
+                merged ->
+                    new ReportGenerator.FileData(
+                        merged.path, merged.counts, merged.content(), merged.project))
+            .sorted(FILE_ORDER)
+            .collect(Collectors.toList());
+    long at = generatedAt.get();
+    return new ReportGenerator.ReportPayload(at > 0L ? at : System.currentTimeMillis(), result);
+  }
+
+  /** Summed counts of one file across all inputs, and the source text chosen for it. */
+  private static final class MergedFile {
+    private final String project;
+    private final String path;
+    private final Map<Integer, Long> counts = new HashMap<>();
+    private String content;
+    private int contentRank = Integer.MAX_VALUE;
+    // Source file found in the shared index, read when no input had the text.
+    private Path located;
+
+    private MergedFile(String project, String path) {
+      this.project = project;
+      this.path = path;
+    }
+
+    /**
+     * Sums the counts and keeps the source text of the earliest input (in sorted input order) that
+     * had the real file, so the result does not depend on which thread finished first.
+     */
+    private synchronized void add(int index, Map<Integer, Long> lineCounts, String text) {
+      for (Map.Entry<Integer, Long> line : lineCounts.entrySet()) {
+        counts.merge(line.getKey(), line.getValue(), Long::sum);
+      }
+      if (text == null) {
+        return;
+      }
+      boolean placeholder = text.startsWith(ReportModel.MISSING_SOURCE);
+      int rank = placeholder ? Integer.MAX_VALUE - 1 : index;
+      if (rank < contentRank) {
+        content = text;
+        contentRank = rank;
+      }
+    }
+
+    private synchronized void locate(Path file) {
+      located = file;
+    }
+
+    /** The source text an input had, else that of the located file, else the placeholder. */
+    private String content() {
+      if (located == null || (content != null && contentRank < Integer.MAX_VALUE - 1)) {
+        return content;
+      }
+      try {
+        return Files.readString(located);
+      } catch (IOException e) {
+        return content != null ? content : ReportModel.MISSING_SOURCE + path;
+      }
+    }
+  }
+}
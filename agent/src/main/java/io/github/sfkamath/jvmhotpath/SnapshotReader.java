@@ -0,0 +1,129 @@
+package io.github.sfkamath.jvmhotpath;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Reads every saved report layout one file at a time: binary snapshots, the self-contained {@code
+ * files} layout, the bare array layout and the split layout (counts payload plus the sources table
+ * it references). Callers that only aggregate never hold more than one file's source text.
+ */
+final class SnapshotReader {
+
+  private static final ObjectMapper mapper = new ObjectMapper();
+  private static final TypeReference<Map<String, Map<Integer, Long>>> COUNTS_TYPE =
+      new TypeReference<Map<String, Map<Integer, Long>>>() {};
+
+  private SnapshotReader() {}
+
+  /** Reads a whole payload into memory. Missing timestamps default to now. */
+  static ReportGenerator.ReportPayload readPayload(Path file) throws IOException {
+    List<ReportGenerator.FileData> files = new ArrayList<>();
+    long generatedAt = read(file, files::add);
+    if (generatedAt <= 0L) {
+      generatedAt = System.currentTimeMillis();
+    }
+    return new ReportGenerator.ReportPayload(generatedAt, files);
+  }
+
+  /**
+   * Streams the files of a saved report to {@code visitor} and returns its {@code generatedAt}, or
+   * 0 when the file does not record one.
+   */
+  static long read(Path file, Consumer<ReportGenerator.FileData> visitor) throws IOException {
+    if (SnapshotFormat.isSnapshot(file)) {
+      try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+        return SnapshotFormat.read(in, visitor);
+      }
+    }
+
+    try (JsonParser parser = mapper.getFactory().createParser(file.toFile())) {
+      JsonToken token = parser.nextToken();
+      if (token == JsonToken.START_ARRAY) {
+        readFiles(parser, visitor);
+        return 0L;
+      }
+      if (token != JsonToken.START_OBJECT) {
+        throw new IOException("Not a report payload: " + file);
+      }
+
+      long generatedAt = 0L;
+      ReportGenerator.SourcesRef sources = null;
+      Map<String, Map<Integer, Long>> counts = null;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+        if ("generatedAt".equals(field) && value.isNumeric()) {
+          generatedAt = parser.getLongValue();
+        } else if ("files".equals(field) && value == JsonToken.START_ARRAY) {
+          readFiles(parser, visitor);
+        } else if ("sources".equals(field) && value == JsonToken.START_OBJECT) {
+          sources = parser.readValueAs(ReportGenerator.SourcesRef.class);
+        } else if ("counts".equals(field) && value == JsonToken.START_OBJECT) {
+          // Counts only, keyed by file ID: small next to the sources table.
+          counts = parser.readValueAs(COUNTS_TYPE);
+        } else {
+          parser.skipChildren();
+        }
+      }
+      if (sources != null && counts != null) {
+        joinSources(file, sources, counts, visitor);
+      }
+      return generatedAt;
+    }
+  }
+
+  /** Streams the sources table a counts payload references, attaching each file's counts. */
+  private static void joinSources(
+      Path jsonPath,
+      ReportGenerator.SourcesRef ref,
+      Map<String, Map<Integer, Long>> counts,
+      Consumer<ReportGenerator.FileData> visitor)
+      throws IOException {
+    Path sourcesPath = jsonPath.toAbsolutePath().resolveSibling(ref.json);
+    if (!Files.exists(sourcesPath)) {
+      throw new IOException(
+          "Sources file referenced by " + jsonPath + " not found: " + sourcesPath);
+    }
+    try (JsonParser parser = mapper.getFactory().createParser(sourcesPath.toFile())) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new IOException("Not a sources table: " + sourcesPath);
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+        if (!"files".equals(field) || value != JsonToken.START_ARRAY) {
+          parser.skipChildren();
+          continue;
+        }
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+          ReportGenerator.SourceData source = parser.readValueAs(ReportGenerator.SourceData.class);
+          visitor.accept(
+              new ReportGenerator.FileData(
+                  source.path,
+                  counts.get(Integer.toString(source.id)),
+                  source.content,
+                  source.project));
+        }
+      }
+    }
+  }
+
+  private static void readFiles(JsonParser parser, Consumer<ReportGenerator.FileData> visitor)
+      throws IOException {
+    while (parser.nextToken() == JsonToken.START_OBJECT) {
+      visitor.accept(parser.readValueAs(ReportGenerator.FileData.class));
+    }
+  }
+}
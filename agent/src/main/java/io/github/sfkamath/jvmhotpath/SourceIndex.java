@@ -0,0 +1,476 @@
+package io.github.sfkamath.jvmhotpath;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Index of the source files below the configured source roots.
+ *
+ * <p>Every root is scanned once (roots are scanned in parallel) into a relative-path index and a
+ * simple-file-name index, so resolving a class to its source file is a hash lookup instead of a
+ * directory walk. Simple names that occur in several packages are disambiguated by the package the
+ * class lives in. An optional {@link WatchService} keeps the index current when files are added or
+ * removed while the application runs.
+ *
+ * <p>Roots may also be {@code .jar} or {@code .zip} archives such as {@code *-sources.jar}. Each is
+ * opened once as a zip {@link FileSystem}, whose central directory serves as the index; an entry is
+ * only decompressed when a counted class resolves to it and its text is read. Archive entries are
+ * left out of {@link #files()}, so instrumenting a dependency does not put every file of its
+ * sources jar into the report, and archives are not watched.
+ */
+final class SourceIndex implements Closeable {
+
+  /** Extensions of the source files that are indexed. */
+  static final List<String> SOURCE_EXTENSIONS = List.of(".java", ".kt", ".groovy");
+
+  private static final Logger logger = Logger.getLogger(SourceIndex.class.getName());
+
+  private final List<Root> roots;
+  private final AtomicLong generation = new AtomicLong();
+  private volatile WatchService watchService;
+  private final Map<WatchKey, Root> watchKeys = new ConcurrentHashMap<>();
+
+  private SourceIndex(List<Root> roots) {
+    this.roots = roots;
+  }
+
+  /**
+   * Parses a path-separator delimited source path and indexes every existing directory and archive
+   * root.
+   */
+  static SourceIndex build(String sourcePath) {
+    SourceIndex index = new SourceIndex(parseRoots(sourcePath));
+    index.roots.parallelStream().forEach(Root::scan);
+    return index;
+  }
+
+  boolean isEmpty() {
+    return roots.isEmpty();
+  }
+
+  /** Project name of the first root, used for classes whose source file cannot be found. */
+  String fallbackProject() {
+    return roots.isEmpty() ? "unknown" : roots.get(0).project;
+  }
+
+  /** Incremented every time the watcher adds or removes a file. */
+  long generation() {
+    return generation.get();
+  }
+
+  /** All indexed files of directory roots, in root order. */
+  List<Hit> files() {
+    List<Hit> result = new ArrayList<>();
+    for (Root root : roots) {
+      if (root.archive != null) {
+        continue;
+      }
+      for (Map.Entry<String, Path> entry : root.byPath.entrySet()) {
+        result.add(new Hit(root.project, entry.getKey(), entry.getValue()));
+      }
+    }
+    return result;
+  }
+
+  /** Resolves a top-level class name to its source file; see {@link #findFile}. */
+  Hit find(String className) {
+    return findFile(className.replace('.', '/') + ".java");
+  }
+
+  /**
+   * Resolves a source file given relative to a source root, e.g. {@code com/app/Hot.java}. Checks
+   * that location in every root first and falls back to the file-name index, preferring the file
+   * that lives in (or declares) the expected package. Files with other extensions, such as
+   * templates an SMAP points to, are not indexed and are only found at their exact location.
+   */
+  Hit findFile(String relativePath) {
+    for (Root root : roots) {
+      Path direct = root.byPath.get(relativePath);
+      if (direct != null) {
+        return new Hit(root.project, relativePath, direct);
+      }
+    }
+    if (!isSourceFile(relativePath)) {
+      for (Root root : roots) {
+        Path direct = root.path.resolve(relativePath);
+        if (Files.isRegularFile(direct)) {
+          return new Hit(root.project, relativePath, direct);
+        }
+      }
+      return null;
+    }
+
+    int slash = relativePath.lastIndexOf('/');
+    String packageName = slash < 0 ? "" : relativePath.substring(0, slash).replace('/', '.');
+    String fileName = relativePath.substring(slash + 1);
+    List<Hit> best = new ArrayList<>();
+    int bestScore = -1;
+    for (Root root : roots) {
+      List<String> candidates = root.byName.get(fileName);
+      if (candidates == null) {
+        continue;
+      }
+      for (String candidate : candidates) {
+        Path file = root.byPath.get(candidate);
+        if (file == null) {
+          continue;
+        }
+        int score = packageScore(packageName, candidate);
+        if (score > bestScore) {
+          best.clear();
+          bestScore = score;
+        }
+        if (score == bestScore) {
+          best.add(new Hit(root.project, candidate, file));
+        }
+      }
+    }
+    if (best.isEmpty()) {
+      return null;
+    }
+    if (best.size() > 1) {
+      // Same simple name in several packages and no directory match: ask the files themselves.
+      for (Hit hit : best) {
+        if (declaresPackage(hit.file, packageName)) {
+          return hit;
+        }
+      }
+    }
+    return best.get(0);
+  }
+
+  /**
+   * Starts a daemon thread that keeps the index current. Failing to register a watch (e.g. when the
+   * platform's watch limit is exhausted) only disables incremental refresh.
+   */
+  synchronized void watch() {
+    if (watchService != null || roots.isEmpty()) {
+      return;
+    }
+    try {
+      watchService = FileSystems.getDefault().newWatchService();
+      for (Root root : roots) {
+        if (root.archive == null) {
+          registerTree(root, root.path);
+        }
+      }
+    } catch (IOException e) {
+      logger.log(Level.FINE, "Source watching disabled: {0}", e.getMessage());
+      stopWatching();
+      return;
+    }
+    Thread watcher = new Thread(this::processEvents, "JvmHotpath-Source-Watcher");
+    watcher.setDaemon(true);
+    watcher.start();
+  }
+
+  @Override
+  public synchronized void close() {
+    stopWatching();
+    for (Root root : roots) {
+      if (root.archive != null) {
+        try {
+          root.archive.close();
+        } catch (IOException ignored) {
+          // Read-only archive; nothing to flush.
+        }
+      }
+    }
+  }
+
+  private void stopWatching() {
+    WatchService ws = watchService;
+    watchService = null;
+    watchKeys.clear();
+    if (ws != null) {
+      try {
+        ws.close();
+      } catch (IOException ignored) {
+        // Nothing left to release.
+      }
+    }
+  }
+
+  private void processEvents() {
+    while (true) {
+      WatchService ws = watchService;
+      if (ws == null) {
+        return;
+      }
+      WatchKey key;
+      try {
+        key = ws.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (ClosedWatchServiceException e) {
+        return;
+      }
+
+      Root root = watchKeys.get(key);
+      if (root != null && key.watchable() instanceof Path) {
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (event.kind() == OVERFLOW) {
+            root.scan();
+            generation.incrementAndGet();
+            continue;
+          }
+          Path child = dir.resolve((Path) event.context());
+          if (event.kind() == ENTRY_CREATE) {
+            onCreate(root, child);
+          } else if (event.kind() == ENTRY_DELETE) {
+            onDelete(root, child);
+          }
+        }
+      }
+      if (!key.reset()) {
+        watchKeys.remove(key);
+      }
+    }
+  }
+
+  private void onCreate(Root root, Path child) {
+    if (Files.isDirectory(child)) {
+      try {
+        registerTree(root, child);
+        try (Stream<Path> walker = Files.walk(child)) {
+          walker.filter(Files::isRegularFile).forEach(root::add);
+        }
+      } catch (IOException | RuntimeException e) {
+        logger.log(Level.FINE, "Could not index new directory: " + child, e);
+      }
+    } else {
+      root.add(child);
+    }
+    generation.incrementAndGet();
+  }
+
+  private void onDelete(Root root, Path child) {
+    String prefix = root.relativize(child);
+    root.byPath.keySet().removeIf(p -> p.equals(prefix) || p.startsWith(prefix + "/"));
+    for (List<String> names : root.byName.values()) {
+      names.removeIf(p -> p.equals(prefix) || p.startsWith(prefix + "/"));
+    }
+    generation.incrementAndGet();
+  }
+
+  private void registerTree(Root root, Path start) throws IOException {
+    WatchService ws = watchService;
+    if (ws == null) {
+      return;
+    }
+    Files.walkFileTree(
+        start,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+              throws IOException {
+            watchKeys.put(dir.register(ws, ENTRY_CREATE, ENTRY_DELETE), root);
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+
+  private static int packageScore(String packageName, String relativePath) {
+    int slash = relativePath.lastIndexOf('/');
+    String dir = slash < 0 ? "" : relativePath.substring(0, slash);
+    String[] want = packageName.isEmpty() ? new String[0] : packageName.split("\\.");
+    String[] have = dir.isEmpty() ? new String[0] : dir.split("/");
+    int score = 0;
+    for (int i = want.length - 1, j = have.length - 1; i >= 0 && j >= 0; i--, j--) {
+      if (!want[i].equals(have[j])) {
+        break;
+      }
+      score++;
+    }
+    return score;
+  }
+
+  private static boolean declaresPackage(Path file, String packageName) {
+    try (BufferedReader reader = Files.newBufferedReader(file)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String trimmed = line.trim();
+        if (trimmed.startsWith("package ")) {
+          String declared = trimmed.substring(8).replace(";", "").trim();
+          return declared.equals(packageName);
+        }
+        if (trimmed.startsWith("import ") || trimmed.contains(" class ")) {
+          break;
+        }
+      }
+    } catch (IOException | RuntimeException ignored) {
+      // Unreadable files never win a tie.
+    }
+    return packageName.isEmpty();
+  }
+
+  private static List<Root> parseRoots(String sourcePath) {
+    if (sourcePath == null || sourcePath.trim().isEmpty()) {
+      return List.of();
+    }
+
+    Map<Path, Root> deduplicated = new LinkedHashMap<>();
+    for (String s : sourcePath.split(File.pathSeparator)) {
+      String trimmed = s.trim();
+      if (trimmed.isEmpty()) {
+        continue;
+      }
+
+      Path path = Path.of(trimmed).toAbsolutePath().normalize();
+      if (deduplicated.containsKey(path)) {
+        continue;
+      }
+      if (Files.isDirectory(path)) {
+        deduplicated.put(path, new Root(path, deriveProjectName(path), null));
+      } else if (isArchive(path)) {
+        try {
+          FileSystem archive = FileSystems.newFileSystem(path, (ClassLoader) null);
+          deduplicated.put(
+              path,
+              new Root(archive.getPath("/"), archiveProjectName(path.getFileName()), archive));
+        } catch (IOException | RuntimeException e) {
+          logger.log(Level.WARNING, "Could not open source archive: " + path, e);
+        }
+      }
+    }
+    return new ArrayList<>(deduplicated.values());
+  }
+
+  static boolean isSourceFile(String fileName) {
+    for (String extension : SOURCE_EXTENSIONS) {
+      if (fileName.endsWith(extension)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isArchive(Path path) {
+    String name =
+        path.getFileName() == null ? "" : path.getFileName().toString().toLowerCase(Locale.ROOT);
+    return (name.endsWith(".jar") || name.endsWith(".zip")) && Files.isRegularFile(path);
+  }
+
+  /** {@code shared-library-1.0.0-sources.jar} becomes {@code shared-library-1.0.0}. */
+  static String archiveProjectName(Path fileName) {
+    String name = fileName.toString();
+    int dot = name.lastIndexOf('.');
+    if (dot > 0) {
+      name = name.substring(0, dot);
+    }
+    if (name.endsWith("-sources")) {
+      name = name.substring(0, name.length() - "-sources".length());
+    }
+    return name.isEmpty() ? "unknown" : name;
+  }
+
+  static String deriveProjectName(Path root) {
+    if (root == null) {
+      return "unknown";
+    }
+    String normalized = root.toString().replace('\\', '/');
+    String[] segments = normalized.split("/");
+    for (int i = 0; i < segments.length; i++) {
+      if ("src".equals(segments[i]) && i > 0) {
+        return segments[i - 1];
+      }
+    }
+    for (int i = 0; i < segments.length; i++) {
+      if ("target".equals(segments[i]) && i > 0) {
+        return segments[i - 1];
+      }
+    }
+    for (int i = segments.length - 1; i >= 0; i--) {
+      if (!segments[i].isBlank()) {
+        return segments[i];
+      }
+    }
+    return "unknown";
+  }
+
+  /**
+   * A resolved source file: owning project, path relative to its root, and location on disk or
+   * inside a source archive.
+   */
+  static final class Hit {
+    final String project;
+    final String relativePath;
+    final Path file;
+
+    Hit(String project, String relativePath, Path file) {
+      this.project = project;
+      this.relativePath = relativePath;
+      this.file = file;
+    }
+  }
+
+  private static final class Root {
+    private final Path path;
+    private final String project;
+    // The open zip file system of an archive root; null for directories.
+    private final FileSystem archive;
+    private final Map<String, Path> byPath = new ConcurrentHashMap<>();
+    private final Map<String, List<String>> byName = new ConcurrentHashMap<>();
+
+    private Root(Path path, String project, FileSystem archive) {
+      this.path = path;
+      this.project = project;
+      this.archive = archive;
+    }
+
+    private void scan() {
+      try (Stream<Path> walker = Files.walk(path)) {
+        walker.filter(Files::isRegularFile).forEach(this::add);
+      } catch (IOException | RuntimeException e) {
+        logger.log(Level.FINE, "Could not index source root: " + path, e);
+      }
+    }
+
+    private void add(Path file) {
+      Path name = file.getFileName();
+      if (name == null || !isSourceFile(name.toString())) {
+        return;
+      }
+      String relativePath = relativize(file);
+      if (byPath.put(relativePath, file) == null) {
+        byName
+            .computeIfAbsent(name.toString(), k -> new CopyOnWriteArrayList<>())
+            .add(relativePath);
+      }
+    }
+
+    private String relativize(Path file) {
+      return path.relativize(file).toString().replace('\\', '/');
+    }
+  }
+}
@@ -0,0 +1,266 @@
+package io.github.sfkamath.jvmhotpath;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Tells which tests drove each hot line, written next to the report as {@code <report>.tests.json}.
+ *
+ * <p>{@link HotpathTestListener} reports the start and end of every test. While a test runs, the
+ * {@link ExecutionCountStore} has probes count into that test's own slabs, which it moves into the
+ * store when the test stops, so a probe costs the same with or without a test running. The running
+ * test is process-wide rather than per thread, because the code a test drives often runs on server
+ * or pool threads the test never sees. Tests running in parallel cannot be told apart that way, so
+ * while more than one runs nothing is attributed, which is logged the first time it happens.
+ *
+ * <p>When a test finishes, its slabs are folded into an index and dropped: every line keeps the
+ * total all tests gave it and its {@code testsPerLine} biggest contributors, so memory grows with
+ * the lines the tests ran, not with the number of tests.
+ *
+ * <p>Tests are keyed by an id that tells every run apart, e.g. each invocation of a parameterized
+ * or repeated test, and written with a label for people to read.
+ */
+final class TestAttribution {
+
+  private static final Logger logger = Logger.getLogger(TestAttribution.class.getName());
+
+  static final String EXTENSION = ".tests.json";
+
+  /** Tests kept per line by default. */
+  static final int DEFAULT_TESTS_PER_LINE = 5;
+
+  /** Hottest lines written to the index. */
+  static final int TOP_LINES = 100;
+
+  private static final Comparator<Map.Entry<String, Long>> TEST_ORDER =
+      Comparator.comparingLong((Map.Entry<String, Long> e) -> e.getValue())
+          .reversed()
+          .thenComparing(Map.Entry::getKey);
+
+  private static volatile boolean enabled;
+  private static int testsPerLine = DEFAULT_TESTS_PER_LINE;
+  private static int running;
+  private static ExecutionCountStore.TestCounts current;
+  private static String currentLabel;
+  // Whether tests have overlapped; only the first overlap is logged.
+  private static boolean overlapped;
+  // Map: source path -> (LineNumber -> tests)
+  private static final Map<String, Map<Integer, LineTests>> lines = new HashMap<>();
+  // Map: test id -> executions attributed to it
+  private static final Map<String, Long> tests = new HashMap<>();
+  // Map: test id -> label
+  private static final Map<String, String> labels = new HashMap<>();
+
+  private TestAttribution() {}
+
+  /** Starts attributing the tests reported from now on, keeping {@code perLine} tests per line. */
+  static synchronized void enable(int perLine) {
+    testsPerLine = Math.max(1, perLine);
+    enabled = true;
+  }
+
+  static boolean isEnabled() {
+    return enabled;
+  }
+
+  /** Called when the test with id {@code test} starts; {@code label} names it in the index. */
+  static synchronized void testStarted(String test, String label) {
+    if (!enabled) {
+      return;
+    }
+    running++;
+    if (running == 1) {
+      current = new ExecutionCountStore.TestCounts(test);
+      currentLabel = label;
+      ExecutionCountStore.setActiveTest(current);
+    } else {
+      // Tests overlap: whatever runs now belongs to either.
+      ExecutionCountStore.setActiveTest(null);
+      if (!overlapped) {
+        overlapped = true;
+        logger.info(
+            "Tests run in parallel; executions are not attributed to any test while they"
+                + " overlap, starting with "
+                + label);
+      }
+    }
+  }
+
+  /** Called when the test with id {@code test} finishes, whatever its outcome. */
+  static synchronized void testFinished(String test) {
+    if (!enabled || running == 0) {
+      return;
+    }
+    running--;
+    if (current != null && current.test().equals(test)) {
+      ExecutionCountStore.setActiveTest(null);
+      fold(current, currentLabel);
+      current = null;
+      currentLabel = null;
+    } else if (running == 1 && current != null) {
+      // The test that overlapped the current one is done; the current one runs alone again.
+      ExecutionCountStore.setActiveTest(current);
+    }
+  }
+
+  /** Whether any test had executions attributed to it. */
+  static synchronized boolean hasData() {
+    return !tests.isEmpty();
+  }
+
+  /** Executions attributed to the test with id {@code test} so far. */
+  static synchronized long executions(String test) {
+    return tests.getOrDefault(test, 0L);
+  }
+
+  /** The ids of the tests kept for {@code line} of {@code path}, biggest contributor first. */
+  static synchronized List<Map.Entry<String, Long>> testsAt(String path, int line) {
+    Map<Integer, LineTests> fileLines = lines.get(path);
+    LineTests kept = fileLines == null ? null : fileLines.get(line);
+    return kept == null ? List.of() : kept.sorted();
+  }
+
+  /** Stops attributing and forgets everything attributed so far. */
+  static synchronized void reset() {
+    enabled = false;
+    testsPerLine = DEFAULT_TESTS_PER_LINE;
+    running = 0;
+    current = null;
+    currentLabel = null;
+    overlapped = false;
+    ExecutionCountStore.setActiveTest(null);
+    lines.clear();
+    tests.clear();
+    labels.clear();
+  }
+
+  /** Adds a finished test's counts to the index, merging the classes of one source file. */
+  private static void fold(ExecutionCountStore.TestCounts counts, String label) {
+    Map<String, Map<Integer, Long>> byFile = new HashMap<>();
+    counts.forEachCount(
+        (className, line, count) ->
+            byFile
+                .computeIfAbsent(ProbeRegistry.sourcePath(className), k -> new HashMap<>())
+                .merge(line, count, Long::sum));
+    long total = 0L;
+    for (Map.Entry<String, Map<Integer, Long>> file : byFile.entrySet()) {
+      Map<Integer, LineTests> fileLines =
+          lines.computeIfAbsent(file.getKey(), k -> new HashMap<>());
+      for (Map.Entry<Integer, Long> line : file.getValue().entrySet()) {
+        fileLines
+            .computeIfAbsent(line.getKey(), k -> new LineTests())
+            .add(counts.test(), line.getValue(), testsPerLine);
+        total += line.getValue();
+      }
+    }
+    if (total > 0) {
+      tests.merge(counts.test(), total, Long::sum);
+      labels.put(counts.test(), label);
+    }
+  }
+
+  /**
+   * Writes the index as JSON: every test with the executions attributed to it, then the {@link
+   * #TOP_LINES} lines the tests ran most, each with the tests that ran it most. Tests are written
+   * with their {@code id} and their label as {@code test}.
+   */
+  static synchronized void writeJson(OutputStream out, long generatedAt) throws IOException {
+    ReportModel.TopLines hot = new ReportModel.TopLines(TOP_LINES);
+    for (Map.Entry<String, Map<Integer, LineTests>> file : lines.entrySet()) {
+      for (Map.Entry<Integer, LineTests> line : file.getValue().entrySet()) {
+        hot.offer(file.getKey(), null, line.getKey(), line.getValue().total);
+      }
+    }
+    List<Map.Entry<String, Long>> allTests = new ArrayList<>(tests.entrySet());
+    allTests.sort(TEST_ORDER);
+
+    JsonGenerator gen = ReportWriter.generator(out);
+    gen.useDefaultPrettyPrinter();
+    gen.writeStartObject();
+    gen.writeNumberField("generatedAt", generatedAt);
+    gen.writeArrayFieldStart("tests");
+    for (Map.Entry<String, Long> test : allTests) {
+      gen.writeStartObject();
+      gen.writeStringField("id", test.getKey());
+      gen.writeStringField("test", labels.get(test.getKey()));
+      gen.writeNumberField("executions", test.getValue());
+      gen.writeEndObject();
+    }
+    gen.writeEndArray();
+    gen.writeArrayFieldStart("lines");
+    for (ReportModel.LineCount line : hot.result()) {
+      gen.writeStartObject();
+      gen.writeStringField("path", line.path);
+      gen.writeNumberField("line", line.line);
+      gen.writeNumberField("count", line.count);
+      gen.writeArrayFieldStart("tests");
+      for (Map.Entry<String, Long> test : lines.get(line.path).get(line.line).sorted()) {
+        gen.writeStartObject();
+        gen.writeStringField("id", test.getKey());
+        gen.writeStringField("test", labels.get(test.getKey()));
+        gen.writeNumberField("count", test.getValue());
+        gen.writeEndObject();
+      }
+      gen.writeEndArray();
+      gen.writeEndObject();
+    }
+    gen.writeEndArray();
+    gen.writeEndObject();
+    gen.writeRaw('\n');
+    gen.flush();
+  }
+
+  /**
+   * The tests that ran one line most. A test reported again under the same id adds to its entry; a
+   * new test only displaces the smallest kept one when it ran the line more often.
+   */
+  private static final class LineTests {
+    private long total;
+    private String[] names = new String[0];
+    private long[] counts = new long[0];
+
+    private void add(String test, long count, int keep) {
+      total += count;
+      for (int i = 0; i < names.length; i++) {
+        if (names[i].equals(test)) {
+          counts[i] += count;
+          return;
+        }
+      }
+      if (names.length < keep) {
+        names = Arrays.copyOf(names, names.length + 1);
+        counts = Arrays.copyOf(counts, counts.length + 1);
+        names[names.length - 1] = test;
+        counts[counts.length - 1] = count;
+        return;
+      }
+      int smallest = 0;
+      for (int i = 1; i < counts.length; i++) {
+        if (counts[i] < counts[smallest]) {
+          smallest = i;
+        }
+      }
+      if (count > counts[smallest]) {
+        names[smallest] = test;
+        counts[smallest] = count;
+      }
+    }
+
+    private List<Map.Entry<String, Long>> sorted() {
+      List<Map.Entry<String, Long>> result = new ArrayList<>(names.length);
+      for (int i = 0; i < names.length; i++) {
+        result.add(Map.entry(names[i], counts[i]));
+      }
+      result.sort(TEST_ORDER);
+      return result;
+    }
+  }
+}
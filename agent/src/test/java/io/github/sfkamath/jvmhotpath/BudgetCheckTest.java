@@ -0,0 +1,151 @@
+package io.github.sfkamath.jvmhotpath;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+class BudgetCheckTest {
+
+  @Test
+  void testLineAndTotalBudgets() throws IOException {
+    Path dir = Files.createTempDirectory("budget");
+    try {
+      Path report = dir.resolve("report.hps");
+      write(report, Map.of(10, 5L, 11, 50_000L, 12, 5L), Map.of(1, 100L));
+
+      List<String> ok =
+          BudgetCheck.check(
+              report,
+              List.of(
+                  new BudgetCheck.Rule().scope("com.app.Util").maxLineCount(100),
+                  new BudgetCheck.Rule().maxTotal(60_000)),
+              List.of());
+      assertTrue(ok.isEmpty(), ok.toString());
+
+      List<String> violations =
+          BudgetCheck.check(
+              report,
+              List.of(
+                  new BudgetCheck.Rule().scope("com.app").maxLineCount(10_000),
+                  new BudgetCheck.Rule().scope("com.app.Hot").maxTotal(1_000)),
+              List.of());
+      assertEquals(
+          List.of(
+              "com.app: line com/app/Hot.java:11 ran 50000 times (limit 10000)",
+              "com.app.Hot: 50010 executions (limit 1000)"),
+          violations);
+    } finally {
+      deleteRecursive(dir.toFile());
+    }
+  }
+
+  @Test
+  void testMethodBudgetIncludesLambdas() throws IOException {
+    Path dir = Files.createTempDirectory("budget-method");
+    try {
+      Path classes = dir.resolve("classes");
+      writeHotClass(classes);
+      Path report = dir.resolve("report.hps");
+      // Lines 10 and 11 are loop(), 12 its lambda and 20 other().
+      write(report, Map.of(10, 1L, 11, 7L, 12, 2L, 20, 1_000L), Map.of());
+
+      BudgetCheck.Rule rule = new BudgetCheck.Rule().scope("com.app.Hot").method("loop");
+      assertTrue(BudgetCheck.check(report, List.of(rule.maxTotal(10)), List.of(classes)).isEmpty());
+      assertEquals(
+          List.of("com.app.Hot#loop: 10 executions (limit 9)"),
+          BudgetCheck.check(report, List.of(rule.maxTotal(9)), List.of(classes)));
+
+      BudgetCheck.Rule missing = new BudgetCheck.Rule().scope("com.app.Hot").method("absent");
+      assertThrows(
+          IOException.class, () -> BudgetCheck.check(report, List.of(missing), List.of(classes)));
+    } finally {
+      deleteRecursive(dir.toFile());
+    }
+  }
+
+  @Test
+  void testGrowthAgainstBaseline() throws IOException {
+    Path dir = Files.createTempDirectory("budget-baseline");
+    try {
+      Path baseline = dir.resolve("baseline.hps");
+      Path report = dir.resolve("report.hps");
+      write(baseline, Map.of(11, 1_000L), Map.of(1, 100L));
+      write(report, Map.of(11, 1_060L), Map.of(1, 100L));
+
+      BudgetCheck.Rule rule =
+          new BudgetCheck.Rule().scope("com.app.Hot").baseline(baseline.toFile());
+      assertTrue(
+          BudgetCheck.check(report, List.of(rule.maxGrowthPercent(10)), List.of()).isEmpty());
+      assertEquals(
+          List.of("com.app.Hot: 1060 executions, +6.0% vs 1000 in baseline.hps (limit +5.0%)"),
+          BudgetCheck.check(report, List.of(rule.maxGrowthPercent(5)), List.of()));
+
+      BudgetCheck.Rule noBaseline = new BudgetCheck.Rule().maxGrowthPercent(5);
+      assertThrows(
+          IOException.class, () -> BudgetCheck.check(report, List.of(noBaseline), List.of()));
+    } finally {
+      deleteRecursive(dir.toFile());
+    }
+  }
+
+  private static void write(Path file, Map<Integer, Long> hot, Map<Integer, Long> util)
+      throws IOException {
+    SnapshotFormat.write(
+        file,
+        new ReportGenerator.ReportPayload(
+            1L,
+            List.of(
+                new ReportGenerator.FileData("com/app/Hot.java", hot, null, "app"),
+                new ReportGenerator.FileData("com/app/Util.java", util, null, "app"))),
+        0);
+  }
+
+  /** Compiles {@code com.app.Hot} with fixed line numbers instead of relying on javac's layout. */
+  private static void writeHotClass(Path classes) throws IOException {
+    ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    cw.visit(Opcodes.V11, Opcodes.ACC_PUBLIC, "com/app/Hot", null, "java/lang/Object", null);
+    cw.visitSource("Hot.java", null);
+    method(cw, "loop", 10, 11);
+    method(cw, "lambda$loop$0", 12);
+    method(cw, "other", 20);
+    cw.visitEnd();
+    Path file = classes.resolve("com/app/Hot.class");
+    Files.createDirectories(file.getParent());
+    Files.write(file, cw.toByteArray());
+  }
+
+  private static void method(ClassWriter cw, String name, int... lines) {
+    MethodVisitor mv =
+        cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, name, "()V", null, null);
+    mv.visitCode();
+    for (int line : lines) {
+      Label label = new Label();
+      mv.visitLabel(label);
+      mv.visitLineNumber(line, label);
+      mv.visitInsn(Opcodes.NOP);
+    }
+    mv.visitInsn(Opcodes.RETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+  }
+
+  private void deleteRecursive(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursive(child);
+      }
+    }
+    file.delete();
+  }
+}
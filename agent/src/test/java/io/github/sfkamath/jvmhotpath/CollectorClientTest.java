@@ -0,0 +1,125 @@
+package io.github.sfkamath.jvmhotpath;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class CollectorClientTest {
+
+  // What the application counted, and what the collector received.
+  private final Map<String, AtomicLong> counted = new ConcurrentHashMap<>();
+  private final Map<String, Long> received = new ConcurrentHashMap<>();
+  private Collector collector;
+
+  @AfterEach
+  void tearDown() {
+    if (collector != null) {
+      collector.close();
+    }
+  }
+
+  @Test
+  void testShipsIncreasesInBatches() throws Exception {
+    collector = startCollector(0);
+    count("com.app.Service", 10, 5);
+    CollectorClient client = client(collector.port(), 20);
+    client.start();
+
+    awaitReceived(Map.of("com.app.Service:10", 5L));
+    count("com.app.Service", 10, 3);
+    count("com.app.Service", 11, 1);
+    awaitReceived(Map.of("com.app.Service:10", 8L, "com.app.Service:11", 1L));
+    assertTrue(client.finish(5000));
+    assertEquals(Map.of("com.app.Service:10", 8L, "com.app.Service:11", 1L), received);
+  }
+
+  @Test
+  void testFinishSendsLastBatch() throws Exception {
+    collector = startCollector(0);
+    CollectorClient client = client(collector.port(), 60_000);
+    client.start();
+    // Counted right before shutdown, long before the next batch is due.
+    count("com.app.Repo", 1, 2);
+    assertTrue(client.finish(5000));
+    assertEquals(Map.of("com.app.Repo:1", 2L), received);
+    assertEquals(1, client.acknowledgedBatches());
+  }
+
+  @Test
+  void testKeepsCountsWhileCollectorIsDown() throws Exception {
+    int port;
+    try (ServerSocket free = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+      port = free.getLocalPort();
+    }
+    count("com.app.Service", 10, 5);
+    CollectorClient client = client(port, 20);
+    client.start();
+    Thread.sleep(100);
+    count("com.app.Service", 10, 2);
+    assertEquals(0, client.acknowledgedBatches());
+
+    collector = startCollector(port);
+    awaitReceived(Map.of("com.app.Service:10", 7L));
+    assertTrue(client.finish(5000));
+    assertEquals(Map.of("com.app.Service:10", 7L), received);
+  }
+
+  @Test
+  void testFinishesPromptlyWithoutCollector() throws IOException {
+    int port;
+    try (ServerSocket free = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+      port = free.getLocalPort();
+    }
+    count("com.app.Service", 10, 1);
+    CollectorClient client = client(port, 60_000);
+    client.start();
+    long start = System.nanoTime();
+    assertTrue(client.finish(5000));
+    assertTrue(System.nanoTime() - start < 5_000_000_000L);
+    assertEquals(0, client.acknowledgedBatches());
+  }
+
+  private Collector startCollector(int port) throws IOException {
+    return Collector.start(
+        port, (className, line, delta) -> received.merge(className + ":" + line, delta, Long::sum));
+  }
+
+  private CollectorClient client(int port, long intervalMillis) {
+    Consumer<ExecutionCountStore.CountVisitor> counts =
+        visitor ->
+            counted.forEach(
+                (key, count) -> {
+                  int colon = key.indexOf(':');
+                  visitor.accept(
+                      key.substring(0, colon),
+                      Integer.parseInt(key.substring(colon + 1)),
+                      count.get());
+                });
+    return new CollectorClient(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+        intervalMillis,
+        "test-" + System.nanoTime(),
+        counts);
+  }
+
+  private void count(String className, int line, long times) {
+    counted.computeIfAbsent(className + ":" + line, k -> new AtomicLong()).addAndGet(times);
+  }
+
+  private void awaitReceived(Map<String, Long> expected) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!expected.equals(received) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(expected, received);
+  }
+}
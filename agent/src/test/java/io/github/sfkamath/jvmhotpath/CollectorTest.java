@@ -0,0 +1,126 @@
+package io.github.sfkamath.jvmhotpath;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class CollectorTest {
+
+  private final Map<String, Long> received = new ConcurrentHashMap<>();
+  private Collector collector;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    ProbeRegistry.reset();
+    collector =
+        Collector.start(
+            0,
+            (className, line, delta) -> received.merge(className + ":" + line, delta, Long::sum));
+  }
+
+  @AfterEach
+  void tearDown() {
+    collector.close();
+    ProbeRegistry.reset();
+  }
+
+  @Test
+  void testAddsUpBatchesFromSeveralAgents() throws IOException {
+    try (Agent first = new Agent("first");
+        Agent second = new Agent("second")) {
+      assertEquals(0L, first.applied);
+      assertEquals(1L, first.send(1, Map.of("com.app.Service", Map.of(10, 5L, 12, 1L))));
+      assertEquals(1L, second.send(1, Map.of("com.app.Service", Map.of(10, 2L))));
+      assertEquals(
+          2L,
+          first.send(2, Map.of("com.app.Service", Map.of(10, 1L), "com.app.Repo", Map.of(3, 4L))));
+    }
+
+    assertEquals(
+        Map.of("com.app.Service:10", 8L, "com.app.Service:12", 1L, "com.app.Repo:3", 4L), received);
+    assertEquals(2, collector.agents());
+  }
+
+  @Test
+  void testAcknowledgesResentBatchWithoutApplyingItAgain() throws IOException {
+    try (Agent agent = new Agent("agent")) {
+      agent.send(1, Map.of("com.app.Service", Map.of(10, 5L)));
+    }
+    // The acknowledgement was lost: the agent reconnects and resends the same batch.
+    try (Agent agent = new Agent("agent")) {
+      assertEquals(1L, agent.applied);
+      assertEquals(1L, agent.send(1, Map.of("com.app.Service", Map.of(10, 5L))));
+      agent.send(2, Map.of("com.app.Service", Map.of(10, 1L)));
+    }
+    assertEquals(Map.of("com.app.Service:10", 6L), received);
+  }
+
+  @Test
+  void testRecordsTheSourceFileTheAgentResolved() throws IOException {
+    ProbeRegistry.registerSource("com.app.UtilKt", "Util.kt");
+    ByteArrayOutputStream batch = new ByteArrayOutputStream();
+    Collector.writeBatch(batch, 1, Map.of("com.app.UtilKt", Map.of(5, 1L)), new HashMap<>());
+    // The collector learns where the class lives from the batch, not from its own registry.
+    ProbeRegistry.reset();
+    assertEquals("com/app/UtilKt.java", ProbeRegistry.sourcePath("com.app.UtilKt"));
+
+    try (Agent agent = new Agent("kotlin")) {
+      batch.writeTo(agent.out);
+      assertEquals(1L, SnapshotFormat.readVarLong(agent.in));
+    }
+    assertEquals(1L, received.get("com.app.UtilKt:5"));
+    assertEquals("com/app/Util.kt", ProbeRegistry.sourcePath("com.app.UtilKt"));
+  }
+
+  @Test
+  void testClosesConnectionsFromOtherClients() throws IOException {
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), collector.port())) {
+      socket.getOutputStream().write("GET / HTTP/1.1\r\n\r\n".getBytes());
+      socket.setSoTimeout(5000);
+      assertEquals(-1, socket.getInputStream().read());
+    }
+    assertEquals(0, collector.agents());
+  }
+
+  /** A minimal agent speaking the collector protocol over one connection. */
+  private final class Agent implements AutoCloseable {
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private final Map<String, Integer> classIds = new HashMap<>();
+    private final long applied;
+
+    Agent(String id) throws IOException {
+      socket = new Socket(InetAddress.getLoopbackAddress(), collector.port());
+      socket.setSoTimeout(5000);
+      in = new BufferedInputStream(socket.getInputStream());
+      out = socket.getOutputStream();
+      out.write(Collector.MAGIC);
+      out.write(Collector.VERSION);
+      Collector.writeString(out, id);
+      applied = SnapshotFormat.readVarLong(in);
+    }
+
+    long send(long sequence, Map<String, Map<Integer, Long>> increases) throws IOException {
+      Collector.writeBatch(out, sequence, increases, classIds);
+      return SnapshotFormat.readVarLong(in);
+    }
+
+    @Override
+    public void close() throws IOException {
+      socket.close();
+    }
+  }
+}
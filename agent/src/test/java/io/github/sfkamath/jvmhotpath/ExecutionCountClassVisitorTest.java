@@ -2,7 +2,11 @@ package io.github.sfkamath.jvmhotpath;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
@@ -17,6 +21,7 @@ class ExecutionCountClassVisitorTest {
 
     visitor.visit(
         Opcodes.V11, Opcodes.ACC_PUBLIC, "com/example/Test", null, "java/lang/Object", null);
+    visitor.visitSource("Tests.java", null);
 
     MethodVisitor mv = visitor.visitMethod(Opcodes.ACC_PUBLIC, "run", "()V", null, null);
     mv.visitCode();
@@ -32,6 +37,85 @@ class ExecutionCountClassVisitorTest {
     byte[] instrumented = cw.toByteArray();
     assertTrue(instrumented.length > 0);
     // The fact it didn't crash is good, but we could theoretically inspect bytecode here
+    assertEquals("run", ProbeRegistry.methodAt("com.example.Test", 10));
+    assertEquals("com/example/Tests.java", ProbeRegistry.sourcePath("com.example.Test"));
+    assertEquals("com/example/Tests.java", ProbeRegistry.sourcePath("com.example.Test$Inner"));
+    assertEquals("com/example/Other.java", ProbeRegistry.sourcePath("com.example.Other$1"));
+  }
+
+  @Test
+  void testVisitorRegistersLambdaLinesWithDeclaringMethod() {
+    ClassWriter cw = new ClassWriter(0);
+    ExecutionCountClassVisitor visitor = new ExecutionCountClassVisitor(cw, "com/example/Lambdas");
+
+    visitor.visit(
+        Opcodes.V11, Opcodes.ACC_PUBLIC, "com/example/Lambdas", null, "java/lang/Object", null);
+    MethodVisitor mv =
+        visitor.visitMethod(
+            Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC, "lambda$process$0", "()V", null, null);
+    mv.visitCode();
+    Label l0 = new Label();
+    mv.visitLabel(l0);
+    mv.visitLineNumber(21, l0);
+    mv.visitInsn(Opcodes.RETURN);
+    mv.visitMaxs(1, 0);
+    mv.visitEnd();
+    visitor.visitEnd();
+
+    assertEquals("process", ProbeRegistry.methodAt("com.example.Lambdas", 21));
+    assertNull(ProbeRegistry.methodAt("com.example.Lambdas", 22));
+  }
+
+  @Test
+  void testVisitorCountsSmapMappedLinesInTheirSourceFile() {
+    ClassWriter cw = new ClassWriter(0);
+    ExecutionCountClassVisitor visitor = new ExecutionCountClassVisitor(cw, "com/example/MainKt");
+    visitor.visit(
+        Opcodes.V11, Opcodes.ACC_PUBLIC, "com/example/MainKt", null, "java/lang/Object", null);
+    visitor.visitSource(
+        "Main.kt",
+        "SMAP\nMain.kt\nKotlin\n*S Kotlin\n*F\n+ 1 Main.kt\ncom/example/MainKt\n"
+            + "+ 2 Util.kt\ncom/example/UtilKt\n*L\n1#1,10:1\n4#2,3:11\n*E\n");
+    MethodVisitor mv =
+        visitor.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "main", "()V", null, null);
+    mv.visitCode();
+    for (int line : new int[] {3, 12}) {
+      Label label = new Label();
+      mv.visitLabel(label);
+      mv.visitLineNumber(line, label);
+    }
+    mv.visitInsn(Opcodes.RETURN);
+    mv.visitMaxs(2, 0);
+    mv.visitEnd();
+    visitor.visitEnd();
+
+    List<Object> probes = new ArrayList<>();
+    new ClassReader(cw.toByteArray())
+        .accept(
+            new ClassVisitor(Opcodes.ASM9) {
+              @Override
+              public MethodVisitor visitMethod(
+                  int access, String name, String desc, String signature, String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM9) {
+                  @Override
+                  public void visitLdcInsn(Object value) {
+                    probes.add(value);
+                  }
+                };
+              }
+            },
+            0);
+
+    // Each line gets a probe in the class's slab; the mapped line counts in Util.kt.
+    int slab = (Integer) probes.get(0);
+    assertEquals(List.of(slab, 0, slab, 1), probes);
+    long before = ExecutionCountStore.getCount("com.example.Util", 5);
+    ExecutionCountStore.recordExecution(slab, 1);
+    assertEquals(before + 1, ExecutionCountStore.getCount("com.example.Util", 5));
+    assertEquals("com/example/Main.kt", ProbeRegistry.sourcePath("com.example.MainKt"));
+    assertEquals("com/example/Util.kt", ProbeRegistry.sourcePath("com.example.Util"));
+    assertEquals("main", ProbeRegistry.methodAt("com.example.MainKt", 3));
+    assertNull(ProbeRegistry.methodAt("com.example.MainKt", 12));
   }
 
   @Test
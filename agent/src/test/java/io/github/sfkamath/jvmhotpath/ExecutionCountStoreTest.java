@@ -2,7 +2,11 @@ package io.github.sfkamath.jvmhotpath;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -52,6 +56,59 @@ class ExecutionCountStoreTest {
     assertTrue(ExecutionCountStore.getAllCountersSnapshot().isEmpty());
   }
 
+  @Test
+  void testGenerationOnlyMovesWithTheCounts() {
+    ExecutionCountStore.SlabBuilder builder = ExecutionCountStore.newSlab(null);
+    int probe = builder.probe("com.example.Gen", 5);
+    builder.seal();
+    ExecutionCountStore.recordExecution(builder.id(), probe);
+    ExecutionCountStore.recordExecution("com.example.Shipped", 1);
+
+    long generation = ExecutionCountStore.generation();
+    assertEquals(generation, ExecutionCountStore.generation());
+
+    ExecutionCountStore.recordExecution(builder.id(), probe);
+    long counted = ExecutionCountStore.generation();
+    assertNotEquals(generation, counted);
+
+    // Counts going back to zero must not bring an earlier generation back.
+    ExecutionCountStore.reset();
+    assertEquals(counted, ExecutionCountStore.generation());
+    ExecutionCountStore.recordExecution(builder.id(), probe);
+    assertNotEquals(counted, ExecutionCountStore.generation());
+    builder.discard();
+  }
+
+  @Test
+  void testTestsOnlyMirrorTheSlabsTheyReach() {
+    List<ExecutionCountStore.SlabBuilder> loaded = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      ExecutionCountStore.SlabBuilder builder = ExecutionCountStore.newSlab(null);
+      builder.probe("com.example.Loaded" + i, 1);
+      builder.seal();
+      loaded.add(builder);
+    }
+    try {
+      for (int i = 0; i < 500; i++) {
+        ExecutionCountStore.TestCounts test = new ExecutionCountStore.TestCounts("test" + i);
+        ExecutionCountStore.setActiveTest(test);
+        ExecutionCountStore.recordExecution(loaded.get(i % 200).id(), 0);
+        ExecutionCountStore.recordExecution(loaded.get(i % 200).id(), 0);
+        ExecutionCountStore.setActiveTest(null);
+
+        assertEquals(1, test.mirrors());
+      }
+      ExecutionCountStore.setActiveTest(new ExecutionCountStore.TestCounts("last"));
+      ExecutionCountStore.setActiveTest(null);
+
+      assertEquals(6, ExecutionCountStore.getCount("com.example.Loaded0", 1));
+      assertEquals(4, ExecutionCountStore.getCount("com.example.Loaded199", 1));
+    } finally {
+      ExecutionCountStore.setActiveTest(null);
+      loaded.forEach(ExecutionCountStore.SlabBuilder::discard);
+    }
+  }
+
   @Test
   void testThreadSafety() throws InterruptedException {
     int threads = 10;
@@ -77,4 +134,85 @@ class ExecutionCountStoreTest {
 
     assertEquals(threads * incrementsPerThread, ExecutionCountStore.getCount("ThreadSafeTest", 1));
   }
+
+  @Test
+  void testSlabsKeepLoadersApartOnlyWhenGrouping() {
+    ClassLoader plugin = new ClassLoader("plugin", null) {};
+    int app = slab(null, "com.app.Plugin", 5);
+    int loaded = slab(plugin, "com.app.Plugin", 5);
+    ExecutionCountStore.recordExecution(app, 0);
+    ExecutionCountStore.recordExecution(loaded, 0);
+    ExecutionCountStore.recordExecution(loaded, 0);
+
+    assertEquals(3, ExecutionCountStore.getCount("com.app.Plugin", 5));
+    assertEquals(Map.of(5, 3L), ExecutionCountStore.getAllCountersSnapshot().get("com.app.Plugin"));
+
+    ExecutionCountStore.setGroupByLoader(true);
+    try {
+      Map<String, Map<Integer, Long>> grouped = ExecutionCountStore.getAllCountersSnapshot();
+      assertEquals(Map.of(5, 1L), grouped.get("com.app.Plugin"));
+      assertEquals(
+          Map.of(5, 2L), grouped.get("com.app.Plugin;" + ExecutionCountStore.loaderName(plugin)));
+      assertTrue(ExecutionCountStore.loaderName(plugin).startsWith("plugin@"));
+      assertNull(ExecutionCountStore.loaderName(ClassLoader.getSystemClassLoader()));
+    } finally {
+      ExecutionCountStore.setGroupByLoader(false);
+    }
+  }
+
+  @Test
+  void testForEachCountVisitsEachClassOnceWithItsLinesTogether() {
+    ExecutionCountStore.SlabBuilder main = ExecutionCountStore.newSlab(null);
+    int mainHot = main.probe("com.app.MainKt", 3);
+    int inlined = main.probe("com.app.Util", 5);
+    int mainCold = main.probe("com.app.MainKt", 4);
+    main.seal();
+    int util = slab(null, "com.app.Util", 5);
+    ExecutionCountStore.recordExecution(main.id(), mainHot);
+    ExecutionCountStore.recordExecution(main.id(), mainCold);
+    ExecutionCountStore.recordExecution(main.id(), inlined);
+    ExecutionCountStore.recordExecution(util, 0);
+    ExecutionCountStore.recordExecution("com.app.Util", 6);
+
+    List<String> visited = new ArrayList<>();
+    ExecutionCountStore.forEachCount(
+        (className, line, count) -> visited.add(className + ":" + line + "=" + count));
+    assertEquals(4, visited.size());
+    assertEquals(List.of("com.app.MainKt:3=1", "com.app.MainKt:4=1"), visited.subList(0, 2));
+    assertEquals(
+        Set.of("com.app.Util:5=2", "com.app.Util:6=1"), new HashSet<>(visited.subList(2, 4)));
+  }
+
+  @Test
+  void testReleasesSlabsOfCollectedLoaders() throws InterruptedException {
+    int released = countInDroppedLoader();
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (ExecutionCountStore.getCount("com.app.Redeployed", 1) > 0
+        && System.currentTimeMillis() < deadline) {
+      System.gc();
+      Thread.sleep(20);
+    }
+    assertEquals(0, ExecutionCountStore.getCount("com.app.Redeployed", 1));
+    // The freed id goes to one of the next classes, along with those of other collected loaders.
+    List<ExecutionCountStore.SlabBuilder> next = new ArrayList<>();
+    for (int i = 0; i < 10 && next.stream().noneMatch(b -> b.id() == released); i++) {
+      next.add(ExecutionCountStore.newSlab(null));
+    }
+    assertTrue(next.stream().anyMatch(b -> b.id() == released));
+    next.forEach(ExecutionCountStore.SlabBuilder::discard);
+  }
+
+  private static int countInDroppedLoader() {
+    int id = slab(new ClassLoader("redeployed", null) {}, "com.app.Redeployed", 1);
+    ExecutionCountStore.recordExecution(id, 0);
+    assertEquals(1, ExecutionCountStore.getCount("com.app.Redeployed", 1));
+    return id;
+  }
+
+  private static int slab(ClassLoader loader, String className, int line) {
+    ExecutionCountStore.SlabBuilder builder = ExecutionCountStore.newSlab(loader);
+    builder.probe(className, line);
+    builder.seal();
+    return builder.id();
+  }
 }
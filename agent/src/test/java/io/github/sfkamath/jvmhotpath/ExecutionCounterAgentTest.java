@@ -2,15 +2,24 @@ package io.github.sfkamath.jvmhotpath;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.lang.instrument.ClassDefinition;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.Instrumentation;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.stream.Stream;
 import org.junit.jupiter.api.Test;
 
 class ExecutionCounterAgentTest {
@@ -50,11 +59,11 @@ class ExecutionCounterAgentTest {
       ExecutionCounterAgent.main(new String[0]);
 
       // Should fail with missing data
-      ExecutionCounterAgent.main(new String[]{"--output=target/test.html"});
+      ExecutionCounterAgent.main(new String[] {"--output=target/test.html"});
 
       // Should succeed regenerating
       ExecutionCounterAgent.main(
-          new String[]{
+          new String[] {
             "--data=" + dataFile.toAbsolutePath(), "--output=" + reportFile.toAbsolutePath()
           });
 
@@ -65,6 +74,348 @@ class ExecutionCounterAgentTest {
     }
   }
 
+  @Test
+  void testMainMethodMergesSnapshots() throws Exception {
+    Path dir = Files.createTempDirectory("merge-cli");
+    Path report = dir.resolve("out/merged.html");
+    try {
+      for (int i = 0; i < 2; i++) {
+        Files.writeString(
+            dir.resolve("replica-" + i + ".json"),
+            "{\"files\":[{\"path\":\"A.java\",\"project\":\"p\",\"counts\":{\"1\":2},"
+                + "\"content\":\"class A {}\"}]}");
+      }
+
+      ExecutionCounterAgent.main(new String[] {"--merge", "--output=" + report, dir.toString()});
+
+      assertTrue(Files.exists(report));
+      String merged = Files.readString(dir.resolve("out/merged.json"));
+      assertTrue(merged.contains("\"counts\":{\"1\":4}"), merged);
+    } finally {
+      try (Stream<Path> files = Files.walk(dir)) {
+        files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+      }
+    }
+  }
+
+  @Test
+  void testMainMethodReplaysHistory() throws Exception {
+    Path dir = Files.createTempDirectory("history-cli");
+    Path history = dir.resolve("report" + HistoryStore.EXTENSION);
+    Path report = dir.resolve("at.html");
+    try {
+      try (HistoryStore store = new HistoryStore(history, 10, 0L, 1 << 20)) {
+        for (long i = 1; i <= 3; i++) {
+          store.append(
+              i * 60_000L,
+              List.of(new ReportGenerator.FileData("A.java", Map.of(1, i * 10), null, "p")));
+        }
+      }
+
+      ByteArrayOutputStream listed = new ByteArrayOutputStream();
+      ExecutionCounterAgent.out = new PrintStream(listed, true, StandardCharsets.UTF_8);
+      try {
+        ExecutionCounterAgent.main(new String[] {"--history=" + history, "--list"});
+      } finally {
+        ExecutionCounterAgent.out = System.out;
+      }
+      assertEquals(
+          "1970-01-01T00:01:00Z  keyframe\n"
+              + "1970-01-01T00:02:00Z  delta\n"
+              + "1970-01-01T00:03:00Z  delta\n",
+          listed.toString(StandardCharsets.UTF_8).replace(System.lineSeparator(), "\n"));
+
+      ExecutionCounterAgent.main(
+          new String[] {
+            "--history=" + history, "--at=+1m", "--sourcepath=" + dir, "--output=" + report
+          });
+      String html = Files.readString(report);
+      assertTrue(html.contains("\"counts\":{\"1\":20}"), html);
+
+      ExecutionCounterAgent.main(
+          new String[] {"--history=" + history, "--from=+0s", "--output=" + report});
+      assertTrue(Files.readString(report).contains("\"counts\":{\"1\":20}"));
+    } finally {
+      try (Stream<Path> files = Files.walk(dir)) {
+        files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+      }
+    }
+  }
+
+  @Test
+  void testMainMethodDiffsSnapshots() throws Exception {
+    Path dir = Files.createTempDirectory("diff-cli");
+    try {
+      Path base = dir.resolve("base.json");
+      Path head = dir.resolve("head.json");
+      Files.writeString(
+          base,
+          "{\"files\":[{\"path\":\"A.java\",\"project\":\"p\",\"counts\":{\"1\":1000,\"2\":1000,\"3\":1000},"
+              + "\"content\":\"class A {}\"}]}");
+      Files.writeString(
+          head,
+          "{\"files\":[{\"path\":\"A.java\",\"project\":\"p\",\"counts\":{\"1\":1000,\"2\":10000,\"3\":1000},"
+              + "\"content\":\"class A {}\"}]}");
+      Path json = dir.resolve("diff.json");
+      Path html = dir.resolve("diff.html");
+
+      int regressions =
+          ExecutionCounterAgent.diffSnapshots(
+              List.of(base.toString(), head.toString()), json.toString(), diffOptions("json"));
+      assertEquals(1, regressions);
+      assertTrue(Files.readString(json).contains("\"line\" : 2"), Files.readString(json));
+
+      ExecutionCounterAgent.main(
+          new String[] {
+            "--diff", "--format=html", "--output=" + html, base.toString(), head.toString()
+          });
+      assertTrue(Files.readString(html).contains("\"baseline\":{\"p/A.java\":{"));
+      assertFalse(Files.exists(dir.resolve("diff.summary.md")));
+
+      assertEquals(
+          -1,
+          ExecutionCounterAgent.diffSnapshots(List.of(base.toString()), null, diffOptions("json")));
+    } finally {
+      try (Stream<Path> files = Files.walk(dir)) {
+        files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+      }
+    }
+  }
+
+  private static SnapshotDiff.Options diffOptions(String format) {
+    SnapshotDiff.Options options = new SnapshotDiff.Options();
+    options.format = format;
+    return options;
+  }
+
+  @Test
+  void testMainMethodConvertsToPprof() throws Exception {
+    Path dir = Files.createTempDirectory("pprof-cli");
+    try {
+      Path data = dir.resolve("report.json");
+      Files.writeString(
+          data,
+          "{\"generatedAt\":5,\"files\":[{\"path\":\"com/app/A.java\",\"project\":\"p\","
+              + "\"counts\":{\"1\":2,\"3\":4},\"content\":\"class A {}\"}]}");
+      Path profile = dir.resolve("out/profile.pb.gz");
+
+      ExecutionCounterAgent.main(new String[] {"--data=" + data, "--pprof=" + profile});
+
+      PprofWriterTest.Profile parsed = PprofWriterTest.Profile.parse(Files.readAllBytes(profile));
+      assertEquals(2, parsed.samples.size());
+      assertTrue(parsed.strings.contains("com.app.A"));
+      assertEquals(5_000_000L, parsed.timeNanos);
+    } finally {
+      try (Stream<Path> files = Files.walk(dir)) {
+        files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+      }
+    }
+  }
+
+  @Test
+  void testSnapshotArgument() {
+    ExecutionCounterAgent agent = new ExecutionCounterAgent();
+    assertFalse(agent.isSnapshot());
+
+    agent.parseArguments("snapshot=true");
+    assertTrue(agent.isSnapshot());
+    assertTrue(agent.isSnapshotCompressed());
+
+    agent.parseArguments("snapshot=raw");
+    assertTrue(agent.isSnapshot());
+    assertFalse(agent.isSnapshotCompressed());
+  }
+
+  @Test
+  void testSummaryArgument() {
+    ExecutionCounterAgent agent = new ExecutionCounterAgent();
+    assertEquals(HotpathSummary.DEFAULT_TOP, agent.getSummaryTop());
+
+    agent.parseArguments("summary=10");
+    assertEquals(10, agent.getSummaryTop());
+
+    agent.parseArguments("summary=false");
+    assertEquals(0, agent.getSummaryTop());
+
+    assertFalse(agent.isPprof());
+    agent.parseArguments("pprof=true");
+    assertTrue(agent.isPprof());
+  }
+
+  @Test
+  void testHistoryArguments() {
+    ExecutionCounterAgent agent = new ExecutionCounterAgent();
+    assertFalse(agent.isHistory());
+    assertEquals(HistoryStore.DEFAULT_KEYFRAME_EVERY, agent.getHistoryKeyframe());
+    assertEquals(0, agent.getHistoryRetention());
+    assertEquals(HistoryStore.DEFAULT_MAX_MB, agent.getHistoryMaxSize());
+
+    agent.parseArguments("history=true,historyKeyframe=10,historyRetention=120,historyMaxSize=16");
+    assertTrue(agent.isHistory());
+    assertEquals(10, agent.getHistoryKeyframe());
+    assertEquals(120, agent.getHistoryRetention());
+    assertEquals(16, agent.getHistoryMaxSize());
+  }
+
+  @Test
+  void testCollectorArguments() {
+    ExecutionCounterAgent agent = new ExecutionCounterAgent();
+    assertEquals(-1, agent.getCollector());
+    assertEquals(CollectorClient.DEFAULT_INTERVAL_MS, agent.getCollectorInterval());
+
+    agent.parseArguments("collector=7070,collectorInterval=250,groupByLoader=true");
+    assertEquals(7070, agent.getCollector());
+    assertEquals(250, agent.getCollectorInterval());
+    assertTrue(agent.isGroupByLoader());
+  }
+
+  @Test
+  void testTestAttributionArguments() {
+    ExecutionCounterAgent agent = new ExecutionCounterAgent();
+    assertFalse(agent.isTestAttribution());
+    assertEquals(TestAttribution.DEFAULT_TESTS_PER_LINE, agent.getTestsPerLine());
+
+    agent.parseArguments("testAttribution=true,testsPerLine=3");
+    assertTrue(agent.isTestAttribution());
+    assertEquals(3, agent.getTestsPerLine());
+  }
+
+  @Test
+  void testTestListenerIsOnlyRegisteredWithAttribution() throws Exception {
+    List<JarFile> appended = new ArrayList<>();
+    Instrumentation inst =
+        new DummyInstrumentation() {
+          @Override
+          public void appendToSystemClassLoaderSearch(JarFile jarfile) {
+            appended.add(jarfile);
+          }
+        };
+    new ExecutionCounterAgent().init("output=target/no-attribution.html", inst);
+    assertTrue(appended.isEmpty());
+
+    try {
+      new ExecutionCounterAgent().init("testAttribution=true,output=target/attribution.html", inst);
+      assertEquals(1, appended.size());
+      try (JarFile jar = appended.get(0)) {
+        JarEntry service =
+            jar.getJarEntry("META-INF/services/org.junit.platform.launcher.TestExecutionListener");
+        assertEquals(
+            HotpathTestListener.class.getName(),
+            new String(jar.getInputStream(service).readAllBytes(), StandardCharsets.UTF_8).trim());
+      }
+    } finally {
+      TestAttribution.reset();
+    }
+  }
+
+  @Test
+  void testMetricsArguments() {
+    ExecutionCounterAgent agent = new ExecutionCounterAgent();
+    assertNull(agent.getMetricsFile());
+    assertEquals(PrometheusExporter.DEFAULT_TOP_LINES, agent.getMetricsTopLines());
+    assertEquals(PrometheusExporter.DEFAULT_TOP_CLASSES, agent.getMetricsTopClasses());
+
+    agent.parseArguments(
+        "metricsFile=/var/lib/node_exporter/hotpath.prom,metricsTopLines=20,metricsTopClasses=5");
+    assertEquals("/var/lib/node_exporter/hotpath.prom", agent.getMetricsFile());
+    assertEquals(20, agent.getMetricsTopLines());
+    assertEquals(5, agent.getMetricsTopClasses());
+  }
+
+  @Test
+  void testShutdownDumpsCountersWithoutTimeBudget() throws Exception {
+    ExecutionCounterAgent agent = new ExecutionCounterAgent();
+    assertEquals(ExecutionCounterAgent.DEFAULT_SHUTDOWN_TIMEOUT, agent.getShutdownTimeout());
+    agent.init("shutdownTimeout=0,output=target/shutdown-dump.html", new DummyInstrumentation());
+    assertEquals(0, agent.getShutdownTimeout());
+    Path dump = Path.of("target/shutdown-dump.counters.json");
+    Files.deleteIfExists(dump);
+
+    agent.shutdown();
+
+    assertTrue(Files.exists(dump));
+    assertFalse(Files.exists(Path.of("target/shutdown-dump.html")));
+    Files.deleteIfExists(dump);
+  }
+
+  @Test
+  void testJvmWithLiveServerExitsOnItsOwn() throws Exception {
+    Path dir = Files.createTempDirectory("hotpath-exit");
+    try {
+      Process process =
+          new ProcessBuilder(
+                  Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                  "-cp",
+                  System.getProperty("java.class.path"),
+                  ExitingApp.class.getName(),
+                  "port=0,output=" + dir.resolve("report.html"))
+              .redirectErrorStream(true)
+              .redirectOutput(dir.resolve("out.log").toFile())
+              .start();
+      boolean exited = process.waitFor(30, TimeUnit.SECONDS);
+      if (!exited) {
+        process.destroyForcibly();
+      }
+      assertTrue(exited, () -> "JVM kept running: " + read(dir.resolve("out.log")));
+      assertEquals(0, process.exitValue(), () -> read(dir.resolve("out.log")));
+      assertTrue(Files.exists(dir.resolve("report.html")));
+    } finally {
+      try (Stream<Path> walk = Files.walk(dir)) {
+        walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+      }
+    }
+  }
+
+  private static String read(Path file) {
+    try {
+      return Files.readString(file);
+    } catch (IOException e) {
+      return e.toString();
+    }
+  }
+
+  /** An application whose main thread returns right after the agent started. */
+  public static final class ExitingApp {
+    public static void main(String[] args) {
+      new ExecutionCounterAgent().init(args[0], new DummyInstrumentation());
+    }
+  }
+
+  @Test
+  void testPortArgument() {
+    ExecutionCounterAgent agent = new ExecutionCounterAgent();
+    assertEquals(-1, agent.getPort());
+
+    agent.parseArguments("port=8123");
+    assertEquals(8123, agent.getPort());
+  }
+
+  @Test
+  void testMainMethodReadsSnapshot() throws Exception {
+    Path dataFile = Files.createTempFile("data", ".hps");
+    Path reportFile = Files.createTempFile("report", ".html");
+    try {
+      SnapshotFormat.write(
+          dataFile,
+          new ReportGenerator.ReportPayload(
+              1L,
+              List.of(
+                  new ReportGenerator.FileData(
+                      "com/app/Main.java", Map.of(3, 7L), "class Main {}", "app"))),
+          SnapshotFormat.FLAG_CONTENT | SnapshotFormat.FLAG_DEFLATE);
+
+      ExecutionCounterAgent.main(
+          new String[] {
+            "--data=" + dataFile.toAbsolutePath(), "--output=" + reportFile.toAbsolutePath()
+          });
+
+      assertTrue(Files.readString(reportFile).contains("com/app/Main.java"));
+    } finally {
+      Files.deleteIfExists(dataFile);
+      Files.deleteIfExists(reportFile);
+    }
+  }
+
   @Test
   void testArgumentParsingComplex() {
     ExecutionCounterAgent agent = new ExecutionCounterAgent();
@@ -131,7 +482,7 @@ class ExecutionCounterAgentTest {
     ClassFileTransformer transformer = agent.getTransformer();
 
     // Providing garbage bytes that ASM can't parse should trigger catch block
-    assertNull(transformer.transform(null, "com/app/Logic", null, null, new byte[]{1, 2, 3}));
+    assertNull(transformer.transform(null, "com/app/Logic", null, null, new byte[] {1, 2, 3}));
   }
 
   @Test
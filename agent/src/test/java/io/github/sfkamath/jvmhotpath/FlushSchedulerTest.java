@@ -0,0 +1,75 @@
+package io.github.sfkamath.jvmhotpath;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class FlushSchedulerTest {
+
+  @Test
+  void testSkipsTicksWhileFlushIsRunning() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    FlushScheduler scheduler =
+        new FlushScheduler(
+            () -> {
+              maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+              started.countDown();
+              release.await();
+              running.decrementAndGet();
+            },
+            10,
+            false);
+    scheduler.start();
+
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    Thread.sleep(100);
+    assertTrue(scheduler.skipped() > 0, "ticks during a running flush are skipped");
+    release.countDown();
+
+    assertTrue(scheduler.finish(5000));
+    assertEquals(1, maxRunning.get());
+    assertTrue(scheduler.flushes() >= 2);
+    assertTrue(scheduler.maxDurationMillis() >= 90);
+  }
+
+  @Test
+  void testFinishRunsFinalFlushWithoutClock() {
+    AtomicInteger flushes = new AtomicInteger();
+    FlushScheduler scheduler = new FlushScheduler(flushes::incrementAndGet, 0, false);
+    scheduler.start();
+
+    assertTrue(scheduler.finish(5000));
+    assertEquals(1, flushes.get());
+    assertEquals(1, scheduler.flushes());
+  }
+
+  @Test
+  void testFinishGivesUpAfterDeadline() {
+    CountDownLatch release = new CountDownLatch(1);
+    FlushScheduler scheduler = new FlushScheduler(release::await, 0, false);
+
+    long start = System.nanoTime();
+    assertFalse(scheduler.finish(100));
+    assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000);
+    release.countDown();
+  }
+
+  @Test
+  void testFinishReportsFailedFlush() {
+    FlushScheduler scheduler =
+        new FlushScheduler(
+            () -> {
+              throw new IllegalStateException("disk full");
+            },
+            0,
+            false);
+
+    assertFalse(scheduler.finish(5000));
+  }
+}
@@ -0,0 +1,160 @@
+package io.github.sfkamath.jvmhotpath;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class HistoryStoreTest {
+
+  private Path dir;
+  private Path file;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    dir = Files.createTempDirectory("history");
+    file = dir.resolve("report" + HistoryStore.EXTENSION);
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    try (Stream<Path> paths = Files.list(dir)) {
+      for (Path path : (Iterable<Path>) paths::iterator) {
+        Files.delete(path);
+      }
+    }
+    Files.delete(dir);
+  }
+
+  @Test
+  void testReconstructsCountsAtAnyTimeAndOverWindows() throws IOException {
+    try (HistoryStore store = new HistoryStore(file, 3, 0L, 1 << 20)) {
+      for (int i = 1; i <= 10; i++) {
+        store.append(i * 1000L, List.of(file("A.java", Map.of(1, (long) i, 2, 5L))));
+      }
+    }
+
+    HistoryStore.Reader reader = HistoryStore.Reader.open(file);
+    assertEquals(10, reader.size());
+    assertTrue(reader.isKeyframe(0));
+    assertFalse(reader.isKeyframe(1));
+    assertTrue(reader.isKeyframe(4));
+
+    assertTrue(reader.at(500L).files.isEmpty());
+    ReportGenerator.ReportPayload at = reader.at(7500L);
+    assertEquals(7000L, at.generatedAt);
+    assertEquals(Map.of(1, 7L, 2, 5L), counts(at).get("A.java"));
+    assertEquals(Map.of(1, 10L, 2, 5L), counts(reader.at(Long.MAX_VALUE)).get("A.java"));
+
+    // Line 2 did not run in between, so only line 1 is left.
+    assertEquals(Map.of(1, 4L), counts(reader.between(3000L, 7000L)).get("A.java"));
+  }
+
+  @Test
+  void testSkipsIdleFlushesAndStartsKeyframeWhenCountsFall() throws IOException {
+    try (HistoryStore store = new HistoryStore(file, 100, 0L, 1 << 20)) {
+      store.append(1000L, List.of(file("A.java", Map.of(1, 5L)), file("B.java", Map.of(1, 1L))));
+      store.append(2000L, List.of(file("A.java", Map.of(1, 5L)), file("B.java", Map.of(1, 1L))));
+      store.append(3000L, List.of(file("A.java", Map.of(1, 6L)), file("B.java", Map.of(1, 1L))));
+      // Reset: B is gone and A starts over.
+      store.append(4000L, List.of(file("A.java", Map.of(1, 2L))));
+    }
+
+    HistoryStore.Reader reader = HistoryStore.Reader.open(file);
+    assertArrayEquals(new long[] {1000L, 3000L, 4000L}, reader.timestamps());
+    assertFalse(reader.isKeyframe(1));
+    assertTrue(reader.isKeyframe(2));
+    assertEquals(
+        Map.of("A.java", Map.of(1, 6L), "B.java", Map.of(1, 1L)), counts(reader.at(3000L)));
+    assertEquals(Map.of("A.java", Map.of(1, 2L)), counts(reader.at(4000L)));
+  }
+
+  @Test
+  void testIgnoresTruncatedLastRecord() throws IOException {
+    try (HistoryStore store = new HistoryStore(file, 100, 0L, 1 << 20)) {
+      store.append(1000L, List.of(file("A.java", Map.of(1, 1L))));
+      store.append(2000L, List.of(file("A.java", Map.of(1, 2L))));
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 3);
+    }
+
+    HistoryStore.Reader reader = HistoryStore.Reader.open(file);
+    assertEquals(1, reader.size());
+    assertEquals(Map.of(1, 1L), counts(reader.at(2000L)).get("A.java"));
+  }
+
+  @Test
+  void testCompactsToRetentionAndSize() throws IOException {
+    try (HistoryStore store = new HistoryStore(file, 5, 60_000L, 1 << 20)) {
+      for (int i = 1; i <= 100; i++) {
+        store.append(i * 1000L, List.of(file("A.java", Map.of(1, (long) i))));
+      }
+    }
+    HistoryStore.Reader reader = HistoryStore.Reader.open(file);
+    // Compacted once records are a quarter past the retention.
+    assertTrue(reader.timestamp(0) >= 25_000L, "oldest " + reader.timestamp(0));
+    assertEquals(100_000L, reader.timestamp(reader.size() - 1));
+    assertEquals(Map.of(1, 100L), counts(reader.at(100_000L)).get("A.java"));
+    assertEquals(Map.of(1, 70L), counts(reader.at(70_000L)).get("A.java"));
+
+    // Forty lines change on every flush; a small cap thins the older records out.
+    Path small = dir.resolve("small" + HistoryStore.EXTENSION);
+    try (HistoryStore store = new HistoryStore(small, 5, 0L, 8 * 1024)) {
+      for (int i = 1; i <= 200; i++) {
+        Map<Integer, Long> counts = new HashMap<>();
+        for (int line = 1; line <= 40; line++) {
+          counts.put(line, (long) i * 1000 + line * 7919L % 1000);
+        }
+        store.append(i * 1000L, List.of(file("A.java", counts)));
+      }
+    }
+    assertTrue(Files.size(small) < 16 * 1024, "size " + Files.size(small));
+    HistoryStore.Reader thinned = HistoryStore.Reader.open(small);
+    assertTrue(thinned.size() < 200);
+    assertEquals(200_000L, thinned.timestamp(thinned.size() - 1));
+    assertEquals(200_919L, counts(thinned.at(200_000L)).get("A.java").get(1));
+  }
+
+  @Test
+  void testResolvesTimes() throws IOException {
+    try (HistoryStore store = new HistoryStore(file, 100, 0L, 1 << 20)) {
+      store.append(1_700_000_000_000L, List.of(file("A.java", Map.of(1, 1L))));
+      store.append(1_700_000_600_000L, List.of(file("A.java", Map.of(1, 2L))));
+    }
+    HistoryStore.Reader reader = HistoryStore.Reader.open(file);
+    assertEquals(1_700_000_090_000L, reader.resolveTime("+90s"));
+    assertEquals(1_700_000_300_000L, reader.resolveTime("-5m"));
+    assertEquals(1_700_000_000_000L, reader.resolveTime("2023-11-14T22:13:20Z"));
+    assertEquals(42L, reader.resolveTime("42"));
+    assertThrows(IllegalArgumentException.class, () -> reader.resolveTime("yesterday"));
+  }
+
+  @Test
+  void testRejectsForeignFiles() throws IOException {
+    Files.writeString(file, "{\"files\":[]}");
+    assertThrows(IOException.class, () -> HistoryStore.Reader.open(file));
+  }
+
+  private static ReportGenerator.FileData file(String path, Map<Integer, Long> counts) {
+    return new ReportGenerator.FileData(path, counts, null, "app");
+  }
+
+  private static Map<String, Map<Integer, Long>> counts(ReportGenerator.ReportPayload payload) {
+    Map<String, Map<Integer, Long>> counts = new HashMap<>();
+    for (ReportGenerator.FileData f : payload.files) {
+      counts.put(f.getPath(), f.getCounts());
+    }
+    return counts;
+  }
+}
@@ -0,0 +1,94 @@
+package io.github.sfkamath.jvmhotpath;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiFunction;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class HotpathSummaryTest {
+
+  private static final String HOT_SOURCE =
+      "class Hot {\n  void run() {\n    for (;;) {\n      spin();\n    }\n  }\n}\n";
+
+  @AfterEach
+  void tearDown() {
+    ProbeRegistry.reset();
+  }
+
+  @Test
+  void testKeepsTopLinesWithContext() throws IOException {
+    HotpathSummary summary = new HotpathSummary(2);
+    Map<Integer, Long> hot = new HashMap<>();
+    for (int line = 1; line <= 7; line++) {
+      hot.put(line, (long) line);
+    }
+    hot.put(4, 900L);
+    summary.addFile(new ReportGenerator.FileData("com/app/Hot.java", hot, null, "app"));
+    summary.addFile(
+        new ReportGenerator.FileData("com/app/Cold.java", Map.of(1, 50L, 2, 0L), null, "app"));
+
+    ProbeRegistry.registerClass("com.app.Hot", Map.of(3, "run", 4, "run", 7, "<init>"));
+    summary.addMethods(Map.of("com.app.Hot", Map.of(3, 3L, 4, 900L, 7, 7L)));
+
+    Map<String, String> sources = Map.of("com/app/Hot.java", HOT_SOURCE);
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+    summary.writeJson(json, 1L, (path, project) -> sources.get(path));
+    JsonNode root = new ObjectMapper().readTree(json.toByteArray());
+
+    assertEquals(974, root.get("totalExecutions").asLong());
+    assertEquals(8, root.get("countedLines").asInt());
+    JsonNode top = root.get("topLines");
+    assertEquals(2, top.size());
+    assertEquals(4, top.get(0).get("line").asInt());
+    assertEquals(0.924, top.get(0).get("share").asDouble(), 1e-9);
+    JsonNode context = top.get(0).get("context");
+    assertEquals(5, context.size());
+    assertEquals("      spin();", context.get(2).get("text").asText());
+    assertEquals("com/app/Cold.java", top.get(1).get("path").asText());
+    assertFalse(top.get(1).has("context"));
+    assertEquals("com.app.Hot.run", root.get("methods").get(0).get("method").asText());
+    assertEquals(903, root.get("methods").get(0).get("count").asLong());
+    assertEquals("com/app/Hot.java", root.get("files").get(0).get("path").asText());
+
+    ByteArrayOutputStream markdown = new ByteArrayOutputStream();
+    summary.writeMarkdown(markdown, 1L, (path, project) -> sources.get(path));
+    String md = markdown.toString(StandardCharsets.UTF_8);
+    assertTrue(md.contains("### 1. `com/app/Hot.java:4` - 900 executions (92.4%)"), md);
+    assertTrue(md.contains("> 4 |       spin();"), md);
+    assertTrue(md.contains("| `com.app.Hot.run` | 903 | 92.7% |"), md);
+  }
+
+  @Test
+  void testSourcesAreReadOnceForBothFormats() throws IOException {
+    HotpathSummary summary = new HotpathSummary(5);
+    summary.addFile(
+        new ReportGenerator.FileData("com/app/Hot.java", Map.of(2, 5L, 4, 9L), null, "app"));
+    summary.addFile(new ReportGenerator.FileData("com/app/Gone.java", Map.of(1, 3L), null, "app"));
+
+    Map<String, Integer> reads = new HashMap<>();
+    BiFunction<String, String, String> sources =
+        (path, project) -> {
+          reads.merge(path, 1, Integer::sum);
+          return path.endsWith("Hot.java") ? HOT_SOURCE : null;
+        };
+    summary.writeMarkdown(new ByteArrayOutputStream(), 1L, sources);
+    summary.writeJson(new ByteArrayOutputStream(), 1L, sources);
+
+    assertEquals(Map.of("com/app/Hot.java", 1, "com/app/Gone.java", 1), reads);
+  }
+
+  @Test
+  void testLambdaBodiesCountTowardsTheirMethod() {
+    assertEquals("process", ProbeRegistry.declaringMethod("lambda$process$3"));
+    assertEquals("run", ProbeRegistry.declaringMethod("run"));
+    assertEquals("lambda$", ProbeRegistry.declaringMethod("lambda$"));
+  }
+}
@@ -0,0 +1,67 @@
+package io.github.sfkamath.jvmhotpath;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import jdk.jfr.Recording;
+import org.junit.jupiter.api.Test;
+
+class JfrSamplesTest {
+
+  private static volatile long sink;
+
+  @Test
+  void testSourcePath() {
+    assertEquals("com/app/Hot.java", JfrSamples.sourcePath("com.app.Hot"));
+    assertEquals("com/app/Hot.java", JfrSamples.sourcePath("com.app.Hot$Inner$1"));
+    assertEquals("Hot.java", JfrSamples.sourcePath("Hot"));
+  }
+
+  @Test
+  void testOverlaysExecutionSamplesOnReportedFiles() throws Exception {
+    Path recording = Files.createTempFile("samples", ".jfr");
+    try {
+      try (Recording jfr = new Recording()) {
+        jfr.enable(JfrSamples.EXECUTION_SAMPLE).withPeriod(Duration.ofMillis(10));
+        jfr.start();
+        spin(Duration.ofMillis(600));
+        jfr.stop();
+        jfr.dump(recording);
+      }
+      ReportGenerator.FileData self =
+          new ReportGenerator.FileData(
+              "io/github/sfkamath/jvmhotpath/JfrSamplesTest.java", Map.of(), "", "agent");
+      ReportGenerator.FileData idle =
+          new ReportGenerator.FileData("com/app/Idle.java", Map.of(1, 1L), "", "app");
+
+      long attributed = JfrSamples.overlay(recording, List.of(self, idle));
+
+      assertTrue(attributed > 0, "no samples attributed");
+      assertEquals(
+          attributed, self.getSamples().values().stream().mapToLong(Long::longValue).sum());
+      assertTrue(idle.getSamples().isEmpty());
+
+      ObjectMapper mapper = new ObjectMapper();
+      assertTrue(mapper.readTree(mapper.writeValueAsString(self)).has("samples"));
+      assertFalse(mapper.readTree(mapper.writeValueAsString(idle)).has("samples"));
+    } finally {
+      Files.deleteIfExists(recording);
+    }
+  }
+
+  private static void spin(Duration duration) {
+    long end = System.nanoTime() + duration.toNanos();
+    long x = 0;
+    while (System.nanoTime() < end) {
+      for (int i = 0; i < 10_000; i++) {
+        x = x * 31 + i;
+      }
+    }
+    sink = x;
+  }
+}
@@ -0,0 +1,180 @@
+package io.github.sfkamath.jvmhotpath;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class LiveServerTest {
+
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  @BeforeEach
+  void setUp() {
+    ExecutionCountStore.reset();
+  }
+
+  @Test
+  void testServesReportAndQueries() throws IOException {
+    Path root = Files.createTempDirectory("live");
+    try (LiveServer server = LiveServer.start(0, root.toString())) {
+      Path file = root.resolve("com/app/Hot.java");
+      Files.createDirectories(file.getParent());
+      Files.writeString(file, "class Hot { /* </script> */ }");
+      ExecutionCountStore.recordExecution("com.app.Hot", 3);
+      ExecutionCountStore.recordExecution("com.app.Hot", 3);
+      ExecutionCountStore.recordExecution("com.app.Hot", 5);
+      String base = "http://127.0.0.1:" + server.port();
+
+      String page = get(base + "/");
+      assertTrue(page.contains("window.REPORT_EVENTS = \"events\""));
+      assertTrue(page.contains("\"counts\":{\"0\":{"));
+
+      JsonNode sources = mapper.readTree(get(base + "/sources.json"));
+      assertEquals("com/app/Hot.java", sources.get("files").get(0).get("path").asText());
+      assertTrue(get(base + "/sources.js").startsWith("window.loadExecutionSources"));
+
+      JsonNode top = mapper.readTree(get(base + "/api/top?n=1"));
+      assertEquals(1, top.size());
+      assertEquals(3, top.get(0).get("line").asInt());
+      assertEquals(2, top.get(0).get("count").asLong());
+
+      JsonNode hot = mapper.readTree(get(base + "/api/file?path=com/app/Hot.java"));
+      assertEquals(1, hot.get("counts").get("5").asLong());
+      assertEquals(404, status(base + "/api/file?path=Missing.java"));
+      assertEquals(400, status(base + "/api/top?n=lots"));
+
+      String metrics = get(base + "/metrics");
+      assertTrue(
+          metrics.contains(
+              "jvm_hotpath_line_executions_total{class=\"com.app.Hot\",line=\"3\"} 2"));
+      assertTrue(metrics.contains("jvm_hotpath_executions_total 3\n"));
+    } finally {
+      deleteRecursive(root.toFile());
+    }
+  }
+
+  @Test
+  void testEventStreamSendsSnapshotThenDeltas() throws Exception {
+    Path root = Files.createTempDirectory("live-events");
+    try (LiveServer server = LiveServer.start(0, root.toString())) {
+      Path hot = root.resolve("Hot.java");
+      Path cold = root.resolve("Cold.java");
+      Files.writeString(hot, "class Hot {}");
+      Files.writeString(cold, "class Cold {}");
+      ExecutionCountStore.recordExecution("Hot", 1);
+      ExecutionCountStore.recordExecution("Cold", 1);
+
+      HttpURLConnection connection =
+          (HttpURLConnection)
+              new URL("http://127.0.0.1:" + server.port() + "/events").openConnection();
+      connection.setReadTimeout(10_000);
+      try (BufferedReader events =
+          new BufferedReader(
+              new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+        JsonNode first = nextEvent(events, "counts");
+        assertFalse(first.has("delta"));
+        assertEquals(2, first.get("counts").size());
+
+        ExecutionCountStore.recordExecution("Hot", 1);
+        JsonNode delta = nextEvent(events, "counts");
+        assertTrue(delta.get("delta").asBoolean());
+        assertEquals(1, delta.get("counts").size());
+        assertEquals(first.get("sources").get("id"), delta.get("sources").get("id"));
+      } finally {
+        connection.disconnect();
+      }
+    } finally {
+      deleteRecursive(root.toFile());
+    }
+  }
+
+  @Test
+  void testReplaysHistory() throws IOException {
+    Path root = Files.createTempDirectory("live-history");
+    Path history = root.resolve("report" + HistoryStore.EXTENSION);
+    try (LiveServer server =
+        LiveServer.start(0, root.toString(), new PrometheusExporter(1, 1), history)) {
+      Files.writeString(root.resolve("Hot.java"), "class Hot {}");
+      String base = "http://127.0.0.1:" + server.port();
+      assertEquals(404, status(base + "/api/history"));
+
+      ReportModel model = ReportModel.forSourcePath(root.toString());
+      try (HistoryStore store = new HistoryStore(history, 10, 0L, 1 << 20)) {
+        ExecutionCountStore.recordExecution("Hot", 1);
+        model.update(ExecutionCountStore.getAllCountersSnapshot());
+        store.append(1000L, model);
+        ExecutionCountStore.recordExecution("Hot", 1);
+        ExecutionCountStore.recordExecution("Hot", 2);
+        model.update(ExecutionCountStore.getAllCountersSnapshot());
+        store.append(2000L, model);
+      }
+
+      assertTrue(get(base + "/").contains("window.REPORT_HISTORY = \"api/history\""));
+      JsonNode index = mapper.readTree(get(base + "/api/history"));
+      assertEquals("[1000,2000]", index.get("timestamps").toString());
+
+      JsonNode first = mapper.readTree(get(base + "/api/history?at=1500"));
+      assertEquals(1000L, first.get("generatedAt").asLong());
+      assertEquals("{\"0\":{\"1\":1}}", first.get("counts").toString());
+      JsonNode window = mapper.readTree(get(base + "/api/history?from=1000&at=2000"));
+      assertEquals("{\"0\":{\"1\":1,\"2\":1}}", window.get("counts").toString());
+      assertEquals(400, status(base + "/api/history?at=soon"));
+    } finally {
+      deleteRecursive(root.toFile());
+    }
+  }
+
+  private JsonNode nextEvent(BufferedReader events, String name) throws IOException {
+    String event = null;
+    String line;
+    while ((line = events.readLine()) != null) {
+      if (line.startsWith("event: ")) {
+        event = line.substring(7);
+      } else if (line.startsWith("data: ") && name.equals(event)) {
+        return mapper.readTree(line.substring(6));
+      }
+    }
+    throw new IOException("Event stream closed before a '" + name + "' event");
+  }
+
+  private static String get(String url) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    try (InputStream in = connection.getInputStream()) {
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  private static int status(String url) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    try {
+      return connection.getResponseCode();
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  private void deleteRecursive(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursive(child);
+      }
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,165 @@
+package io.github.sfkamath.jvmhotpath;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.Test;
+
+class PprofWriterTest {
+
+  @Test
+  void testWritesDecodableProfile() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (PprofWriter pprof = new PprofWriter(bytes)) {
+      pprof.time(1_000L);
+      pprof.add("com.app.Hot.run", "com/app/Hot.java", 12, 300L);
+      pprof.add("com.app.Hot.run", "com/app/Hot.java", 13, 7L);
+      pprof.add("com.app.Cold.init", "com/app/Cold.java", 3, 0L);
+      pprof.add("com.app.Cold.init", "com/app/Cold.java", 4, 1L);
+    }
+
+    Profile profile = Profile.parse(bytes.toByteArray());
+    assertEquals("", profile.strings.get(0));
+    assertEquals(List.of("executions", "count"), profile.sampleType);
+    assertEquals(1_000_000_000L, profile.timeNanos);
+    assertEquals(2, profile.functions.size());
+    assertEquals(3, profile.samples.size());
+
+    // Resolve the first sample back to its function, file and line.
+    long[] first = profile.samples.get(0);
+    long[] location = profile.locations.get(first[0]);
+    long[] function = profile.functions.get(location[0]);
+    assertEquals("com.app.Hot.run", profile.strings.get((int) function[0]));
+    assertEquals("com/app/Hot.java", profile.strings.get((int) function[1]));
+    assertEquals(12L, location[1]);
+    assertEquals(300L, first[1]);
+    assertEquals(1L, profile.samples.get(2)[1]);
+  }
+
+  @Test
+  void testLineAddedTwiceSharesOneLocation() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (PprofWriter pprof = new PprofWriter(bytes)) {
+      pprof.add("com.app.Hot.run", "com/app/Hot.java", 12, 300L);
+      pprof.add("com.app.Hot.run", "com/app/Hot.java", 12, 5L);
+      pprof.add("com.app.Hot.run", "com/app/Hot.java", 13, 1L);
+    }
+
+    Profile profile = Profile.parse(bytes.toByteArray());
+    assertEquals(2, profile.locations.size());
+    assertEquals(3, profile.samples.size());
+    assertEquals(profile.samples.get(0)[0], profile.samples.get(1)[0]);
+    assertNotEquals(profile.samples.get(0)[0], profile.samples.get(2)[0]);
+  }
+
+  /** Just enough of a protobuf decoder to check the fields {@link PprofWriter} writes. */
+  static final class Profile {
+    final List<String> strings = new ArrayList<>();
+    final List<String> sampleType = new ArrayList<>();
+    // function id -> {name, filename}
+    final Map<Long, long[]> functions = new HashMap<>();
+    // location id -> {function id, line}
+    final Map<Long, long[]> locations = new HashMap<>();
+    // {location id, value}
+    final List<long[]> samples = new ArrayList<>();
+    long timeNanos;
+
+    static Profile parse(byte[] gzipped) throws IOException {
+      byte[] raw;
+      try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+        raw = in.readAllBytes();
+      }
+      Profile profile = new Profile();
+      List<long[]> valueTypes = new ArrayList<>();
+      for (Field field : Field.parseAll(raw)) {
+        switch (field.number) {
+          case 1:
+            Map<Integer, Long> vt = Field.varints(field.bytes);
+            valueTypes.add(new long[] {vt.get(1), vt.get(2)});
+            break;
+          case 2:
+            Map<Integer, byte[]> sample = Field.messages(field.bytes);
+            profile.samples.add(
+                new long[] {
+                  SnapshotFormat.readVarLong(new ByteArrayInputStream(sample.get(1))),
+                  SnapshotFormat.readVarLong(new ByteArrayInputStream(sample.get(2)))
+                });
+            break;
+          case 4:
+            Map<Integer, Long> loc = Field.varints(field.bytes);
+            Map<Integer, Long> line = Field.varints(Field.messages(field.bytes).get(4));
+            profile.locations.put(loc.get(1), new long[] {line.get(1), line.get(2)});
+            break;
+          case 5:
+            Map<Integer, Long> fn = Field.varints(field.bytes);
+            profile.functions.put(fn.get(1), new long[] {fn.get(2), fn.get(4)});
+            break;
+          case 6:
+            profile.strings.add(new String(field.bytes, StandardCharsets.UTF_8));
+            break;
+          case 9:
+            profile.timeNanos = field.value;
+            break;
+          default:
+            break;
+        }
+      }
+      long[] type = valueTypes.get(0);
+      profile.sampleType.add(profile.strings.get((int) type[0]));
+      profile.sampleType.add(profile.strings.get((int) type[1]));
+      return profile;
+    }
+  }
+
+  private static final class Field {
+    int number;
+    long value;
+    byte[] bytes;
+
+    static List<Field> parseAll(byte[] data) throws IOException {
+      ByteArrayInputStream in = new ByteArrayInputStream(data);
+      List<Field> fields = new ArrayList<>();
+      while (in.available() > 0) {
+        long tag = SnapshotFormat.readVarLong(in);
+        Field field = new Field();
+        field.number = (int) (tag >>> 3);
+        if ((tag & 7) == 0) {
+          field.value = SnapshotFormat.readVarLong(in);
+        } else {
+          field.bytes = in.readNBytes((int) SnapshotFormat.readVarLong(in));
+        }
+        fields.add(field);
+      }
+      return fields;
+    }
+
+    static Map<Integer, Long> varints(byte[] data) throws IOException {
+      Map<Integer, Long> values = new HashMap<>();
+      for (Field field : parseAll(data)) {
+        if (field.bytes == null) {
+          values.put(field.number, field.value);
+        }
+      }
+      return values;
+    }
+
+    static Map<Integer, byte[]> messages(byte[] data) throws IOException {
+      Map<Integer, byte[]> values = new HashMap<>();
+      for (Field field : parseAll(data)) {
+        if (field.bytes != null) {
+          values.put(field.number, field.bytes);
+        }
+      }
+      return values;
+    }
+  }
+}
@@ -0,0 +1,119 @@
+package io.github.sfkamath.jvmhotpath;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class PrometheusExporterTest {
+
+  @BeforeEach
+  void setUp() {
+    ExecutionCountStore.reset();
+  }
+
+  private static void record(String className, int line, int times) {
+    for (int i = 0; i < times; i++) {
+      ExecutionCountStore.recordExecution(className, line);
+    }
+  }
+
+  private static List<String> series(String text, String metric) {
+    return Arrays.stream(text.split("\n"))
+        .filter(l -> l.startsWith(metric + "{") || l.startsWith(metric + " "))
+        .collect(Collectors.toList());
+  }
+
+  @Test
+  void testKeepsHottestLinesInDescendingOrder() {
+    record("com.app.A", 1, 5);
+    record("com.app.A", 2, 1);
+    record("com.app.B", 7, 9);
+    record("com.app.B", 8, 3);
+
+    String text = new String(new PrometheusExporter(2, 10).render(), StandardCharsets.UTF_8);
+
+    assertEquals(
+        List.of(
+            "jvm_hotpath_line_executions_total{class=\"com.app.B\",line=\"7\"} 9",
+            "jvm_hotpath_line_executions_total{class=\"com.app.A\",line=\"1\"} 5"),
+        series(text, "jvm_hotpath_line_executions_total"));
+    assertTrue(text.contains("# TYPE jvm_hotpath_line_executions_total counter\n"));
+    assertEquals(
+        List.of("jvm_hotpath_executions_total 18"), series(text, "jvm_hotpath_executions_total"));
+    assertEquals(List.of("jvm_hotpath_lines 4"), series(text, "jvm_hotpath_lines"));
+  }
+
+  @Test
+  void testGroupsNestedClassesAndBoundsClassSeries() {
+    record("com.app.A", 1, 2);
+    record("com.app.A$Inner", 1, 4);
+    record("com.app.B", 1, 3);
+    record("com.app.C", 1, 1);
+
+    String text = new String(new PrometheusExporter(0, 2).render(), StandardCharsets.UTF_8);
+
+    assertTrue(series(text, "jvm_hotpath_line_executions_total").isEmpty());
+    assertEquals(
+        List.of(
+            "jvm_hotpath_class_executions_total{class=\"com.app.A\"} 6",
+            "jvm_hotpath_class_executions_total{class=\"com.app.B\"} 3",
+            "jvm_hotpath_class_executions_total{class=\"_other\"} 1"),
+        series(text, "jvm_hotpath_class_executions_total"));
+  }
+
+  @Test
+  void testReusedExporterReflectsCurrentCounters() {
+    PrometheusExporter exporter = new PrometheusExporter(10, 10);
+    record("com.app.Gone", 1, 2);
+    exporter.render();
+
+    ExecutionCountStore.reset();
+    record("com.app.Kept", 4, 1);
+    String text = new String(exporter.render(), StandardCharsets.UTF_8);
+
+    assertFalse(text.contains("com.app.Gone"));
+    assertEquals(
+        List.of("jvm_hotpath_class_executions_total{class=\"com.app.Kept\"} 1"),
+        series(text, "jvm_hotpath_class_executions_total"));
+  }
+
+  @Test
+  void testEscapesLabelValues() {
+    record("odd\"name\\x", 1, 1);
+
+    String text = new String(new PrometheusExporter(1, 1).render(), StandardCharsets.UTF_8);
+
+    assertTrue(text.contains("{class=\"odd\\\"name\\\\x\",line=\"1\"} 1"));
+  }
+
+  @Test
+  void testWritesTextfile() throws Exception {
+    Path dir = Files.createTempDirectory("metrics");
+    try {
+      record("com.app.A", 3, 2);
+      Path file = dir.resolve("node/jvm_hotpath.prom");
+
+      new PrometheusExporter(5, 5).writeTextfile(file);
+
+      String text = Files.readString(file);
+      assertTrue(
+          text.contains("jvm_hotpath_line_executions_total{class=\"com.app.A\",line=\"3\"} 2"));
+      try (Stream<Path> files = Files.list(file.getParent())) {
+        assertEquals(1, files.count());
+      }
+    } finally {
+      try (Stream<Path> files = Files.walk(dir)) {
+        files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+      }
+    }
+  }
+}
@@ -7,6 +7,9 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -37,7 +40,7 @@ class ReportGeneratorTest {
           root1.toAbsolutePath().toString()
               + File.pathSeparator
               + root2.toAbsolutePath().toString();
-      List<ReportGenerator.FileData> data = ReportGenerator.collectData(sourcePath, false);
+      List<ReportGenerator.FileData> data = modelFiles(sourcePath);
 
       assertEquals(2, data.size());
 
@@ -78,8 +81,7 @@ class ReportGeneratorTest {
       String path1 = root.toAbsolutePath().toString();
       String path2 = root.toAbsolutePath().toString() + "/./";
 
-      List<ReportGenerator.FileData> data =
-          ReportGenerator.collectData(path1 + File.pathSeparator + path2, false);
+      List<ReportGenerator.FileData> data = modelFiles(path1 + File.pathSeparator + path2);
       assertEquals(1, data.size());
     } finally {
       deleteRecursive(root.toFile());
@@ -102,9 +104,45 @@ class ReportGeneratorTest {
       assertTrue(Files.exists(outputDir.resolve("report.json")));
       assertTrue(Files.exists(outputDir.resolve("report.js")));
       assertTrue(Files.exists(outputDir.resolve("report-app.js")));
-
+      assertTrue(
+          Files.readString(outputDir.resolve("report.summary.md")).contains("`Test.java:1`"));
+      assertTrue(Files.exists(outputDir.resolve("report.summary.json")));
+
+      // Sources live in a content-addressed table; the polled files only carry counts.
+      List<Path> sources;
+      try (Stream<Path> listing = Files.list(outputDir)) {
+        sources =
+            listing
+                .filter(p -> p.getFileName().toString().startsWith("report.sources-"))
+                .collect(Collectors.toList());
+      }
+      assertEquals(2, sources.size());
+      Path sourcesJson =
+          sources.stream().filter(p -> p.toString().endsWith(".json")).findFirst().orElseThrow();
+      assertTrue(Files.readString(sourcesJson).contains("Test.java"));
+      assertTrue(Files.readString(sourcesJson).contains("public class Test {}"));
+
+      String json = Files.readString(outputDir.resolve("report.json"));
+      assertFalse(json.contains("public class Test {}"));
+      assertTrue(json.contains(sourcesJson.getFileName().toString()));
       String htmlContent = Files.readString(outputDir.resolve("report.html"));
-      assertTrue(htmlContent.contains("Test.java"));
+      assertTrue(htmlContent.contains(sourcesJson.getFileName().toString()));
+
+      // Unchanged sources are not rewritten; a new file produces a new table and drops the old.
+      ExecutionCountStore.recordExecution("Test", 1);
+      ReportGenerator.generateHtmlReport(reportPath, sourceRoot.toString(), false);
+      assertTrue(Files.exists(sourcesJson));
+      ExecutionCountStore.recordExecution("Other", 4);
+      ReportGenerator.generateHtmlReport(reportPath, sourceRoot.toString(), false);
+      assertFalse(Files.exists(sourcesJson));
+
+      // The split payload can still be turned back into a full report.
+      Path regenerated = outputDir.resolve("regenerated.html");
+      ReportGenerator.regenerateReport(
+          outputDir.resolve("report.json").toString(), regenerated.toString());
+      String regeneratedHtml = Files.readString(regenerated);
+      assertTrue(regeneratedHtml.contains("public class Test {}"));
+      assertTrue(regeneratedHtml.contains("Other.java"));
     } finally {
       deleteRecursive(outputDir.toFile());
       deleteRecursive(sourceRoot.toFile());
@@ -122,7 +160,7 @@ class ReportGeneratorTest {
       ExecutionCountStore.recordExecution("com.Outer", 10);
       ExecutionCountStore.recordExecution("com.Outer$Inner", 20);
 
-      List<ReportGenerator.FileData> data = ReportGenerator.collectData(root.toString(), false);
+      List<ReportGenerator.FileData> data = modelFiles(root.toString());
       assertEquals(1, data.size());
       assertEquals(1L, data.get(0).getCounts().get(10));
       assertEquals(1L, data.get(0).getCounts().get(20));
@@ -131,6 +169,127 @@ class ReportGeneratorTest {
     }
   }
 
+  @Test
+  void testRecordedSourceFileGroupsClassesOfOneFile() throws IOException {
+    Path root = Files.createTempDirectory("sourcefile");
+    try {
+      Path file = root.resolve("com/app/Main.java");
+      Files.createDirectories(file.getParent());
+      Files.writeString(file, "public class Main {} class Helper {}");
+      // A non-public top-level class and a Kotlin-style facade, both named after another file.
+      ProbeRegistry.registerSource("com.app.Helper", "Main.java");
+      ProbeRegistry.registerSource("com.app.Main", "Main.java");
+      ExecutionCountStore.reset();
+      ExecutionCountStore.recordExecution("com.app.Main", 1);
+      ExecutionCountStore.recordExecution("com.app.Helper", 2);
+      ExecutionCountStore.recordExecution("com.app.Helper$1", 3);
+
+      List<ReportGenerator.FileData> data = modelFiles(root.toString());
+      assertEquals(1, data.size());
+      assertEquals("com/app/Main.java", data.get(0).getPath());
+      assertEquals(Map.of(1, 1L, 2, 1L, 3, 1L), data.get(0).getCounts());
+      assertEquals(
+          "com/app/Main.java", ReportModel.forSourcePath(root.toString()).pathOf("com.app.Helper"));
+    } finally {
+      ProbeRegistry.reset();
+      ExecutionCountStore.reset();
+      deleteRecursive(root.toFile());
+    }
+  }
+
+  @Test
+  void testGroupByLoaderReportsPluginClassesApart() throws IOException {
+    Path root = Files.createTempDirectory("loaders");
+    ClassLoader plugin = new ClassLoader("plugin", null) {};
+    ExecutionCountStore.setGroupByLoader(true);
+    try {
+      Path file = root.resolve("com/app/Handler.java");
+      Files.createDirectories(file.getParent());
+      Files.writeString(file, "class Handler {}");
+      ExecutionCountStore.recordExecution("com.app.Handler", 1);
+      ExecutionCountStore.SlabBuilder slab = ExecutionCountStore.newSlab(plugin);
+      int probe = slab.probe("com.app.Handler", 2);
+      slab.seal();
+      ExecutionCountStore.recordExecution(slab.id(), probe);
+
+      List<ReportGenerator.FileData> data = modelFiles(root.toString());
+      assertEquals(2, data.size());
+      for (ReportGenerator.FileData fileData : data) {
+        assertEquals("com/app/Handler.java", fileData.getPath());
+        assertEquals("class Handler {}", fileData.getContent());
+      }
+      Map<String, Map<Integer, Long>> byProject =
+          data.stream()
+              .collect(
+                  Collectors.toMap(
+                      ReportGenerator.FileData::getProject, ReportGenerator.FileData::getCounts));
+      String pluginProject =
+          byProject.keySet().stream().filter(p -> p.contains("[plugin@")).findFirst().orElseThrow();
+      assertEquals(Map.of(2, 1L), byProject.get(pluginProject));
+      assertEquals(
+          Map.of(1, 1L), byProject.get(pluginProject.substring(0, pluginProject.indexOf(" ["))));
+    } finally {
+      ExecutionCountStore.setGroupByLoader(false);
+      ExecutionCountStore.reset();
+      deleteRecursive(root.toFile());
+    }
+  }
+
+  @Test
+  void testPeriodicSnapshotsOnlyCarryCounts() throws IOException {
+    Path root = Files.createTempDirectory("snapshot");
+    try {
+      Path hot = root.resolve("com/Hot.java");
+      Files.createDirectories(hot.getParent());
+      Files.writeString(hot, "class Hot {}");
+      Files.writeString(root.resolve("com/Cold.java"), "class Cold {}");
+      ExecutionCountStore.recordExecution("com.Hot", 1);
+      String report = root.resolve("out/report.html").toString();
+      Path snapshot = root.resolve("out/report.hps");
+      ReportGenerator.generateHtmlReport(report, root.toString(), false, 0);
+
+      ReportGenerator.writeSnapshot(report, root.toString(), true, false);
+      ReportGenerator.ReportPayload counts = SnapshotFormat.read(snapshot);
+      assertEquals(1, counts.files.size());
+      assertEquals(Map.of(1, 1L), counts.files.get(0).getCounts());
+      assertNull(counts.files.get(0).getContent());
+
+      ReportGenerator.writeSnapshot(report, root.toString(), true, true);
+      ReportGenerator.ReportPayload full = SnapshotFormat.read(snapshot);
+      assertEquals(2, full.files.size());
+      assertEquals("class Cold {}", full.files.get(0).getContent());
+    } finally {
+      deleteRecursive(root.toFile());
+    }
+  }
+
+  @Test
+  void testWritePprofUsesRegisteredMethods() throws IOException {
+    Path root = Files.createTempDirectory("pprof");
+    try {
+      Path file = root.resolve("com/Outer.java");
+      Files.createDirectories(file.getParent());
+      Files.writeString(file, "class Outer { class Inner {} }");
+      ProbeRegistry.registerClass("com.Outer", Map.of(10, "run"));
+      ExecutionCountStore.recordExecution("com.Outer", 10);
+      ExecutionCountStore.recordExecution("com.Outer$Inner", 20);
+
+      String report = root.resolve("out/report.html").toString();
+      ReportGenerator.generateHtmlReport(report, root.toString(), false, 0);
+      ReportGenerator.writePprof(report, root.toString());
+
+      PprofWriterTest.Profile profile =
+          PprofWriterTest.Profile.parse(Files.readAllBytes(root.resolve("out/report.pb.gz")));
+      assertEquals(2, profile.samples.size());
+      assertTrue(profile.strings.contains("com.Outer.run"));
+      assertTrue(profile.strings.contains("com.Outer$Inner"));
+      assertTrue(profile.strings.contains("com/Outer.java"));
+    } finally {
+      ProbeRegistry.reset();
+      deleteRecursive(root.toFile());
+    }
+  }
+
   @Test
   void testRegenerateReportVariations() throws Exception {
     Path tempDir = Files.createTempDirectory("hotpath-regen");
@@ -156,6 +315,71 @@ class ReportGeneratorTest {
     }
   }
 
+  @Test
+  void testCounterDumpRendersAgainstSourcePath() throws Exception {
+    Path root = Files.createTempDirectory("counter-dump");
+    try {
+      Path source = root.resolve("src/com/app/Hot.java");
+      Files.createDirectories(source.getParent());
+      Files.writeString(source, "class Hot {}");
+      ExecutionCountStore.reset();
+      ExecutionCountStore.recordExecution("com.app.Hot", 3);
+      ExecutionCountStore.recordExecution("com.app.Hot", 3);
+      ExecutionCountStore.recordExecution("com.app.Hot$Inner", 7);
+
+      Path dump = ReportGenerator.writeCounterDump(root.resolve("out/report.html").toString());
+      assertEquals("report.counters.json", dump.getFileName().toString());
+      ExecutionCountStore.reset();
+
+      ReportGenerator.ReportPayload payload =
+          ReportGenerator.readCounterDump(dump, root.resolve("src").toString());
+      ReportGenerator.FileData hot =
+          payload.files.stream()
+              .filter(f -> f.getPath().equals("com/app/Hot.java"))
+              .findFirst()
+              .orElseThrow();
+      assertEquals(Map.of(3, 2L, 7, 1L), hot.getCounts());
+      assertEquals("class Hot {}", hot.getContent());
+
+      Path html = root.resolve("rendered/report.html");
+      ReportGenerator.regenerateReport(
+          dump.toString(), html.toString(), root.resolve("src").toString(), null);
+      assertTrue(Files.readString(html).contains("com/app/Hot.java"));
+    } finally {
+      ExecutionCountStore.reset();
+      deleteRecursive(root.toFile());
+    }
+  }
+
+  @Test
+  void testCounterDumpKeepsTheRecordedSourceFiles() throws Exception {
+    Path root = Files.createTempDirectory("counter-dump-sources");
+    try {
+      Path source = root.resolve("src/com/app/Main.java");
+      Files.createDirectories(source.getParent());
+      Files.writeString(source, "class Main {}\nclass Helper {}");
+      ExecutionCountStore.reset();
+      ProbeRegistry.registerSource("com.app.Helper", "Main.java");
+      ExecutionCountStore.recordExecution("com.app.Helper", 2);
+
+      Path dump = ReportGenerator.writeCounterDump(root.resolve("out/report.html").toString());
+      // Rendered by a JVM that never loaded the class.
+      ExecutionCountStore.reset();
+      ProbeRegistry.reset();
+
+      ReportGenerator.ReportPayload payload =
+          ReportGenerator.readCounterDump(dump, root.resolve("src").toString());
+      assertEquals(1, payload.files.size());
+      assertEquals("com/app/Main.java", payload.files.get(0).getPath());
+      assertEquals(Map.of(2, 1L), payload.files.get(0).getCounts());
+      assertEquals("class Main {}\nclass Helper {}", payload.files.get(0).getContent());
+    } finally {
+      ExecutionCountStore.reset();
+      ProbeRegistry.reset();
+      deleteRecursive(root.toFile());
+    }
+  }
+
   @Test
   void testSourceRootParsingAndProjectDerivation() throws Exception {
     Path root = Files.createTempDirectory("project-root");
@@ -163,13 +387,13 @@ class ReportGeneratorTest {
     Files.createDirectories(src);
 
     try {
-      List<ReportGenerator.FileData> data = ReportGenerator.collectData(src.toString(), true);
+      List<ReportGenerator.FileData> data = modelFiles(src.toString());
       assertNotNull(data);
 
       // Test empty/invalid paths
-      assertTrue(ReportGenerator.collectData(null, false).isEmpty());
-      assertTrue(ReportGenerator.collectData("  ", false).isEmpty());
-      assertTrue(ReportGenerator.collectData("/non/existent/path/at/all", false).isEmpty());
+      assertTrue(modelFiles(null).isEmpty());
+      assertTrue(modelFiles("  ").isEmpty());
+      assertTrue(modelFiles("/non/existent/path/at/all").isEmpty());
     } finally {
       deleteRecursive(root.toFile());
     }
@@ -182,7 +406,7 @@ class ReportGeneratorTest {
     ExecutionCountStore.recordExecution("com.app.Service$Inner", 20);
 
     // Should merge into Service.java
-    List<ReportGenerator.FileData> data = ReportGenerator.collectData("", false);
+    List<ReportGenerator.FileData> data = modelFiles("");
     ReportGenerator.FileData serviceFile =
         data.stream()
             .filter(f -> "com/app/Service.java".equals(f.getPath()))
@@ -202,7 +426,7 @@ class ReportGeneratorTest {
     Path java = other.resolve("App.java");
     Files.writeString(java, "public class App {}");
 
-    List<ReportGenerator.FileData> data = ReportGenerator.collectData(other.toString(), false);
+    List<ReportGenerator.FileData> data = modelFiles(other.toString());
     assertFalse(data.isEmpty());
     // derivator should fall back to the last segment of the path if src/target not found
     assertEquals("other", data.get(0).getProject());
@@ -210,6 +434,42 @@ class ReportGeneratorTest {
     deleteRecursive(root.toFile());
   }
 
+  @Test
+  void testIncrementalCollectTracksCountChanges() throws Exception {
+    Path root = Files.createTempDirectory("incremental");
+    try {
+      Path hot = root.resolve("com/app/Hot.java");
+      Path cold = root.resolve("com/app/Cold.java");
+      Files.createDirectories(hot.getParent());
+      Files.writeString(hot, "class Hot {}");
+      Files.writeString(cold, "class Cold {}");
+
+      ExecutionCountStore.recordExecution("com.app.Hot", 3);
+      List<ReportGenerator.FileData> first = modelFiles(root.toString());
+      assertEquals(2, first.size());
+      assertEquals(1L, first.get(1).getCounts().get(3));
+
+      ExecutionCountStore.recordExecution("com.app.Hot", 3);
+      ExecutionCountStore.recordExecution("com.app.Missing", 7);
+      List<ReportGenerator.FileData> second = modelFiles(root.toString());
+      assertEquals(3, second.size());
+      ReportGenerator.FileData hotData =
+          second.stream()
+              .filter(f -> "com/app/Hot.java".equals(f.getPath()))
+              .findFirst()
+              .orElseThrow();
+      assertEquals(2L, hotData.getCounts().get(3));
+
+      // Counted classes without sources disappear again once their counters are gone.
+      ExecutionCountStore.reset();
+      List<ReportGenerator.FileData> third = modelFiles(root.toString());
+      assertEquals(2, third.size());
+      assertTrue(third.stream().allMatch(f -> f.getCounts().isEmpty()));
+    } finally {
+      deleteRecursive(root.toFile());
+    }
+  }
+
   private void deleteRecursive(File file) {
     File[] children = file.listFiles();
     if (children != null) {
@@ -219,4 +479,11 @@ class ReportGeneratorTest {
     }
     file.delete();
   }
+
+  /** The files of the report on {@code sourcePath} for the store's current counts. */
+  private static List<ReportGenerator.FileData> modelFiles(String sourcePath) {
+    ReportModel model = ReportModel.forSourcePath(sourcePath);
+    model.update(ExecutionCountStore.getAllCountersSnapshot());
+    return model.files();
+  }
 }
@@ -0,0 +1,111 @@
+package io.github.sfkamath.jvmhotpath;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+
+class ReportWriterTest {
+
+  @Test
+  void testWritesEveryTargetInOnePass() throws IOException {
+    Path dir = Files.createTempDirectory("writer");
+    try {
+      Path json = dir.resolve("data.json");
+      Path jsonp = dir.resolve("data.js");
+      try (ReportWriter writer =
+          new ReportWriter(
+              List.of(
+                  new ReportWriter.Target(json, "", ""),
+                  new ReportWriter.Target(jsonp, "load(", ");")))) {
+        JsonGenerator gen = writer.generator();
+        gen.writeStartObject();
+        gen.writeStringField("content", "if (a < b && c > d) {} </script>");
+        gen.writeEndObject();
+        writer.commit();
+      }
+
+      String written = Files.readString(json);
+      assertEquals("load(" + written + ");", Files.readString(jsonp));
+      // Safe to embed in a script tag, and still the same JSON.
+      assertFalse(written.contains("</script>"));
+      assertEquals(
+          "if (a < b && c > d) {} </script>",
+          new ObjectMapper().readTree(written).get("content").asText());
+      assertEquals(2, listing(dir));
+    } finally {
+      deleteRecursive(dir.toFile());
+    }
+  }
+
+  @Test
+  void testUncommittedWriteLeavesPreviousFile() throws IOException {
+    Path dir = Files.createTempDirectory("writer-abort");
+    try {
+      Path json = dir.resolve("data.json");
+      Files.writeString(json, "{\"old\":true}");
+      try (ReportWriter writer = new ReportWriter(List.of(new ReportWriter.Target(json, "", "")))) {
+        writer.generator().writeStartObject();
+        writer.generator().writeStringField("half", "written");
+      }
+
+      assertEquals("{\"old\":true}", Files.readString(json));
+      assertEquals(1, listing(dir));
+    } finally {
+      deleteRecursive(dir.toFile());
+    }
+  }
+
+  @Test
+  void testContentHashNamesTarget() throws IOException {
+    Path dir = Files.createTempDirectory("writer-hash");
+    try {
+      String first = writeHashed(dir, "same");
+      String second = writeHashed(dir, "same");
+      String third = writeHashed(dir, "different");
+
+      assertEquals(16, first.length());
+      assertEquals(first, second);
+      assertNotEquals(first, third);
+      assertTrue(Files.exists(dir.resolve(first + ".json")));
+      assertTrue(Files.exists(dir.resolve(third + ".json")));
+    } finally {
+      deleteRecursive(dir.toFile());
+    }
+  }
+
+  private static String writeHashed(Path dir, String value) throws IOException {
+    try (ReportWriter writer =
+        new ReportWriter(List.of(new ReportWriter.Target(dir.resolve("pending"), "", "")))) {
+      writer.generator().writeStartObject();
+      writer.generator().writeStringField("value", value);
+      String hash = writer.contentHash();
+      writer.generator().writeEndObject();
+      writer.commit(List.of(dir.resolve(hash + ".json")));
+      return hash;
+    }
+  }
+
+  private static long listing(Path dir) throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.count();
+    }
+  }
+
+  private void deleteRecursive(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursive(child);
+      }
+    }
+    file.delete();
+  }
+}
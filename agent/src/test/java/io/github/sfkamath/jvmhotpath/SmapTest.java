@@ -0,0 +1,77 @@
+package io.github.sfkamath.jvmhotpath;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class SmapTest {
+
+  // As written by kotlinc for Main.kt calling an inline function from Util.kt.
+  private static final String KOTLIN =
+      "SMAP\n"
+          + "Main.kt\n"
+          + "Kotlin\n"
+          + "*S Kotlin\n"
+          + "*F\n"
+          + "+ 1 Main.kt\n"
+          + "com/app/MainKt\n"
+          + "+ 2 Util.kt\n"
+          + "com/app/util/UtilKt\n"
+          + "*L\n"
+          + "1#1,10:1\n"
+          + "4#2,3:11\n"
+          + "*E\n"
+          + "*S KotlinDebug\n"
+          + "*F\n"
+          + "+ 1 Main.kt\n"
+          + "com/app/MainKt\n"
+          + "*L\n"
+          + "5#1:11\n"
+          + "*E\n";
+
+  @Test
+  void testMapsLinesOfDefaultStratum() {
+    Smap smap = Smap.parse(KOTLIN, "com/app/");
+
+    Smap.Location own = smap.map(7);
+    assertEquals("com/app/Main.kt", own.path);
+    assertEquals(7, own.line);
+
+    Smap.Location inlined = smap.map(12);
+    assertEquals("com/app/util/Util.kt", inlined.path);
+    assertEquals(5, inlined.line);
+
+    assertNull(smap.map(14));
+  }
+
+  @Test
+  void testRepeatCountAndIncrementWithInheritedFileId() {
+    String debug =
+        "SMAP\n"
+            + "page_jsp.java\n"
+            + "JSP\n"
+            + "*S JSP\n"
+            + "*F\n"
+            + "1 page.jsp\n"
+            + "*L\n"
+            + "3#1,2:40,3\n"
+            + "9:60\n"
+            + "*E\n";
+    Smap smap = Smap.parse(debug, "web/");
+
+    assertEquals(3, smap.map(40).line);
+    assertEquals(3, smap.map(42).line);
+    assertEquals(4, smap.map(43).line);
+    assertEquals(4, smap.map(45).line);
+    assertNull(smap.map(46));
+    assertEquals("web/page.jsp", smap.map(60).path);
+    assertEquals(9, smap.map(60).line);
+  }
+
+  @Test
+  void testIgnoresOtherDebugExtensions() {
+    assertNull(Smap.parse(null, ""));
+    assertNull(Smap.parse("not a source map", ""));
+    assertNull(Smap.parse("SMAP\nA.kt\nKotlin\n*S Kotlin\n*F\n1 A.kt\n*E\n", ""));
+  }
+}
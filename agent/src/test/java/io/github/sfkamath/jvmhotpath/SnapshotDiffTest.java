@@ -0,0 +1,135 @@
+package io.github.sfkamath.jvmhotpath;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class SnapshotDiffTest {
+
+  @Test
+  void testNormalizesByTotalAndRanksGrowth() throws IOException {
+    Path dir = Files.createTempDirectory("diff");
+    try {
+      // Head ran twice the workload: everything doubles, except line 7, which went quadratic.
+      Path base = write(dir, "base.json", Map.of(1, 10L, 3, 100L, 7, 10L), Map.of(2, 5L));
+      Path head = write(dir, "head.hps", Map.of(1, 20L, 3, 200L, 7, 200L), Map.of(2, 10L, 4, 6L));
+
+      SnapshotDiff.Options options = new SnapshotDiff.Options();
+      options.normalize = "none";
+      options.ratio = 1.5;
+      options.minCount = 0;
+      options.includeNew = true;
+      SnapshotDiff.Result raw = SnapshotDiff.diff(base, head, options, false);
+      assertEquals(5, raw.regressions.size());
+      assertEquals(1.0, raw.scale);
+
+      options.normalize = "marker:com/app/Main.java:1";
+      SnapshotDiff.Result result = SnapshotDiff.diff(base, head, options, false);
+      assertEquals(0.5, result.scale, 1e-9);
+      assertEquals(2, result.regressions.size());
+      SnapshotDiff.Regression worst = result.regressions.get(0);
+      assertEquals("com/app/Main.java", worst.path);
+      assertEquals(7, worst.line);
+      assertEquals(90.0, worst.delta, 1e-9);
+      assertEquals(10.0, worst.ratio, 1e-9);
+      // A line the base never ran is reported as new.
+      assertEquals(4, result.regressions.get(1).line);
+      assertTrue(Double.isInfinite(result.regressions.get(1).ratio));
+      assertNull(result.report);
+
+      ByteArrayOutputStream markdown = new ByteArrayOutputStream();
+      SnapshotDiff.writeMarkdown(result, markdown);
+      String md = markdown.toString(StandardCharsets.UTF_8);
+      assertTrue(md.contains("| `com/app/Main.java` | 7 | 10 | 100 | +90 | 10.00x |"), md);
+      assertTrue(md.contains("| `com/app/Util.java` | 4 | 0 | 3 | +3 | new |"), md);
+    } finally {
+      deleteRecursive(dir.toFile());
+    }
+  }
+
+  @Test
+  void testRareAndNewLinesAreLeftOutByDefault() throws IOException {
+    Path dir = Files.createTempDirectory("diff-floor");
+    try {
+      Path base = write(dir, "base.json", Map.of(1, 1L, 3, 1000L), Map.of(2, 5L));
+      Path head = write(dir, "head.json", Map.of(1, 2L, 3, 3000L), Map.of(2, 5L, 4, 500L));
+
+      SnapshotDiff.Options options = new SnapshotDiff.Options();
+      options.normalize = "none";
+      SnapshotDiff.Result result = SnapshotDiff.diff(base, head, options, false);
+      assertEquals(1, result.regressions.size());
+      assertEquals(3, result.regressions.get(0).line);
+
+      options.includeNew = true;
+      result = SnapshotDiff.diff(base, head, options, false);
+      assertEquals(2, result.regressions.size());
+      assertEquals(4, result.regressions.get(1).line);
+
+      options.minCount = 0;
+      assertEquals(3, SnapshotDiff.diff(base, head, options, false).regressions.size());
+    } finally {
+      deleteRecursive(dir.toFile());
+    }
+  }
+
+  @Test
+  void testMinDeltaAndHtmlBaseline() throws IOException {
+    Path dir = Files.createTempDirectory("diff-html");
+    try {
+      Path base = write(dir, "base.json", Map.of(1, 1000L), Map.of(2, 10L));
+      Path head = write(dir, "head.json", Map.of(1, 1500L), Map.of(2, 10L));
+
+      SnapshotDiff.Options options = new SnapshotDiff.Options();
+      options.normalize = "none";
+      assertTrue(SnapshotDiff.diff(base, head, options, false).regressions.isEmpty());
+
+      options.minDelta = 100;
+      SnapshotDiff.Result result = SnapshotDiff.diff(base, head, options, true);
+      assertEquals(1, result.regressions.size());
+      assertEquals(500.0, result.regressions.get(0).delta, 1e-9);
+      assertEquals(Map.of(1, 1000L), result.report.baseline.get("app/com/app/Main.java"));
+      assertEquals("class Main {}", result.report.files.get(0).getContent());
+
+      options.normalize = "marker:Missing.java:1";
+      assertThrows(IOException.class, () -> SnapshotDiff.diff(base, head, options, false));
+    } finally {
+      deleteRecursive(dir.toFile());
+    }
+  }
+
+  private static Path write(Path dir, String name, Map<Integer, Long> main, Map<Integer, Long> util)
+      throws IOException {
+    Path file = dir.resolve(name);
+    ReportGenerator.ReportPayload payload =
+        new ReportGenerator.ReportPayload(
+            1L,
+            List.of(
+                new ReportGenerator.FileData("com/app/Main.java", main, "class Main {}", "app"),
+                new ReportGenerator.FileData("com/app/Util.java", util, "class Util {}", "app")));
+    if (name.endsWith(SnapshotFormat.EXTENSION)) {
+      SnapshotFormat.write(file, payload, SnapshotFormat.FLAG_CONTENT);
+    } else {
+      new ObjectMapper().writeValue(file.toFile(), payload);
+    }
+    return file;
+  }
+
+  private void deleteRecursive(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursive(child);
+      }
+    }
+    file.delete();
+  }
+}
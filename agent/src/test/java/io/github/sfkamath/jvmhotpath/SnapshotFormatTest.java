@@ -0,0 +1,96 @@
+package io.github.sfkamath.jvmhotpath;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class SnapshotFormatTest {
+
+  @Test
+  void testRoundTrip() throws IOException {
+    List<ReportGenerator.FileData> files =
+        List.of(
+            new ReportGenerator.FileData(
+                "com/app/Main.java", Map.of(1, 1L, 7, 300L, 42, 5_000_000_000L), "ünïcode", "app"),
+            new ReportGenerator.FileData("Root.java", Map.of(), null, "other"));
+    ReportGenerator.ReportPayload payload = new ReportGenerator.ReportPayload(1234L, files);
+
+    for (int flags = 0; flags < 4; flags++) {
+      ReportGenerator.ReportPayload read = readBack(encode(payload, flags));
+      boolean withContent = (flags & SnapshotFormat.FLAG_CONTENT) != 0;
+
+      assertEquals(1234L, read.generatedAt);
+      assertEquals(2, read.files.size());
+      ReportGenerator.FileData main = read.files.get(0);
+      assertEquals("com/app/Main.java", main.getPath());
+      assertEquals("app", main.getProject());
+      assertEquals(Map.of(1, 1L, 7, 300L, 42, 5_000_000_000L), main.getCounts());
+      assertEquals(withContent ? "ünïcode" : null, main.getContent());
+      assertEquals("Root.java", read.files.get(1).getPath());
+      assertNull(read.files.get(1).getContent());
+    }
+  }
+
+  @Test
+  void testRejectsForeignFiles() throws IOException {
+    Path json = Files.createTempFile("payload", ".json");
+    try {
+      Files.writeString(json, "{\"files\":[]}");
+      assertFalse(SnapshotFormat.isSnapshot(json));
+      assertThrows(IOException.class, () -> SnapshotFormat.read(json));
+    } finally {
+      Files.deleteIfExists(json);
+    }
+  }
+
+  @Test
+  void testManyFilesRoundTripSmallerThanJson() throws IOException {
+    List<ReportGenerator.FileData> files = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      Map<Integer, Long> counts = new HashMap<>();
+      for (int line = 10; line < 40; line += 3) {
+        counts.put(line, (long) (i % 97) * line);
+      }
+      files.add(
+          new ReportGenerator.FileData(
+              "com/example/module" + (i % 50) + "/Type" + i + ".java", counts, null, "app"));
+    }
+    ReportGenerator.ReportPayload payload = new ReportGenerator.ReportPayload(1L, files);
+
+    byte[] json = new ObjectMapper().writeValueAsBytes(payload);
+    byte[] raw = encode(payload, 0);
+    byte[] deflated = encode(payload, SnapshotFormat.FLAG_DEFLATE);
+    assertTrue(raw.length * 3 < json.length, raw.length + " vs " + json.length);
+    assertTrue(deflated.length < raw.length);
+
+    for (byte[] encoded : List.of(raw, deflated)) {
+      List<ReportGenerator.FileData> read = readBack(encoded).files;
+      assertEquals(files.size(), read.size());
+      for (int i = 0; i < files.size(); i++) {
+        assertEquals(files.get(i).getPath(), read.get(i).getPath());
+        assertEquals(files.get(i).getCounts(), read.get(i).getCounts());
+      }
+    }
+  }
+
+  private static byte[] encode(ReportGenerator.ReportPayload payload, int flags)
+      throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SnapshotFormat.write(out, payload, flags);
+    return out.toByteArray();
+  }
+
+  private static ReportGenerator.ReportPayload readBack(byte[] bytes) throws IOException {
+    return SnapshotFormat.read(new ByteArrayInputStream(bytes));
+  }
+}
@@ -0,0 +1,173 @@
+package io.github.sfkamath.jvmhotpath;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class SnapshotMergerTest {
+
+  @Test
+  void testSumsCountsAcrossLayouts() throws IOException {
+    Path dir = Files.createTempDirectory("merge");
+    try {
+      Files.writeString(
+          dir.resolve("a.json"),
+          "{\"generatedAt\":100,\"files\":["
+              + "{\"path\":\"com/app/Main.java\",\"project\":\"app\",\"counts\":{\"3\":2},"
+              + "\"content\":\"// Source file not found: com/app/Main.java\"}]}");
+      Files.writeString(
+          dir.resolve("b.json"),
+          "[{\"path\":\"com/app/Main.java\",\"project\":\"app\",\"counts\":{\"3\":5,\"9\":1},"
+              + "\"content\":\"class Main {}\"}]");
+      SnapshotFormat.write(
+          dir.resolve("c.hps"),
+          new ReportGenerator.ReportPayload(
+              300L,
+              List.of(
+                  new ReportGenerator.FileData(
+                      "com/app/Main.java", Map.of(9, 4L), "class Main {}", "app"),
+                  new ReportGenerator.FileData(
+                      "com/app/Other.java", Map.of(1, 1L), "class Other {}", "other"))),
+          SnapshotFormat.FLAG_CONTENT | SnapshotFormat.FLAG_DEFLATE);
+      // Tables referenced by split payloads are not snapshots of their own.
+      Files.writeString(dir.resolve("report.sources-0123456789abcdef.json"), "{\"files\":[]}");
+      Files.writeString(dir.resolve("report.tests.json"), "{\"tests\":[],\"lines\":[]}");
+
+      List<Path> inputs = SnapshotMerger.expandInputs(List.of(dir.toString()));
+      assertEquals(3, inputs.size());
+
+      ReportGenerator.ReportPayload merged = SnapshotMerger.merge(inputs, 3);
+      assertEquals(300L, merged.generatedAt);
+      assertEquals(2, merged.files.size());
+      ReportGenerator.FileData main = merged.files.get(0);
+      assertEquals("com/app/Main.java", main.getPath());
+      assertEquals(Map.of(3, 7L, 9, 5L), main.getCounts());
+      // The real source wins over the placeholder even though the placeholder came first.
+      assertEquals("class Main {}", main.getContent());
+      assertEquals("other", merged.files.get(1).getProject());
+    } finally {
+      deleteRecursive(dir.toFile());
+    }
+  }
+
+  @Test
+  void testManySnapshotsShareSourceText() throws IOException {
+    Path dir = Files.createTempDirectory("merge-many");
+    try {
+      List<Path> inputs = new ArrayList<>();
+      for (int i = 0; i < 40; i++) {
+        Path input = dir.resolve("replica-" + i + ".hps");
+        SnapshotFormat.write(
+            input,
+            new ReportGenerator.ReportPayload(
+                i,
+                List.of(
+                    new ReportGenerator.FileData(
+                        "Hot.java", Map.of(1, 1L, 2, (long) i), "class Hot {}", "svc"))),
+            SnapshotFormat.FLAG_CONTENT);
+        inputs.add(input);
+      }
+
+      ReportGenerator.ReportPayload merged = SnapshotMerger.merge(inputs, 8);
+      assertEquals(1, merged.files.size());
+      assertEquals(40L, merged.files.get(0).getCounts().get(1));
+      assertEquals(780L, merged.files.get(0).getCounts().get(2));
+      assertEquals(39L, merged.generatedAt);
+    } finally {
+      deleteRecursive(dir.toFile());
+    }
+  }
+
+  @Test
+  void testFilesAreResolvedAgainstTheSourceRootsOfAllModules() throws IOException {
+    Path dir = Files.createTempDirectory("merge-modules");
+    try {
+      Path coreRoot = dir.resolve("core/src/main/java");
+      Path webRoot = dir.resolve("web/src/main/java");
+      Files.createDirectories(coreRoot.resolve("com/app"));
+      Files.createDirectories(webRoot.resolve("com/app/web"));
+      Files.writeString(coreRoot.resolve("com/app/Util.java"), "class Util {}");
+      Files.writeString(coreRoot.resolve("com/app/Codec.java"), "class Codec {}");
+      Files.writeString(webRoot.resolve("com/app/web/Page.java"), "class Page {}");
+
+      // core's own tests only ran Util; web's tests ran Util and Codec without their sources.
+      Path core = dir.resolve("core.hps");
+      SnapshotFormat.write(
+          core,
+          new ReportGenerator.ReportPayload(
+              100L,
+              List.of(
+                  new ReportGenerator.FileData(
+                      "com/app/Util.java", Map.of(1, 2L), "class Util {}", "core"))),
+          SnapshotFormat.FLAG_CONTENT);
+      Path web = dir.resolve("web.hps");
+      SnapshotFormat.write(
+          web,
+          new ReportGenerator.ReportPayload(
+              200L,
+              List.of(
+                  new ReportGenerator.FileData(
+                      "com/app/Util.java",
+                      Map.of(1, 3L),
+                      ReportModel.MISSING_SOURCE + "com/app/Util.java",
+                      "web"),
+                  new ReportGenerator.FileData(
+                      "com/app/Codec.java",
+                      Map.of(1, 1L),
+                      ReportModel.MISSING_SOURCE + "com/app/Codec.java",
+                      "web"),
+                  new ReportGenerator.FileData(
+                      "com/app/web/Page.java", Map.of(1, 4L), "class Page {}", "web"))),
+          SnapshotFormat.FLAG_CONTENT);
+
+      ReportGenerator.ReportPayload merged =
+          SnapshotMerger.merge(List.of(core, web), coreRoot + File.pathSeparator + webRoot, 2);
+      assertEquals(3, merged.files.size());
+      ReportGenerator.FileData codec = merged.files.get(0);
+      assertEquals("com/app/Codec.java", codec.getPath());
+      assertEquals("core", codec.getProject());
+      assertEquals("class Codec {}", codec.getContent());
+      ReportGenerator.FileData util = merged.files.get(1);
+      assertEquals("core", util.getProject());
+      assertEquals(Map.of(1, 5L), util.getCounts());
+      assertEquals("class Util {}", util.getContent());
+      assertEquals("web", merged.files.get(2).getProject());
+    } finally {
+      deleteRecursive(dir.toFile());
+    }
+  }
+
+  @Test
+  void testReportsUnreadableInput() throws IOException {
+    Path dir = Files.createTempDirectory("merge-bad");
+    try {
+      Path broken = dir.resolve("broken.json");
+      Files.writeString(broken, "{\"files\":[{\"path\":");
+      IOException error =
+          assertThrows(IOException.class, () -> SnapshotMerger.merge(List.of(broken), 2));
+      assertTrue(error.getMessage().contains("broken.json"));
+      assertThrows(
+          IOException.class,
+          () -> SnapshotMerger.expandInputs(List.of(dir.resolve("missing").toString())));
+    } finally {
+      deleteRecursive(dir.toFile());
+    }
+  }
+
+  private void deleteRecursive(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursive(child);
+      }
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,163 @@
+package io.github.sfkamath.jvmhotpath;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.Test;
+
+class SourceIndexTest {
+
+  @Test
+  void testDirectLookupAcrossRoots() throws Exception {
+    Path root1 = Files.createTempDirectory("index1");
+    Path root2 = Files.createTempDirectory("index2");
+    try {
+      write(root2.resolve("org/test/Service.java"), "package org.test;");
+
+      try (SourceIndex index = SourceIndex.build(root1 + File.pathSeparator + root2)) {
+        SourceIndex.Hit hit = index.find("org.test.Service");
+        assertNotNull(hit);
+        assertEquals("org/test/Service.java", hit.relativePath);
+        assertEquals(root2.resolve("org/test/Service.java"), hit.file);
+        assertNull(index.find("org.test.Unknown"));
+      }
+    } finally {
+      deleteRecursive(root1.toFile());
+      deleteRecursive(root2.toFile());
+    }
+  }
+
+  @Test
+  void testDuplicateSimpleNamesPreferMatchingPackage() throws Exception {
+    Path root = Files.createTempDirectory("dupes");
+    try {
+      write(root.resolve("alpha/util/Helper.java"), "package com.alpha.util;");
+      write(root.resolve("beta/util/Helper.java"), "package com.beta.util;");
+      write(root.resolve("misplaced/a/Config.java"), "package com.one;");
+      write(root.resolve("misplaced/b/Config.java"), "package com.two;");
+
+      try (SourceIndex index = SourceIndex.build(root.toString())) {
+        assertEquals("beta/util/Helper.java", index.find("com.beta.util.Helper").relativePath);
+        assertEquals("alpha/util/Helper.java", index.find("com.alpha.util.Helper").relativePath);
+        // Directory layout does not match either package; the package declaration decides.
+        assertEquals("misplaced/b/Config.java", index.find("com.two.Config").relativePath);
+        assertEquals("misplaced/a/Config.java", index.find("com.one.Config").relativePath);
+      }
+    } finally {
+      deleteRecursive(root.toFile());
+    }
+  }
+
+  @Test
+  void testWatcherPicksUpNewFiles() throws Exception {
+    Path root = Files.createTempDirectory("watched");
+    try {
+      write(root.resolve("com/app/Existing.java"), "class Existing {}");
+
+      try (SourceIndex index = SourceIndex.build(root.toString())) {
+        index.watch();
+        long before = index.generation();
+        write(root.resolve("com/app/feature/Added.java"), "class Added {}");
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (index.find("com.app.feature.Added") == null
+            && System.currentTimeMillis() < deadline) {
+          Thread.sleep(50);
+        }
+        assertNotNull(index.find("com.app.feature.Added"));
+        assertTrue(index.generation() > before);
+        assertEquals(2, index.files().size());
+      }
+    } finally {
+      deleteRecursive(root.toFile());
+    }
+  }
+
+  @Test
+  void testArchiveRootsResolveLazily() throws Exception {
+    Path dir = Files.createTempDirectory("archive");
+    Path jar = dir.resolve("shared-library-1.0.0-sources.jar");
+    try {
+      try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(jar))) {
+        zip.putNextEntry(new ZipEntry("com/lib/Util.java"));
+        zip.write("package com.lib; class Util {}".getBytes(StandardCharsets.UTF_8));
+        zip.putNextEntry(new ZipEntry("com/lib/Unused.java"));
+        zip.write("package com.lib; class Unused {}".getBytes(StandardCharsets.UTF_8));
+        zip.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+        zip.write("Manifest-Version: 1.0\n".getBytes(StandardCharsets.UTF_8));
+      }
+
+      try (SourceIndex index = SourceIndex.build(jar.toString())) {
+        SourceIndex.Hit hit = index.find("com.lib.Util");
+        assertNotNull(hit);
+        assertEquals("shared-library-1.0.0", hit.project);
+        assertEquals("com/lib/Util.java", hit.relativePath);
+        assertEquals("package com.lib; class Util {}", Files.readString(hit.file));
+        // Archive entries only join the report once a class in them is counted.
+        assertTrue(index.files().isEmpty());
+      }
+
+      ExecutionCountStore.reset();
+      ExecutionCountStore.recordExecution("com.lib.Util", 1);
+      ReportModel model = ReportModel.forSourcePath(jar.toString());
+      model.update(ExecutionCountStore.getAllCountersSnapshot());
+      List<ReportGenerator.FileData> files = model.files();
+      assertEquals(1, files.size());
+      assertEquals("com/lib/Util.java", files.get(0).getPath());
+      assertEquals("package com.lib; class Util {}", files.get(0).getContent());
+    } finally {
+      ExecutionCountStore.reset();
+      ReportModel.forSourcePath("");
+      deleteRecursive(dir.toFile());
+    }
+  }
+
+  @Test
+  void testIndexesKotlinAndGroovySources() throws Exception {
+    Path root = Files.createTempDirectory("polyglot");
+    try {
+      write(root.resolve("com/app/Main.kt"), "package com.app");
+      write(root.resolve("com/app/Build.groovy"), "package com.app");
+      write(root.resolve("com/app/notes.txt"), "not source");
+      write(root.resolve("web/page.jsp"), "<html/>");
+
+      try (SourceIndex index = SourceIndex.build(root.toString())) {
+        assertEquals(2, index.files().size());
+        assertEquals("com/app/Main.kt", index.findFile("com/app/Main.kt").relativePath);
+        assertEquals("com/app/Build.groovy", index.findFile("com/app/Build.groovy").relativePath);
+        // Files an SMAP points to are found at their exact path without being indexed.
+        assertEquals(root.resolve("web/page.jsp"), index.findFile("web/page.jsp").file);
+        assertNull(index.findFile("web/missing.jsp"));
+      }
+    } finally {
+      deleteRecursive(root.toFile());
+    }
+  }
+
+  @Test
+  void testArchiveProjectName() {
+    assertEquals("lib-2.1", SourceIndex.archiveProjectName(Path.of("lib-2.1-sources.jar")));
+    assertEquals("bundle", SourceIndex.archiveProjectName(Path.of("bundle.zip")));
+  }
+
+  private static void write(Path file, String content) throws Exception {
+    Files.createDirectories(file.getParent());
+    Files.writeString(file, content);
+  }
+
+  private void deleteRecursive(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursive(child);
+      }
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,185 @@
+package io.github.sfkamath.jvmhotpath;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TestAttributionTest {
+
+  private int slab;
+  private int hot;
+  private int cold;
+  private int nested;
+
+  @BeforeEach
+  void setUp() {
+    ExecutionCountStore.reset();
+    ProbeRegistry.reset();
+    ExecutionCountStore.SlabBuilder builder = ExecutionCountStore.newSlab(null);
+    hot = builder.probe("com.app.Parser", 10);
+    cold = builder.probe("com.app.Parser", 11);
+    nested = builder.probe("com.app.Parser$Token", 10);
+    builder.seal();
+    slab = builder.id();
+  }
+
+  @AfterEach
+  void tearDown() {
+    TestAttribution.reset();
+  }
+
+  @Test
+  void testCountsGoToTheRunningTest() {
+    TestAttribution.enable(TestAttribution.DEFAULT_TESTS_PER_LINE);
+    run(5, hot);
+    TestAttribution.testStarted("com.app.ParserTest#big", "com.app.ParserTest#big");
+    run(100, hot);
+    run(1, cold);
+    TestAttribution.testFinished("com.app.ParserTest#big");
+    TestAttribution.testStarted("com.app.ParserTest#small", "com.app.ParserTest#small");
+    run(3, hot);
+    TestAttribution.testFinished("com.app.ParserTest#small");
+    run(7, hot);
+
+    assertEquals(115, ExecutionCountStore.getCount("com.app.Parser", 10));
+    assertEquals(101, TestAttribution.executions("com.app.ParserTest#big"));
+    assertEquals(3, TestAttribution.executions("com.app.ParserTest#small"));
+    assertEquals(
+        List.of(
+            Map.entry("com.app.ParserTest#big", 100L), Map.entry("com.app.ParserTest#small", 3L)),
+        TestAttribution.testsAt("com/app/Parser.java", 10));
+  }
+
+  @Test
+  void testStoreReadsIncludeTheRunningTest() {
+    TestAttribution.enable(TestAttribution.DEFAULT_TESTS_PER_LINE);
+    run(2, hot);
+    TestAttribution.testStarted("t", "t");
+    run(3, hot);
+    // A class loaded while the test runs counts into the test from its first line on.
+    ExecutionCountStore.SlabBuilder builder = ExecutionCountStore.newSlab(null);
+    int late = builder.probe("com.app.Lexer", 4);
+    builder.seal();
+    ExecutionCountStore.recordExecution(builder.id(), late);
+
+    assertEquals(5, ExecutionCountStore.getCount("com.app.Parser", 10));
+    assertEquals(5L, ExecutionCountStore.getAllCountersSnapshot().get("com.app.Parser").get(10));
+    TestAttribution.testFinished("t");
+
+    assertEquals(5, ExecutionCountStore.getCount("com.app.Parser", 10));
+    assertEquals(1, ExecutionCountStore.getCount("com.app.Lexer", 4));
+    assertEquals(List.of(Map.entry("t", 1L)), TestAttribution.testsAt("com/app/Lexer.java", 4));
+    builder.discard();
+  }
+
+  @Test
+  void testNestedClassesAreMergedIntoTheirSourceFile() {
+    TestAttribution.enable(TestAttribution.DEFAULT_TESTS_PER_LINE);
+    TestAttribution.testStarted("t", "t");
+    run(2, hot);
+    run(3, nested);
+    TestAttribution.testFinished("t");
+
+    assertEquals(List.of(Map.entry("t", 5L)), TestAttribution.testsAt("com/app/Parser.java", 10));
+  }
+
+  @Test
+  void testOnlyTheBiggestContributorsAreKeptPerLine() {
+    TestAttribution.enable(2);
+    for (int i = 1; i <= 4; i++) {
+      TestAttribution.testStarted("t" + i, "t" + i);
+      run(i, hot);
+      TestAttribution.testFinished("t" + i);
+    }
+    // A test reported again under its id adds to its entry.
+    TestAttribution.testStarted("t3", "t3");
+    run(2, hot);
+    TestAttribution.testFinished("t3");
+
+    assertEquals(
+        List.of(Map.entry("t3", 5L), Map.entry("t4", 4L)),
+        TestAttribution.testsAt("com/app/Parser.java", 10));
+  }
+
+  @Test
+  void testOverlappingTestsAreNotAttributed() {
+    TestAttribution.enable(TestAttribution.DEFAULT_TESTS_PER_LINE);
+    TestAttribution.testStarted("a", "a");
+    run(1, hot);
+    TestAttribution.testStarted("b", "b");
+    run(10, hot);
+    TestAttribution.testFinished("b");
+    run(2, hot);
+    TestAttribution.testFinished("a");
+
+    assertEquals(3, TestAttribution.executions("a"));
+    assertEquals(0, TestAttribution.executions("b"));
+  }
+
+  @Test
+  void testInvocationsSharingALabelAreKeptApart() {
+    TestAttribution.enable(TestAttribution.DEFAULT_TESTS_PER_LINE);
+    for (int i = 1; i <= 2; i++) {
+      String id = "[test-template:parses(int)]/[test-template-invocation:#" + i + "]";
+      TestAttribution.testStarted(id, "com.app.ParserTest#parses");
+      run(i * 10, hot);
+      TestAttribution.testFinished(id);
+    }
+
+    assertEquals(
+        List.of(
+            Map.entry("[test-template:parses(int)]/[test-template-invocation:#2]", 20L),
+            Map.entry("[test-template:parses(int)]/[test-template-invocation:#1]", 10L)),
+        TestAttribution.testsAt("com/app/Parser.java", 10));
+  }
+
+  @Test
+  void testNothingIsAttributedUnlessEnabled() {
+    TestAttribution.testStarted("t", "t");
+    run(4, hot);
+    TestAttribution.testFinished("t");
+
+    assertFalse(TestAttribution.hasData());
+    assertEquals(4, ExecutionCountStore.getCount("com.app.Parser", 10));
+  }
+
+  @Test
+  void testJsonListsTestsAndHotLines() throws Exception {
+    TestAttribution.enable(TestAttribution.DEFAULT_TESTS_PER_LINE);
+    TestAttribution.testStarted("[method:a()]", "a");
+    run(8, hot);
+    run(1, cold);
+    TestAttribution.testFinished("[method:a()]");
+    TestAttribution.testStarted("[method:b()]", "b");
+    run(2, hot);
+    TestAttribution.testFinished("[method:b()]");
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    TestAttribution.writeJson(out, 42L);
+    JsonNode json = new ObjectMapper().readTree(out.toByteArray());
+
+    assertEquals(42L, json.get("generatedAt").asLong());
+    assertEquals("[method:a()]", json.get("tests").get(0).get("id").asText());
+    assertEquals("a", json.get("tests").get(0).get("test").asText());
+    assertEquals(9L, json.get("tests").get(0).get("executions").asLong());
+    JsonNode top = json.get("lines").get(0);
+    assertEquals("com/app/Parser.java", top.get("path").asText());
+    assertEquals(10, top.get("line").asInt());
+    assertEquals(10L, top.get("count").asLong());
+    assertEquals("b", top.get("tests").get(1).get("test").asText());
+    assertEquals(2, json.get("lines").size());
+  }
+
+  private void run(int times, int probe) {
+    for (int i = 0; i < times; i++) {
+      ExecutionCountStore.recordExecution(slab, probe);
+    }
+  }
+}
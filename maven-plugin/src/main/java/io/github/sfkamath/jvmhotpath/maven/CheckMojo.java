@@ -0,0 +1,87 @@
+package io.github.sfkamath.jvmhotpath.maven;
+
+import io.github.sfkamath.jvmhotpath.BudgetCheck;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Fails the build when the report written by the instrumented tests breaks an execution-count
+ * budget. Runs after the integration tests, so it sees the counts of both test phases.
+ */
+@Mojo(name = "check", defaultPhase = LifecyclePhase.VERIFY, threadSafe = true)
+public class CheckMojo extends AbstractMojo {
+
+  @Parameter(defaultValue = "${project}", readonly = true)
+  private MavenProject project;
+
+  /** Report data to check: the JSON next to the HTML report, or a {@code .hps} snapshot. */
+  @Parameter(
+      property = "jvm-hotpath.report",
+      defaultValue = "${project.build.directory}/execution-report.json")
+  private File report;
+
+  /**
+   * Budgets to enforce. Each rule has a {@code scope} (package or class, all files when omitted),
+   * an optional {@code method} of that class, and any of {@code maxLineCount}, {@code maxTotal}, or
+   * {@code baseline} with {@code maxGrowthPercent}.
+   */
+  @Parameter private List<BudgetCheck.Rule> rules;
+
+  /** Fail when the report is missing instead of only warning (e.g. with {@code -DskipTests}). */
+  @Parameter(property = "jvm-hotpath.check.failIfMissing", defaultValue = "false")
+  private boolean failIfMissing;
+
+  @Parameter(property = "jvm-hotpath.skip", defaultValue = "false")
+  private boolean skip;
+
+  @Override
+  public void execute() throws MojoExecutionException, MojoFailureException {
+    if (skip) {
+      getLog().info("JVM Hotpath is skipped.");
+      return;
+    }
+    if (rules == null || rules.isEmpty()) {
+      getLog().info("No JVM Hotpath budgets configured.");
+      return;
+    }
+    if (!report.isFile()) {
+      String message = "No JVM Hotpath report at " + report + "; were the tests run?";
+      if (failIfMissing) {
+        throw new MojoFailureException(message);
+      }
+      getLog().warn(message + " Skipping budget check.");
+      return;
+    }
+
+    List<Path> classDirs = new ArrayList<>();
+    classDirs.add(new File(project.getBuild().getOutputDirectory()).toPath());
+    classDirs.add(new File(project.getBuild().getTestOutputDirectory()).toPath());
+
+    List<String> violations;
+    try {
+      violations = BudgetCheck.check(report.toPath(), rules, classDirs);
+    } catch (IOException e) {
+      throw new MojoExecutionException("Could not check " + report + ": " + e.getMessage(), e);
+    }
+
+    if (violations.isEmpty()) {
+      getLog().info("JVM Hotpath: " + rules.size() + " budget rule(s) passed.");
+      return;
+    }
+    for (String violation : violations) {
+      getLog().error(violation);
+    }
+    throw new MojoFailureException(
+        "JVM Hotpath: " + violations.size() + " execution budget violation(s); see above.");
+  }
+}
@@ -65,6 +65,21 @@ public class PrepareAgentMojo extends AbstractMojo {
   @Parameter(property = "jvm-hotpath.sourcepath")
   private String sourcepath;
 
+  /**
+   * Port of a collector started with {@code --collect}. When set, the forked JVMs ship their counts
+   * to it instead of each writing the report to {@code output}.
+   */
+  @Parameter(property = "jvm-hotpath.collector", defaultValue = "-1")
+  private int collector;
+
+  /**
+   * Record which tests ran each hot line, written next to the report as {@code
+   * execution-report.tests.json}. The agent then registers a JUnit Platform listener, so this only
+   * applies to tests run by the JUnit Platform.
+   */
+  @Parameter(property = "jvm-hotpath.testAttribution", defaultValue = "true")
+  private boolean testAttribution;
+
   @Parameter(property = "jvm-hotpath.verbose", defaultValue = "false")
   private boolean verbose;
 
@@ -168,7 +183,12 @@ public class PrepareAgentMojo extends AbstractMojo {
       args.append("flushInterval=").append(flushInterval);
     }
 
-    if (output != null) {
+    if (collector >= 0) {
+      if (args.length() > 0) {
+        args.append(",");
+      }
+      args.append("collector=").append(collector);
+    } else if (output != null) {
       if (args.length() > 0) {
         args.append(",");
       }
@@ -183,6 +203,13 @@ public class PrepareAgentMojo extends AbstractMojo {
       args.append("sourcepath=").append(finalSourcepath);
     }
 
+    if (testAttribution) {
+      if (args.length() > 0) {
+        args.append(",");
+      }
+      args.append("testAttribution=true");
+    }
+
     if (verbose) {
       if (args.length() > 0) {
         args.append(",");
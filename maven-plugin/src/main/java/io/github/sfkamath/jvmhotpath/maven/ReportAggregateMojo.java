@@ -0,0 +1,119 @@
+package io.github.sfkamath.jvmhotpath.maven;
+
+import io.github.sfkamath.jvmhotpath.ReportGenerator;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Merges the reports every module of a multi-module build wrote into one report, grouped by module.
+ * Run it once after the reactor, e.g. {@code mvn verify jvm-hotpath:report-aggregate}.
+ *
+ * <p>Module reports are merged in parallel. Files a module's report has no source text for, e.g.
+ * classes of another module its tests ran, are resolved against the main and test source roots of
+ * all modules and counted on the module that owns them.
+ */
+@Mojo(
+    name = "report-aggregate",
+    defaultPhase = LifecyclePhase.VERIFY,
+    aggregator = true,
+    threadSafe = true)
+public class ReportAggregateMojo extends AbstractMojo {
+
+  @Parameter(defaultValue = "${reactorProjects}", readonly = true)
+  private List<MavenProject> reactorProjects;
+
+  /**
+   * Base name of the report each module wrote to its build directory. A module's {@code .hps}
+   * snapshot is read when it has one, else its {@code .json} data.
+   */
+  @Parameter(property = "jvm-hotpath.aggregate.reportName", defaultValue = "execution-report")
+  private String reportName;
+
+  /** Path to the aggregated HTML report. */
+  @Parameter(
+      property = "jvm-hotpath.aggregate.output",
+      defaultValue = "${project.build.directory}/jvm-hotpath-aggregate/execution-report.html")
+  private File output;
+
+  /** Threads merging module reports. Default is 0 (one per available processor). */
+  @Parameter(property = "jvm-hotpath.aggregate.parallelism", defaultValue = "0")
+  private int parallelism;
+
+  @Parameter(property = "jvm-hotpath.skip", defaultValue = "false")
+  private boolean skip;
+
+  @Override
+  public void execute() throws MojoExecutionException {
+    if (skip) {
+      getLog().info("JVM Hotpath is skipped.");
+      return;
+    }
+
+    List<Path> reports = new ArrayList<>();
+    Set<String> sourcePathList = new LinkedHashSet<>();
+    for (MavenProject module : reactorProjects) {
+      File report = moduleReport(module);
+      if (report != null) {
+        reports.add(report.toPath());
+      }
+      if (module.getCompileSourceRoots() != null) {
+        sourcePathList.addAll(module.getCompileSourceRoots());
+      }
+      // Test classes are instrumented too when they are in the instrumented packages.
+      if (module.getTestCompileSourceRoots() != null) {
+        sourcePathList.addAll(module.getTestCompileSourceRoots());
+      }
+    }
+
+    if (reports.isEmpty()) {
+      getLog().warn("No JVM Hotpath module reports found; were the tests run with prepare-agent?");
+      return;
+    }
+
+    int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    try {
+      int files =
+          ReportGenerator.writeAggregateReport(
+              reports,
+              String.join(File.pathSeparator, sourcePathList),
+              output.getAbsolutePath(),
+              threads);
+      getLog()
+          .info(
+              "JVM Hotpath: merged "
+                  + reports.size()
+                  + " module report(s) with "
+                  + files
+                  + " files into "
+                  + output);
+    } catch (IOException e) {
+      throw new MojoExecutionException(
+          "Could not aggregate JVM Hotpath reports: " + e.getMessage(), e);
+    }
+  }
+
+  private File moduleReport(MavenProject module) {
+    File dir = new File(module.getBuild().getDirectory());
+    File snapshot = new File(dir, reportName + ".hps");
+    if (snapshot.isFile()) {
+      return snapshot;
+    }
+    File data = new File(dir, reportName + ".json");
+    if (data.isFile()) {
+      return data;
+    }
+    getLog().debug("No JVM Hotpath report in " + module.getArtifactId());
+    return null;
+  }
+}